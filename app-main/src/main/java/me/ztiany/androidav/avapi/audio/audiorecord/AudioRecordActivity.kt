@@ -16,7 +16,6 @@ class AudioRecordActivity : AppCompatActivity() {
 
     private val audioRecorder by lazy { AudioRecorder() }
 
-    private var pcmPath = ""
     private var wavPath = ""
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -35,14 +34,13 @@ class AudioRecordActivity : AppCompatActivity() {
         binding.audioBtnEnd.setOnClickListener {
             audioRecorder.end()
             binding.audioBtnStart.isEnabled = true
-            ToastUtils.showLong("保存路径 pcm: $pcmPath wav: $wavPath")
+            ToastUtils.showLong("保存路径 wav: $wavPath")
         }
     }
 
     private fun startRecord() {
-        pcmPath = Directory.createSDCardRootAppTimeNamingPath(Directory.AUDIO_FORMAT_PCM).toString()
         wavPath = Directory.createSDCardRootAppTimeNamingPath(Directory.AUDIO_FORMAT_WAV).toString()
-        audioRecorder.init(pcmPath, wavPath)
+        audioRecorder.init(wavPath)
         lifecycleScope.launch {
             withContext(Dispatchers.IO) {
                 audioRecorder.start()
@@ -4,9 +4,11 @@ import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaRecorder
 import androidx.annotation.WorkerThread
-import me.ztiany.lib.avbase.utils.av.PcmWavUtils
+import me.ztiany.lib.avbase.utils.av.WavWriter
+import me.ztiany.lib.avbase.utils.av.getBitsPerSample
+import me.ztiany.lib.avbase.utils.av.getChannelCount
 import timber.log.Timber
-import java.io.FileOutputStream
+import java.io.File
 import java.io.IOException
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -37,16 +39,14 @@ class AudioRecorder {
 
     private val isRecording = AtomicBoolean(false)
 
-    private var pcmPath: String = ""
     private var wavPath: String = ""
 
-    fun init(pcmPath: String, wavPath: String) {
+    fun init(wavPath: String) {
         if (audioRecord != null) {
             Timber.d("AudioRecorder is initialized.")
             return
         }
 
-        this.pcmPath = pcmPath
         this.wavPath = wavPath
         initAudioRecord()
     }
@@ -82,9 +82,11 @@ class AudioRecorder {
     }
 
     private fun doRecord(record: AudioRecord): Boolean {
-        val fileOutputStream = try {
-            FileOutputStream(pcmPath)
-        } catch (e: Exception) {
+        //直接写 wav：先写文件头，结束时回填大小，不需要再把 pcm 文件整体转换一遍。
+        val wavWriter = try {
+            WavWriter(File(wavPath), SAMPLE_RATE_IN_HZ, getChannelCount(CHANNEL_CONFIG), getBitsPerSample(AUDIO_FORMAT))
+        } catch (e: IOException) {
+            Timber.e(e, "WavWriter open")
             return false
         }
 
@@ -99,26 +101,18 @@ class AudioRecorder {
                 break
             }
             try {
-                fileOutputStream.write(byteArray, 0, readSize)
+                wavWriter.write(byteArray, 0, readSize)
             } catch (e: IOException) {
-                Timber.e("FileOutputStream write", e)
+                Timber.e(e, "WavWriter write")
             }
         }
 
         try {
-            fileOutputStream.close()
+            wavWriter.close()
         } catch (e: IOException) {
-            Timber.e("FileOutputStream close", e)
+            Timber.e(e, "WavWriter close")
         }
 
-        PcmWavUtils.pcmToWav(
-            pcmPath,
-            wavPath,
-            SAMPLE_RATE_IN_HZ,
-            CHANNEL_CONFIG,
-            AUDIO_FORMAT
-        )
-
         return true
     }
 
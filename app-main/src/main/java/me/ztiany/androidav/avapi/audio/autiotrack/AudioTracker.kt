@@ -6,11 +6,16 @@ import android.media.AudioFormat
 import android.media.AudioManager
 import android.media.AudioTrack
 import android.net.Uri
+import android.os.ParcelFileDescriptor
 import androidx.annotation.WorkerThread
-import me.ztiany.lib.avbase.utils.av.PcmWavUtils
+import me.ztiany.lib.avbase.utils.av.WavReader
+import me.ztiany.lib.avbase.utils.av.getAudioEncoding
+import me.ztiany.lib.avbase.utils.av.getChannelOutConfig
+import me.ztiany.lib.avbase.utils.closeSafely
 import timber.log.Timber
 import java.io.File
-import java.io.InputStream
+import java.io.IOException
+import java.nio.ByteBuffer
 import java.util.concurrent.atomic.AtomicBoolean
 
 internal class AudioTracker(private val context: Context) {
@@ -26,65 +31,79 @@ internal class AudioTracker(private val context: Context) {
             return
         }
 
-        val wavInputStream = parseUri(uri)
-        val wavHeader = PcmWavUtils.parseWavFile(wavInputStream, staticMode/*read whole data in static mode*/, true)
-        if (wavHeader == null) {
+        val wavReader = try {
+            openWav(uri)
+        } catch (e: IOException) {
+            Timber.e(e, "openWav")
+            null
+        }
+        if (wavReader == null) {
             isPlaying.set(false)
             return
         }
-        Timber.d("WavHeader: $wavHeader")
+        Timber.d("WavReader: $wavReader")
 
-        if (staticMode) {
-            playAudioInStaticMode(wavHeader)
+        val audioFormat = try {
+            AudioFormat.Builder()
+                .setSampleRate(wavReader.sampleRate)
+                .setEncoding(getEncoding(wavReader))
+                .setChannelMask(getChannelOutConfig(wavReader.channelCount))
+                .build()
+        } catch (e: IllegalArgumentException) {
+            Timber.e(e, "unsupported wav format")
+            wavReader.closeSafely()
+            isPlaying.set(false)
+            return
+        }
+
+        if (staticMode && wavReader.dataSize > Int.MAX_VALUE) {
+            //超过 2GB 的 data chunk 是分窗口映射的，无法一次写入 static 模式的 AudioTrack。
+            Timber.w("data size ${wavReader.dataSize} is too large for static mode, fallback to stream mode.")
+            playAudioInStreamMode(wavReader, audioFormat)
+        } else if (staticMode) {
+            playAudioInStaticMode(wavReader, audioFormat)
         } else {
-            playAudioInStreamMode(uri, wavHeader)
+            playAudioInStreamMode(wavReader, audioFormat)
         }
     }
 
-    private fun playAudioInStaticMode(wavFile: PcmWavUtils.WavFile) {
+    private fun playAudioInStaticMode(wavReader: WavReader, audioFormat: AudioFormat) {
         val audioTrack = AudioTrack(
             AudioAttributes.Builder()
                 .setUsage(AudioAttributes.USAGE_MEDIA)
                 .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
                 .build(),
-            AudioFormat.Builder()
-                .setSampleRate(wavFile.sampleRate)
-                .setEncoding(wavFile.audioEncoding)
-                .setChannelMask(wavFile.channelConfig)
-                .build(),
-            wavFile.audioLength,
+            audioFormat,
+            wavReader.dataSize.toInt(),
             AudioTrack.MODE_STATIC,
             AudioManager.AUDIO_SESSION_ID_GENERATE
         )
 
         this.audioTrack = audioTrack
 
-        wavFile.audioData?.let {
-            val result = audioTrack.write(it, 0, it.size)
-            if (result < 0) {
-                Timber.e("playAudioInStaticMode: ${getErrorMessage(result)}")
-                stop()
-                return
-            }
-
-            audioTrack.play()
-            //don't call stop after play() is called.
+        //直接从映射的 data chunk 写入，不需要把整个文件读到堆里。
+        val data = wavReader.data
+        val result = audioTrack.write(data, data.remaining(), AudioTrack.WRITE_BLOCKING)
+        wavReader.closeSafely()
+        if (result < 0) {
+            Timber.e("playAudioInStaticMode: ${getErrorMessage(result)}")
+            stop()
+            return
         }
+
+        audioTrack.play()
+        //don't call stop after play() is called.
     }
 
-    private fun playAudioInStreamMode(uri: Uri, wavFile: PcmWavUtils.WavFile) {
-        val minBufferSize = AudioTrack.getMinBufferSize(wavFile.sampleRate, wavFile.channelConfig, wavFile.audioEncoding)
+    private fun playAudioInStreamMode(wavReader: WavReader, audioFormat: AudioFormat) {
+        val minBufferSize = AudioTrack.getMinBufferSize(audioFormat.sampleRate, audioFormat.channelMask, audioFormat.encoding)
 
         val audioTrack = AudioTrack(
             AudioAttributes.Builder()
                 .setUsage(AudioAttributes.USAGE_MEDIA)
                 .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
                 .build(),
-            AudioFormat.Builder()
-                .setSampleRate(wavFile.sampleRate)
-                .setEncoding(wavFile.audioEncoding)
-                .setChannelMask(wavFile.channelConfig)
-                .build(),
+            audioFormat,
             minBufferSize,
             AudioTrack.MODE_STREAM,
             AudioManager.AUDIO_SESSION_ID_GENERATE
@@ -92,43 +111,51 @@ internal class AudioTracker(private val context: Context) {
 
         this.audioTrack = audioTrack
 
-        val inputStream = parseUri(uri)
-        if (inputStream == null) {
-            isPlaying.set(false)
-            return
-        }
-
         audioTrack.play()
-        val buffer = ByteArray(minBufferSize)
+        //write(ByteArray) 只支持 8/16 位 PCM，ENCODING_PCM_FLOAT 等编码需要使用 ByteBuffer。
+        val buffer = ByteBuffer.allocateDirect(minBufferSize)
         var sizeRead: Int
         while (isPlaying.get()) {
-            sizeRead = inputStream.read(buffer)
+            buffer.clear()
+            sizeRead = wavReader.read(buffer)
             if (sizeRead <= 0) {
                 break
             }
-            val result = audioTrack.write(buffer, 0, sizeRead)
+            buffer.flip()
+            val result = audioTrack.write(buffer, sizeRead, AudioTrack.WRITE_BLOCKING)
             if (result < 0) {
                 Timber.e("playAudioInStreamMode: ${getErrorMessage(result)}")
                 break
             }
         }
 
+        wavReader.closeSafely()
         stop()
     }
 
-    private fun parseUri(uri: Uri): InputStream? {
+    private fun openWav(uri: Uri): WavReader? {
         return if (uri.toString().startsWith("content://")) {
-            context.contentResolver.openInputStream(uri)
+            val descriptor = context.contentResolver.openFileDescriptor(uri, "r") ?: return null
+            //FileInputStream 关闭时会一起关闭 ParcelFileDescriptor 中的文件描述符。
+            WavReader(ParcelFileDescriptor.AutoCloseInputStream(descriptor).channel)
         } else {
             val path = uri.path
             if (path.isNullOrEmpty()) {
                 null
             } else {
-                File(path).inputStream()
+                WavReader(File(path))
             }
         }
     }
 
+    private fun getEncoding(wavReader: WavReader): Int {
+        return if (wavReader.format == WavReader.FORMAT_IEEE_FLOAT) {
+            if (wavReader.bitsPerSample == 32) AudioFormat.ENCODING_PCM_FLOAT else throw IllegalArgumentException("64-bit float")
+        } else {
+            getAudioEncoding(wavReader.bitsPerSample)
+        }
+    }
+
     fun stop() {
         if (isPlaying.compareAndSet(true, false)) {
             isPlaying.set(false)
@@ -0,0 +1,174 @@
+package me.ztiany.androidav.avapi.audio.mixing;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import me.ztiany.lib.avbase.utils.av.PcmConverter;
+import me.ztiany.lib.avbase.utils.av.PcmQueue;
+import me.ztiany.lib.avbase.utils.av.Resampler;
+import timber.log.Timber;
+
+/**
+ * 解码媒体文件中 [startTimeUs, endTimeUs] 范围内的音频，并通过 {@link PcmConverter} 统一转换为指定的采样率、声道数后交给 sink。
+ * <p>
+ * 每次调用 {@link #step()} 最多送入一个压缩帧并取出当前可用的所有输出，调用方可以在两次调用之间等待下游消费。
+ * </p>
+ */
+class AudioTrackDecoder implements PcmQueue.Producer {
+
+    private static final int TIMEOUT = 1000;
+
+    private final String path;
+    private final long startTimeUs;
+    private final long endTimeUs;
+    private final int outputSampleRate;
+    private final int outputChannelCount;
+    private final PcmConverter.Sink sink;
+
+    private MediaExtractor mediaExtractor;
+    private MediaCodec mediaCodec;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    private PcmConverter converter;
+    private boolean floatOutput;
+
+    private boolean inputDone;
+    private boolean outputDone;
+
+    AudioTrackDecoder(String path, long startTimeUs, long endTimeUs, int outputSampleRate, int outputChannelCount, PcmConverter.Sink sink) {
+        this.path = path;
+        this.startTimeUs = startTimeUs;
+        this.endTimeUs = endTimeUs;
+        this.outputSampleRate = outputSampleRate;
+        this.outputChannelCount = outputChannelCount;
+        this.sink = sink;
+    }
+
+    @Override
+    public void start() throws IOException {
+        mediaExtractor = new MediaExtractor();
+        mediaExtractor.setDataSource(path);
+        int audioTrack = VideoAudioMixing.selectTrack(mediaExtractor, true);
+        mediaExtractor.selectTrack(audioTrack);
+        mediaExtractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        MediaFormat audioFormat = mediaExtractor.getTrackFormat(audioTrack);
+
+        mediaCodec = MediaCodec.createDecoderByType(audioFormat.getString((MediaFormat.KEY_MIME)));
+        mediaCodec.configure(audioFormat, null, null, 0);
+        mediaCodec.start();
+    }
+
+    /**
+     * @return 是否还有数据需要解码。
+     */
+    @Override
+    public boolean step() throws IOException {
+        if (outputDone) {
+            return false;
+        }
+        if (!inputDone) {
+            feedInput();
+        }
+        drainOutput();
+        return !outputDone;
+    }
+
+    @Override
+    public void release() {
+        if (mediaCodec != null) {
+            try {
+                mediaCodec.stop();
+            } catch (Exception e) {
+                Timber.e(e, "release");
+            }
+            mediaCodec.release();
+            mediaCodec = null;
+        }
+        if (mediaExtractor != null) {
+            mediaExtractor.release();
+            mediaExtractor = null;
+        }
+    }
+
+    private void feedInput() {
+        int decodeInputIndex = mediaCodec.dequeueInputBuffer(TIMEOUT);
+        if (decodeInputIndex < 0) {
+            return;
+        }
+
+        while (true) {
+            long sampleTimeUs = mediaExtractor.getSampleTime();
+            if (sampleTimeUs == -1 || sampleTimeUs > endTimeUs) {
+                //输入结束，让解码器把剩余的数据输出。
+                mediaCodec.queueInputBuffer(decodeInputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                inputDone = true;
+                return;
+            } else if (sampleTimeUs < startTimeUs) {
+                mediaExtractor.advance();
+                continue;
+            }
+
+            //直接读入解码器的输入缓冲区，不经过中间数组。
+            ByteBuffer inputBuffer = mediaCodec.getInputBuffer(decodeInputIndex);
+            inputBuffer.clear();
+            int size = mediaExtractor.readSampleData(inputBuffer, 0);
+            if (size < 0) {
+                mediaCodec.queueInputBuffer(decodeInputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                inputDone = true;
+                return;
+            }
+            mediaCodec.queueInputBuffer(decodeInputIndex, 0, size, sampleTimeUs, mediaExtractor.getSampleFlags());
+            mediaExtractor.advance();
+            return;
+        }
+    }
+
+    private void drainOutput() throws IOException {
+        int outputBufferIndex = mediaCodec.dequeueOutputBuffer(info, TIMEOUT);
+        while (outputBufferIndex >= 0 || outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                //以解码器实际输出的格式为准，容器中记录的采样率、声道数不一定可靠。
+                if (converter != null) {
+                    converter.flush(sink);
+                }
+                createConverter(mediaCodec.getOutputFormat());
+            } else {
+                if (converter == null) {
+                    createConverter(mediaCodec.getOutputFormat());
+                }
+                ByteBuffer decodeOutputBuffer = mediaCodec.getOutputBuffer(outputBufferIndex);
+                decodeOutputBuffer.position(info.offset);
+                decodeOutputBuffer.limit(info.offset + info.size);
+                if (floatOutput) {
+                    converter.convertFloat(decodeOutputBuffer, sink);
+                } else {
+                    converter.convert(decodeOutputBuffer, sink);
+                }
+                mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    converter.flush(sink);
+                    outputDone = true;
+                    return;
+                }
+            }
+            outputBufferIndex = mediaCodec.dequeueOutputBuffer(info, TIMEOUT);
+        }
+    }
+
+    private void createConverter(MediaFormat outputFormat) {
+        int sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        floatOutput = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                && outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+        Timber.d("%s decoder output: sampleRate = %d, channelCount = %d, float = %b", path, sampleRate, channelCount, floatOutput);
+        converter = new PcmConverter(sampleRate, channelCount, outputSampleRate, outputChannelCount, Resampler.QUALITY_HIGH);
+    }
+
+}
@@ -1,126 +0,0 @@
-package me.ztiany.androidav.avapi.audio.mixing;
-
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-
-public class PcmToWavUtil {
-
-    private final int mBufferSize;
-    private int mSampleRate;
-    private int mChannelConfig = AudioFormat.CHANNEL_IN_STEREO;
-    private int mChannelCount = 2;
-    private int mEncoding = AudioFormat.ENCODING_PCM_16BIT;
-
-    /**
-     * @param sampleRate    sample rate【采样率】
-     * @param channelConfig channel【声道】
-     * @param channelCount  声道数
-     * @param encoding      audio data format【位深度】
-     */
-    public PcmToWavUtil(int sampleRate, int channelConfig, int channelCount, int encoding) {
-        this.mSampleRate = sampleRate;
-        this.mChannelConfig = channelConfig;
-        this.mChannelCount = channelCount;
-        this.mEncoding = encoding;
-        this.mBufferSize = AudioRecord.getMinBufferSize(mSampleRate, mChannelConfig, mEncoding);
-    }
-
-    /**
-     * pcm 文件转 wav 文件。
-     *
-     * @param inFilename  源文件路径
-     * @param outFilename 目标文件路径
-     */
-    public void pcmToWav(String inFilename, String outFilename) {
-        FileInputStream in;
-        FileOutputStream out;
-
-        long totalAudioLen;
-        long totalDataLen;
-        long longSampleRate = mSampleRate;
-        int channels = mChannelCount;
-        long byteRate = 16L * mSampleRate * channels / 8;
-        byte[] data = new byte[mBufferSize];
-
-        try {
-            in = new FileInputStream(inFilename);
-            out = new FileOutputStream(outFilename);
-            totalAudioLen = in.getChannel().size();
-            totalDataLen = totalAudioLen + 36;
-            writeWaveFileHeader(out, totalAudioLen, totalDataLen, longSampleRate, channels, byteRate);
-            while (in.read(data) != -1) {
-                out.write(data);
-            }
-            in.close();
-            out.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * 加入wav文件头
-     */
-    private void writeWaveFileHeader(
-            FileOutputStream out,
-            long totalAudioLen,
-            long totalDataLen,
-            long longSampleRate,
-            int channels,
-            long byteRate
-    ) throws IOException {
-
-        byte[] header = new byte[44];
-        header[0] = 'R'; // RIFF/WAVE header
-        header[1] = 'I';
-        header[2] = 'F';
-        header[3] = 'F';
-        header[4] = (byte) (totalDataLen & 0xff);
-        header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-        header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-        header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-        header[8] = 'W';  //WAVE
-        header[9] = 'A';
-        header[10] = 'V';
-        header[11] = 'E';
-        header[12] = 'f'; // 'fmt ' chunk
-        header[13] = 'm';
-        header[14] = 't';
-        header[15] = ' ';
-        header[16] = 16;  // 4 bytes: size of 'fmt ' chunk
-        header[17] = 0;
-        header[18] = 0;
-        header[19] = 0;
-        header[20] = 1;   // format = 1
-        header[21] = 0;
-        header[22] = (byte) channels;
-        header[23] = 0;
-        header[24] = (byte) (longSampleRate & 0xff);
-        header[25] = (byte) ((longSampleRate >> 8) & 0xff);
-        header[26] = (byte) ((longSampleRate >> 16) & 0xff);
-        header[27] = (byte) ((longSampleRate >> 24) & 0xff);
-        header[28] = (byte) (byteRate & 0xff);
-        header[29] = (byte) ((byteRate >> 8) & 0xff);
-        header[30] = (byte) ((byteRate >> 16) & 0xff);
-        header[31] = (byte) ((byteRate >> 24) & 0xff);
-        header[32] = (byte) (2 * 16 / 8); // block align
-        header[33] = 0;
-        header[34] = 16;  // bits per sample
-        header[35] = 0;
-        header[36] = 'd'; //data
-        header[37] = 'a';
-        header[38] = 't';
-        header[39] = 'a';
-        header[40] = (byte) (totalAudioLen & 0xff);
-        header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-        header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-        header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-        out.write(header, 0, 44);
-
-    }
-
-}
\ No newline at end of file
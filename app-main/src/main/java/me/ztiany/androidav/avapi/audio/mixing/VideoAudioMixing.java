@@ -1,6 +1,5 @@
 package me.ztiany.androidav.avapi.audio.mixing;
 
-import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaExtractor;
@@ -8,20 +7,41 @@ import android.media.MediaFormat;
 import android.media.MediaMetadataRetriever;
 import android.media.MediaMuxer;
 
+import com.blankj.utilcode.util.Utils;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 
 import me.ztiany.lib.avbase.utils.Directory;
+import me.ztiany.lib.avbase.utils.IOUtils;
+import me.ztiany.lib.avbase.utils.av.AudioMixer;
+import me.ztiany.lib.avbase.utils.av.PcmConverter;
+import me.ztiany.lib.avbase.utils.av.PcmQueue;
+import me.ztiany.lib.avbase.utils.av.PcmQueueMixer;
+import me.ztiany.lib.avbase.utils.av.WavWriter;
 import timber.log.Timber;
 
 public class VideoAudioMixing {
 
     private static final int TIMEOUT = 1000;
 
+    /** 混音时每次处理的帧数。 */
+    private static final int MIX_BLOCK_FRAMES = 16 * 1024;
+
+    /** 解码出的 PCM 统一转换为该格式后再混音、编码。 */
+    private static final int MIX_SAMPLE_RATE = 44100;
+    private static final int MIX_CHANNEL_COUNT = 2;
+
+    /** 解码结果在内存中的默认缓存上限。 */
+    private static final long DEFAULT_MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    private static final int DEFAULT_AUDIO_BITRATE = 128_000;
+
     /**
      * @param startTimeUs 微妙
      * @param endTimeUs   微妙
@@ -37,24 +57,77 @@ public class VideoAudioMixing {
             int videoVolume,
             int bgVolume
     ) throws Exception {
-        //定义输出文件
-        File bgPCM = Directory.createSDCardRootAppPath("bg.pcm");
-        File videoPCM = Directory.createSDCardRootAppPath("video.pcm");
-        File mixedPCM = Directory.createSDCardRootAppPath("mixed.pcm");
-        File mixedWAV = Directory.createSDCardRootAppPath("mixed.wav");
+        mixAudioTrack(videoInput, bgAudioInput, output, startTimeUs, endTimeUs, videoVolume, bgVolume, DEFAULT_MEMORY_BUDGET_BYTES);
+    }
 
+    /**
+     * 解码 → 重采样 → 混音 → 编码 → 混流，各阶段之间通过 {@link PcmQueue} 在内存中流转，不再生成中间的 pcm/wav 文件。
+     * 各输入在单独的线程中并发解码，混音、编码、混流在调用线程中进行。
+     *
+     * @param memoryBudgetBytes 解码结果在内存中最多缓存的字节数（所有输入共享），超过后溢出到磁盘。
+     */
+    public static void mixAudioTrack(
+            final String videoInput,
+            final String bgAudioInput,
+            final String output,
+            final int startTimeUs,
+            final int endTimeUs,
+            int videoVolume,
+            int bgVolume,
+            long memoryBudgetBytes
+    ) throws Exception {
         //TODO: 根据媒体时长调整时间。
         adjustStartAndEnd(videoInput, bgAudioInput, startTimeUs, endTimeUs);
 
-        //extra pcm, than we has two pcm files which have the same duration.
-        decodeToPCM(videoInput, videoPCM.getAbsolutePath(), startTimeUs, endTimeUs);
-        decodeToPCM(bgAudioInput, bgPCM.getAbsolutePath(), startTimeUs, endTimeUs);
-        //mix pcm
-        mixPcm(videoPCM.getAbsolutePath(), bgPCM.getAbsolutePath(), mixedPCM.getAbsolutePath(), videoVolume, bgVolume);
-        //pcm -> wav
-        new PcmToWavUtil(44100, AudioFormat.CHANNEL_IN_STEREO, 2, AudioFormat.ENCODING_PCM_16BIT).pcmToWav(mixedPCM.getAbsolutePath(), mixedWAV.getAbsolutePath());
-        //mix video and wav
-        mixVideoAndMusic(videoInput, output, startTimeUs, endTimeUs, mixedWAV);
+        final String[] inputs = {videoInput, bgAudioInput};
+        //缓存达到预算的一半时暂停解码，等待混音追上来；至少要能放下两个混音块，否则混音会等不到数据。
+        final long highWaterFrames = Math.max(2L * MIX_BLOCK_FRAMES, memoryBudgetBytes / 2 / 2 / (MIX_CHANNEL_COUNT * 2));
+
+        //每次混音使用各自的溢出文件，同时进行的多个混音不会互相覆盖。
+        final File[] spillFiles = new File[inputs.length];
+        final PcmQueue[] queues = new PcmQueue[inputs.length];
+        Thread[] decodeThreads = null;
+        try {
+            for (int i = 0; i < inputs.length; i++) {
+                spillFiles[i] = File.createTempFile("mixing-spill-", Directory.AUDIO_FORMAT_PCM, Utils.getApp().getCacheDir());
+                queues[i] = new PcmQueue(MIX_CHANNEL_COUNT, memoryBudgetBytes / 2, spillFiles[i]);
+            }
+            decodeThreads = startDecoding(inputs, queues, startTimeUs, endTimeUs, highWaterFrames);
+            mixVideoAndMusic(videoInput, output, startTimeUs, endTimeUs, queues, new int[]{videoVolume, bgVolume});
+        } finally {
+            for (PcmQueue queue : queues) {
+                if (queue != null) {
+                    Timber.d("spilled %d bytes", queue.getSpilledBytes());
+                    queue.close();
+                }
+            }
+            if (decodeThreads != null) {
+                for (Thread decodeThread : decodeThreads) {
+                    decodeThread.interrupt();
+                    decodeThread.join();
+                }
+            }
+            //没有溢出时 PcmQueue 不会打开（也就不会删除）溢出文件。
+            for (File spillFile : spillFiles) {
+                if (spillFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    spillFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个输入在各自的线程中解码，总耗时接近最慢的那个输入而不是所有输入之和。
+     * 某个输入缓存达到 highWaterFrames 时，它的线程暂停，等待混音追上来。
+     */
+    private static Thread[] startDecoding(String[] inputs, PcmQueue[] queues, long startTimeUs, long endTimeUs, long highWaterFrames) {
+        Thread[] threads = new Thread[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            AudioTrackDecoder decoder = new AudioTrackDecoder(inputs[i], startTimeUs, endTimeUs, MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT, queues[i]);
+            threads[i] = queues[i].startProducer(decoder, highWaterFrames, "mixing-decoder-" + i);
+        }
+        return threads;
     }
 
     private static void adjustStartAndEnd(String videoInput, String bgAudioInput, int startTimeUs, int endTimeUs) throws IOException {
@@ -74,138 +147,136 @@ public class VideoAudioMixing {
         Timber.d("cuttingDurationMs = %d", cuttingDurationMs);
     }
 
-    private static void mixVideoAndMusic(String videoInput, String output, int startTimeUs, int endTimeUs, File wavFile) throws IOException {
+    private static void mixVideoAndMusic(String videoInput, String output, int startTimeUs, int endTimeUs, PcmQueue[] queues, int[] volumes) throws IOException {
         //媒体提取器，获取视频信息
         MediaExtractor videoExtractor = new MediaExtractor();
-        videoExtractor.setDataSource(videoInput);
-        //获取频中的视频信息
-        int videoIndex = selectTrack(videoExtractor, false);
-        MediaFormat videoFormat = videoExtractor.getTrackFormat(videoIndex);
-        //获取视频中的音频信息
-        int audioIndex = selectTrack(videoExtractor, true);
-        MediaFormat audioFormat = videoExtractor.getTrackFormat(audioIndex);
-        int audioBitrate = audioFormat.getInteger(MediaFormat.KEY_BIT_RATE);//用于后续 AAC 编码
-        audioFormat.setString(MediaFormat.KEY_MIME, MediaFormat.MIMETYPE_AUDIO_AAC);//确保输出的是 AAC
-
-
-        //创建并配置混流器
-        MediaMuxer mediaMuxer = new MediaMuxer(output, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        //添加一个视频轨【使用原来的格式】
-        int muxerVideoIndex = mediaMuxer.addTrack(videoFormat);
-        //添加一个音频轨【使用原来的信息】
-        int muxerAudioIndex = mediaMuxer.addTrack(audioFormat);
-        //开启混流器
-        mediaMuxer.start();
-
-
-        //------------------------------------------------ 开始混入音频 ------------------------------------------------
-        //待混入音频的 MediaExtractor
-        MediaExtractor wavExtractor = new MediaExtractor();
-        wavExtractor.setDataSource(wavFile.getAbsolutePath());
-        int audioTrack = selectTrack(wavExtractor, true);
-        wavExtractor.selectTrack(audioTrack);
-        MediaFormat wavFormat = wavExtractor.getTrackFormat(audioTrack);
-
-        int maxBufferSize;
-        if (audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
-            maxBufferSize = wavFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
-        } else {
-            maxBufferSize = 100 * 1000;
-        }
-
-        MediaFormat encodeFormat = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, 44100, 2);
-        encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, audioBitrate);//比特率
-        encodeFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);//音质等级
-        encodeFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxBufferSize);
-
-        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
-        encoder.configure(encodeFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        encoder.start();
-
-        ByteBuffer buffer = ByteBuffer.allocateDirect(maxBufferSize);
-        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-
-        boolean encodeDone = false;
-        while (!encodeDone) {
-            int inputBufferIndex = encoder.dequeueInputBuffer(10000);
-            if (inputBufferIndex >= 0) {
-                long sampleTime = wavExtractor.getSampleTime();
-                if (sampleTime < 0) {
-                    encoder.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                } else {
-                    int flags = wavExtractor.getSampleFlags();
-                    int size = wavExtractor.readSampleData(buffer, 0);
-                    ByteBuffer inputBuffer = encoder.getInputBuffer(inputBufferIndex);
-                    inputBuffer.clear();
-                    inputBuffer.put(buffer);
-                    inputBuffer.position(0);
-                    encoder.queueInputBuffer(inputBufferIndex, 0, size, sampleTime, flags);
-                    wavExtractor.advance();
-                }
+        MediaMuxer mediaMuxer = null;
+        MediaCodec encoder = null;
+        try {
+            videoExtractor.setDataSource(videoInput);
+            //获取频中的视频信息
+            int videoIndex = selectTrack(videoExtractor, false);
+            MediaFormat videoFormat = videoExtractor.getTrackFormat(videoIndex);
+            //获取视频中的音频信息，比特率用于后续 AAC 编码
+            int audioIndex = selectTrack(videoExtractor, true);
+            MediaFormat audioFormat = videoExtractor.getTrackFormat(audioIndex);
+            int audioBitrate = audioFormat.containsKey(MediaFormat.KEY_BIT_RATE) ? audioFormat.getInteger(MediaFormat.KEY_BIT_RATE) : DEFAULT_AUDIO_BITRATE;
+
+            //创建并配置混流器
+            mediaMuxer = new MediaMuxer(output, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            //添加一个视频轨【使用原来的格式】
+            int muxerVideoIndex = mediaMuxer.addTrack(videoFormat);
+            //音频轨要等编码器输出格式（包含 csd-0）确定后再添加，之后才能开启混流器
+            int muxerAudioIndex = -1;
+
+
+            //------------------------------------------------ 开始混入音频 ------------------------------------------------
+            final int frameSize = MIX_CHANNEL_COUNT * 2;
+            MediaFormat encodeFormat = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT);
+            encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, audioBitrate);//比特率
+            encodeFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);//音质等级
+            encodeFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MIX_BLOCK_FRAMES * frameSize);
+
+            encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            encoder.configure(encodeFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+
+            float[] gains = new float[volumes.length];
+            for (int i = 0; i < volumes.length; i++) {
+                gains[i] = normalizeVolume(volumes[i]);
             }
+            PcmQueueMixer mixedSource = new PcmQueueMixer(queues, gains, MIX_BLOCK_FRAMES);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long encodedFrames = 0;
+
+            boolean inputDone = false;
+            boolean encodeDone = false;
+            while (!encodeDone) {
+                if (!inputDone) {
+                    int inputBufferIndex = encoder.dequeueInputBuffer(10000);
+                    if (inputBufferIndex >= 0) {
+                        ByteBuffer inputBuffer = encoder.getInputBuffer(inputBufferIndex);
+                        inputBuffer.clear();
+                        int size = mixedSource.read(inputBuffer);
+                        long presentationTimeUs = encodedFrames * 1000_000L / MIX_SAMPLE_RATE;
+                        if (size <= 0) {
+                            encoder.queueInputBuffer(inputBufferIndex, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            encoder.queueInputBuffer(inputBufferIndex, 0, size, presentationTimeUs, 0);
+                            encodedFrames += size / frameSize;
+                        }
+                    }
+                }
 
-            //获取编码完的数据
-            int outputBufferIndex = encoder.dequeueOutputBuffer(info, TIMEOUT);
-            while (outputBufferIndex >= 0) {
-                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    encodeDone = true;
-                    break;
+                //获取编码完的数据
+                int outputBufferIndex = encoder.dequeueOutputBuffer(info, TIMEOUT);
+                while (outputBufferIndex >= 0 || outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        muxerAudioIndex = mediaMuxer.addTrack(encoder.getOutputFormat());
+                        mediaMuxer.start();
+                    } else {
+                        ByteBuffer encodeOutputBuffer = encoder.getOutputBuffer(outputBufferIndex);
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                            mediaMuxer.writeSampleData(muxerAudioIndex, encodeOutputBuffer, info);
+                        }
+                        encoder.releaseOutputBuffer(outputBufferIndex, false);
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            encodeDone = true;
+                            break;
+                        }
+                    }
+                    outputBufferIndex = encoder.dequeueOutputBuffer(info, TIMEOUT);
                 }
-                ByteBuffer encodeOutputBuffer = encoder.getOutputBuffer(outputBufferIndex);
-                mediaMuxer.writeSampleData(muxerAudioIndex, encodeOutputBuffer, info);
-                encodeOutputBuffer.clear();
-                encoder.releaseOutputBuffer(outputBufferIndex, false);
-                outputBufferIndex = encoder.dequeueOutputBuffer(info, TIMEOUT);
             }
-        }
+            //------------------------------------------------ 混入音频完毕 ------------------------------------------------
 
-        if (audioTrack >= 0) {
-            videoExtractor.unselectTrack(audioTrack);
-        }
-        //------------------------------------------------ 混入音频完毕 ------------------------------------------------
 
+            //------------------------------------------------ 开始混入视频 ------------------------------------------------
+            //开始添加视频
+            videoExtractor.selectTrack(videoIndex);
+            videoExtractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            int maxBufferSize = videoFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(maxBufferSize);
 
-        //------------------------------------------------ 开始混入视频 ------------------------------------------------
-        //开始添加视频
-        videoExtractor.selectTrack(videoIndex);
-        videoExtractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
-        maxBufferSize = videoFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
-        buffer = ByteBuffer.allocateDirect(maxBufferSize);
+            //封装容器添加视频轨道信息
+            while (true) {
+                long sampleTimeUs = videoExtractor.getSampleTime();
+                if (sampleTimeUs == -1) {
+                    break;
+                }
+                if (sampleTimeUs < startTimeUs) {
+                    videoExtractor.advance();
+                    continue;
+                }
+                if (sampleTimeUs > endTimeUs) {
+                    break;
+                }
 
-        //封装容器添加视频轨道信息
-        while (true) {
-            long sampleTimeUs = videoExtractor.getSampleTime();
-            if (sampleTimeUs == -1) {
-                break;
-            }
-            if (sampleTimeUs < startTimeUs) {
+                //TODO: 为什么加 600？
+                info.presentationTimeUs = sampleTimeUs - startTimeUs + 600;
+                info.flags = videoExtractor.getSampleFlags();
+                info.size = videoExtractor.readSampleData(buffer, 0);
+                if (info.size < 0) {
+                    break;
+                }
+                mediaMuxer.writeSampleData(muxerVideoIndex, buffer, info);
                 videoExtractor.advance();
-                continue;
             }
-            if (sampleTimeUs > endTimeUs) {
-                break;
+            //------------------------------------------------ 混入视频完毕 ------------------------------------------------
+        } finally {
+            videoExtractor.release();
+            if (encoder != null) {
+                encoder.release();
             }
-
-            //TODO: 为什么加 600？
-            info.presentationTimeUs = sampleTimeUs - startTimeUs + 600;
-            info.flags = videoExtractor.getSampleFlags();
-            info.size = videoExtractor.readSampleData(buffer, 0);
-            if (info.size < 0) {
-                break;
+            if (mediaMuxer != null) {
+                try {
+                    mediaMuxer.release();
+                } catch (IllegalStateException e) {
+                    //混流器启动后没有写入任何数据时 stop 会失败。
+                    Timber.e(e, "mixVideoAndMusic");
+                }
             }
-            mediaMuxer.writeSampleData(muxerVideoIndex, buffer, info);
-            videoExtractor.advance();
-        }
-        //------------------------------------------------ 混入视频完毕 ------------------------------------------------
-
-        try {
-            wavExtractor.release();
-            videoExtractor.release();
-            encoder.stop();
-            encoder.release();
-            mediaMuxer.release();
-        } catch (Exception e) {
-            Timber.e(e, "mixVideoAndMusic");
         }
     }
 
@@ -214,122 +285,119 @@ public class VideoAudioMixing {
     }
 
     /**
-     * 混音：线性叠加平均算法。
+     * 混音：结果写为 44100Hz、双声道、16 位的 wav 文件。
      */
     public static void mixPcm(String pcm1Path, String pcm2Path, String toPath, int vol1, int vol2) throws IOException {
-        float volume1 = normalizeVolume(vol1);
-        float volume2 = normalizeVolume(vol2);
-
-        byte[] pcm1Buffer = new byte[2048];
-        byte[] pcm2Buffer = new byte[2048];
-        byte[] outputBuffer = new byte[2048];
-
-        boolean end1 = false, end2 = false;
-        short temp2, temp1;
-        int temp;
-
-        try (
-                FileInputStream pcm1InputStream = new FileInputStream(pcm1Path);
-                FileInputStream pcm2InputStream = new FileInputStream(pcm2Path);
-                FileOutputStream pcmOutputStream = new FileOutputStream(toPath)
-        ) {
-            while (!end1 || !end2) {
-                if (!end1) {
-                    end1 = (pcm1InputStream.read(pcm1Buffer) == -1);
-                    System.arraycopy(pcm1Buffer, 0, outputBuffer, 0, pcm1Buffer.length);//如果两个声音不一样长，那么保留第一个声音。
-                }
-                if (!end2) {
-                    end2 = (pcm2InputStream.read(pcm2Buffer) == -1);
-
-                    for (int i = 0; i < pcm2Buffer.length; i += 2) {
-                        //组合声音
-                        temp1 = (short) ((pcm1Buffer[i] & 0xff) | (pcm1Buffer[i + 1] & 0xff) << 8);//声音 1 的值，两个字节
-                        temp2 = (short) ((pcm2Buffer[i] & 0xff) | (pcm2Buffer[i + 1] & 0xff) << 8);//声音 1 的值，两个字节
-                        temp = (int) (temp2 * volume2 + temp1 * volume1);
-
-                        //防止超出
-                        if (temp > 32767) {
-                            temp = 32767;
-                        } else if (temp < -32768) {
-                            temp = -32768;
-                        }
+        mixPcm(new String[]{pcm1Path, pcm2Path}, new int[]{vol1, vol2}, toPath);
+    }
+
+    /**
+     * 混音：按块读取多个 44100Hz、双声道、16 位的 pcm 文件，经 {@link AudioMixer} 叠加、软限幅后写为 wav 文件。
+     * 输出的长度以最长的输入为准，较短的输入结束后按静音处理。
+     *
+     * @param volumes 0-100
+     */
+    public static void mixPcm(String[] pcmPaths, int[] volumes, String toPath) throws IOException {
+        final int trackCount = pcmPaths.length;
+        final int channelCount = MIX_CHANNEL_COUNT;
+        final int frameSize = channelCount * 2;
+
+        final AudioMixer mixer = new AudioMixer(channelCount, trackCount);
+        final FileChannel[] inputs = new FileChannel[trackCount];
+        final ByteBuffer[] readBuffers = new ByteBuffer[trackCount];
+        final short[][] samples = new short[trackCount][MIX_BLOCK_FRAMES * channelCount];
+        final int[] frames = new int[trackCount];
+        final boolean[] ended = new boolean[trackCount];
+        final short[] output = new short[MIX_BLOCK_FRAMES * channelCount];
+
+        try (WavWriter wavWriter = new WavWriter(new File(toPath), MIX_SAMPLE_RATE, channelCount, 16)) {
+            for (int i = 0; i < trackCount; i++) {
+                inputs[i] = new FileInputStream(pcmPaths[i]).getChannel();
+                readBuffers[i] = ByteBuffer.allocateDirect(MIX_BLOCK_FRAMES * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+                mixer.setGain(i, normalizeVolume(volumes[i]));
+            }
 
-                        outputBuffer[i] = (byte) (temp & 0xFF);
-                        outputBuffer[i + 1] = (byte) ((temp >>> 8) & 0xFF);
+            while (true) {
+                int blockFrames = 0;
+                for (int i = 0; i < trackCount; i++) {
+                    frames[i] = 0;
+                    if (ended[i]) {
+                        continue;
+                    }
+                    //一次读取不一定能读满，直到读满或者读到文件末尾。
+                    final ByteBuffer buffer = readBuffers[i];
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        if (inputs[i].read(buffer) < 0) {
+                            ended[i] = true;
+                            break;
+                        }
                     }
+                    buffer.flip();
+                    frames[i] = buffer.remaining() / frameSize;
+                    buffer.asShortBuffer().get(samples[i], 0, frames[i] * channelCount);
+                    blockFrames = Math.max(blockFrames, frames[i]);
                 }
-
-                pcmOutputStream.write(outputBuffer);
+                if (blockFrames == 0) {
+                    break;
+                }
+                mixer.mix(samples, frames, output, blockFrames);
+                wavWriter.write(output, 0, blockFrames * channelCount);
+            }
+        } finally {
+            for (FileChannel input : inputs) {
+                IOUtils.closeSafely(input);
             }
         }
     }
 
+    /**
+     * 解码为 44100Hz、双声道、16 位的 pcm 文件。
+     */
     public static void decodeToPCM(String musicPath, String outPath, int startTime, int endTime) throws Exception {
         if (endTime < startTime) {
             return;
         }
 
-        MediaExtractor mediaExtractor = new MediaExtractor();
-        mediaExtractor.setDataSource(musicPath);
-        int audioTrack = selectTrack(mediaExtractor, true);
-        mediaExtractor.selectTrack(audioTrack);
-        mediaExtractor.seekTo(startTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-        MediaFormat audioFormat = mediaExtractor.getTrackFormat(audioTrack);
-
-        int maxBufferSize;
-        if (audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
-            maxBufferSize = audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
-        } else {
-            maxBufferSize = 100 * 1000;
+        try (FileChannel writeChannel = new FileOutputStream(outPath).getChannel()) {
+            AudioTrackDecoder decoder = new AudioTrackDecoder(musicPath, startTime, endTime, MIX_SAMPLE_RATE, MIX_CHANNEL_COUNT, new PcmFileSink(writeChannel));
+            try {
+                decoder.start();
+                //noinspection StatementWithEmptyBody
+                while (decoder.step()) {
+                }
+            } finally {
+                decoder.release();
+            }
         }
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(maxBufferSize);
-        MediaCodec mediaCodec = MediaCodec.createDecoderByType(audioFormat.getString((MediaFormat.KEY_MIME)));
-        mediaCodec.configure(audioFormat, null, null, 0);
-        File pcmFile = new File(outPath);
-        FileChannel writeChannel = new FileOutputStream(pcmFile).getChannel();
-        mediaCodec.start();
-        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-        int outputBufferIndex;
-
-        while (true) {
-            int decodeInputIndex = mediaCodec.dequeueInputBuffer(1000);
-            if (decodeInputIndex >= 0) {
-                long sampleTimeUs = mediaExtractor.getSampleTime();
-                if (sampleTimeUs == -1) {
-                    break;
-                } else if (sampleTimeUs < startTime) {
-                    mediaExtractor.advance();
-                    continue;
-                } else if (sampleTimeUs > endTime) {
-                    break;
-                }
+    /**
+     * 把 {@link PcmConverter} 输出的 16 位采样按小端写入文件。
+     */
+    private static class PcmFileSink implements PcmConverter.Sink {
 
-                info.size = mediaExtractor.readSampleData(buffer, 0);
-                info.presentationTimeUs = sampleTimeUs;
-                info.flags = mediaExtractor.getSampleFlags();
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
 
-                byte[] content = new byte[buffer.remaining()];
-                buffer.get(content);
-                ByteBuffer inputBuffer = mediaCodec.getInputBuffer(decodeInputIndex);
-                inputBuffer.put(content);
-                mediaCodec.queueInputBuffer(decodeInputIndex, 0, info.size, info.presentationTimeUs, info.flags);
-                mediaExtractor.advance();
-            }
+        PcmFileSink(FileChannel channel) {
+            this.channel = channel;
+        }
 
-            outputBufferIndex = mediaCodec.dequeueOutputBuffer(info, 1_000);
-            while (outputBufferIndex >= 0) {
-                ByteBuffer decodeOutputBuffer = mediaCodec.getOutputBuffer(outputBufferIndex);
-                writeChannel.write(decodeOutputBuffer);
-                mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
-                outputBufferIndex = mediaCodec.dequeueOutputBuffer(info, 1_000);
+        @Override
+        public void onPcm(short[] samples, int frames) throws IOException {
+            int count = frames * MIX_CHANNEL_COUNT;
+            if (buffer.capacity() < count * 2) {
+                buffer = ByteBuffer.allocateDirect(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.clear();
+            buffer.asShortBuffer().put(samples, 0, count);
+            buffer.limit(count * 2);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
             }
         }
 
-        writeChannel.close();
-        mediaExtractor.release();
-        mediaCodec.stop();
-        mediaCodec.release();
     }
 
     public static int selectTrack(MediaExtractor extractor, boolean audio) {
@@ -11,13 +11,14 @@ import android.view.WindowManager;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.nio.ByteBuffer;
+
 import me.ztiany.androidav.R;
 import me.ztiany.lib.avbase.camera.camera2.Camera2Presenter;
 import me.ztiany.lib.avbase.camera.camera2.Camera2Listener;
 import me.ztiany.lib.avbase.camera.camera2.CameraId;
 import me.ztiany.lib.avbase.camera.camera2.DefaultSizeSelector;
 import me.ztiany.lib.avbase.camera.camera2.FrameReader;
-import me.ztiany.lib.avbase.utils.av.YUVUtils;
 import timber.log.Timber;
 
 public class Camera2EncodingActivity extends AppCompatActivity {
@@ -26,9 +27,6 @@ public class Camera2EncodingActivity extends AppCompatActivity {
 
     private TextureView textureView;
 
-    // 图像帧数据，全局变量避免反复创建，降低gc频率
-    private byte[] nv21;
-
     // 显示的旋转角度
     private int displayOrientation;
 
@@ -67,17 +65,15 @@ public class Camera2EncodingActivity extends AppCompatActivity {
     };
 
     private void showPreview(
-            final byte[] y,
-            final byte[] u,
-            final byte[] v,
-            final Size previewSize,
-            final int stride
+            final ByteBuffer y,
+            final ByteBuffer u,
+            final ByteBuffer v,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final Size previewSize
     ) {
-        if (nv21 == null) {
-            nv21 = new byte[previewSize.getWidth() * previewSize.getHeight() * 3 / 2];
-        }
-        YUVUtils.nv21FromYUVCutToWidth(y, u, v, nv21, stride, previewSize.getWidth(), previewSize.getHeight());
-        mH264Encoder.processCamaraData(nv21, previewSize, stride, displayOrientation, isMirrorPreview, openedCameraId);
+        mH264Encoder.processCamaraData(y, u, v, yRowStride, uvRowStride, uvPixelStride, previewSize, displayOrientation, isMirrorPreview, openedCameraId);
     }
 
     @Override
@@ -101,7 +97,7 @@ public class Camera2EncodingActivity extends AppCompatActivity {
     }
 
     void initCamera() {
-        frameReader.setFrameListener(this::showPreview);
+        frameReader.setPlanesListener(this::showPreview);
 
         camera2Presenter = new Camera2Presenter.Builder()
                 .context(getApplicationContext())
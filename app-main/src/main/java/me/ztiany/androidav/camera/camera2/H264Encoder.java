@@ -11,9 +11,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.LinkedBlockingDeque;
 
+import me.ztiany.androidav.BuildConfig;
 import me.ztiany.lib.avbase.utils.Directory;
 import me.ztiany.lib.avbase.utils.FileUtils;
 import me.ztiany.lib.avbase.utils.IOUtils;
+import me.ztiany.lib.avbase.utils.av.FrameBufferPool;
 import me.ztiany.lib.avbase.utils.av.YUVUtils;
 import timber.log.Timber;
 
@@ -21,12 +23,12 @@ class H264Encoder {
 
     private final LinkedBlockingDeque<byte[]> mLinkedBlockingDeque = new LinkedBlockingDeque<>();
 
+    //待编码的帧在编码完成后回收，稳定运行后不再分配内存。
+    private final FrameBufferPool mFramePool = new FrameBufferPool(32 * 1024 * 1024, BuildConfig.DEBUG);
+
     private volatile MediaCodec mediaCodec;
     private volatile boolean stopped = true;
 
-    private byte[] nv21_rotated;
-    private byte[] nv12;
-
     private int mFrameIndex;
 
     private FileOutputStream mFileOutputStream;
@@ -88,7 +90,12 @@ class H264Encoder {
     }
 
     void stop() {
-        mLinkedBlockingDeque.clear();
+        byte[] pending;
+        while ((pending = mLinkedBlockingDeque.pollFirst()) != null) {
+            mFramePool.recycle(pending);
+        }
+        Timber.d("stop: %s", mFramePool);
+        mFramePool.clear();
         stopped = true;
         if (mediaCodec != null) {
             mediaCodec.stop();
@@ -99,28 +106,33 @@ class H264Encoder {
         mFileOutputStream = null;
         mFileWriter = null;
         mFrameIndex = 0;
-        nv21_rotated = null;
-        nv12 = null;
     }
 
     //todo：适配横屏、前置摄像头
-    void processCamaraData(byte[] nv21, Size previewSize, int stride, int displayOrientation, boolean isMirrorPreview, String openedCameraId) {
-        if (nv21_rotated == null) {
-            nv21_rotated = new byte[previewSize.getWidth() * previewSize.getHeight() * 3 / 2];
-            nv12 = new byte[previewSize.getWidth() * previewSize.getHeight() * 3 / 2];
-        }
-
-        YUVUtils.nv21RotateCW(nv21, nv21_rotated, previewSize.getWidth(), previewSize.getHeight(), 90);
-        YUVUtils.nv12FromNV21(nv21_rotated, nv12);
-
+    void processCamaraData(
+            ByteBuffer y,
+            ByteBuffer u,
+            ByteBuffer v,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            Size previewSize,
+            int displayOrientation,
+            boolean isMirrorPreview,
+            String openedCameraId
+    ) {
         while (mLinkedBlockingDeque.size() > 3) {
-            mLinkedBlockingDeque.removeFirst();
+            byte[] dropped = mLinkedBlockingDeque.pollFirst();
+            if (dropped != null) {
+                mFramePool.recycle(dropped);
+            }
             Timber.w("drop a frame");
         }
 
-        byte[] bytes = new byte[nv12.length];
-        System.arraycopy(nv12, 0, bytes, 0, nv12.length);
-        mLinkedBlockingDeque.add(bytes);
+        // 直接从 Image 平面读取，裁剪、旋转、转 NV12 一次完成，写入待编码的缓冲区。
+        byte[] nv12 = mFramePool.obtain(previewSize.getWidth() * previewSize.getHeight() * 3 / 2);
+        YUVUtils.nv12FromYUV420888(y, u, v, yRowStride, uvRowStride, uvPixelStride, nv12, previewSize.getWidth(), previewSize.getHeight(), 90, false);
+        mLinkedBlockingDeque.add(nv12);
     }
 
     private void startEncoder() {
@@ -131,6 +143,7 @@ class H264Encoder {
                     if (mediaCodec != null) {
                         encode(rawData);
                     }
+                    mFramePool.recycle(rawData);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
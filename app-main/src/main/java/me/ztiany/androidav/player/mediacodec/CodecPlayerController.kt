@@ -17,7 +17,7 @@ class CodecPlayerController(
     private val stateHolder = CodecPlayerStateHolder()
 
     private val mediaDataExtractor: MediaDataExtractor by lazy {
-        MediaDataExtractorImplFixed(context)
+        MediaDataExtractorImplMp4(context)
     }
 
     private var audioDecoder: MediaDataDecoder? = null
@@ -0,0 +1,200 @@
+package me.ztiany.androidav.player.mediacodec
+
+import android.content.Context
+import android.media.MediaFormat
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import me.ztiany.lib.avbase.utils.av.MediaMetadata
+import me.ztiany.lib.avbase.utils.av.Mp4Demuxer
+import me.ztiany.lib.avbase.utils.av.toMediaFormat
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * 基于 [Mp4Demuxer] 的实现：文件只打开、解析一次，音频与视频各自的 reader 共享同一个文件映射，可以在各自的解码线程中读取。
+ * 不是 MP4 的文件、fragmented MP4，以及选中的轨道无法由 [toMediaFormat] 描述（例如 AC-3、MP3）时，交给 [MediaDataExtractorImplFixed] 处理。
+ */
+class MediaDataExtractorImplMp4(
+    private val context: Context
+) : MediaDataExtractor {
+
+    private var demuxer: Mp4Demuxer? = null
+    private var audioReader: Mp4Demuxer.SampleReader? = null
+    private var videoReader: Mp4Demuxer.SampleReader? = null
+
+    private var fallback: MediaDataExtractor? = null
+
+    private lateinit var source: Uri
+
+    private var audioSelector: TrackSelector = AUDIO_SELECTOR
+    private var videoSelector: TrackSelector = VIDEO_SELECTOR
+
+    override fun setSource(source: Uri) {
+        this.source = source
+    }
+
+    override fun setAudioTrackSelector(selector: TrackSelector) {
+        this.audioSelector = selector
+    }
+
+    override fun setVideoTrackSelector(selector: TrackSelector) {
+        this.videoSelector = selector
+    }
+
+    override fun prepare(): MediaInfo {
+        release()
+        if (!::source.isInitialized) {
+            throw IllegalStateException("call setSource first.")
+        }
+
+        val demuxer = try {
+            openDemuxer(source)
+        } catch (e: IOException) {
+            Timber.w(e, "MediaDataExtractorImplMp4 can not demux $source, fallback to MediaExtractor.")
+            return prepareFallback()
+        }
+        this.demuxer = demuxer
+        Timber.d("MediaDataExtractorImplMp4 open: $demuxer")
+
+        if (demuxer.isFragmented) {
+            //sample 在 moof 中，moov 里的 sample 表是空的。
+            Timber.w("MediaDataExtractorImplMp4 does not support fragmented mp4, fallback to MediaExtractor.")
+            return prepareFallback()
+        }
+
+        var audioFormat: MediaFormat? = null
+        var videoFormat: MediaFormat? = null
+        var audioTrack: Mp4Demuxer.Track? = null
+        var videoTrack: Mp4Demuxer.Track? = null
+        for (track in demuxer.tracks) {
+            val format = track.toMediaFormat()
+            //无法描述的轨道用只有 mime 的 format 判断是否会被选中，会被选中时交给 MediaExtractor，而不是静默地跳过。
+            val probe = format ?: probeFormat(track) ?: continue
+            if (videoTrack == null && videoSelector(probe)) {
+                videoTrack = track
+                videoFormat = format
+            } else if (audioTrack == null && audioSelector(probe)) {
+                audioTrack = track
+                audioFormat = format
+            } else {
+                continue
+            }
+            if (format == null) {
+                Timber.w("MediaDataExtractorImplMp4 can not describe $track, fallback to MediaExtractor.")
+                return prepareFallback()
+            }
+        }
+
+        if (videoTrack != null) {
+            videoReader = demuxer.newReader(videoTrack).apply { setAnnexB(true) }
+            Timber.d("MediaDataExtractorImplMp4 select video: $videoTrack and format is $videoFormat.")
+        }
+        if (audioTrack != null) {
+            audioReader = demuxer.newReader(audioTrack)
+            Timber.d("MediaDataExtractorImplMp4 select audio: $audioTrack and format is $audioFormat.")
+        }
+        return MediaInfo(loadMetadata(demuxer, videoTrack), audioFormat, videoFormat)
+    }
+
+    private fun prepareFallback(): MediaInfo {
+        release()
+        return MediaDataExtractorImplFixed(context).run {
+            setSource(source)
+            setAudioTrackSelector(audioSelector)
+            setVideoTrackSelector(videoSelector)
+            fallback = this
+            prepare()
+        }
+    }
+
+    /** 只有 mime 的 format，mime 未知时根据 handler 与 sample entry 的类型拼出，例如 audio/ac-3。 */
+    private fun probeFormat(track: Mp4Demuxer.Track): MediaFormat? {
+        val mime = track.mimeType ?: when {
+            track.isVideo -> "video/${track.codec}"
+            track.isAudio -> "audio/${track.codec}"
+            else -> return null
+        }
+        return MediaFormat().apply { setString(MediaFormat.KEY_MIME, mime) }
+    }
+
+    private fun openDemuxer(uri: Uri): Mp4Demuxer {
+        return if (uri.toString().startsWith("content://")) {
+            val descriptor = context.contentResolver.openFileDescriptor(uri, "r") ?: throw IOException("Can not open $uri")
+            //FileInputStream 关闭时会一起关闭 ParcelFileDescriptor 中的文件描述符。
+            Mp4Demuxer(ParcelFileDescriptor.AutoCloseInputStream(descriptor).channel)
+        } else {
+            val path = uri.path
+            if (path.isNullOrEmpty()) {
+                throw IOException("Invalid source $uri")
+            }
+            Mp4Demuxer(File(path))
+        }
+    }
+
+    /** 与 MediaMetadataRetriever 读取的信息相同，不需要再打开一次文件。 */
+    private fun loadMetadata(demuxer: Mp4Demuxer, videoTrack: Mp4Demuxer.Track?): MediaMetadata {
+        val durationMs = demuxer.durationUs / 1000
+        return MediaMetadata(
+            rotation = videoTrack?.rotation ?: 0,
+            duration = durationMs.toInt(),
+            bitRate = if (durationMs > 0) (demuxer.fileSize * 8 * 1000 / durationMs).toInt() else 0,
+            width = videoTrack?.width ?: 0,
+            height = videoTrack?.height ?: 0
+        )
+    }
+
+    override fun readAudioPacket(buffer: ByteBuffer, packet: PacketInfo?): Int {
+        fallback?.let { return it.readAudioPacket(buffer, packet) }
+        val reader = audioReader ?: throw IllegalStateException("No Audio Track")
+        return readSamples(reader, buffer, packet)
+    }
+
+    override fun readVideoPacket(buffer: ByteBuffer, packet: PacketInfo?): Int {
+        fallback?.let { return it.readVideoPacket(buffer, packet) }
+        val reader = videoReader ?: throw IllegalStateException("No Video Track")
+        return readSamples(reader, buffer, packet)
+    }
+
+    private fun readSamples(reader: Mp4Demuxer.SampleReader, buffer: ByteBuffer, packet: PacketInfo?): Int {
+        var readSize: Int
+        while (true) {
+            buffer.clear()
+            readSize = try {
+                reader.readSampleData(buffer)
+            } catch (e: IllegalArgumentException) {
+                //长度前缀超出 sample 范围，无法转换为 Annex-B，与 MediaExtractor 一样跳过这个 sample，不让解码线程崩溃。
+                Timber.e(e, "readSamples: skip malformed sample ${reader.sampleIndex} of ${reader.track}")
+                reader.advance()
+                continue
+            }
+            break
+        }
+        packet?.sampleTime = reader.sampleTime
+        packet?.sampleFlags = reader.sampleFlags
+        reader.advance()
+        return readSize
+    }
+
+    override fun release() {
+        Timber.d("release")
+        fallback?.release()
+        fallback = null
+        audioReader = null
+        videoReader = null
+        try {
+            demuxer?.close()
+        } catch (e: IOException) {
+            Timber.w(e, "release")
+        }
+        demuxer = null
+    }
+
+    override fun seek(position: Long) {
+        fallback?.let { return it.seek(position) }
+        audioReader?.seekTo(position, Mp4Demuxer.SEEK_TO_PREVIOUS_SYNC)
+        videoReader?.seekTo(position, Mp4Demuxer.SEEK_TO_PREVIOUS_SYNC)
+    }
+
+}
@@ -1,5 +1,8 @@
 package me.ztiany.androidav.stream;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 public interface SocketLive {
 
     void start();
@@ -8,6 +11,11 @@ public interface SocketLive {
 
     void sendData(byte[] bytes);
 
+    /**
+     * 把多个 buffer 按顺序作为一条消息发送，返回后 buffer 可以复用。
+     */
+    void sendData(List<ByteBuffer> buffers);
+
     interface SocketCallback {
         void callBack(byte[] data);
     }
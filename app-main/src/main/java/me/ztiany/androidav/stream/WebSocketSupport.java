@@ -0,0 +1,30 @@
+package me.ztiany.androidav.stream;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.enums.Opcode;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public final class WebSocketSupport {
+
+    private WebSocketSupport() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 把多个 buffer 作为一条二进制消息发送：每个 buffer 是一个分片帧，接收端的 onMessage 收到的是拼接后的完整消息。
+     * 帧在返回前就已经写入发送队列，所以 buffer（例如 MediaCodec 的输出 buffer）可以在返回后立即释放。
+     */
+    public static void send(WebSocket webSocket, List<ByteBuffer> buffers) {
+        int size = buffers.size();
+        if (size == 1) {
+            webSocket.send(buffers.get(0));
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            webSocket.sendFragmentedFrame(Opcode.BINARY, buffers.get(i), i == size - 1);
+        }
+    }
+
+}
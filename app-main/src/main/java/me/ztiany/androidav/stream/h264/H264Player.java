@@ -1,25 +1,22 @@
 package me.ztiany.androidav.stream.h264;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Environment;
 import android.util.Log;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+import me.ztiany.lib.avbase.utils.av.AnnexBScanner;
+import me.ztiany.lib.avbase.utils.av.VideoFormatEx;
+import me.ztiany.lib.avbase.utils.av.YUVToRGB;
+
 public class H264Player implements Runnable {
 
     private static final String TAG = "H264Player";
@@ -29,14 +26,33 @@ public class H264Player implements Runnable {
 
     private MediaCodec mediaCodec;
 
+    private final YUVToRGB yuvToRGB = new YUVToRGB(YUVToRGB.BT601, false);
+
+    //解码输出的格式，先取自 SPS，在 INFO_OUTPUT_FORMAT_CHANGED 时更新。
+    private int width;
+    private int height;
+    private int stride;
+    private int sliceHeight;
+    private int colorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+
+    //每帧复用的缓冲区
+    private byte[] frame;
+    private int[] argb;
+    private Bitmap bitmap;
+
     public H264Player(String path) {
         this.path = path;
-        try {
-            mediaCodec = MediaCodec.createDecoderByType("video/avc");
-            MediaFormat mediaformat = MediaFormat.createVideoFormat("video/avc", 368, 384);
-            mediaformat.setInteger(MediaFormat.KEY_FRAME_RATE, 15);
+        //分辨率、帧率以及 csd-0/csd-1 都取自码流开头的 SPS/PPS。
+        try (AnnexBScanner scanner = new AnnexBScanner(new File(path))) {
+            MediaFormat mediaformat = VideoFormatEx.readAvcFormat(scanner, 64);
+            if (mediaformat == null) {
+                throw new IOException("SPS/PPS not found in " + path);
+            }
+            width = stride = mediaformat.getInteger(MediaFormat.KEY_WIDTH);
+            height = sliceHeight = mediaformat.getInteger(MediaFormat.KEY_HEIGHT);
+            mediaCodec = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
             mediaCodec.configure(mediaformat, null, null, 0);
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             e.printStackTrace();
         }
     }
@@ -55,111 +71,120 @@ public class H264Player implements Runnable {
         }
     }
 
-    private void decodeH264() {
-        byte[] bytes = null;
-        try {
-            //一次性读取【生产中不会这样】
-            bytes = getBytes(path);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        ByteBuffer[] inputBuffers = mediaCodec.getInputBuffers();
-
-        int startIndex = 0;
-        int totalSize = bytes.length;
-
-        while (true) {
-            if (totalSize == 0 || startIndex >= totalSize) {
-                break;
-            }
-
-            int nextFrameStart = findByFrame(bytes, startIndex + 2, totalSize);
+    private void decodeH264() throws IOException {
+        //按 NAL 流式读取，内存占用与文件大小无关，NAL 数据从映射内存直接拷贝到解码器的输入缓冲区。
+        try (AnnexBScanner scanner = new AnnexBScanner(new File(path))) {
             MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            int inIndex = mediaCodec.dequeueInputBuffer(10000);
-
-            if (inIndex >= 0) {
-                ByteBuffer byteBuffer = inputBuffers[inIndex];
-                byteBuffer.clear();
-                byteBuffer.put(bytes, startIndex, nextFrameStart - startIndex);
-                mediaCodec.queueInputBuffer(inIndex, 0, nextFrameStart - startIndex, 0, 0);
-                startIndex = nextFrameStart;
-            } else {
-                continue;
-            }
-
-            int outIndex = mediaCodec.dequeueOutputBuffer(info, 10000);
-
-            if (outIndex >= 0) {
+            boolean inputDone = false;
+
+            while (true) {
+                if (!inputDone) {
+                    int inIndex = mediaCodec.dequeueInputBuffer(10000);
+                    if (inIndex >= 0) {
+                        if (scanner.next()) {
+                            ByteBuffer byteBuffer = mediaCodec.getInputBuffer(inIndex);
+                            byteBuffer.clear();
+                            ByteBuffer unit = scanner.getUnit();
+                            int size = unit.remaining();
+                            byteBuffer.put(unit);
+                            mediaCodec.queueInputBuffer(inIndex, 0, size, 0, 0);
+                        } else {
+                            mediaCodec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                            Log.d(TAG, "decodeH264: " + scanner.getNalCount() + " NAL units queued");
+                        }
+                    }
+                }
 
-                ByteBuffer byteBuffer = mediaCodec.getOutputBuffer(outIndex);
+                int outIndex = mediaCodec.dequeueOutputBuffer(info, 10000);
 
-                byteBuffer.position(info.offset);
-                byteBuffer.limit(info.offset + info.size);
+                if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    onOutputFormatChanged(mediaCodec.getOutputFormat());
+                } else if (outIndex >= 0) {
+                    if (info.size > 0) {
+                        onFrame(mediaCodec.getOutputBuffer(outIndex), info);
+                    }
+                    mediaCodec.releaseOutputBuffer(outIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
 
-                byte[] ba = new byte[byteBuffer.remaining()];
-                byteBuffer.get(ba);
+    private void onFrame(ByteBuffer byteBuffer, MediaCodec.BufferInfo info) {
+        byteBuffer.position(info.offset);
+        byteBuffer.limit(info.offset + info.size);
 
-                YuvImage yuvImage = new YuvImage(ba, ImageFormat.NV21, 368, 384, null);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                yuvImage.compressToJpeg(new Rect(0, 0, 368, 384), 100, baos);
-                byte[] jdata = baos.toByteArray();//rgb
-                Bitmap bmp = BitmapFactory.decodeByteArray(jdata, 0, jdata.length);
+        if (frame == null || frame.length < info.size) {
+            frame = new byte[info.size];
+        }
+        byteBuffer.get(frame, 0, info.size);
 
-                if (bmp != null) {
-                    if (i > 5) {
-                        try {
-                            File myCaptureFile = new File(Environment.getExternalStorageDirectory(), "img.png");
-                            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(myCaptureFile));
-                            bmp.compress(Bitmap.CompressFormat.JPEG, 80, bos);
-                            bos.flush();
-                            bos.close();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    i++;
-                }
+        //直接转换为 ARGB，不再经过 YuvImage → JPEG → Bitmap。
+        Bitmap bmp = toBitmap(frame);
 
+        if (bmp != null) {
+            if (i > 5) {
                 try {
-                    Thread.sleep(33);
-                } catch (InterruptedException e) {
+                    File myCaptureFile = new File(Environment.getExternalStorageDirectory(), "img.png");
+                    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(myCaptureFile));
+                    bmp.compress(Bitmap.CompressFormat.JPEG, 80, bos);
+                    bos.flush();
+                    bos.close();
+                } catch (Exception e) {
                     e.printStackTrace();
                 }
-                mediaCodec.releaseOutputBuffer(outIndex, false);
-            } else {
-
             }
-
+            i++;
         }
 
+        try {
+            Thread.sleep(33);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 
-    //匹配分隔符：00000001 后面就是帧分割
-    private int i = 0;
-
-    private int findByFrame(byte[] bytes, int start, int totalSize) {
-        for (int i = start; i < totalSize - 4; i++) {
-            if (bytes[i] == 0x00 && bytes[i + 1] == 0x00 && bytes[i + 2] == 0x00 && bytes[i + 3] == 0x01) {
-                return i;
-            }
-
-        }
-        return -1;
+    private void onOutputFormatChanged(MediaFormat format) {
+        Log.d(TAG, "onOutputFormatChanged: " + format);
+        width = format.getInteger(MediaFormat.KEY_WIDTH);
+        height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        stride = format.containsKey(MediaFormat.KEY_STRIDE) ? format.getInteger(MediaFormat.KEY_STRIDE) : width;
+        sliceHeight = format.containsKey(MediaFormat.KEY_SLICE_HEIGHT) ? format.getInteger(MediaFormat.KEY_SLICE_HEIGHT) : height;
+        colorFormat = format.containsKey(MediaFormat.KEY_COLOR_FORMAT) ? format.getInteger(MediaFormat.KEY_COLOR_FORMAT) : colorFormat;
+        stride = Math.max(stride, width);
+        sliceHeight = Math.max(sliceHeight, height);
     }
 
-    public byte[] getBytes(String path) throws IOException {
-        InputStream is = new DataInputStream(new FileInputStream(path));
-        int len;
-        int size = 1024;
-        byte[] buf;
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        buf = new byte[size];
-        while ((len = is.read(buf, 0, size)) != -1) {
-            bos.write(buf, 0, len);
+    private Bitmap toBitmap(byte[] yuv) {
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            argb = new int[width * height];
+        }
+        int uvStart = stride * sliceHeight;
+        if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+            int uvStride = stride / 2;
+            yuvToRGB.toARGB(
+                    yuv, 0, stride,
+                    yuv, uvStart, yuv, uvStart + uvStride * (sliceHeight / 2),
+                    uvStride, 1,
+                    width, height, argb, 0, width
+            );
+        } else {
+            //其他格式（包括厂商私有的 SemiPlanar 变体）都按 NV12 处理。
+            yuvToRGB.toARGB(
+                    yuv, 0, stride,
+                    yuv, uvStart, yuv, uvStart + 1,
+                    stride, 2,
+                    width, height, argb, 0, width
+            );
         }
-        buf = bos.toByteArray();
-        return buf;
+        bitmap.setPixels(argb, 0, width, 0, 0, width, height);
+        return bitmap;
     }
 
-}
\ No newline at end of file
+    private int i = 0;
+
+}
@@ -7,27 +7,50 @@ import android.view.Surface;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import me.ztiany.lib.avbase.utils.av.AnnexBScanner;
+import me.ztiany.lib.avbase.utils.av.VideoFormatEx;
+import timber.log.Timber;
+
 public class DecodePlayerLiveH265 {
 
     private MediaCodec mediaCodec;
+    private Surface surface;
+    private boolean configured;
 
     public void initDecoder(Surface surface) {
+        this.surface = surface;
         try {
-            mediaCodec = MediaCodec.createDecoderByType("video/hevc");
-
-            final MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, Constants.WIDTH, Constants.HEIGHT);
-            format.setInteger(MediaFormat.KEY_BIT_RATE, Constants.KEY_BIT_RATE);
-            format.setInteger(MediaFormat.KEY_FRAME_RATE, Constants.KEY_FRAME_RATE);
-            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, Constants.KEY_I_FRAME_INTERVAL);
-
-            mediaCodec.configure(format, surface, null, 0);
-            mediaCodec.start();
+            mediaCodec = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_VIDEO_HEVC);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 收到第一个带有 VPS/SPS/PPS 的数据时才配置解码器，分辨率与 csd-0 都取自码流，之前的数据无法解码，直接丢弃。
+     */
+    private boolean configure(byte[] data) throws IOException {
+        MediaFormat format = VideoFormatEx.readHevcFormat(new AnnexBScanner(ByteBuffer.wrap(data)), 8);
+        if (format == null) {
+            return false;
+        }
+        mediaCodec.configure(format, surface, null, 0);
+        mediaCodec.start();
+        configured = true;
+        return true;
+    }
+
     public void push(byte[] data) {
+        if (!configured) {
+            try {
+                if (!configure(data)) {
+                    return;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Timber.e(e, "configure");
+                return;
+            }
+        }
         int index = mediaCodec.dequeueInputBuffer(100000);
         if (index >= 0) {
             ByteBuffer inputBuffer = mediaCodec.getInputBuffer(index);
@@ -45,7 +68,9 @@ public class DecodePlayerLiveH265 {
 
     public void stop() {
         if (mediaCodec != null) {
-            mediaCodec.stop();
+            if (configured) {
+                mediaCodec.stop();
+            }
             mediaCodec.release();
         }
     }
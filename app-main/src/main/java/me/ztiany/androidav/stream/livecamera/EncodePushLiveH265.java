@@ -6,7 +6,9 @@ import android.media.MediaFormat;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
+import me.ztiany.lib.avbase.utils.av.ParameterSetCache;
 import me.ztiany.lib.avbase.utils.av.YUVUtils;
 import me.ztiany.androidav.stream.SocketLive;
 
@@ -16,15 +18,11 @@ public class EncodePushLiveH265 {
 
     private final SocketLive socketLive;
 
-    //nv21转换成nv12的数据
-    private byte[] nv12;
-
-    //旋转之后的yuv数据
+    //旋转并转换成 nv12 之后的yuv数据
     private byte[] yuv;
 
-    public static final int NAL_I = 19;
-    public static final int NAL_VPS = 32;
-    private byte[] vps_sps_pps_buf;
+    //缓存 VPS/SPS/PPS，在每个 I 帧之前补上
+    private final ParameterSetCache parameterSetCache = new ParameterSetCache(ParameterSetCache.CODEC_H265);
     private int frameIndex;
     private final int width, height;
 
@@ -49,7 +47,6 @@ public class EncodePushLiveH265 {
 
             //初始化转换容器
             int bufferLength = width * height * 3 / 2;
-            nv12 = new byte[bufferLength];
             yuv = new byte[bufferLength];
         } catch (IOException e) {
             e.printStackTrace();
@@ -57,14 +54,8 @@ public class EncodePushLiveH265 {
     }
 
     public void encodeFrame(byte[] input) {
-        //两种方式都可以：
-        //先转换，再旋转
-        //YUVUtils.nv21toNV12(input, nv12);
-        //YUVUtils.rotateNV12CW90D(nv12, yuv, width, height);
-
-        //先旋转，再转换
-        YUVUtils.nv21RotateCW(input, nv12, width, height, 90);
-        YUVUtils.nv12FromNV21(nv12, yuv);
+        //旋转与转换一次完成
+        YUVUtils.nv12FromNV21(input, yuv, width, height, 90, false);
 
         int inputBufferIndex = mediaCodec.dequeueInputBuffer(100000);
         if (inputBufferIndex >= 0) {
@@ -91,25 +82,11 @@ public class EncodePushLiveH265 {
     }
 
     private void dealFrame(ByteBuffer bb, MediaCodec.BufferInfo bufferInfo) {
-        int offset = 4;
-        if (bb.get(2) == 0x01) {
-            offset = 3;
-        }
-        int type = (bb.get(offset) & 0x7E) >> 1;
-        if (type == NAL_VPS) {
-            vps_sps_pps_buf = new byte[bufferInfo.size];
-            bb.get(vps_sps_pps_buf);
-        } else if (type == NAL_I) {
-            final byte[] bytes = new byte[bufferInfo.size];
-            bb.get(bytes);
-            byte[] newBuf = new byte[vps_sps_pps_buf.length + bytes.length];
-            System.arraycopy(vps_sps_pps_buf, 0, newBuf, 0, vps_sps_pps_buf.length);
-            System.arraycopy(bytes, 0, newBuf, vps_sps_pps_buf.length, bytes.length);
-            this.socketLive.sendData(newBuf);
-        } else {
-            final byte[] bytes = new byte[bufferInfo.size];
-            bb.get(bytes);
-            this.socketLive.sendData(bytes);
+        bb.position(bufferInfo.offset);
+        bb.limit(bufferInfo.offset + bufferInfo.size);
+        List<ByteBuffer> buffers = parameterSetCache.process(bb);
+        if (!buffers.isEmpty()) {
+            this.socketLive.sendData(buffers);
         }
     }
 
@@ -5,8 +5,10 @@ import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import me.ztiany.androidav.stream.SocketLive;
+import me.ztiany.androidav.stream.WebSocketSupport;
 
 public class SocketLiveClient implements SocketLive {
 
@@ -43,6 +45,13 @@ public class SocketLiveClient implements SocketLive {
         }
     }
 
+    @Override
+    public void sendData(List<ByteBuffer> buffers) {
+        if (mDemoWebSocketClient != null && (mDemoWebSocketClient.isOpen())) {
+            WebSocketSupport.send(mDemoWebSocketClient, buffers);
+        }
+    }
+
     private class DemoWebSocketClient extends WebSocketClient {
 
         public DemoWebSocketClient(URI serverURI) {
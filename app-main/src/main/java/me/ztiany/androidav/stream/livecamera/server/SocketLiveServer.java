@@ -6,8 +6,10 @@ import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import me.ztiany.androidav.stream.SocketLive;
+import me.ztiany.androidav.stream.WebSocketSupport;
 
 public class SocketLiveServer implements SocketLive {
 
@@ -71,4 +73,11 @@ public class SocketLiveServer implements SocketLive {
         }
     }
 
+    @Override
+    public void sendData(List<ByteBuffer> buffers) {
+        if (webSocket != null && webSocket.isOpen()) {
+            WebSocketSupport.send(webSocket, buffers);
+        }
+    }
+
 }
\ No newline at end of file
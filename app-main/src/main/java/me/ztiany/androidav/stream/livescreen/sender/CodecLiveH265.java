@@ -12,8 +12,11 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import me.ztiany.androidav.stream.livescreen.Constants;
+import me.ztiany.lib.avbase.utils.av.ParameterSetCache;
+import me.ztiany.lib.avbase.utils.av.ScreenChangeGate;
 import timber.log.Timber;
 
 import static me.ztiany.androidav.stream.livescreen.Constants.HEIGHT;
@@ -21,7 +24,11 @@ import static me.ztiany.androidav.stream.livescreen.Constants.WIDTH;
 
 public class CodecLiveH265 extends Thread {
 
+    //画面静止时最多每隔多久发送一帧
+    private static final long KEEP_ALIVE_INTERVAL_MS = 1000;
+
     private MediaCodec mediaCodec;
+    private ScreenChangeGate changeGate;
 
     private final MediaProjection mediaProjection;
     private final SocketLiveServer mSocketLiveServer;
@@ -39,6 +46,8 @@ public class CodecLiveH265 extends Thread {
             format.setInteger(MediaFormat.KEY_BIT_RATE, Constants.KEY_BIT_RATE);
             format.setInteger(MediaFormat.KEY_FRAME_RATE, Constants.KEY_FRAME_RATE);
             format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, Constants.KEY_I_FRAME_INTERVAL);
+            //画面静止时 VirtualDisplay 不产生新帧，由编码器重复最后一帧，ScreenChangeGate 请求的关键帧才能被编码
+            format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, ScreenChangeGate.REPEAT_PREVIOUS_FRAME_AFTER_US);
 
             mediaCodec = MediaCodec.createEncoderByType("video/hevc");
             mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
@@ -65,6 +74,9 @@ public class CodecLiveH265 extends Thread {
     @Override
     public void run() {
         mediaCodec.start();
+        //画面静止时只发送保活的关键帧，不再发送重复的画面
+        changeGate = new ScreenChangeGate(mediaCodec, KEEP_ALIVE_INTERVAL_MS);
+        changeGate.start(mediaProjection, WIDTH, HEIGHT);
         MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
         while (true) {
             try {
@@ -89,40 +101,23 @@ public class CodecLiveH265 extends Thread {
                 break;
             }
         }
+        changeGate.stop();
     }
 
-    public static final int NAL_I = 19;//NAL_UNIT_TYPE
-    public static final int NAL_VPS = 32;//NAL_UNIT_TYPE
-
-    private byte[] vps_sps_pps_buf;//VPS/SPS/PPS 占了一帧
+    //缓存 VPS/SPS/PPS，在每个 I 帧之前补上，发送时不拼接数据。
+    private final ParameterSetCache parameterSetCache = new ParameterSetCache(ParameterSetCache.CODEC_H265);
 
     private void dealFrame(ByteBuffer bb, MediaCodec.BufferInfo bufferInfo) {
-        //获取类型【读 H265 Header】
-        int offset = 4;
-        if (bb.get(2) == 0x01) {
-            offset = 3;
+        if (!changeGate.shouldSend(bufferInfo)) {
+            return;
         }
-        int type = (bb.get(offset) & 0x7E) >> 1;
-
-        //根据不同类型进行处理
-        if (type == NAL_VPS) {//如果是 VPS，则缓存下来
-            vps_sps_pps_buf = new byte[bufferInfo.size];
-            bb.get(vps_sps_pps_buf);
-        } else if (type == NAL_I) {//每次 I 帧之前，都加上 VPS
-
-            final byte[] bytes = new byte[bufferInfo.size];
-            bb.get(bytes);
-            byte[] newBuf = new byte[vps_sps_pps_buf.length + bytes.length];
-            System.arraycopy(vps_sps_pps_buf, 0, newBuf, 0, vps_sps_pps_buf.length);
-            System.arraycopy(bytes, 0, newBuf, vps_sps_pps_buf.length, bytes.length);
-            this.mSocketLiveServer.sendData(newBuf);
-
-        } else {//其他的帧不需要
-            final byte[] bytes = new byte[bufferInfo.size];
-            bb.get(bytes);
-            this.mSocketLiveServer.sendData(bytes);
+        bb.position(bufferInfo.offset);
+        bb.limit(bufferInfo.offset + bufferInfo.size);
+        //VPS 被缓存下来，返回空列表；I 帧返回 [VPS/SPS/PPS, I 帧]；其他帧只有它自己。
+        List<ByteBuffer> buffers = parameterSetCache.process(bb);
+        if (!buffers.isEmpty()) {
+            this.mSocketLiveServer.sendData(buffers);
         }
-
     }
 
     public void writeBytes(byte[] array) {
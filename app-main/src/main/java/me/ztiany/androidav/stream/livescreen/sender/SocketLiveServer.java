@@ -7,7 +7,10 @@ import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
 
+import me.ztiany.androidav.stream.WebSocketSupport;
 import timber.log.Timber;
 
 public class SocketLiveServer {
@@ -63,4 +66,22 @@ public class SocketLiveServer {
         }
     }
 
+    /**
+     * 只发送 [offset, offset + length) 部分。返回时数据已经被组装成帧放入发送队列，bytes 可以立即复用。
+     */
+    public void sendData(byte[] bytes, int offset, int length) {
+        if (webSocket != null && webSocket.isOpen()) {
+            webSocket.send(ByteBuffer.wrap(bytes, offset, length));
+        }
+    }
+
+    /**
+     * 把多个 buffer 作为一条消息发送（WebSocket 分片帧），接收端收到的与拼接后的数据相同。返回时数据已经被拷贝到发送队列中。
+     */
+    public void sendData(List<ByteBuffer> buffers) {
+        if (webSocket != null && webSocket.isOpen()) {
+            WebSocketSupport.send(webSocket, buffers);
+        }
+    }
+
 }
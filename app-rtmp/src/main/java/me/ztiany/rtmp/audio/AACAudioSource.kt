@@ -3,62 +3,96 @@ package me.ztiany.rtmp.audio
 import android.annotation.SuppressLint
 import android.media.*
 import me.ztiany.lib.avbase.utils.Directory
+import me.ztiany.lib.avbase.utils.av.AdtsHeader
+import me.ztiany.lib.avbase.utils.av.AudioFramer
+import me.ztiany.lib.avbase.utils.av.AudioSpecificConfig
+import me.ztiany.lib.avbase.utils.av.MediaClock
+import me.ztiany.lib.avbase.utils.av.PcmRingBuffer
 import me.ztiany.lib.avbase.utils.closeSafely
 import me.ztiany.rtmp.common.Packet
 import me.ztiany.rtmp.common.PacketDataCallback
 import me.ztiany.rtmp.common.TYPE_AUDIO_DATA
 import me.ztiany.rtmp.common.TYPE_AUDIO_INFO
 import timber.log.Timber
-import java.io.FileWriter
+import java.io.FileOutputStream
+import java.io.OutputStream
 import kotlin.concurrent.thread
 
-class AACAudioSource {
+private const val SAMPLE_RATE = 44100
+private const val CHANNEL_COUNT = 2
+private const val FRAME_SIZE = CHANNEL_COUNT * 2
+
+/**
+ * @param bufferCapacityMs 采集与编码之间的环形缓冲区能缓存的时长，编码器卡顿超过该时长时丢弃新采集的数据。
+ * @param dumpAac 是否同时把编码结果加上 ADTS 头保存为可以直接播放的 .aac 文件，用于调试。
+ */
+class AACAudioSource(
+    private val bufferCapacityMs: Int = 500,
+    private val dumpAac: Boolean = false
+) {
 
     var packetDataCallback: PacketDataCallback? = null
 
+    /** 与视频共享的媒体时钟，为空时以开始采集的时刻为原点。 */
+    var mediaClock: MediaClock? = null
+    private var clock = MediaClock()
+
     @Volatile private var isStopped = true
 
     private var mediaCodec: MediaCodec? = null
     private var audioRecord: AudioRecord? = null
     private var minBufferSize = 0
 
+    private var pcmRingBuffer: PcmRingBuffer? = null
+    private val audioFramer = AudioFramer(SAMPLE_RATE, FRAME_SIZE, AudioFramer.AAC_SAMPLES_PER_FRAME, 1)
+
+    @Volatile private var captureCanRelease = false
     @Volatile private var inCanRelease = false
     @Volatile private var outCanRelease = false
 
     private var printed = false
 
-    private var startTime = 0L
+    /** 编码器输出的 AudioSpecificConfig，用于生成 ADTS 头。 */
+    private var audioSpecificConfig: AudioSpecificConfig? = null
+    private val adtsHeader = ByteArray(AdtsHeader.HEADER_SIZE)
 
     @SuppressLint("MissingPermission")
     fun start() {
         isStopped = false
         printed = false
+        audioSpecificConfig = null
+        captureCanRelease = false
+        inCanRelease = false
+        outCanRelease = false
+        clock = mediaClock ?: MediaClock()
 
         val format = MediaFormat.createAudioFormat(
             MediaFormat.MIMETYPE_AUDIO_AAC,
-            44100,
-            2/*双声道*/
+            SAMPLE_RATE,
+            CHANNEL_COUNT/*双声道*/
         )
         format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC)//AAC 的质量
         format.setInteger(MediaFormat.KEY_BIT_RATE, 128000)//一秒的码率 aac，128kbps 为 一般质量音频
 
         try {
             minBufferSize = AudioRecord.getMinBufferSize(
-                44100,//采样频率
+                SAMPLE_RATE,//采样频率
                 AudioFormat.CHANNEL_CONFIGURATION_STEREO,//双声道
                 AudioFormat.ENCODING_PCM_16BIT//采样深度
             )
 
             audioRecord = AudioRecord(
                 MediaRecorder.AudioSource.MIC,
-                44100,
+                SAMPLE_RATE,
                 AudioFormat.CHANNEL_CONFIGURATION_STEREO,
                 AudioFormat.ENCODING_PCM_16BIT,
                 minBufferSize
             )
 
-            //这个 KEY_MAX_INPUT_SIZE 一定要设置，不然很容易指针越界。
-            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, minBufferSize)
+            //这个 KEY_MAX_INPUT_SIZE 一定要设置，不然很容易指针越界。每次送入的是整数个 AAC 帧。
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxOf(minBufferSize, audioFramer.chunkBytes))
+
+            pcmRingBuffer = PcmRingBuffer.ofDuration(SAMPLE_RATE, CHANNEL_COUNT, 2, bufferCapacityMs)
 
             mediaCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC).apply {
                 configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
@@ -74,35 +108,60 @@ class AACAudioSource {
     private fun starOutputData() {
         thread {
             audioRecord?.startRecording()
-            //输入
+            audioFramer.start(MediaClock.systemTimeUs())
+            //采集：只写入环形缓冲区，不会因为编码器而阻塞。
             val buffer = ByteArray(minBufferSize)
             while (!isStopped) {
-                providePCM(buffer)
+                capturePCM(buffer)
+            }
+            captureCanRelease = true
+        }
+
+        thread {
+            //输入：从环形缓冲区取数据送给编码器
+            while (!isStopped) {
+                providePCM()
             }
             inCanRelease = true
         }
 
         thread {
             //输出音数据
-            val tempFile = Directory.createSDCardRootAppPath(Directory.createTempFileName(Directory.AUDIO_FORMAT_AAC))
-            val fileWriter = FileWriter(tempFile)
+            val aacOutput = if (dumpAac) {
+                FileOutputStream(Directory.createSDCardRootAppPath(Directory.createTempFileName(Directory.AUDIO_FORMAT_AAC))).buffered()
+            } else {
+                null
+            }
             val mediaCodecInfo = MediaCodec.BufferInfo()
             while (!isStopped) {
-                produceAAC(mediaCodecInfo, fileWriter)
+                produceAAC(mediaCodecInfo, aacOutput)
             }
-            fileWriter.closeSafely()
+            aacOutput.closeSafely()
             outCanRelease = true
         }
     }
 
-    private fun providePCM(buffer: ByteArray) {
+    private fun capturePCM(buffer: ByteArray) {
         val audioRecord = this.audioRecord ?: return
-        val mediaCodec = this.mediaCodec ?: return
+        val pcmRingBuffer = this.pcmRingBuffer ?: return
 
         val len = audioRecord.read(buffer, 0, buffer.size)
         if (len <= 0) {
             return
         }
+        pcmRingBuffer.write(buffer, 0, len)
+    }
+
+    private fun providePCM() {
+        val mediaCodec = this.mediaCodec ?: return
+        val pcmRingBuffer = this.pcmRingBuffer ?: return
+
+        //凑够一个 AAC 帧（1024 个采样）再送入编码器
+        val chunkBytes = audioFramer.chunkBytes
+        if (pcmRingBuffer.available() < chunkBytes) {
+            pcmRingBuffer.awaitReadable(10_000_000L)
+            return
+        }
 
         val index = mediaCodec.dequeueInputBuffer(10000)
         if (index < 0) {
@@ -111,14 +170,18 @@ class AACAudioSource {
 
         val inputBuffer = mediaCodec.getInputBuffer(index) ?: return
         inputBuffer.clear()
-        inputBuffer.put(buffer, 0, len)
-        //nanoTime 方法只能用于测量已过的时间，与系统或钟表时间的其他任何时间概念无关。【这里只需要给一个精确的相对时间】
-        val presentationTime = System.nanoTime() / 1000
+        inputBuffer.limit(chunkBytes)
+        val len = pcmRingBuffer.read(inputBuffer)
+        //时间戳由累计的采样数得出，丢帧导致的跳变由 AudioFramer 检测。
+        val presentationTime = audioFramer.nextPresentationTimeUs(MediaClock.systemTimeUs(), pcmRingBuffer.available().toLong())
+        if (audioFramer.isDiscontinuity) {
+            Timber.w("audio discontinuity at %d, overflowBytes = %d", presentationTime, pcmRingBuffer.overflowBytes)
+        }
         //Timber.d("input presentationTime = $presentationTime")
         mediaCodec.queueInputBuffer(index, 0, len, presentationTime, 0)
     }
 
-    private fun produceAAC(bufferInfo: MediaCodec.BufferInfo, fileWriter: FileWriter) {
+    private fun produceAAC(bufferInfo: MediaCodec.BufferInfo, aacOutput: OutputStream?) {
         val mediaCodec = this.mediaCodec ?: return
         val index = mediaCodec.dequeueOutputBuffer(bufferInfo, 0)
         if (index < 0) {
@@ -131,14 +194,8 @@ class AACAudioSource {
         val outData = ByteArray(bufferInfo.size)
         outputBuffer.get(outData)
 
-        if (startTime == 0L) {
-            //记录开始时间
-            startTime = bufferInfo.presentationTimeUs / 1000
-            Timber.d("startTime = $startTime")
-        }
-
-        //减去其实时间，就得到一个递增的时间戳。
-        val presentationTime = bufferInfo.presentationTimeUs / 1000 - startTime
+        //换算为与视频共享的媒体时间，毫秒。
+        val presentationTime = clock.toMediaTimeMs(bufferInfo.presentationTimeUs)
 
         //for debug
         //Timber.d("output presentationTime = $presentationTime")
@@ -146,7 +203,6 @@ class AACAudioSource {
             outputFormat(format, bufferInfo, presentationTime)
             printed = true
         }
-        //FileUtils.writeContent(fileWriter, outData)
 
         //在使用 MediaCodec 将 PCM 压缩编码为 AAC 时，编码器输出的 AAC 是没有 ADTS 头的原始帧的。
         //但是有 Audio Specific Config，长度为两个字节，包含了采样率、声道数、采样深度三个信息。ADTS 中包含的信息更多。
@@ -156,10 +212,17 @@ class AACAudioSource {
         //要分区 AAC 文件与 FLV 中的 AAC：
         //  1. 如果是希望将编码后的 AAC 保存到本地，需要将 Audio Specific Config 转换为 ADTS 头的原始帧，写在每一个音频帧之前。
         //  2. 如果是通过 LibRTMP 发送 AAC 音频包，遵循的是 FLV 的规范，不需要添加 ADTS 头的原始帧，只需要 Audio Specific Config 即可。
-        val type = if (outData.size == 2) {
-            Timber.d("received aac info.")
+        val type = if ((bufferInfo.flags and MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            audioSpecificConfig = AudioSpecificConfig.parse(outData)
+            Timber.d("received aac info: %s", audioSpecificConfig)
             TYPE_AUDIO_INFO
         } /*其余的数据则是实际的音频数据*/ else {
+            val config = audioSpecificConfig
+            if (aacOutput != null && config != null && outData.isNotEmpty()) {
+                config.writeAdtsHeader(adtsHeader, 0, outData.size)
+                aacOutput.write(adtsHeader)
+                aacOutput.write(outData)
+            }
             TYPE_AUDIO_DATA
         }
 
@@ -177,7 +240,10 @@ class AACAudioSource {
         //释放
         thread {
             while (true) {
-                if (inCanRelease && outCanRelease) {
+                if (captureCanRelease && inCanRelease && outCanRelease) {
+                    pcmRingBuffer?.let {
+                        Timber.d("pcm ring buffer: capacity = %d, highWaterMark = %d, overflowBytes = %d, overflowCount = %d, discontinuities = %d", it.capacity, it.highWaterMark, it.overflowBytes, it.overflowCount, audioFramer.discontinuityCount)
+                    }
                     mediaCodec?.stop()
                     mediaCodec?.release()
                     audioRecord?.stop()
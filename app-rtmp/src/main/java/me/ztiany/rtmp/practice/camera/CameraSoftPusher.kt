@@ -4,7 +4,9 @@ import android.hardware.camera2.CameraDevice
 import android.util.Size
 import android.view.TextureView
 import androidx.appcompat.app.AppCompatActivity
+import me.ztiany.lib.avbase.utils.av.FrameBufferPool
 import me.ztiany.lib.avbase.utils.av.YUVUtils
+import me.ztiany.rtmp.BuildConfig
 import me.ztiany.rtmp.common.Pusher
 import me.ztiany.rtmp.common.RtmpPusher
 import me.ztiany.rtmp.common.RtmpPusher.VIDEO_TYPE_YUV
@@ -19,12 +21,14 @@ class CameraSoftPusher(
     private val camera2VideoSource = Camera2VideoSource(context, textureView)
 
     private val rtmpPusher = RtmpPusher.getInstance()
-    private var i420: ByteArray? = null
 
     @Volatile private var rtmpInitSucceeded = false
 
     private val executor = Executors.newSingleThreadExecutor()
 
+    /** 旋转后的帧发送完就回收，稳定推流时不再分配内存。 */
+    private val framePool = FrameBufferPool(16 * 1024 * 1024, BuildConfig.DEBUG)
+
     private val rtmpCallback = object : RtmpPusher.Callback {
         override fun onInitFailed() = Unit
         override fun onInitSuccess() {
@@ -55,18 +59,15 @@ class CameraSoftPusher(
                 return
             }
 
-            var i420buffer = i420
-            if (i420buffer == null || i420buffer.size != previewSize.width * previewSize.height * 3 / 2) {
-                i420buffer = ByteArray(previewSize.width * previewSize.height * 3 / 2)
-            }
-
-            YUVUtils.i420FromYUVCutToWidth(y, u, v, i420buffer, stride, previewSize.width, previewSize.height)
-
-            val i420bufferRotated = ByteArray(previewSize.width * previewSize.height * 3 / 2)
-            YUVUtils.i420Rotate90CW(i420buffer, i420bufferRotated, previewSize.width, previewSize.height)
+            val i420bufferRotated = framePool.obtain(previewSize.width * previewSize.height * 3 / 2)
+            YUVUtils.i420FromYUV420888(y, u, v, i420bufferRotated, stride, previewSize.width, previewSize.height, 90, false)
 
             executor.execute {
-                rtmpPusher.sendVideoPacket(i420bufferRotated, VIDEO_TYPE_YUV, 0L)
+                try {
+                    rtmpPusher.sendVideoPacket(i420bufferRotated, VIDEO_TYPE_YUV, 0L)
+                } finally {
+                    framePool.recycle(i420bufferRotated)
+                }
             }
         }
 
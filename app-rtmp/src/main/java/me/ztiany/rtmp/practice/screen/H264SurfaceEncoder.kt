@@ -6,6 +6,8 @@ import android.media.MediaFormat
 import android.os.Bundle
 import android.view.Surface
 import me.ztiany.lib.avbase.utils.Directory
+import me.ztiany.lib.avbase.utils.av.MediaClock
+import me.ztiany.lib.avbase.utils.av.ScreenChangeGate
 import me.ztiany.lib.avbase.utils.closeSafely
 import me.ztiany.rtmp.common.Packet
 import me.ztiany.rtmp.common.PacketDataCallback
@@ -18,12 +20,17 @@ class H264SurfaceEncoder {
 
     var packetDataCallback: PacketDataCallback? = null
 
+    /** 与音频共享的媒体时钟，为空时以第一帧为原点。 */
+    var mediaClock: MediaClock? = null
+
     private var mediaCodec: MediaCodec? = null
 
+    @Volatile private var changeGate: ScreenChangeGate? = null
+
     @Volatile private var isStopped = true
 
     private var timeStamp = 0L
-    private var startTime = 0L
+    private var clock: MediaClock? = null
 
     fun initEncoder(videoConfig: VideoConfig): Boolean {
         val format = MediaFormat.createVideoFormat(
@@ -36,6 +43,8 @@ class H264SurfaceEncoder {
         format.setInteger(MediaFormat.KEY_BIT_RATE, 400000)
         format.setInteger(MediaFormat.KEY_FRAME_RATE, 15)
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 3)
+        // 画面静止时 VirtualDisplay 不产生新帧，由编码器重复最后一帧，ScreenChangeGate 请求的关键帧才能被编码。
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, ScreenChangeGate.REPEAT_PREVIOUS_FRAME_AFTER_US)
 
         return try {
             mediaCodec = MediaCodec.createEncoderByType("video/avc").apply {
@@ -55,13 +64,20 @@ class H264SurfaceEncoder {
 
     }
 
+    /**
+     * 创建画面静止时只发送关键帧的 [ScreenChangeGate]，输出的包经过它过滤，需要在 [initEncoder] 之后调用。
+     */
+    fun createChangeGate(keepAliveIntervalMs: Long): ScreenChangeGate? {
+        return mediaCodec?.let { ScreenChangeGate(it, keepAliveIntervalMs) }?.also { changeGate = it }
+    }
+
     fun start() {
         isStopped = false
         val codec = mediaCodec ?: return
         codec.start()
         thread {
+            clock = mediaClock
             startEncoding(codec)
-            startTime = 0
             codec.stop()
             codec.release()
         }
@@ -93,16 +109,17 @@ class H264SurfaceEncoder {
             }
 
             if (index >= 0) {
+                if (changeGate?.shouldSend(bufferInfo) == false) {
+                    codec.releaseOutputBuffer(index, false)
+                    continue
+                }
                 val byteBuffer = codec.getOutputBuffer(index) ?: continue
                 val format = codec.getOutputFormat(index)
                 val data = ByteArray(bufferInfo.size)
                 byteBuffer.get(data)
-                if (startTime == 0L) {
-                    //记录开始时间，微妙-->毫秒
-                    startTime = bufferInfo.presentationTimeUs / 1000
-                }
-
-                val presentationTime = (bufferInfo.presentationTimeUs / 1000) - startTime
+                //Surface 输入的时间戳与 System.nanoTime() 是同一个时钟，换算为媒体时间，毫秒。
+                val mediaClock = clock ?: MediaClock(bufferInfo.presentationTimeUs * 1000).also { clock = it }
+                val presentationTime = mediaClock.toMediaTimeMs(bufferInfo.presentationTimeUs)
 
                 //for debug.
                 //FileUtils.writeContent(fileWriter, data)
@@ -6,6 +6,8 @@ import android.media.projection.MediaProjection
 import android.media.projection.MediaProjectionManager
 import androidx.appcompat.app.AppCompatActivity
 import com.blankj.utilcode.util.ScreenUtils
+import me.ztiany.lib.avbase.utils.av.MediaClock
+import me.ztiany.lib.avbase.utils.av.ScreenChangeGate
 import me.ztiany.rtmp.audio.AACAudioSource
 import me.ztiany.rtmp.common.*
 import kotlin.math.roundToInt
@@ -19,6 +21,7 @@ class ScreenPusher(
 
     private val screenVideoSource = ScreenVideoSource()
     private val h264SurfaceEncoder = H264SurfaceEncoder()
+    private var changeGate: ScreenChangeGate? = null
 
     private val aacAudioSource = AACAudioSource()
 
@@ -81,6 +84,11 @@ class ScreenPusher(
     }
 
     private fun startScreenLiveHard(mediaProjection: MediaProjection) {
+        //音视频使用同一个时钟原点，避免各自以第一帧为起点造成的偏移
+        val mediaClock = MediaClock()
+        aacAudioSource.mediaClock = mediaClock
+        h264SurfaceEncoder.mediaClock = mediaClock
+
         aacAudioSource.packetDataCallback = audioPacketCallback
         aacAudioSource.start()
 
@@ -88,6 +96,11 @@ class ScreenPusher(
         h264SurfaceEncoder.initEncoder(videoConfig)
         screenVideoSource.start(mediaProjection, videoConfig)
         h264SurfaceEncoder.start()
+
+        //画面静止时不发送重复的画面，只按保活间隔发送关键帧
+        changeGate = h264SurfaceEncoder.createChangeGate(KEEP_ALIVE_INTERVAL_MS)?.also {
+            it.start(mediaProjection, videoConfig.targetWidth, videoConfig.targetHeight)
+        }
     }
 
     private fun sendVideoPacket(packet: Packet) {
@@ -119,12 +132,15 @@ class ScreenPusher(
         rtmpPusher.release()
         rtmpPusher.setCallback(null)
         aacAudioSource.stop()
+        changeGate?.stop()
+        changeGate = null
         screenVideoSource.stop()
         h264SurfaceEncoder.stop()
     }
 
     companion object {
         private const val REQUEST_CODE_SCREEN_HARD = 100
+        private const val KEEP_ALIVE_INTERVAL_MS = 1000L
     }
 
 }
\ No newline at end of file
@@ -23,6 +23,9 @@ public class FrameReader implements OutputProvider {
     @Nullable
     private FrameListener mFrameListener;
 
+    @Nullable
+    private PlanesListener mPlanesListener;
+
     @Override
     public void onAttach(@NonNull Camera2Handle camera2Handle, @NonNull Components components) {
         mFrameSize = components.require(PREVIEW_SIZE);
@@ -61,6 +64,19 @@ public class FrameReader implements OutputProvider {
         @Override
         public void onImageAvailable(ImageReader reader) {
             Image image = reader.acquireNextImage();
+            // 直接回调平面数据，不做拷贝。
+            if (mPlanesListener != null && image.getFormat() == ImageFormat.YUV_420_888) {
+                Image.Plane[] planes = image.getPlanes();
+                mPlanesListener.onPreview(
+                        planes[0].getBuffer(),
+                        planes[1].getBuffer(),
+                        planes[2].getBuffer(),
+                        planes[0].getRowStride(),
+                        planes[1].getRowStride(),
+                        planes[1].getPixelStride(),
+                        mFrameSize
+                );
+            }
             // Y:U:V == 4:2:2
             if (mFrameListener != null && image.getFormat() == ImageFormat.YUV_420_888) {
                 Image.Plane[] planes = image.getPlanes();
@@ -107,8 +123,31 @@ public class FrameReader implements OutputProvider {
 
     }
 
+    public interface PlanesListener {
+
+        /**
+         * 预览数据回调，直接传递 Image 各平面的 ByteBuffer，省去拷贝到 byte[] 的那一次全帧复制，
+         * 可配合 {@link me.ztiany.lib.avbase.utils.av.YUVUtils#nv12FromYUV420888(ByteBuffer, ByteBuffer, ByteBuffer, int, int, int, byte[], int, int, int, boolean)} 等方法使用。
+         * 注意：回调返回后 Image 就会被关闭，不能在回调之外持有这些 buffer。
+         *
+         * @param y             预览数据，Y 平面。
+         * @param u             预览数据，U 平面。
+         * @param v             预览数据，V 平面。
+         * @param yRowStride    Y 平面的步长。
+         * @param uvRowStride   U/V 平面的步长。
+         * @param uvPixelStride U/V 平面的像素间隔，2 表示 U/V 交错存储。
+         * @param previewSize   预览尺寸。
+         */
+        void onPreview(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride, int uvPixelStride, Size previewSize);
+
+    }
+
     public void setFrameListener(@Nullable FrameListener frameListener) {
         mFrameListener = frameListener;
     }
 
+    public void setPlanesListener(@Nullable PlanesListener planesListener) {
+        mPlanesListener = planesListener;
+    }
+
 }
\ No newline at end of file
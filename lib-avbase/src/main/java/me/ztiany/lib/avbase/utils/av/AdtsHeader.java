@@ -0,0 +1,180 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ADTS 头的读写。MediaCodec 输出的是不带头的 AAC 原始帧，每帧前加上 7 字节的 ADTS 头后就是可以直接播放的 .aac 文件。
+ * <pre>
+ * syncword(12) id(1) layer(2) protection_absent(1)
+ * profile(2) sampling_frequency_index(4) private_bit(1) channel_configuration(3)
+ * original_copy(1) home(1) copyright_id_bit(1) copyright_id_start(1) aac_frame_length(13)
+ * adts_buffer_fullness(11) number_of_raw_data_blocks_in_frame(2)
+ * [crc_check(16)，protection_absent 为 0 时]
+ * </pre>
+ * 写入是静态方法，直接写到调用方的数组/缓冲区中；解析结果保存在实例中，同一个实例可以反复用于解析，都不会分配内存。
+ */
+public final class AdtsHeader {
+
+    /** 不带 CRC 的头长度。 */
+    public static final int HEADER_SIZE = 7;
+    /** 带 CRC 的头长度。 */
+    public static final int HEADER_SIZE_WITH_CRC = 9;
+    /** aac_frame_length 只有 13 位。 */
+    public static final int MAX_FRAME_LENGTH = 0x1FFF;
+
+    private int mObjectType;
+    private int mSampleRateIndex;
+    private int mChannelConfig;
+    private int mFrameLength;
+    private int mHeaderLength;
+    private int mRawDataBlocks;
+    private boolean mMpeg2;
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 写入
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 写入不带 CRC 的 7 字节 ADTS 头（MPEG-4，一个 raw data block，buffer fullness 为 0x7FF 即可变码率）。
+     *
+     * @param objectType      1-4，一般为 2（AAC-LC）。HE-AAC 在 ADTS 中按 LC 和核心采样率写，由解码器隐式识别 SBR。
+     * @param sampleRateIndex {@link AudioSpecificConfig#sampleRateIndex(int)}。
+     * @param channelConfig   0-7。
+     * @param payloadLength   AAC 原始帧的长度，不包括头。
+     * @return 写入的字节数，即 {@link #HEADER_SIZE}。
+     */
+    public static int write(byte[] dst, int offset, int objectType, int sampleRateIndex, int channelConfig, int payloadLength) {
+        final int frameLength = checkAndGetFrameLength(objectType, sampleRateIndex, channelConfig, payloadLength);
+        dst[offset] = (byte) 0xFF;
+        dst[offset + 1] = (byte) 0xF1;
+        dst[offset + 2] = (byte) (((objectType - 1) << 6) | (sampleRateIndex << 2) | (channelConfig >> 2));
+        dst[offset + 3] = (byte) (((channelConfig & 3) << 6) | (frameLength >> 11));
+        dst[offset + 4] = (byte) ((frameLength >> 3) & 0xFF);
+        dst[offset + 5] = (byte) (((frameLength & 7) << 5) | 0x1F);
+        dst[offset + 6] = (byte) 0xFC;
+        return HEADER_SIZE;
+    }
+
+    /**
+     * 同 {@link #write(byte[], int, int, int, int, int)}，写入 dst 的当前位置，position 前进 7。
+     */
+    public static int write(ByteBuffer dst, int objectType, int sampleRateIndex, int channelConfig, int payloadLength) {
+        final int frameLength = checkAndGetFrameLength(objectType, sampleRateIndex, channelConfig, payloadLength);
+        dst.put((byte) 0xFF);
+        dst.put((byte) 0xF1);
+        dst.put((byte) (((objectType - 1) << 6) | (sampleRateIndex << 2) | (channelConfig >> 2)));
+        dst.put((byte) (((channelConfig & 3) << 6) | (frameLength >> 11)));
+        dst.put((byte) ((frameLength >> 3) & 0xFF));
+        dst.put((byte) (((frameLength & 7) << 5) | 0x1F));
+        dst.put((byte) 0xFC);
+        return HEADER_SIZE;
+    }
+
+    private static int checkAndGetFrameLength(int objectType, int sampleRateIndex, int channelConfig, int payloadLength) {
+        final int frameLength = payloadLength + HEADER_SIZE;
+        if (objectType < 1 || objectType > 4 || sampleRateIndex < 0 || sampleRateIndex > 12
+                || channelConfig < 0 || channelConfig > 7 || payloadLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("objectType = " + objectType + ", sampleRateIndex = " + sampleRateIndex
+                    + ", channelConfig = " + channelConfig + ", payloadLength = " + payloadLength);
+        }
+        return frameLength;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 是否以 ADTS 的同步字（0xFFF，layer 为 0）开头，至少需要 2 个字节。 */
+    public static boolean isSyncWord(byte[] data, int offset) {
+        return (data[offset] & 0xFF) == 0xFF && (data[offset + 1] & 0xF6) == 0xF0;
+    }
+
+    /**
+     * 解析 data[offset] 开始的头，至少需要 {@link #HEADER_SIZE} 个字节。
+     *
+     * @return 是否是有效的 ADTS 头，无效时本实例的内容不确定。
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        if (length < HEADER_SIZE || !isSyncWord(data, offset)) {
+            return false;
+        }
+        return parse(data[offset + 1] & 0xFF, data[offset + 2] & 0xFF, data[offset + 3] & 0xFF,
+                data[offset + 4] & 0xFF, data[offset + 5] & 0xFF, data[offset + 6] & 0xFF);
+    }
+
+    /**
+     * 解析 data 中 position 开始的头，不改变 position。
+     */
+    public boolean parse(ByteBuffer data) {
+        final int p = data.position();
+        if (data.remaining() < HEADER_SIZE || (data.get(p) & 0xFF) != 0xFF || (data.get(p + 1) & 0xF6) != 0xF0) {
+            return false;
+        }
+        return parse(data.get(p + 1) & 0xFF, data.get(p + 2) & 0xFF, data.get(p + 3) & 0xFF,
+                data.get(p + 4) & 0xFF, data.get(p + 5) & 0xFF, data.get(p + 6) & 0xFF);
+    }
+
+    private boolean parse(int b1, int b2, int b3, int b4, int b5, int b6) {
+        mMpeg2 = (b1 & 0x08) != 0;
+        final boolean protectionAbsent = (b1 & 0x01) != 0;
+        mObjectType = (b2 >> 6) + 1;
+        mSampleRateIndex = (b2 >> 2) & 0x0F;
+        mChannelConfig = ((b2 & 0x01) << 2) | (b3 >> 6);
+        mFrameLength = ((b3 & 0x03) << 11) | (b4 << 3) | (b5 >> 5);
+        mRawDataBlocks = (b6 & 0x03) + 1;
+        mHeaderLength = protectionAbsent ? HEADER_SIZE : HEADER_SIZE_WITH_CRC;
+        return mSampleRateIndex <= 12 && mFrameLength >= mHeaderLength;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析结果
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** profile + 1，即 MPEG-4 audioObjectType，2 为 AAC-LC。 */
+    public int getObjectType() {
+        return mObjectType;
+    }
+
+    public int getSampleRateIndex() {
+        return mSampleRateIndex;
+    }
+
+    public int getSampleRate() {
+        return AudioSpecificConfig.sampleRate(mSampleRateIndex);
+    }
+
+    public int getChannelConfig() {
+        return mChannelConfig;
+    }
+
+    /** 整个 ADTS 帧的长度，包括头。 */
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    /** 头的长度，7 或 9。 */
+    public int getHeaderLength() {
+        return mHeaderLength;
+    }
+
+    /** AAC 原始数据的长度。 */
+    public int getPayloadLength() {
+        return mFrameLength - mHeaderLength;
+    }
+
+    /** 帧中 raw data block 的个数，每个 block 为 1024 个采样。 */
+    public int getRawDataBlocks() {
+        return mRawDataBlocks;
+    }
+
+    /** id 位为 1 表示 MPEG-2 AAC。 */
+    public boolean isMpeg2() {
+        return mMpeg2;
+    }
+
+    /** 转换为等价的 AudioSpecificConfig，例如用于 MP4 的 esds 或 FLV 的 sequence header。 */
+    public AudioSpecificConfig toAudioSpecificConfig() {
+        return AudioSpecificConfig.create(mObjectType, getSampleRate(), mChannelConfig);
+    }
+
+}
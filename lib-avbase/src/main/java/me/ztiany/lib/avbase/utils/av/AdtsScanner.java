@@ -0,0 +1,172 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 流式地逐帧读取 ADTS 格式的 AAC（.aac 文件或流），只使用一个固定大小的缓冲区，适合大文件。
+ * <p>
+ * 每次 {@link #next()} 返回 true 后，当前帧（包括 ADTS 头）位于 {@link #getBuffer()} 的
+ * [{@link #getFrameOffset()}, {@link #getFrameOffset()} + {@link #getFrameLength()}) 中，直到下一次调用 {@link #next()} 前有效。
+ * 遇到无效数据时逐字节向后查找同步字；失步后找到的候选帧还要求紧随其后的也是同步字，避免把数据中偶然出现的 0xFFF 当作帧头。
+ * </p>
+ * 实例不是线程安全的。
+ */
+public final class AdtsScanner implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream mInput;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    /** 缓冲区中未处理的数据为 [mStart, mEnd)。 */
+    private int mStart;
+    private int mEnd;
+    /** mBuffer[0] 在流中的位置。 */
+    private long mBufferPosition;
+    private boolean mEndOfStream;
+
+    private final AdtsHeader mHeader = new AdtsHeader();
+    private int mFrameOffset;
+    private int mFrameLength;
+    private long mFramePosition;
+    private long mFrameTimeUs;
+    /** 之前所有帧的采样数。 */
+    private long mSamples;
+
+    private boolean mSynced;
+    private long mFrameCount;
+    private long mSkippedBytes;
+
+    public AdtsScanner(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public AdtsScanner(InputStream input) {
+        mInput = input;
+    }
+
+    /**
+     * 读取下一帧。
+     *
+     * @return 没有更多的帧时返回 false，末尾不完整的帧会被丢弃并计入 {@link #getSkippedBytes()}。
+     */
+    public boolean next() throws IOException {
+        while (ensure(AdtsHeader.HEADER_SIZE)) {
+            if (mHeader.parse(mBuffer, mStart, mEnd - mStart)) {
+                final int length = mHeader.getFrameLength();
+                boolean valid = true;
+                if (!mSynced && ensure(length + 2)) {
+                    valid = AdtsHeader.isSyncWord(mBuffer, mStart + length);
+                }
+                if (valid && ensure(length)) {
+                    mFrameOffset = mStart;
+                    mFrameLength = length;
+                    mFramePosition = mBufferPosition + mStart;
+                    mStart += length;
+                    mSynced = true;
+                    mFrameCount++;
+
+                    final int sampleRate = mHeader.getSampleRate();
+                    mFrameTimeUs = sampleRate > 0 ? mSamples * 1000_000L / sampleRate : 0;
+                    mSamples += mHeader.getRawDataBlocks() * 1024L;
+                    return true;
+                }
+                if (valid) {
+                    // 流结束，最后一帧不完整。
+                    mSkippedBytes += mEnd - mStart;
+                    mStart = mEnd;
+                    return false;
+                }
+            }
+            mStart++;
+            mSkippedBytes++;
+            mSynced = false;
+        }
+        mSkippedBytes += mEnd - mStart;
+        mStart = mEnd;
+        return false;
+    }
+
+    /** 当前帧的 ADTS 头。 */
+    public AdtsHeader getHeader() {
+        return mHeader;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /** 当前帧（包括 ADTS 头）在 {@link #getBuffer()} 中的位置。 */
+    public int getFrameOffset() {
+        return mFrameOffset;
+    }
+
+    /** 当前帧的长度，包括 ADTS 头。 */
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    /** 当前帧的 AAC 原始数据在 {@link #getBuffer()} 中的位置。 */
+    public int getPayloadOffset() {
+        return mFrameOffset + mHeader.getHeaderLength();
+    }
+
+    public int getPayloadLength() {
+        return mHeader.getPayloadLength();
+    }
+
+    /** 当前帧在流中的字节位置。 */
+    public long getFramePosition() {
+        return mFramePosition;
+    }
+
+    /** 当前帧的时间，由之前所有帧的采样数累计得出。 */
+    public long getFrameTimeUs() {
+        return mFrameTimeUs;
+    }
+
+    /** 已经读出的帧数。 */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** 因为不是有效的 ADTS 帧而跳过的字节数。 */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    /**
+     * 保证缓冲区中从 mStart 开始至少有 n 个字节，需要时把剩余数据移到开头再读取。
+     *
+     * @return 流结束、数据不足时返回 false。
+     */
+    private boolean ensure(int n) throws IOException {
+        if (mEnd - mStart >= n) {
+            return true;
+        }
+        if (mStart + n > mBuffer.length) {
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+            mBufferPosition += mStart;
+            mEnd -= mStart;
+            mStart = 0;
+        }
+        while (mEnd - mStart < n && !mEndOfStream) {
+            final int read = mInput.read(mBuffer, mEnd, mBuffer.length - mEnd);
+            if (read < 0) {
+                mEndOfStream = true;
+            } else {
+                mEnd += read;
+            }
+        }
+        return mEnd - mStart >= n;
+    }
+
+}
@@ -0,0 +1,239 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流式地按 NAL 单元读取 Annex-B 格式的 H.264/H.265 裸流（.h264/.h265 文件），同时识别 3 字节（00 00 01）与 4 字节（00 00 00 01）起始码。
+ * <p>
+ * 文件按窗口映射到内存，{@link #next()} 之后通过 {@link #getNal()}、{@link #getUnit()} 得到指向映射内存的视图，
+ * 可以直接 put 到 MediaCodec 的输入缓冲区，中间不经过任何数组；内存占用与文件大小无关，一个 NAL 不超过窗口大小即可。
+ * </p>
+ * 查找起始码时先看第 3 个字节：大于 1 时当前位置往后的 3 个字节都不可能是起始码，直接前进 3 个字节，大多数数据只需检查 1/3 的字节。
+ * 紧挨在起始码之前的 0 字节（trailing_zero_8bits，或者 4 字节起始码的第一个字节）不属于上一个 NAL。
+ * <p>
+ * 实例不是线程安全的。
+ * </p>
+ */
+public final class AnnexBScanner implements Closeable {
+
+    /** 每次映射的大小。 */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final int mWindowSize;
+
+    private ByteBuffer mWindow;
+    /** mWindow 在文件中的位置。 */
+    private long mWindowStart;
+    /** 下一个 NAL 的起始码在 mWindow 中的位置。 */
+    private int mCursor = -1;
+
+    private final ByteBuffer mEmpty = ByteBuffer.allocate(0);
+    private ByteBuffer mUnit = mEmpty;
+    private ByteBuffer mNal = mEmpty;
+    private long mUnitPosition;
+    private int mStartCodeLength;
+    private long mNalCount;
+
+    public AnnexBScanner(File file) throws IOException {
+        this(new RandomAccessFile(file, "r"), WINDOW_SIZE);
+    }
+
+    /**
+     * close 时会关闭 channel。
+     */
+    public AnnexBScanner(FileChannel channel) throws IOException {
+        this(null, channel, WINDOW_SIZE);
+    }
+
+    /**
+     * 扫描内存中的数据，不改变 data 的 position。
+     */
+    public AnnexBScanner(ByteBuffer data) {
+        mFile = null;
+        mChannel = null;
+        mWindow = data.slice();
+        mSize = mWindow.limit();
+        mWindowSize = mWindow.limit();
+    }
+
+    AnnexBScanner(RandomAccessFile file, int windowSize) throws IOException {
+        this(file, file.getChannel(), windowSize);
+    }
+
+    private AnnexBScanner(RandomAccessFile file, FileChannel channel, int windowSize) throws IOException {
+        mFile = file;
+        mChannel = channel;
+        mSize = channel.size();
+        mWindowSize = windowSize;
+        mWindow = map(0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 读取
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 读取下一个 NAL 单元。
+     *
+     * @return 没有更多的 NAL 时返回 false。
+     */
+    public boolean next() throws IOException {
+        if (mCursor < 0) {
+            // 跳过第一个起始码之前的数据，窗口之间重叠 3 个字节，以免漏掉跨窗口的起始码。
+            while ((mCursor = findStartCode(mWindow, 0, mWindow.limit())) < 0 && !isLastWindow()) {
+                mWindow = map(mWindowStart + Math.max(1, mWindow.limit() - 3));
+            }
+            if (mCursor < 0) {
+                mCursor = mWindow.limit();
+            }
+        }
+        while (true) {
+            final int limit = mWindow.limit();
+            if (mCursor >= limit && isLastWindow()) {
+                mUnit = mNal = mEmpty;
+                return false;
+            }
+            final int startCodeLength = startCodeLength(mWindow, mCursor);
+            final int payload = mCursor + startCodeLength;
+            int end = findStartCode(mWindow, payload, limit);
+            if (end < 0) {
+                if (!isLastWindow()) {
+                    // NAL 跨过了窗口，从它的起始码开始重新映射。
+                    if (mCursor == 0) {
+                        throw new IOException("NAL unit at " + mWindowStart + " is larger than " + mWindowSize + " bytes");
+                    }
+                    mWindow = map(mWindowStart + mCursor);
+                    mCursor = 0;
+                    continue;
+                }
+                end = limit;
+            }
+            int nalEnd = end;
+            while (nalEnd > payload && mWindow.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+
+            mUnit = slice(mCursor, nalEnd);
+            mNal = slice(payload, nalEnd);
+            mUnitPosition = mWindowStart + mCursor;
+            mStartCodeLength = startCodeLength;
+            mCursor = end;
+            mNalCount++;
+            return true;
+        }
+    }
+
+    /** 当前 NAL 的数据（包括 NAL 头，不包括起始码），只读视图，下一次 {@link #next()} 之前有效。 */
+    public ByteBuffer getNal() {
+        return mNal;
+    }
+
+    /** 当前 NAL 包括起始码的数据，可以直接送给解码器。 */
+    public ByteBuffer getUnit() {
+        return mUnit;
+    }
+
+    /** NAL 头的第一个字节。 */
+    public int getNalHeader() {
+        return mNal.hasRemaining() ? mNal.get(mNal.position()) & 0xFF : -1;
+    }
+
+    /** H.264 的 nal_unit_type，例如 5 为 IDR、7 为 SPS、8 为 PPS。 */
+    public int getH264NalType() {
+        final int header = getNalHeader();
+        return header < 0 ? -1 : header & 0x1F;
+    }
+
+    /** H.265 的 nal_unit_type，例如 19/20 为 IDR、32 为 VPS、33 为 SPS、34 为 PPS。 */
+    public int getH265NalType() {
+        final int header = getNalHeader();
+        return header < 0 ? -1 : (header >> 1) & 0x3F;
+    }
+
+    /** 当前 NAL（起始码）在文件中的位置。 */
+    public long getPosition() {
+        return mUnitPosition;
+    }
+
+    /** 当前 NAL 的起始码长度，3 或 4。 */
+    public int getStartCodeLength() {
+        return mStartCodeLength;
+    }
+
+    public long getNalCount() {
+        return mNalCount;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = mEmpty;
+        mUnit = mNal = mEmpty;
+        if (mFile != null) {
+            mFile.close();
+        } else if (mChannel != null) {
+            mChannel.close();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 起始码
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 在 [from, to) 中查找起始码。
+     *
+     * @return 起始码第一个字节的位置（4 字节起始码时为第一个 0），找不到返回 -1。
+     */
+    public static int findStartCode(ByteBuffer data, int from, int to) {
+        int i = from + 2;
+        while (i < to) {
+            final byte b = data.get(i);
+            if (b > 1 || b < 0) {
+                i += 3;
+            } else if (b == 0) {
+                i++;
+            } else if (data.get(i - 1) != 0 || data.get(i - 2) != 0) {
+                // b == 1，但前面不是两个 0。
+                i += 3;
+            } else {
+                final int start = i - 2;
+                return start > from && data.get(start - 1) == 0 ? start - 1 : start;
+            }
+        }
+        return -1;
+    }
+
+    /** position 处起始码的长度，调用方保证 position 处确实是起始码。 */
+    private static int startCodeLength(ByteBuffer data, int position) {
+        return data.get(position + 2) == 1 ? 3 : 4;
+    }
+
+    private boolean isLastWindow() {
+        return mWindowStart + mWindow.limit() >= mSize;
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        final ByteBuffer view = mWindow.duplicate();
+        view.limit(to).position(from);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private ByteBuffer map(long offset) throws IOException {
+        mWindowStart = offset;
+        final long size = Math.min(mWindowSize, mSize - offset);
+        return mChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+}
@@ -0,0 +1,99 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * 为音频编码器切分输入并计算时间戳：每次送入编码器的数据都是整数个编码帧（AAC 为 1024 个采样），
+ * 时间戳由采集开始的时刻加上累计的采样数得出，而不是每次读取时的系统时间，因此没有抖动，且与编码帧对齐。
+ * <p>
+ * 采集中断（缓冲区溢出丢帧、系统卡顿导致 AudioRecord 丢数据）时，采样数会落后于实际经过的时间。每次取时间戳时用
+ * “当前时间 - 尚未编码的数据时长”估算这一块实际的采集时间，超前超过阈值即认为出现了不连续，把锚点移到实际时间，
+ * 之后继续按采样数推进。时间戳只会向后跳，不会回退。
+ * </p>
+ * 所有时间都是 {@link MediaClock#systemTimeUs()} 所在的单调时钟，单位微秒。实例不是线程安全的。
+ */
+public final class AudioFramer {
+
+    /** AAC 一帧的采样数。 */
+    public static final int AAC_SAMPLES_PER_FRAME = 1024;
+
+    private final int mSampleRate;
+    private final int mBytesPerFrame;
+    private final int mChunkSamples;
+
+    private long mDiscontinuityThresholdUs;
+
+    private long mAnchorUs;
+    /** 锚点之后累计的采样数。 */
+    private long mSamples;
+    private long mDiscontinuityCount;
+    private boolean mLastDiscontinuity;
+
+    /**
+     * @param bytesPerFrame     一个 PCM 帧（所有声道一个采样）的字节数。
+     * @param samplesPerFrame   一个编码帧的采样数，AAC 为 {@link #AAC_SAMPLES_PER_FRAME}。
+     * @param framesPerChunk    每次送入编码器的编码帧数。
+     */
+    public AudioFramer(int sampleRate, int bytesPerFrame, int samplesPerFrame, int framesPerChunk) {
+        if (sampleRate <= 0 || bytesPerFrame <= 0 || samplesPerFrame <= 0 || framesPerChunk <= 0) {
+            throw new IllegalArgumentException();
+        }
+        mSampleRate = sampleRate;
+        mBytesPerFrame = bytesPerFrame;
+        mChunkSamples = samplesPerFrame * framesPerChunk;
+        // 默认容忍 4 个编码帧的抖动（44100Hz 的 AAC 约 93 毫秒），AudioRecord 的读取粒度和调度延迟都在这个范围内。
+        mDiscontinuityThresholdUs = samplesToUs(4L * samplesPerFrame);
+    }
+
+    public void setDiscontinuityThresholdUs(long thresholdUs) {
+        mDiscontinuityThresholdUs = thresholdUs;
+    }
+
+    /** 每次送入编码器的字节数。 */
+    public int getChunkBytes() {
+        return mChunkSamples * mBytesPerFrame;
+    }
+
+    /**
+     * 开始采集时调用，之后的时间戳从 captureStartUs 开始。
+     */
+    public void start(long captureStartUs) {
+        mAnchorUs = captureStartUs;
+        mSamples = 0;
+        mDiscontinuityCount = 0;
+        mLastDiscontinuity = false;
+    }
+
+    /**
+     * 取出一块（{@link #getChunkBytes()} 字节）数据送入编码器时调用，返回它的时间戳并推进采样数。
+     *
+     * @param nowUs         当前时间。
+     * @param pendingBytes  这一块之后还没有编码的字节数（例如环形缓冲区中剩余的数据）。
+     */
+    public long nextPresentationTimeUs(long nowUs, long pendingBytes) {
+        long pts = mAnchorUs + samplesToUs(mSamples);
+        // 这一块第一个采样实际被采集的时间（估算）。
+        final long observedUs = nowUs - samplesToUs(pendingBytes / mBytesPerFrame + mChunkSamples);
+        mLastDiscontinuity = observedUs - pts > mDiscontinuityThresholdUs;
+        if (mLastDiscontinuity) {
+            mAnchorUs = observedUs;
+            mSamples = 0;
+            mDiscontinuityCount++;
+            pts = observedUs;
+        }
+        mSamples += mChunkSamples;
+        return pts;
+    }
+
+    /** 上一次 {@link #nextPresentationTimeUs(long, long)} 是否发生了跳变。 */
+    public boolean isDiscontinuity() {
+        return mLastDiscontinuity;
+    }
+
+    public long getDiscontinuityCount() {
+        return mDiscontinuityCount;
+    }
+
+    private long samplesToUs(long samples) {
+        return samples * 1000_000L / mSampleRate;
+    }
+
+}
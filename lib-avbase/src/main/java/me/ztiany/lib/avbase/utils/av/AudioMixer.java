@@ -0,0 +1,221 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.util.Arrays;
+
+/**
+ * 多轨 PCM 混音：按块把 N 个输入（声道交错、声道数相同）以各自的增益叠加，再经过软限幅输出。
+ * <p>
+ * 增益可以设置线性渐变，渐变精确到每一帧；不同输入的长度可以不同，不足一块的部分、已经结束（传入 null）的输入按静音处理。
+ * 叠加在 float 累加区中进行，16 位输入按 1/32768 归一化；输出前超过阈值的部分按 x / (1 + x) 的曲线平滑压缩，而不是直接截断，
+ * 阈值以下保持线性。
+ * </p>
+ * 实例不是线程安全的。
+ */
+public final class AudioMixer {
+
+    private static final float SHORT_SCALE = 1f / 32768f;
+
+    private final int mChannelCount;
+    private final int mTrackCount;
+
+    private final float[] mGains;
+    private final float[] mTargetGains;
+    private final int[] mRampFrames;
+
+    private boolean mLimiterEnabled = true;
+    private float mLimiterThreshold = 0.8f;
+
+    private float[] mAccumulator = new float[0];
+
+    public AudioMixer(int channelCount, int trackCount) {
+        if (channelCount <= 0 || trackCount <= 0) {
+            throw new IllegalArgumentException("channelCount = " + channelCount + ", trackCount = " + trackCount);
+        }
+        mChannelCount = channelCount;
+        mTrackCount = trackCount;
+        mGains = new float[trackCount];
+        mTargetGains = new float[trackCount];
+        mRampFrames = new int[trackCount];
+        Arrays.fill(mGains, 1f);
+        Arrays.fill(mTargetGains, 1f);
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getTrackCount() {
+        return mTrackCount;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 增益与限幅
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 立即设置增益，会取消正在进行的渐变。 */
+    public void setGain(int track, float gain) {
+        mGains[track] = gain;
+        mTargetGains[track] = gain;
+        mRampFrames[track] = 0;
+    }
+
+    /**
+     * 在之后的 frames 帧内把增益线性地变为 target，frames 为 0 时立即生效。
+     */
+    public void rampGain(int track, float target, int frames) {
+        if (frames <= 0) {
+            setGain(track, target);
+            return;
+        }
+        mTargetGains[track] = target;
+        mRampFrames[track] = frames;
+    }
+
+    /** 当前的增益，渐变中返回当前帧的值。 */
+    public float getGain(int track) {
+        return mGains[track];
+    }
+
+    /**
+     * @param threshold 开始压缩的电平，(0, 1]，为 1 时只在超过满幅的部分压缩。
+     */
+    public void setLimiter(boolean enabled, float threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("threshold = " + threshold);
+        }
+        mLimiterEnabled = enabled;
+        mLimiterThreshold = threshold;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 混音
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 混合 16 位 PCM。
+     *
+     * @param inputs      每个输入的采样，声道交错，可以为 null（静音）。
+     * @param inputFrames 每个输入中有效的帧数，可以小于 frames，其余部分按静音处理。
+     * @param out         输出，至少 frames * channelCount 个采样。
+     * @param frames      输出的帧数。
+     */
+    public void mix(short[][] inputs, int[] inputFrames, short[] out, int frames) {
+        final float[] acc = accumulator(frames);
+        for (int t = 0; t < mTrackCount; t++) {
+            final short[] input = inputs[t];
+            final int valid = input == null ? 0 : Math.min(inputFrames[t], frames);
+            accumulate(t, input, null, valid, frames, acc);
+        }
+        final int samples = frames * mChannelCount;
+        final boolean limit = mLimiterEnabled;
+        final float threshold = mLimiterThreshold;
+        for (int i = 0; i < samples; i++) {
+            float x = acc[i];
+            if (limit) {
+                x = limit(x, threshold);
+            }
+            out[i] = toShort(x);
+        }
+    }
+
+    /**
+     * 混合 [-1, 1] 的 float 采样，参数同 {@link #mix(short[][], int[], short[], int)}。关闭限幅时输出可能超过 [-1, 1]。
+     */
+    public void mix(float[][] inputs, int[] inputFrames, float[] out, int frames) {
+        final float[] acc = accumulator(frames);
+        for (int t = 0; t < mTrackCount; t++) {
+            final float[] input = inputs[t];
+            final int valid = input == null ? 0 : Math.min(inputFrames[t], frames);
+            accumulate(t, null, input, valid, frames, acc);
+        }
+        final int samples = frames * mChannelCount;
+        if (mLimiterEnabled) {
+            final float threshold = mLimiterThreshold;
+            for (int i = 0; i < samples; i++) {
+                out[i] = limit(acc[i], threshold);
+            }
+        } else {
+            System.arraycopy(acc, 0, out, 0, samples);
+        }
+    }
+
+    /**
+     * 把第 track 个输入的前 valid 帧乘以增益加到 acc 中，增益渐变按 frames 帧推进（静音的部分也会推进渐变）。
+     */
+    private void accumulate(int track, short[] shorts, float[] floats, int valid, int frames, float[] acc) {
+        final int channels = mChannelCount;
+        int frame = 0;
+
+        // 渐变部分逐帧计算增益。
+        int ramp = Math.min(mRampFrames[track], frames);
+        if (ramp > 0) {
+            float gain = mGains[track];
+            final float step = (mTargetGains[track] - gain) / mRampFrames[track];
+            for (; frame < ramp; frame++) {
+                gain += step;
+                if (frame < valid) {
+                    final int base = frame * channels;
+                    for (int c = 0; c < channels; c++) {
+                        acc[base + c] += sample(shorts, floats, base + c) * gain;
+                    }
+                }
+            }
+            mRampFrames[track] -= ramp;
+            mGains[track] = mRampFrames[track] == 0 ? mTargetGains[track] : gain;
+        }
+
+        // 其余部分增益恒定，逐采样计算。
+        final float gain = mGains[track];
+        if (gain == 0 || frame >= valid) {
+            return;
+        }
+        final int end = valid * channels;
+        if (shorts != null) {
+            final float scale = gain * SHORT_SCALE;
+            for (int i = frame * channels; i < end; i++) {
+                acc[i] += shorts[i] * scale;
+            }
+        } else {
+            for (int i = frame * channels; i < end; i++) {
+                acc[i] += floats[i] * gain;
+            }
+        }
+    }
+
+    private static float sample(short[] shorts, float[] floats, int index) {
+        return shorts != null ? shorts[index] * SHORT_SCALE : floats[index];
+    }
+
+    /**
+     * 软限幅：|x| 不超过 threshold 时不变，超过的部分 d（以 1 - threshold 为单位）映射为 d / (1 + d)，
+     * 输出趋近但不超过 1，且在阈值处连续、斜率为 1。
+     */
+    static float limit(float x, float threshold) {
+        final float magnitude = Math.abs(x);
+        if (magnitude <= threshold) {
+            return x;
+        }
+        final float knee = 1f - threshold;
+        if (knee == 0) {
+            return Math.copySign(1f, x);
+        }
+        final float over = (magnitude - threshold) / knee;
+        return Math.copySign(threshold + knee * over / (1f + over), x);
+    }
+
+    private static short toShort(float x) {
+        final int value = Math.round(x * 32768f);
+        return (short) (value > Short.MAX_VALUE ? Short.MAX_VALUE : value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+    }
+
+    private float[] accumulator(int frames) {
+        final int samples = frames * mChannelCount;
+        if (mAccumulator.length < samples) {
+            mAccumulator = new float[samples];
+        } else {
+            Arrays.fill(mAccumulator, 0, samples, 0f);
+        }
+        return mAccumulator;
+    }
+
+}
@@ -0,0 +1,342 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MPEG-4 AudioSpecificConfig（ISO/IEC 14496-3 1.6.2.1）：MediaCodec AAC 编码器输出的第一个 buffer（BUFFER_FLAG_CODEC_CONFIG，即 csd-0），
+ * 也是 MP4 esds、FLV/RTMP AAC sequence header 的内容。
+ * <p>
+ * 常见的 AAC-LC 为 2 个字节：audioObjectType（5 位）、samplingFrequencyIndex（4 位）、channelConfiguration（4 位）和 GASpecificConfig 的 3 位。
+ * 解析时支持 objectType 的扩展（31）、显式的采样率（index 为 15），以及显式声明的 SBR（HE-AAC，5）/PS（HE-AACv2，29），
+ * 此时 {@link #getObjectType()} 为实际的核心编码类型（一般为 LC），{@link #getSampleRate()} 为核心采样率。
+ * </p>
+ * 参考：<a href="https://wiki.multimedia.cx/index.php?title=MPEG-4_Audio#Audio_Specific_Config">MPEG-4 Audio</a>
+ */
+public final class AudioSpecificConfig {
+
+    public static final int OBJECT_TYPE_AAC_MAIN = 1;
+    public static final int OBJECT_TYPE_AAC_LC = 2;
+    public static final int OBJECT_TYPE_AAC_SSR = 3;
+    public static final int OBJECT_TYPE_AAC_LTP = 4;
+    public static final int OBJECT_TYPE_SBR = 5;
+    public static final int OBJECT_TYPE_PS = 29;
+
+    /** FLV AudioTagHeader 的第一个字节：SoundFormat = 10（AAC），AAC 时采样率、位深、声道固定为 3、1、1。 */
+    public static final int FLV_AAC_SOUND_HEADER = 0xAF;
+    /** FLV AACPacketType：sequence header。 */
+    public static final int FLV_AAC_SEQUENCE_HEADER = 0;
+    /** FLV AACPacketType：raw 数据。 */
+    public static final int FLV_AAC_RAW = 1;
+
+    /** toBytes 的最大长度：SBR/PS、两个显式采样率、扩展的 objectType 共 79 位。 */
+    private static final int MAX_CONFIG_SIZE = 10;
+
+    private static final int[] SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private final int mObjectType;
+    private final int mSampleRate;
+    private final int mChannelConfig;
+    private final int mSamplesPerFrame;
+    private final boolean mSbr;
+    private final boolean mPs;
+    private final int mExtensionSampleRate;
+
+    private AudioSpecificConfig(int objectType, int sampleRate, int channelConfig, int samplesPerFrame, boolean sbr, boolean ps, int extensionSampleRate) {
+        mObjectType = objectType;
+        mSampleRate = sampleRate;
+        mChannelConfig = channelConfig;
+        mSamplesPerFrame = samplesPerFrame;
+        mSbr = sbr;
+        mPs = ps;
+        mExtensionSampleRate = extensionSampleRate;
+    }
+
+    /**
+     * @param objectType    例如 {@link #OBJECT_TYPE_AAC_LC}。
+     * @param channelConfig 1-7，1 为单声道，2 为立体声，6 为 5.1（channelConfiguration 为 6）。
+     */
+    public static AudioSpecificConfig create(int objectType, int sampleRate, int channelConfig) {
+        if (objectType <= 0 || objectType == OBJECT_TYPE_SBR || objectType == OBJECT_TYPE_PS || objectType > 95) {
+            throw new IllegalArgumentException("objectType = " + objectType);
+        }
+        if (sampleRate <= 0 || channelConfig < 0 || channelConfig > 15) {
+            throw new IllegalArgumentException("sampleRate = " + sampleRate + ", channelConfig = " + channelConfig);
+        }
+        return new AudioSpecificConfig(objectType, sampleRate, channelConfig, 1024, false, false, sampleRate);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 属性
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 核心编码类型，HE-AAC 时为 LC。 */
+    public int getObjectType() {
+        return mObjectType;
+    }
+
+    /** 核心采样率，HE-AAC 时为输出采样率的一半。 */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** 解码后的采样率，包括 SBR。 */
+    public int getOutputSampleRate() {
+        return mExtensionSampleRate;
+    }
+
+    /** 采样率在标准表中的下标，不在表中时为 -1。 */
+    public int getSampleRateIndex() {
+        return sampleRateIndex(mSampleRate);
+    }
+
+    public int getChannelConfig() {
+        return mChannelConfig;
+    }
+
+    /** 声道数，channelConfig 为 7 时是 8 个声道（7.1）。 */
+    public int getChannelCount() {
+        return mChannelConfig == 7 ? 8 : mChannelConfig;
+    }
+
+    /** 每帧的采样数，1024 或 960。 */
+    public int getSamplesPerFrame() {
+        return mSamplesPerFrame;
+    }
+
+    public boolean isSbr() {
+        return mSbr;
+    }
+
+    public boolean isPs() {
+        return mPs;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 采样率表
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return 采样率在标准表中的下标，不在表中时为 -1。
+     */
+    public static int sampleRateIndex(int sampleRate) {
+        for (int i = 0; i < SAMPLE_RATES.length; i++) {
+            if (SAMPLE_RATES[i] == sampleRate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 下标对应的采样率，无效的下标返回 -1。
+     */
+    public static int sampleRate(int index) {
+        return index >= 0 && index < SAMPLE_RATES.length ? SAMPLE_RATES[index] : -1;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 序列化
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 生成 AudioSpecificConfig，AAC-LC 等常见情况为 2 个字节；采样率不在标准表中时显式写出，为 5 个字节。
+     * 解析得到的 SBR/PS 配置按显式方式写出。
+     */
+    public byte[] toBytes() {
+        final BitWriter writer = new BitWriter(MAX_CONFIG_SIZE);
+        if (mSbr || mPs) {
+            writeObjectType(writer, mPs ? OBJECT_TYPE_PS : OBJECT_TYPE_SBR);
+            writeSampleRate(writer, mSampleRate);
+            writer.write(mChannelConfig, 4);
+            writeSampleRate(writer, mExtensionSampleRate);
+            writeObjectType(writer, mObjectType);
+        } else {
+            writeObjectType(writer, mObjectType);
+            writeSampleRate(writer, mSampleRate);
+            writer.write(mChannelConfig, 4);
+        }
+        // GASpecificConfig：frameLengthFlag、dependsOnCoreCoder、extensionFlag。
+        writer.write(mSamplesPerFrame == 960 ? 1 : 0, 1);
+        writer.write(0, 1);
+        writer.write(0, 1);
+        return writer.toByteArray();
+    }
+
+    /**
+     * FLV/RTMP 的 AAC sequence header 消息体：0xAF 0x00 + AudioSpecificConfig。
+     */
+    public byte[] toFlvSequenceHeader() {
+        final byte[] config = toBytes();
+        final byte[] tag = new byte[config.length + 2];
+        tag[0] = (byte) FLV_AAC_SOUND_HEADER;
+        tag[1] = FLV_AAC_SEQUENCE_HEADER;
+        System.arraycopy(config, 0, tag, 2, config.length);
+        return tag;
+    }
+
+    /**
+     * 按本配置写出 ADTS 头，见 {@link AdtsHeader#write(byte[], int, int, int, int, int)}。
+     *
+     * @return 写入的字节数。
+     */
+    public int writeAdtsHeader(byte[] dst, int offset, int payloadLength) {
+        final int index = getSampleRateIndex();
+        if (index < 0 || mObjectType > 4) {
+            throw new IllegalStateException("ADTS can't carry " + this);
+        }
+        return AdtsHeader.write(dst, offset, mObjectType, index, mChannelConfig, payloadLength);
+    }
+
+    private static void writeObjectType(BitWriter writer, int objectType) {
+        if (objectType < 31) {
+            writer.write(objectType, 5);
+        } else {
+            writer.write(31, 5);
+            writer.write(objectType - 32, 6);
+        }
+    }
+
+    private static void writeSampleRate(BitWriter writer, int sampleRate) {
+        final int index = sampleRateIndex(sampleRate);
+        if (index >= 0) {
+            writer.write(index, 4);
+        } else {
+            writer.write(15, 4);
+            writer.write(sampleRate, 24);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static AudioSpecificConfig parse(byte[] data) {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * 解析 csd-0 等 ByteBuffer 中 position 到 limit 的数据，不改变 position。
+     */
+    public static AudioSpecificConfig parse(ByteBuffer data) {
+        return parse(new BitReader(data, false));
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据不完整或者不是 AAC。
+     */
+    public static AudioSpecificConfig parse(byte[] data, int offset, int length) {
+        return parse(new BitReader(ByteBuffer.wrap(data, offset, length), false));
+    }
+
+    private static AudioSpecificConfig parse(BitReader reader) {
+        int objectType = readObjectType(reader);
+        int sampleRate = readSampleRate(reader);
+        final int channelConfig = reader.readBits(4);
+
+        boolean sbr = false;
+        boolean ps = false;
+        int extensionSampleRate = sampleRate;
+        if (objectType == OBJECT_TYPE_SBR || objectType == OBJECT_TYPE_PS) {
+            sbr = true;
+            ps = objectType == OBJECT_TYPE_PS;
+            extensionSampleRate = readSampleRate(reader);
+            objectType = readObjectType(reader);
+        }
+
+        int samplesPerFrame = 1024;
+        if (objectType >= 1 && objectType <= 4 || objectType == 6 || objectType == 7 || objectType >= 17 && objectType <= 23) {
+            if (reader.hasMoreData() && reader.readBit() == 1) {
+                samplesPerFrame = 960;
+            }
+        }
+        if (objectType <= 0) {
+            throw new IllegalArgumentException("invalid objectType " + objectType);
+        }
+        return new AudioSpecificConfig(objectType, sampleRate, channelConfig, samplesPerFrame, sbr, ps, extensionSampleRate);
+    }
+
+    private static int readObjectType(BitReader reader) {
+        final int objectType = reader.readBits(5);
+        return objectType == 31 ? 32 + reader.readBits(6) : objectType;
+    }
+
+    private static int readSampleRate(BitReader reader) {
+        final int index = reader.readBits(4);
+        if (index == 15) {
+            return reader.readBits(24);
+        }
+        final int sampleRate = sampleRate(index);
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("invalid samplingFrequencyIndex " + index);
+        }
+        return sampleRate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AudioSpecificConfig)) {
+            return false;
+        }
+        final AudioSpecificConfig that = (AudioSpecificConfig) o;
+        return mObjectType == that.mObjectType && mSampleRate == that.mSampleRate && mChannelConfig == that.mChannelConfig
+                && mSamplesPerFrame == that.mSamplesPerFrame && mSbr == that.mSbr && mPs == that.mPs
+                && mExtensionSampleRate == that.mExtensionSampleRate;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mObjectType;
+        result = 31 * result + mSampleRate;
+        result = 31 * result + mChannelConfig;
+        result = 31 * result + mSamplesPerFrame;
+        result = 31 * result + mExtensionSampleRate;
+        return 31 * result + (mSbr ? 1 : 0) + (mPs ? 2 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "AudioSpecificConfig{" +
+                "objectType=" + mObjectType +
+                ", sampleRate=" + mSampleRate +
+                ", channelConfig=" + mChannelConfig +
+                ", samplesPerFrame=" + mSamplesPerFrame +
+                (mSbr ? ", sbr, outputSampleRate=" + mExtensionSampleRate : "") +
+                (mPs ? ", ps" : "") +
+                '}';
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 位写入
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static final class BitWriter {
+
+        private final byte[] mData;
+        private int mBitPosition;
+
+        BitWriter(int capacity) {
+            mData = new byte[capacity];
+        }
+
+        void write(int value, int bits) {
+            for (int i = bits - 1; i >= 0; i--, mBitPosition++) {
+                if (((value >> i) & 1) != 0) {
+                    mData[mBitPosition >> 3] |= (byte) (0x80 >> (mBitPosition & 7));
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            final byte[] bytes = new byte[(mBitPosition + 7) >> 3];
+            System.arraycopy(mData, 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+    }
+
+}
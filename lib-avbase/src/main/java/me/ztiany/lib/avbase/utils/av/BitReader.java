@@ -0,0 +1,163 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按位读取 H.264/H.265 的 NAL 数据，支持 Exp-Golomb 编码（ue(v)、se(v)）。
+ * <p>
+ * 读取时直接跳过防竞争字节（00 00 03 中的 03），不需要先把 NAL 转换为 RBSP；数据按字节装入 64 位的缓存，
+ * 大多数 ue(v) 通过一次 {@link Long#numberOfLeadingZeros(long)} 即可读出。
+ * </p>
+ * 数据不足时抛出 {@link IllegalArgumentException}。实例不是线程安全的。
+ */
+public final class BitReader {
+
+    private final ByteBuffer mData;
+    private final int mLimit;
+    private final boolean mUnescape;
+    private int mPosition;
+    /** 连续的 0 字节个数，用于识别防竞争字节。 */
+    private int mZeros;
+
+    /** 左对齐的缓存，高位为下一个要读的位。 */
+    private long mCache;
+    private int mCacheBits;
+    private long mBitsRead;
+
+    /**
+     * 读取 data 中 [position, limit) 的数据，不改变 data 的 position。
+     *
+     * @param unescape 是否跳过防竞争字节，NAL 数据为 true。
+     */
+    public BitReader(ByteBuffer data, boolean unescape) {
+        mData = data;
+        mPosition = data.position();
+        mLimit = data.limit();
+        mUnescape = unescape;
+    }
+
+    public BitReader(ByteBuffer data) {
+        this(data, true);
+    }
+
+    public BitReader(byte[] data, int offset, int length) {
+        this(ByteBuffer.wrap(data, offset, length), true);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 读取
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** u(1)。 */
+    public int readBit() {
+        return readBits(1);
+    }
+
+    public boolean readBool() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * u(n)，n 为 0-32，n 为 32 时返回值可能为负，用 {@link #readUnsignedInt()} 读取无符号的 32 位。
+     */
+    public int readBits(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        if (n < 0 || n > 32) {
+            throw new IllegalArgumentException("n = " + n);
+        }
+        require(n);
+        final int value = (int) (mCache >>> (64 - n));
+        consume(n);
+        return value;
+    }
+
+    /** u(32)。 */
+    public long readUnsignedInt() {
+        return readBits(32) & 0xFFFFFFFFL;
+    }
+
+    public void skipBits(int n) {
+        while (n > 32) {
+            readBits(32);
+            n -= 32;
+        }
+        readBits(n);
+    }
+
+    /** ue(v)，最多 31 个前导 0。 */
+    public int readUE() {
+        fill();
+        final int zeros = Long.numberOfLeadingZeros(mCache);
+        final int length = 2 * zeros + 1;
+        if (length <= mCacheBits && zeros <= 31) {
+            // 前导 0、1 和后面的 zeros 位都已经在缓存中。
+            final long value = (mCache >>> (64 - length)) - 1;
+            consume(length);
+            return (int) value;
+        }
+        int leadingZeros = 0;
+        while (readBits(1) == 0) {
+            if (++leadingZeros > 31) {
+                throw new IllegalArgumentException("invalid exp-golomb code");
+            }
+        }
+        return (int) ((1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL));
+    }
+
+    /** se(v)。 */
+    public int readSE() {
+        final int codeNum = readUE();
+        return (codeNum & 1) != 0 ? (codeNum + 1) >>> 1 : -(codeNum >>> 1);
+    }
+
+    /** 已经读取的位数（不包括跳过的防竞争字节）。 */
+    public long getBitsRead() {
+        return mBitsRead;
+    }
+
+    /** 当前位置是否字节对齐。 */
+    public boolean isByteAligned() {
+        return (mBitsRead & 7) == 0;
+    }
+
+    /** 是否还有未读取的数据。 */
+    public boolean hasMoreData() {
+        fill();
+        return mCacheBits > 0;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 缓存
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void require(int n) {
+        if (mCacheBits < n) {
+            fill();
+            if (mCacheBits < n) {
+                throw new IllegalArgumentException("not enough data, bitsRead = " + mBitsRead + ", required = " + n);
+            }
+        }
+    }
+
+    private void consume(int n) {
+        mCache = n == 64 ? 0 : mCache << n;
+        mCacheBits -= n;
+        mBitsRead += n;
+    }
+
+    private void fill() {
+        while (mCacheBits <= 56 && mPosition < mLimit) {
+            final int b = mData.get(mPosition++) & 0xFF;
+            if (mUnescape && mZeros >= 2 && b == 3) {
+                mZeros = 0;
+                continue;
+            }
+            mZeros = b == 0 ? mZeros + 1 : 0;
+            mCache |= (long) b << (56 - mCacheBits);
+            mCacheBits += 8;
+        }
+    }
+
+}
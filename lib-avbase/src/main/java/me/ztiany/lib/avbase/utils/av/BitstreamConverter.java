@@ -0,0 +1,206 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * H.264/H.265 码流在 Annex-B（起始码分隔，MediaCodec、.h264 文件、RTP 之外的大多数直播传输使用）与长度前缀
+ * （AVCC/HVCC，MP4 的 sample、FLV/RTMP 的 NALU 使用）两种格式之间的转换。
+ * <p>
+ * 长度前缀为 4 字节时两种格式的大小相同，可以原地转换：dst 传入与 src 相同的对象即可，只改写起始码/长度所在的 4 个字节。
+ * Annex-B 中出现 3 字节起始码时转换后会变大，只能转换到另一个 buffer 中。
+ * 与 {@link AnnexBScanner} 相同，起始码之前多余的 0 字节（trailing_zero_8bits、cabac_zero_words 之后的填充）不属于上一个 NAL，
+ * 转换后的长度不包含这些 0，出现这样的填充时也只能转换到另一个 buffer 中。
+ * </p>
+ * 实例复用内部记录 NAL 位置的数组，不是线程安全的。
+ */
+public final class BitstreamConverter {
+
+    private static final int INITIAL_NAL_CAPACITY = 16;
+
+    /** 一帧中每个 NAL 的起始码位置、起始码长度、去掉末尾 0 字节后的结束位置。 */
+    private int[] mStarts = new int[INITIAL_NAL_CAPACITY];
+    private int[] mStartCodeLengths = new int[INITIAL_NAL_CAPACITY];
+    private int[] mEnds = new int[INITIAL_NAL_CAPACITY];
+    private int mNalCount;
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Annex-B → 长度前缀
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 把 src 中 [position, limit) 的 Annex-B 数据转换为 4 字节长度前缀的格式，写入 dst 的 position 处。
+     * 第一个起始码之前的数据会被丢弃。
+     *
+     * @param dst 与 src 为同一个对象时原地转换，此时要求所有的起始码都是 4 字节、NAL 之间没有多余的 0、并且数据以起始码开头，
+     *            position、limit 都不变；
+     *            否则 dst 的 position 前进写入的字节数，src 不变。
+     * @return 写入的字节数；无法原地转换时返回 -1，数据不会被修改。
+     */
+    public int annexBToLengthPrefixed(ByteBuffer src, ByteBuffer dst) {
+        final boolean contiguous = scan(src, src.position(), src.limit());
+        final boolean inPlace = src == dst;
+        if (inPlace && (!contiguous || mNalCount > 0 && mStarts[0] != src.position())) {
+            return -1;
+        }
+
+        int written = 0;
+        int out = dst.position();
+        for (int i = 0; i < mNalCount; i++) {
+            final int payload = mStarts[i] + mStartCodeLengths[i];
+            final int end = mEnds[i];
+            final int length = end - payload;
+            if (inPlace) {
+                writeInt(dst, mStarts[i], length);
+            } else {
+                writeInt(dst, out, length);
+                out += 4;
+                final ByteBuffer nal = src.duplicate();
+                nal.limit(end).position(payload);
+                final ByteBuffer target = dst.duplicate();
+                target.position(out);
+                target.put(nal);
+                out += length;
+            }
+            written += 4 + length;
+        }
+        if (!inPlace) {
+            dst.position(out);
+        }
+        return written;
+    }
+
+    /**
+     * 转换为 4 字节长度前缀后的大小，用于分配 dst；与 remaining 相等时可以原地转换。
+     */
+    public int lengthPrefixedSize(ByteBuffer annexB) {
+        scan(annexB, annexB.position(), annexB.limit());
+        int size = 0;
+        for (int i = 0; i < mNalCount; i++) {
+            size += 4 + mEnds[i] - mStarts[i] - mStartCodeLengths[i];
+        }
+        return size;
+    }
+
+    /** 上一次转换的数据中 NAL 的个数。 */
+    public int getNalCount() {
+        return mNalCount;
+    }
+
+    /**
+     * 记录 [from, limit) 中所有的起始码，以及去掉末尾 0 字节后每个 NAL 的结束位置。
+     *
+     * @return 是否全部是 4 字节起始码、并且 NAL 之间没有多余的 0，即转换前后每个 NAL 的位置不变。
+     */
+    private boolean scan(ByteBuffer data, int from, int limit) {
+        mNalCount = 0;
+        boolean contiguous = true;
+        int start = AnnexBScanner.findStartCode(data, from, limit);
+        while (start >= 0) {
+            final int startCodeLength = data.get(start + 2) == 1 ? 3 : 4;
+            contiguous &= startCodeLength == 4;
+            if (mNalCount == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, mNalCount * 2);
+                mStartCodeLengths = Arrays.copyOf(mStartCodeLengths, mNalCount * 2);
+                mEnds = Arrays.copyOf(mEnds, mNalCount * 2);
+            }
+            mStarts[mNalCount] = start;
+            mStartCodeLengths[mNalCount] = startCodeLength;
+            mNalCount++;
+            start = AnnexBScanner.findStartCode(data, start + startCodeLength, limit);
+        }
+        for (int i = 0; i < mNalCount; i++) {
+            final int payload = mStarts[i] + mStartCodeLengths[i];
+            final int next = i + 1 < mNalCount ? mStarts[i + 1] : limit;
+            int end = next;
+            while (end > payload && data.get(end - 1) == 0) {
+                end--;
+            }
+            mEnds[i] = end;
+            contiguous &= end == next;
+        }
+        return contiguous;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 长度前缀 → Annex-B
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 把 src 中 [position, limit) 的长度前缀数据转换为 4 字节起始码的 Annex-B，写入 dst 的 position 处。
+     *
+     * @param lengthSize 长度前缀的字节数，1、2 或 4，即 avcC/hvcC 中的 lengthSizeMinusOne + 1。
+     * @param dst        与 src 为同一个对象时原地转换，此时 lengthSize 必须为 4，position、limit 都不变；
+     *                   否则 dst 的 position 前进写入的字节数，src 不变。
+     * @return 写入的字节数。
+     * @throws IllegalArgumentException 长度超出数据范围，或者无法原地转换。
+     */
+    public static int lengthPrefixedToAnnexB(ByteBuffer src, int lengthSize, ByteBuffer dst) {
+        if (lengthSize != 1 && lengthSize != 2 && lengthSize != 4) {
+            throw new IllegalArgumentException("lengthSize = " + lengthSize);
+        }
+        final boolean inPlace = src == dst;
+        if (inPlace && lengthSize != 4) {
+            throw new IllegalArgumentException("can not convert in place with lengthSize = " + lengthSize);
+        }
+
+        final int limit = src.limit();
+        int in = src.position();
+        int out = dst.position();
+        int written = 0;
+        while (in + lengthSize <= limit) {
+            final int length = readLength(src, in, lengthSize);
+            final int payload = in + lengthSize;
+            if (length < 0 || length > limit - payload) {
+                throw new IllegalArgumentException("invalid nal length " + length + " at " + in);
+            }
+            if (inPlace) {
+                writeInt(dst, in, 1);
+            } else {
+                writeInt(dst, out, 1);
+                out += 4;
+                final ByteBuffer nal = src.duplicate();
+                nal.limit(payload + length).position(payload);
+                final ByteBuffer target = dst.duplicate();
+                target.position(out);
+                target.put(nal);
+                out += length;
+            }
+            written += 4 + length;
+            in = payload + length;
+        }
+        if (in != limit) {
+            throw new IllegalArgumentException("trailing " + (limit - in) + " bytes");
+        }
+        if (!inPlace) {
+            dst.position(out);
+        }
+        return written;
+    }
+
+    /** 原地把 4 字节长度前缀的数据转换为 Annex-B。 */
+    public static void lengthPrefixedToAnnexB(ByteBuffer data) {
+        lengthPrefixedToAnnexB(data, 4, data);
+    }
+
+    private static int readLength(ByteBuffer data, int position, int lengthSize) {
+        switch (lengthSize) {
+            case 1:
+                return data.get(position) & 0xFF;
+            case 2:
+                return (data.get(position) & 0xFF) << 8 | (data.get(position + 1) & 0xFF);
+            default:
+                return (data.get(position) & 0xFF) << 24 | (data.get(position + 1) & 0xFF) << 16
+                        | (data.get(position + 2) & 0xFF) << 8 | (data.get(position + 3) & 0xFF);
+        }
+    }
+
+    /** 按大端写入，不依赖 buffer 的 order。 */
+    private static void writeInt(ByteBuffer data, int position, int value) {
+        data.put(position, (byte) (value >>> 24));
+        data.put(position + 1, (byte) (value >>> 16));
+        data.put(position + 2, (byte) (value >>> 8));
+        data.put(position + 3, (byte) value);
+    }
+
+}
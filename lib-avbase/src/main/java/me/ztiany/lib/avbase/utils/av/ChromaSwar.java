@@ -0,0 +1,136 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 色度平面的 SWAR（SIMD Within A Register）原语：每次用 long 读写 8 个字节，在寄存器内完成 U/V 的交换、交错与拆分。
+ * <p>
+ * 所有方法都使用绝对下标读写，不修改 buffer 的 position；可以直接用于 Image.Plane 等直接缓冲区，
+ * byte[] 通过 {@link #wrap(byte[])} 包装后使用。buffer 的字节序不是 LITTLE_ENDIAN 时会在内部转换为小端视图。
+ * 不足 8 字节的尾部逐字节处理。
+ * </p>
+ * 小端下 long 的最低字节对应内存中的第一个字节，所以 UVUV... 中的 U 位于每个 16 位的低字节。
+ */
+public final class ChromaSwar {
+
+    private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+    private static final long ODD_BYTES = 0xFF00FF00FF00FF00L;
+    private static final long EVEN_SHORTS = 0x0000FFFF0000FFFFL;
+    private static final long LOW_INT = 0x00000000FFFFFFFFL;
+
+    private ChromaSwar() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 把 byte[] 包装为小端的 ByteBuffer 视图。
+     */
+    public static ByteBuffer wrap(byte[] array) {
+        return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 交换相邻的两个字节：VUVU... ⇄ UVUV...，即 NV21 与 NV12 的色度平面互转。src 与 dst 可以是同一块内存。
+     *
+     * @param pairs UV 对的数量。
+     */
+    public static void swapPairs(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int pairs) {
+        src = littleEndian(src);
+        dst = littleEndian(dst);
+        final int bytes = pairs * 2;
+        final int words = bytes & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final long x = src.getLong(srcIndex + i);
+            dst.putLong(dstIndex + i, ((x & EVEN_BYTES) << 8) | ((x >>> 8) & EVEN_BYTES));
+        }
+        for (int i = words; i < bytes; i += 2) {
+            final byte first = src.get(srcIndex + i);
+            dst.put(dstIndex + i, src.get(srcIndex + i + 1));
+            dst.put(dstIndex + i + 1, first);
+        }
+    }
+
+    /**
+     * 交错两个 planar 平面：dst = first[0] second[0] first[1] second[1] ...。
+     * first 为 U、second 为 V 时得到 NV12，反之得到 NV21。
+     */
+    public static void interleave(ByteBuffer first, int firstIndex, ByteBuffer second, int secondIndex, ByteBuffer dst, int dstIndex, int pairs) {
+        first = littleEndian(first);
+        second = littleEndian(second);
+        dst = littleEndian(dst);
+        final int words = pairs & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final long a = first.getLong(firstIndex + i);
+            final long b = second.getLong(secondIndex + i);
+            final int d = dstIndex + 2 * i;
+            dst.putLong(d, spread(a & LOW_INT) | spread(b & LOW_INT) << 8);
+            dst.putLong(d + 8, spread(a >>> 32) | spread(b >>> 32) << 8);
+        }
+        for (int i = words; i < pairs; i++) {
+            dst.put(dstIndex + 2 * i, first.get(firstIndex + i));
+            dst.put(dstIndex + 2 * i + 1, second.get(secondIndex + i));
+        }
+    }
+
+    /**
+     * 拆分交错的平面：first = src[0] src[2] ...，second = src[1] src[3] ...。NV12 拆出 U、V，NV21 拆出 V、U。
+     */
+    public static void deinterleave(ByteBuffer src, int srcIndex, ByteBuffer first, int firstIndex, ByteBuffer second, int secondIndex, int pairs) {
+        src = littleEndian(src);
+        first = littleEndian(first);
+        second = littleEndian(second);
+        final int words = pairs & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final int s = srcIndex + 2 * i;
+            final long lo = src.getLong(s);
+            final long hi = src.getLong(s + 8);
+            first.putLong(firstIndex + i, pack(lo & EVEN_BYTES) | pack(hi & EVEN_BYTES) << 32);
+            second.putLong(secondIndex + i, pack((lo >>> 8) & EVEN_BYTES) | pack((hi >>> 8) & EVEN_BYTES) << 32);
+        }
+        for (int i = words; i < pairs; i++) {
+            first.put(firstIndex + i, src.get(srcIndex + 2 * i));
+            second.put(secondIndex + i, src.get(srcIndex + 2 * i + 1));
+        }
+    }
+
+    /**
+     * 从两个 pixelStride 为 2 的平面中各取偶数位的字节交错写入 dst：dst[2k] = first[2k]，dst[2k + 1] = second[2k]。
+     * 用于 Camera2 回传的交错 U/V 平面（U、V 是同一块内存错开一个字节的两个视图）。
+     * first、second 在最后一对之后可能缺少一个字节（设备上常见），这里不会读取越界。
+     */
+    public static void mergeEven(ByteBuffer first, int firstIndex, ByteBuffer second, int secondIndex, ByteBuffer dst, int dstIndex, int pairs) {
+        first = littleEndian(first);
+        second = littleEndian(second);
+        dst = littleEndian(dst);
+        final int bytes = pairs * 2;
+        // 最后一个 U/V 之后的字节不一定存在，留给逐字节处理。
+        final int words = Math.max(0, bytes - 1) & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final long a = first.getLong(firstIndex + i);
+            final long b = second.getLong(secondIndex + i);
+            dst.putLong(dstIndex + i, (a & EVEN_BYTES) | ((b << 8) & ODD_BYTES));
+        }
+        for (int i = words; i < bytes; i += 2) {
+            dst.put(dstIndex + i, first.get(firstIndex + i));
+            dst.put(dstIndex + i + 1, second.get(secondIndex + i));
+        }
+    }
+
+    /** 把低 32 位的 4 个字节分散到 8 个字节的偶数位上。 */
+    private static long spread(long x) {
+        x = (x | (x << 16)) & EVEN_SHORTS;
+        return (x | (x << 8)) & EVEN_BYTES;
+    }
+
+    /** spread 的逆运算：把偶数位上的 4 个字节收拢到低 32 位。 */
+    private static long pack(long x) {
+        x = (x | (x >>> 8)) & EVEN_SHORTS;
+        return (x | (x >>> 16)) & LOW_INT;
+    }
+
+    private static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
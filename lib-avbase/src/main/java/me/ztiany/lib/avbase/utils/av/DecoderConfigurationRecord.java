@@ -0,0 +1,355 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AVCDecoderConfigurationRecord（avcC）与 HEVCDecoderConfigurationRecord（hvcC），ISO/IEC 14496-15 5.3.3.1、8.3.3.1。
+ * <p>
+ * 它是 MP4 中 avc1/hvc1 sample entry 的 avcC/hvcC box、FLV/RTMP AVC sequence header 的内容，包含了参数集与长度前缀的字节数；
+ * MediaCodec 需要的 csd 则是带起始码的参数集，见 {@link #toAnnexB()}。
+ * </p>
+ * 参数集均为从 NAL 头开始、不带起始码的数据。
+ */
+public final class DecoderConfigurationRecord {
+
+    public static final int TYPE_AVC = 0;
+    public static final int TYPE_HEVC = 1;
+
+    /** FLV VideoTagHeader：关键帧（1）+ CodecID AVC（7）。 */
+    public static final int FLV_AVC_KEY_FRAME = 0x17;
+    /** FLV VideoTagHeader：非关键帧（2）+ CodecID AVC（7）。 */
+    public static final int FLV_AVC_INTER_FRAME = 0x27;
+    /** FLV AVCPacketType：sequence header。 */
+    public static final int FLV_AVC_SEQUENCE_HEADER = 0;
+    /** FLV AVCPacketType：NALU。 */
+    public static final int FLV_AVC_NALU = 1;
+
+    /** HEVC 固定部分的长度，即 numOfArrays 之前的字节数。 */
+    private static final int HVCC_HEADER_SIZE = 22;
+
+    private final int mType;
+    /**
+     * numOfArrays/numOfSequenceParameterSets 之前的固定部分：avcC 为 4 字节（version、profile、compatibility、level），
+     * hvcC 为 22 字节（lengthSizeMinusOne 所在的最后一个字节除外的部分会原样写回）。
+     */
+    private final byte[] mHeader;
+    private final int mLengthSize;
+    private final List<byte[]> mNalUnits;
+    /** avcC 中 High profile 的扩展部分（chroma_format 等 4 个字节），没有时为 null。 */
+    private final byte[] mAvcExtension;
+
+    private DecoderConfigurationRecord(int type, byte[] header, int lengthSize, List<byte[]> nalUnits, byte[] avcExtension) {
+        mType = type;
+        mHeader = header;
+        mLengthSize = lengthSize;
+        mNalUnits = Collections.unmodifiableList(nalUnits);
+        mAvcExtension = avcExtension;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 创建
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 由 SPS、PPS 创建 avcC，长度前缀为 4 字节。
+     */
+    public static DecoderConfigurationRecord createAvc(List<ByteBuffer> spsList, List<ByteBuffer> ppsList) {
+        if (spsList.isEmpty() || ppsList.isEmpty() || spsList.size() > 31 || ppsList.size() > 255) {
+            throw new IllegalArgumentException("sps = " + spsList.size() + ", pps = " + ppsList.size());
+        }
+        final ByteBuffer firstSps = spsList.get(0);
+        final H264ParameterSets.Sps sps = H264ParameterSets.parseSps(firstSps);
+        final int p = firstSps.position();
+        final byte[] header = {1, firstSps.get(p + 1), firstSps.get(p + 2), firstSps.get(p + 3)};
+
+        final List<byte[]> nalUnits = new ArrayList<>();
+        addAll(nalUnits, spsList);
+        addAll(nalUnits, ppsList);
+
+        byte[] extension = null;
+        if (hasAvcExtension(sps.getProfileIdc())) {
+            extension = new byte[]{
+                    (byte) (0xFC | sps.getChromaFormatIdc()),
+                    (byte) (0xF8 | (sps.getBitDepthLuma() - 8)),
+                    (byte) (0xF8 | (sps.getBitDepthChroma() - 8)),
+                    0//numOfSequenceParameterSetExt
+            };
+        }
+        return new DecoderConfigurationRecord(TYPE_AVC, header, 4, nalUnits, extension);
+    }
+
+    /**
+     * 由 VPS、SPS、PPS 创建 hvcC，长度前缀为 4 字节，profile/level 等取自第一个 SPS。
+     */
+    public static DecoderConfigurationRecord createHevc(List<ByteBuffer> vpsList, List<ByteBuffer> spsList, List<ByteBuffer> ppsList) {
+        if (vpsList.isEmpty() || spsList.isEmpty() || ppsList.isEmpty()) {
+            throw new IllegalArgumentException("vps = " + vpsList.size() + ", sps = " + spsList.size() + ", pps = " + ppsList.size());
+        }
+        final ByteBuffer firstSps = spsList.get(0);
+        final H265ParameterSets.Sps sps = H265ParameterSets.parseSps(firstSps);
+
+        final byte[] header = new byte[HVCC_HEADER_SIZE];
+        header[0] = 1;
+        // general_profile_space 到 general_level_idc 共 12 个字节，与 SPS 中 profile_tier_level 的开头相同。
+        final BitReader reader = new BitReader(firstSps);
+        reader.skipBits(16);//NAL 头
+        reader.skipBits(4);//sps_video_parameter_set_id
+        reader.skipBits(3);//sps_max_sub_layers_minus1
+        final boolean temporalIdNested = reader.readBool();
+        for (int i = 1; i <= 12; i++) {
+            header[i] = (byte) reader.readBits(8);
+        }
+        header[13] = (byte) 0xF0;//min_spatial_segmentation_idc 为 0
+        header[14] = 0;
+        header[15] = (byte) 0xFC;//parallelismType 为 0
+        header[16] = (byte) (0xFC | sps.getChromaFormatIdc());
+        header[17] = (byte) (0xF8 | (sps.getBitDepthLuma() - 8));
+        header[18] = (byte) (0xF8 | (sps.getBitDepthChroma() - 8));
+        header[19] = 0;//avgFrameRate
+        header[20] = 0;
+        header[21] = (byte) ((Math.min(sps.getMaxSubLayers(), 7) << 3) | (temporalIdNested ? 0x04 : 0) | 3);
+
+        final List<byte[]> nalUnits = new ArrayList<>();
+        addAll(nalUnits, vpsList);
+        addAll(nalUnits, spsList);
+        addAll(nalUnits, ppsList);
+        return new DecoderConfigurationRecord(TYPE_HEVC, header, 4, nalUnits, null);
+    }
+
+    private static void addAll(List<byte[]> nalUnits, List<ByteBuffer> source) {
+        for (ByteBuffer nal : source) {
+            final byte[] bytes = new byte[nal.remaining()];
+            nal.duplicate().get(bytes);
+            if (bytes.length == 0 || bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("nal length = " + bytes.length);
+            }
+            nalUnits.add(bytes);
+        }
+    }
+
+    private static boolean hasAvcExtension(int profileIdc) {
+        return profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 144;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 解析 avcC 的内容（不包括 box 头），不改变 data 的 position。
+     */
+    public static DecoderConfigurationRecord parseAvc(ByteBuffer data) {
+        final ByteBuffer in = data.slice();
+        try {
+            final byte[] header = new byte[4];
+            in.get(header);
+            if (header[0] != 1) {
+                throw new IllegalArgumentException("unsupported avcC version: " + header[0]);
+            }
+            final int lengthSize = (in.get() & 0x03) + 1;
+            final List<byte[]> nalUnits = new ArrayList<>();
+            readNalUnits(in, in.get() & 0x1F, nalUnits);
+            readNalUnits(in, in.get() & 0xFF, nalUnits);
+            byte[] extension = null;
+            if (hasAvcExtension(header[1] & 0xFF) && in.remaining() >= 4) {
+                extension = new byte[4];
+                in.get(extension, 0, 3);
+                // SPS 扩展（nal_unit_type 13）不是 MediaCodec 需要的参数集，不保留。
+                extension[3] = 0;
+            }
+            return new DecoderConfigurationRecord(TYPE_AVC, header, lengthSize, nalUnits, extension);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated avcC", e);
+        }
+    }
+
+    /**
+     * 解析 hvcC 的内容（不包括 box 头），不改变 data 的 position。
+     */
+    public static DecoderConfigurationRecord parseHevc(ByteBuffer data) {
+        final ByteBuffer in = data.slice();
+        try {
+            final byte[] header = new byte[HVCC_HEADER_SIZE];
+            in.get(header);
+            if (header[0] != 1) {
+                throw new IllegalArgumentException("unsupported hvcC version: " + header[0]);
+            }
+            final int lengthSize = (header[21] & 0x03) + 1;
+            final int arrays = in.get() & 0xFF;
+            final List<byte[]> nalUnits = new ArrayList<>();
+            for (int i = 0; i < arrays; i++) {
+                in.get();//array_completeness、NAL_unit_type，可以由 NAL 头得到
+                readNalUnits(in, in.getShort() & 0xFFFF, nalUnits);
+            }
+            return new DecoderConfigurationRecord(TYPE_HEVC, header, lengthSize, nalUnits, null);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated hvcC", e);
+        }
+    }
+
+    private static void readNalUnits(ByteBuffer in, int count, List<byte[]> nalUnits) {
+        for (int i = 0; i < count; i++) {
+            final byte[] nal = new byte[in.getShort() & 0xFFFF];
+            in.get(nal);
+            nalUnits.add(nal);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 属性
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** {@link #TYPE_AVC} 或 {@link #TYPE_HEVC}。 */
+    public int getType() {
+        return mType;
+    }
+
+    /** 每个 NAL 之前长度前缀的字节数，1、2 或 4。 */
+    public int getLengthSize() {
+        return mLengthSize;
+    }
+
+    /** H.264 的 profile_idc，H.265 的 general_profile_idc。 */
+    public int getProfileIdc() {
+        return mType == TYPE_AVC ? mHeader[1] & 0xFF : mHeader[1] & 0x1F;
+    }
+
+    /** H.264 的 level_idc，H.265 的 general_level_idc。 */
+    public int getLevelIdc() {
+        return mType == TYPE_AVC ? mHeader[3] & 0xFF : mHeader[12] & 0xFF;
+    }
+
+    /** 所有的参数集，按 VPS、SPS、PPS 的顺序。 */
+    public List<byte[]> getNalUnits() {
+        return mNalUnits;
+    }
+
+    /** 指定类型的参数集，例如 {@link H264ParameterSets#NAL_SPS}、{@link H265ParameterSets#NAL_PPS}。 */
+    public List<byte[]> getNalUnits(int nalType) {
+        final List<byte[]> result = new ArrayList<>();
+        for (byte[] nal : mNalUnits) {
+            if (nalType(nal) == nalType) {
+                result.add(nal);
+            }
+        }
+        return result;
+    }
+
+    private int nalType(byte[] nal) {
+        return mType == TYPE_AVC ? H264ParameterSets.nalType(nal[0]) : H265ParameterSets.nalType(nal[0] & 0xFF);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 输出
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** avcC/hvcC box 的内容。 */
+    public byte[] toBytes() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (mType == TYPE_AVC) {
+            out.write(mHeader, 0, mHeader.length);
+            out.write(0xFC | (mLengthSize - 1));
+            final List<byte[]> spsList = getNalUnits(H264ParameterSets.NAL_SPS);
+            out.write(0xE0 | spsList.size());
+            writeNalUnits(out, spsList);
+            final List<byte[]> ppsList = getNalUnits(H264ParameterSets.NAL_PPS);
+            out.write(ppsList.size());
+            writeNalUnits(out, ppsList);
+            if (mAvcExtension != null) {
+                out.write(mAvcExtension, 0, mAvcExtension.length);
+            }
+        } else {
+            out.write(mHeader, 0, HVCC_HEADER_SIZE - 1);
+            out.write((mHeader[HVCC_HEADER_SIZE - 1] & 0xFC) | (mLengthSize - 1));
+            // 相同类型的 NAL 放在同一个 array 中，按照第一次出现的顺序。
+            final List<Integer> types = new ArrayList<>();
+            for (byte[] nal : mNalUnits) {
+                if (!types.contains(nalType(nal))) {
+                    types.add(nalType(nal));
+                }
+            }
+            out.write(types.size());
+            for (int type : types) {
+                final List<byte[]> nalUnits = getNalUnits(type);
+                out.write(0x80 | type);//array_completeness 为 1
+                out.write(nalUnits.size() >> 8);
+                out.write(nalUnits.size());
+                writeNalUnits(out, nalUnits);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeNalUnits(ByteArrayOutputStream out, List<byte[]> nalUnits) {
+        for (byte[] nal : nalUnits) {
+            out.write(nal.length >> 8);
+            out.write(nal.length);
+            out.write(nal, 0, nal.length);
+        }
+    }
+
+    /** 带 4 字节起始码的参数集，即 MediaCodec 的 csd（H.264 的 csd-0 与 csd-1 合在一起也可以）。 */
+    public byte[] toAnnexB() {
+        int size = 0;
+        for (byte[] nal : mNalUnits) {
+            size += 4 + nal.length;
+        }
+        final byte[] result = new byte[size];
+        int offset = 0;
+        for (byte[] nal : mNalUnits) {
+            result[offset + 3] = 1;
+            System.arraycopy(nal, 0, result, offset + 4, nal.length);
+            offset += 4 + nal.length;
+        }
+        return result;
+    }
+
+    /**
+     * FLV/RTMP 的 AVC sequence header：VideoTagHeader（0x17、AVCPacketType 0、CompositionTime 0）+ avcC。
+     */
+    public byte[] toFlvSequenceHeader() {
+        if (mType != TYPE_AVC) {
+            throw new IllegalStateException("FLV only supports AVC");
+        }
+        final byte[] record = toBytes();
+        final byte[] result = new byte[5 + record.length];
+        result[0] = (byte) FLV_AVC_KEY_FRAME;
+        result[1] = FLV_AVC_SEQUENCE_HEADER;
+        System.arraycopy(record, 0, result, 5, record.length);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DecoderConfigurationRecord)) {
+            return false;
+        }
+        return Arrays.equals(toBytes(), ((DecoderConfigurationRecord) o).toBytes());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toBytes());
+    }
+
+    @Override
+    public String toString() {
+        return "DecoderConfigurationRecord{" +
+                "type=" + (mType == TYPE_AVC ? "avcC" : "hvcC") +
+                ", profile=" + getProfileIdc() +
+                ", level=" + getLevelIdc() +
+                ", lengthSize=" + mLengthSize +
+                ", nalUnits=" + mNalUnits.size() +
+                '}';
+    }
+
+}
@@ -0,0 +1,334 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * 按大小复用的帧缓冲池，用于采集、编码路径上每帧都要分配的 byte[] 和直接缓冲区。
+ * <p>
+ * 以数组长度（直接缓冲区的 capacity）为键缓存已回收的缓冲区，稳定运行后每帧的 obtain/recycle 都不再分配内存。
+ * 池中保留的总字节数有上限，超过后回收的缓冲区直接丢弃，交给 GC。所有方法都是线程安全的，通常在采集线程 obtain、在编码/发送线程 recycle。
+ * </p>
+ * 开启泄漏检测（一般传入 BuildConfig.DEBUG）后，会记录每个借出缓冲区的获取位置：
+ * <ul>
+ *     <li>缓冲区没有 recycle 就被 GC 回收时，在下一次 obtain 时输出获取位置的堆栈。</li>
+ *     <li>重复 recycle 或者 recycle 不是本池借出的缓冲区时，抛出 IllegalStateException。</li>
+ * </ul>
+ * 不开启泄漏检测时也会拒绝两种明显的错误用法，抛出 IllegalStateException：回收的数量超过借出的数量，
+ * 以及回收一个已经在池中的缓冲区（否则它会被同时借给两个使用者）。
+ */
+public final class FrameBufferPool {
+
+    /** {@link #obtainAtLeast(int)} 的最小档位。 */
+    private static final int MIN_BUCKET_SIZE = 1024;
+
+    /** 不同大小的档位数上限，避免大小不断变化时档位无限增长。 */
+    private static final int MAX_BUCKETS = 32;
+
+    private final long mMaxRetainedBytes;
+    private final boolean mLeakDetection;
+
+    private final List<Bucket> mArrayBuckets = new ArrayList<>();
+    private final List<Bucket> mDirectBuckets = new ArrayList<>();
+    private long mRetainedBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mDrops;
+    private long mLeaks;
+    private int mOutstanding;
+
+    private final ReferenceQueue<Object> mLeakQueue;
+    private final List<LeakRecord> mLeakRecords;
+
+    /**
+     * @param maxRetainedBytes 池中最多保留的字节数。
+     * @param leakDetection    是否开启泄漏检测，会为每次 obtain 记录堆栈，只应在调试时开启。
+     */
+    public FrameBufferPool(long maxRetainedBytes, boolean leakDetection) {
+        mMaxRetainedBytes = maxRetainedBytes;
+        mLeakDetection = leakDetection;
+        mLeakQueue = leakDetection ? new ReferenceQueue<>() : null;
+        mLeakRecords = leakDetection ? new ArrayList<>() : null;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // byte[]
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 获取长度恰好为 size 的数组，内容未清零。用于 YUV 帧等固定大小的数据。
+     */
+    public synchronized byte[] obtain(int size) {
+        reportLeaks();
+        byte[] buffer = (byte[]) take(mArrayBuckets, size);
+        if (buffer == null) {
+            buffer = new byte[size];
+        }
+        track(buffer);
+        return buffer;
+    }
+
+    /**
+     * 获取长度不小于 size 的数组，长度按 2 的幂取整，用于编码后大小每帧都不同的数据，使用时需要自己记录有效长度。
+     */
+    public byte[] obtainAtLeast(int size) {
+        return obtain(bucketSize(size));
+    }
+
+    public synchronized void recycle(byte[] buffer) {
+        untrack(buffer);
+        put(mArrayBuckets, buffer, buffer.length);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // ByteBuffer
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 获取 capacity 恰好为 capacity 的直接缓冲区，已 clear，字节序为 BIG_ENDIAN。
+     */
+    public synchronized ByteBuffer obtainDirect(int capacity) {
+        reportLeaks();
+        ByteBuffer buffer = (ByteBuffer) take(mDirectBuckets, capacity);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            buffer.clear();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        }
+        track(buffer);
+        return buffer;
+    }
+
+    public synchronized void recycle(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("only direct buffers obtained from this pool can be recycled");
+        }
+        untrack(buffer);
+        put(mDirectBuckets, buffer, buffer.capacity());
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 统计
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 从池中取到缓冲区的次数。 */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /** 池中没有合适的缓冲区、新分配的次数。 */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /** 回收时因超过容量上限而丢弃的次数。 */
+    public synchronized long getDrops() {
+        return mDrops;
+    }
+
+    /** 检测到的泄漏次数，只在开启泄漏检测时统计。 */
+    public synchronized long getLeaks() {
+        return mLeaks;
+    }
+
+    /** 已借出但还没有回收的缓冲区数量。 */
+    public synchronized int getOutstanding() {
+        return mOutstanding;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return mRetainedBytes;
+    }
+
+    /**
+     * 释放池中保留的所有缓冲区，已借出的缓冲区仍可正常回收。
+     */
+    public synchronized void clear() {
+        mArrayBuckets.clear();
+        mDirectBuckets.clear();
+        mRetainedBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameBufferPool{" +
+                "hits=" + mHits +
+                ", misses=" + mMisses +
+                ", drops=" + mDrops +
+                ", leaks=" + mLeaks +
+                ", outstanding=" + mOutstanding +
+                ", retainedBytes=" + mRetainedBytes +
+                '}';
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 内部实现
+    ///////////////////////////////////////////////////////////////////////////
+
+    static int bucketSize(int size) {
+        if (size <= MIN_BUCKET_SIZE) {
+            return MIN_BUCKET_SIZE;
+        }
+        final int highest = Integer.highestOneBit(size - 1) << 1;
+        // 超过 2^30 时无法再取整。
+        return highest > 0 ? highest : size;
+    }
+
+    private Object take(List<Bucket> buckets, int size) {
+        mOutstanding++;
+        // 档位通常只有几个，线性查找即可，也避免了 Map<Integer, ?> 的装箱。
+        for (int i = 0, n = buckets.size(); i < n; i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket.size == size) {
+                final Object buffer = bucket.pop();
+                if (buffer != null) {
+                    mHits++;
+                    mRetainedBytes -= size;
+                    return buffer;
+                }
+                break;
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    private void put(List<Bucket> buckets, Object buffer, int size) {
+        if (mOutstanding == 0) {
+            throw new IllegalStateException("More buffers were recycled than obtained.");
+        }
+        for (int i = 0, n = buckets.size(); i < n; i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket.size == size && bucket.contains(buffer)) {
+                throw new IllegalStateException("The buffer was recycled twice.");
+            }
+        }
+        mOutstanding--;
+        if (mRetainedBytes + size > mMaxRetainedBytes) {
+            mDrops++;
+            return;
+        }
+        Bucket target = null;
+        for (int i = 0, n = buckets.size(); i < n; i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket.size == size) {
+                target = bucket;
+                break;
+            }
+        }
+        if (target == null) {
+            if (buckets.size() >= MAX_BUCKETS && !removeEmptyBucket(buckets)) {
+                mDrops++;
+                return;
+            }
+            target = new Bucket(size);
+            buckets.add(target);
+        }
+        target.push(buffer);
+        mRetainedBytes += size;
+    }
+
+    private static boolean removeEmptyBucket(List<Bucket> buckets) {
+        for (int i = 0, n = buckets.size(); i < n; i++) {
+            if (buckets.get(i).count == 0) {
+                buckets.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void track(Object buffer) {
+        if (mLeakDetection) {
+            mLeakRecords.add(new LeakRecord(buffer, mLeakQueue));
+        }
+    }
+
+    private void untrack(Object buffer) {
+        if (!mLeakDetection) {
+            return;
+        }
+        for (int i = 0, n = mLeakRecords.size(); i < n; i++) {
+            final LeakRecord record = mLeakRecords.get(i);
+            if (record.get() == buffer) {
+                mLeakRecords.remove(i);
+                record.clear();
+                return;
+            }
+        }
+        throw new IllegalStateException("The buffer was recycled twice or was not obtained from this pool.");
+    }
+
+    private void reportLeaks() {
+        if (!mLeakDetection) {
+            return;
+        }
+        LeakRecord record;
+        while ((record = (LeakRecord) mLeakQueue.poll()) != null) {
+            // 已经 recycle 的记录在 clear() 后不会入队，入队的都是被 GC 回收但没有 recycle 的缓冲区。
+            if (mLeakRecords.remove(record)) {
+                mLeaks++;
+                mOutstanding--;
+                Timber.e(record.trace, "FrameBufferPool: a buffer of %d bytes was garbage collected without being recycled.", record.size);
+            }
+        }
+    }
+
+    private static final class Bucket {
+
+        final int size;
+        Object[] buffers = new Object[4];
+        int count;
+
+        Bucket(int size) {
+            this.size = size;
+        }
+
+        Object pop() {
+            if (count == 0) {
+                return null;
+            }
+            final Object buffer = buffers[--count];
+            buffers[count] = null;
+            return buffer;
+        }
+
+        boolean contains(Object buffer) {
+            for (int i = 0; i < count; i++) {
+                if (buffers[i] == buffer) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void push(Object buffer) {
+            if (count == buffers.length) {
+                final Object[] grown = new Object[count * 2];
+                System.arraycopy(buffers, 0, grown, 0, count);
+                buffers = grown;
+            }
+            buffers[count++] = buffer;
+        }
+    }
+
+    private static final class LeakRecord extends WeakReference<Object> {
+
+        final Throwable trace = new Throwable("obtained here");
+        final int size;
+
+        LeakRecord(Object buffer, ReferenceQueue<Object> queue) {
+            super(buffer, queue);
+            size = buffer instanceof byte[] ? ((byte[]) buffer).length : ((ByteBuffer) buffer).capacity();
+        }
+    }
+
+}
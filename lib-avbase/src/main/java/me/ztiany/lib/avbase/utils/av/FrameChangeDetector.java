@@ -0,0 +1,171 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 画面变化检测：每隔 step 个像素取一个亮度样本，与上一帧同位置的样本比较，差值超过阈值的样本所在的块记为变化。
+ * <p>
+ * 只保存上一帧的采样结果（1080p、step 为 4 时约 130KB），每帧的代价与样本数成正比，不随分辨率的平方增长。
+ * 支持 YUV 的 Y 平面（byte[] 或 Image.Plane 的直接缓冲区）和 RGBA 回读（ImageReader 的 RGBA_8888，取 (R + 2G + B) / 4 作为亮度）。
+ * </p>
+ * 第一帧以及 {@link #reset()} 之后的第一帧总是视为变化。实例不是线程安全的。
+ */
+public final class FrameChangeDetector {
+
+    private final int mStep;
+    private final int mThreshold;
+    private final int mMinChangedBlocks;
+
+    private final int mColumns;
+    private final int mRows;
+    private final int mBlockColumns;
+    private final int[] mColumnBlock;
+    private final int mSamplesPerBlock;
+
+    private final byte[] mPrevious;
+    private final boolean[] mChanged;
+    private boolean mHasPrevious;
+    private int mChangedBlocks;
+
+    /**
+     * 每 4 个像素取一个样本，64x64 像素为一块，样本差值超过 8 视为变化，任意一块变化即视为整帧变化。
+     */
+    public FrameChangeDetector(int width, int height) {
+        this(width, height, 4, 64, 8, 1);
+    }
+
+    /**
+     * @param step             采样间隔（像素）。
+     * @param blockSize        块的边长（像素），会向上取整为 step 的整数倍。
+     * @param threshold        样本差值大于该值时视为变化，用于忽略渐变、抖动带来的细微差异。
+     * @param minChangedBlocks 至少有多少块变化才视为整帧变化。
+     */
+    public FrameChangeDetector(int width, int height, int step, int blockSize, int threshold, int minChangedBlocks) {
+        if (width <= 0 || height <= 0 || step <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("invalid size: " + width + "x" + height + ", step = " + step + ", blockSize = " + blockSize);
+        }
+        mStep = step;
+        mThreshold = threshold;
+        mMinChangedBlocks = Math.max(1, minChangedBlocks);
+
+        mColumns = (width + step - 1) / step;
+        mRows = (height + step - 1) / step;
+        mSamplesPerBlock = (blockSize + step - 1) / step;
+        mBlockColumns = (mColumns + mSamplesPerBlock - 1) / mSamplesPerBlock;
+        final int blockRows = (mRows + mSamplesPerBlock - 1) / mSamplesPerBlock;
+
+        mColumnBlock = new int[mColumns];
+        for (int x = 0; x < mColumns; x++) {
+            mColumnBlock[x] = x / mSamplesPerBlock;
+        }
+        mPrevious = new byte[mColumns * mRows];
+        mChanged = new boolean[mBlockColumns * blockRows];
+    }
+
+    /**
+     * 检测 Y 平面。
+     *
+     * @return 与上一帧相比是否有变化。
+     */
+    public boolean update(byte[] luma, int offset, int rowStride, int pixelStride) {
+        begin();
+        final byte[] previous = mPrevious;
+        final int columnStep = mStep * pixelStride;
+        for (int y = 0, sample = 0; y < mRows; y++) {
+            final int blockRow = (y / mSamplesPerBlock) * mBlockColumns;
+            int index = offset + y * mStep * rowStride;
+            for (int x = 0; x < mColumns; x++, sample++, index += columnStep) {
+                final byte value = luma[index];
+                if (Math.abs((value & 0xFF) - (previous[sample] & 0xFF)) > mThreshold) {
+                    mark(blockRow + mColumnBlock[x]);
+                }
+                previous[sample] = value;
+            }
+        }
+        return end();
+    }
+
+    /**
+     * 检测 Y 平面，使用绝对下标读取，不修改 buffer 的 position。
+     */
+    public boolean update(ByteBuffer luma, int rowStride, int pixelStride) {
+        begin();
+        final byte[] previous = mPrevious;
+        final int columnStep = mStep * pixelStride;
+        for (int y = 0, sample = 0; y < mRows; y++) {
+            final int blockRow = (y / mSamplesPerBlock) * mBlockColumns;
+            int index = y * mStep * rowStride;
+            for (int x = 0; x < mColumns; x++, sample++, index += columnStep) {
+                final byte value = luma.get(index);
+                if (Math.abs((value & 0xFF) - (previous[sample] & 0xFF)) > mThreshold) {
+                    mark(blockRow + mColumnBlock[x]);
+                }
+                previous[sample] = value;
+            }
+        }
+        return end();
+    }
+
+    /**
+     * 检测 RGBA_8888 的回读数据（每像素 4 字节，依次为 R、G、B、A）。
+     */
+    public boolean updateRGBA(ByteBuffer rgba, int rowStride) {
+        begin();
+        final byte[] previous = mPrevious;
+        final int columnStep = mStep * 4;
+        for (int y = 0, sample = 0; y < mRows; y++) {
+            final int blockRow = (y / mSamplesPerBlock) * mBlockColumns;
+            int index = y * mStep * rowStride;
+            for (int x = 0; x < mColumns; x++, sample++, index += columnStep) {
+                final int value = ((rgba.get(index) & 0xFF) + 2 * (rgba.get(index + 1) & 0xFF) + (rgba.get(index + 2) & 0xFF)) >> 2;
+                if (Math.abs(value - (previous[sample] & 0xFF)) > mThreshold) {
+                    mark(blockRow + mColumnBlock[x]);
+                }
+                previous[sample] = (byte) value;
+            }
+        }
+        return end();
+    }
+
+    /**
+     * 丢弃上一帧的采样结果，下一帧总是视为变化。
+     */
+    public void reset() {
+        mHasPrevious = false;
+    }
+
+    /** 最近一次检测中变化的块数，第一帧为所有块。 */
+    public int getChangedBlocks() {
+        return mChangedBlocks;
+    }
+
+    public int getBlocks() {
+        return mChanged.length;
+    }
+
+    private void begin() {
+        if (mChangedBlocks != 0) {
+            Arrays.fill(mChanged, false);
+        }
+        mChangedBlocks = 0;
+    }
+
+    private void mark(int block) {
+        if (!mChanged[block]) {
+            mChanged[block] = true;
+            mChangedBlocks++;
+        }
+    }
+
+    private boolean end() {
+        if (!mHasPrevious) {
+            mHasPrevious = true;
+            mChangedBlocks = mChanged.length;
+            // 下一帧 begin() 时需要清空标记。
+            return true;
+        }
+        return mChangedBlocks >= mMinChangedBlocks;
+    }
+
+}
@@ -0,0 +1,95 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * 根据画面是否变化决定每一帧是否需要编码、发送，用于屏幕共享等大部分时间静止的场景。
+ * <ul>
+ *     <li>画面变化时编码，并在变化停止后继续编码 trailingFrames 帧，让编码器把最后的静止画面的质量补上来。</li>
+ *     <li>画面静止时跳过，但距上一次编码超过 keepAliveIntervalMs 时仍然编码一帧，保证接收端的最低帧率。</li>
+ * </ul>
+ * 画面静止时往往根本没有新帧到达（例如静止的 VirtualDisplay），这时 shouldEncode 不会被调用，
+ * 调用方需要在 {@link #getKeepAliveDeadlineMs()} 时用定时器调用 {@link #pollKeepAlive(long)}。
+ * 实例不是线程安全的。
+ */
+public final class FrameDecimator {
+
+    private final long mKeepAliveIntervalMs;
+    private final int mTrailingFrames;
+
+    private int mPendingFrames;
+    private long mLastEncodeMs = Long.MIN_VALUE;
+
+    private long mEncoded;
+    private long mSkipped;
+
+    /**
+     * @param keepAliveIntervalMs 静止时两次编码的最大间隔。
+     * @param trailingFrames      画面停止变化后继续编码的帧数。
+     */
+    public FrameDecimator(long keepAliveIntervalMs, int trailingFrames) {
+        mKeepAliveIntervalMs = keepAliveIntervalMs;
+        mTrailingFrames = trailingFrames;
+    }
+
+    /**
+     * @param changed 当前帧与上一帧相比是否有变化，一般来自 {@link FrameChangeDetector}。
+     * @param nowMs   单调递增的时间，例如 SystemClock.elapsedRealtime()。
+     * @return 当前帧是否需要编码。
+     */
+    public boolean shouldEncode(boolean changed, long nowMs) {
+        final boolean encode;
+        if (changed) {
+            mPendingFrames = mTrailingFrames;
+            encode = true;
+        } else if (mPendingFrames > 0) {
+            mPendingFrames--;
+            encode = true;
+        } else {
+            encode = mLastEncodeMs == Long.MIN_VALUE || nowMs - mLastEncodeMs >= mKeepAliveIntervalMs;
+        }
+        if (encode) {
+            mLastEncodeMs = nowMs;
+            mEncoded++;
+        } else {
+            mSkipped++;
+        }
+        return encode;
+    }
+
+    /**
+     * @return 下一次保活编码的时间，与 shouldEncode 的 nowMs 使用同一个时钟；还没有编码过时返回 Long.MIN_VALUE，即立即保活。
+     */
+    public long getKeepAliveDeadlineMs() {
+        return mLastEncodeMs == Long.MIN_VALUE ? Long.MIN_VALUE : mLastEncodeMs + mKeepAliveIntervalMs;
+    }
+
+    /**
+     * 没有新帧时由定时器调用。
+     *
+     * @return 是否到了保活时间，返回 true 时记为一次编码。
+     */
+    public boolean pollKeepAlive(long nowMs) {
+        if (mLastEncodeMs != Long.MIN_VALUE && nowMs - mLastEncodeMs < mKeepAliveIntervalMs) {
+            return false;
+        }
+        mLastEncodeMs = nowMs;
+        mEncoded++;
+        return true;
+    }
+
+    public long getEncoded() {
+        return mEncoded;
+    }
+
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameDecimator{" +
+                "encoded=" + mEncoded +
+                ", skipped=" + mSkipped +
+                '}';
+    }
+
+}
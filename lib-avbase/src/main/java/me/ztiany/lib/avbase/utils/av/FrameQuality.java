@@ -0,0 +1,459 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * 客观画质评估：计算两帧 YUV420（I420/NV12/NV21）各平面的 PSNR 与 SSIM，用于检查新的转换路径或编码参数是否引入了失真。
+ * <p>
+ * SSIM 使用 8x8 的均匀窗口，步长为 1。窗口内的 Σx、Σy、Σx²、Σy²、Σxy 用滚动的积分（先按列累加最近 8 行，再沿行滑动求和）得到，
+ * 每个窗口 O(1)，只需要 5 个宽度为 width 的 int 数组，1080p 单帧也不需要额外的整帧内存。
+ * </p>
+ * 也可以逐帧比较两个裸 YUV 文件（例如 YUVSaver 保存的文件），给出每帧与整体的分数。实例持有暂存区，不是线程安全的。
+ */
+public final class FrameQuality {
+
+    public static final int I420 = 0;
+    public static final int NV12 = 1;
+    public static final int NV21 = 2;
+
+    /** 两帧完全相同时 PSNR 为无穷大，取一个上限，方便求平均。 */
+    public static final double MAX_PSNR = 100;
+
+    private static final int WINDOW = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+
+    private final int[] mColX;
+    private final int[] mColY;
+    private final int[] mColXX;
+    private final int[] mColYY;
+    private final int[] mColXY;
+
+    public interface Callback {
+
+        /** 每比较完一帧调用一次，index 从 0 开始。 */
+        void onFrame(int index, Score score);
+
+    }
+
+    /**
+     * @param format {@link #I420}、{@link #NV12} 或 {@link #NV21}，宽高应为偶数。
+     */
+    public FrameQuality(int width, int height, int format) {
+        if (format != I420 && format != NV12 && format != NV21) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mColX = new int[width];
+        mColY = new int[width];
+        mColXX = new int[width];
+        mColYY = new int[width];
+        mColXY = new int[width];
+    }
+
+    public int getFrameSize() {
+        return mWidth * mHeight * 3 / 2;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 单帧
+    ///////////////////////////////////////////////////////////////////////////
+
+    public Score compare(byte[] reference, byte[] distorted) {
+        return compare(reference, 0, distorted, 0);
+    }
+
+    public Score compare(byte[] reference, int referenceOffset, byte[] distorted, int distortedOffset) {
+        final int frameSize = mWidth * mHeight;
+        final int uvWidth = mWidth >> 1;
+        final int uvHeight = mHeight >> 1;
+
+        final int uOffset;
+        final int vOffset;
+        final int uvRowStride;
+        final int uvPixelStride;
+        if (mFormat == I420) {
+            uOffset = frameSize;
+            vOffset = frameSize + uvWidth * uvHeight;
+            uvRowStride = uvWidth;
+            uvPixelStride = 1;
+        } else {
+            uOffset = mFormat == NV12 ? frameSize : frameSize + 1;
+            vOffset = mFormat == NV12 ? frameSize + 1 : frameSize;
+            uvRowStride = mWidth;
+            uvPixelStride = 2;
+        }
+
+        final long sseY = sse(reference, referenceOffset, distorted, distortedOffset, mWidth, 1, mWidth, mHeight);
+        final long sseU = sse(reference, referenceOffset + uOffset, distorted, distortedOffset + uOffset, uvRowStride, uvPixelStride, uvWidth, uvHeight);
+        final long sseV = sse(reference, referenceOffset + vOffset, distorted, distortedOffset + vOffset, uvRowStride, uvPixelStride, uvWidth, uvHeight);
+
+        final double ssimY = ssim(reference, referenceOffset, distorted, distortedOffset, mWidth, 1, mWidth, mHeight);
+        final double ssimU = ssim(reference, referenceOffset + uOffset, distorted, distortedOffset + uOffset, uvRowStride, uvPixelStride, uvWidth, uvHeight);
+        final double ssimV = ssim(reference, referenceOffset + vOffset, distorted, distortedOffset + vOffset, uvRowStride, uvPixelStride, uvWidth, uvHeight);
+
+        return new Score(frameSize, uvWidth * uvHeight, sseY, sseU, sseV, ssimY, ssimU, ssimV);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 文件
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 逐帧比较两个裸 YUV 文件，每次只读入一帧。帧数以较短的文件为准，末尾不足一帧的数据会被忽略。
+     *
+     * @param callback 可以为 null。
+     */
+    public Summary compareFiles(File reference, File distorted, Callback callback) throws IOException {
+        try (
+                InputStream referenceStream = new FileInputStream(reference);
+                InputStream distortedStream = new FileInputStream(distorted)
+        ) {
+            return compareStreams(referenceStream, distortedStream, callback);
+        }
+    }
+
+    /**
+     * 同 {@link #compareFiles(File, File, Callback)}，不会关闭传入的流。
+     */
+    public Summary compareStreams(InputStream reference, InputStream distorted, Callback callback) throws IOException {
+        final int frameSize = getFrameSize();
+        final byte[] referenceFrame = new byte[frameSize];
+        final byte[] distortedFrame = new byte[frameSize];
+        final DataInputStream referenceInput = new DataInputStream(new BufferedInputStream(reference, frameSize));
+        final DataInputStream distortedInput = new DataInputStream(new BufferedInputStream(distorted, frameSize));
+
+        final Summary summary = new Summary();
+        while (readFrame(referenceInput, referenceFrame) && readFrame(distortedInput, distortedFrame)) {
+            final Score score = compare(referenceFrame, distortedFrame);
+            if (callback != null) {
+                callback.onFrame(summary.frames, score);
+            }
+            summary.add(score);
+        }
+        Timber.d("compareStreams: %s", summary);
+        return summary;
+    }
+
+    private static boolean readFrame(DataInputStream input, byte[] frame) throws IOException {
+        try {
+            input.readFully(frame);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // PSNR/SSIM
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 8 位样本的 PSNR，sse 为 0 时返回 {@link #MAX_PSNR}。
+     */
+    public static double psnr(long sse, long samples) {
+        if (sse == 0) {
+            return MAX_PSNR;
+        }
+        return Math.min(MAX_PSNR, 10 * Math.log10(255.0 * 255.0 * samples / sse));
+    }
+
+    private static long sse(byte[] a, int aOffset, byte[] b, int bOffset, int rowStride, int pixelStride, int width, int height) {
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            int i = aOffset + y * rowStride;
+            int j = bOffset + y * rowStride;
+            // 每行最多 255² * width，int 不会溢出。
+            int rowSum = 0;
+            for (int x = 0; x < width; x++) {
+                final int d = (a[i] & 0xFF) - (b[j] & 0xFF);
+                rowSum += d * d;
+                i += pixelStride;
+                j += pixelStride;
+            }
+            sum += rowSum;
+        }
+        return sum;
+    }
+
+    /**
+     * 所有 8x8 窗口（步长为 1）SSIM 的平均值。平面小于窗口时以整个平面为一个窗口。
+     */
+    private double ssim(byte[] a, int aOffset, byte[] b, int bOffset, int rowStride, int pixelStride, int width, int height) {
+        final int window = Math.min(WINDOW, Math.min(width, height));
+        if (window == 0) {
+            return 1;
+        }
+        final int[] colX = mColX;
+        final int[] colY = mColY;
+        final int[] colXX = mColXX;
+        final int[] colYY = mColYY;
+        final int[] colXY = mColXY;
+        Arrays.fill(colX, 0, width, 0);
+        Arrays.fill(colY, 0, width, 0);
+        Arrays.fill(colXX, 0, width, 0);
+        Arrays.fill(colYY, 0, width, 0);
+        Arrays.fill(colXY, 0, width, 0);
+
+        final int n = window * window;
+        final double c1 = C1 * n * n;
+        final double c2 = C2 * n * n;
+        double total = 0;
+        long windows = 0;
+
+        for (int y = 0; y < height; y++) {
+            // 列和加入新的一行，移出窗口上方的一行。
+            addRow(a, aOffset + y * rowStride, b, bOffset + y * rowStride, pixelStride, width);
+            if (y >= window) {
+                removeRow(a, aOffset + (y - window) * rowStride, b, bOffset + (y - window) * rowStride, pixelStride, width);
+            }
+            if (y < window - 1) {
+                continue;
+            }
+
+            // 沿行滑动，得到每个窗口的五个和。
+            int sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+            for (int x = 0; x < window; x++) {
+                sx += colX[x];
+                sy += colY[x];
+                sxx += colXX[x];
+                syy += colYY[x];
+                sxy += colXY[x];
+            }
+            for (int x = window; ; x++) {
+                total += windowSsim(sx, sy, sxx, syy, sxy, n, c1, c2);
+                windows++;
+                if (x == width) {
+                    break;
+                }
+                final int out = x - window;
+                sx += colX[x] - colX[out];
+                sy += colY[x] - colY[out];
+                sxx += colXX[x] - colXX[out];
+                syy += colYY[x] - colYY[out];
+                sxy += colXY[x] - colXY[out];
+            }
+        }
+        return total / windows;
+    }
+
+    private void addRow(byte[] a, int i, byte[] b, int j, int pixelStride, int width) {
+        final int[] colX = mColX;
+        final int[] colY = mColY;
+        final int[] colXX = mColXX;
+        final int[] colYY = mColYY;
+        final int[] colXY = mColXY;
+        for (int x = 0; x < width; x++) {
+            final int p = a[i] & 0xFF;
+            final int q = b[j] & 0xFF;
+            colX[x] += p;
+            colY[x] += q;
+            colXX[x] += p * p;
+            colYY[x] += q * q;
+            colXY[x] += p * q;
+            i += pixelStride;
+            j += pixelStride;
+        }
+    }
+
+    private void removeRow(byte[] a, int i, byte[] b, int j, int pixelStride, int width) {
+        final int[] colX = mColX;
+        final int[] colY = mColY;
+        final int[] colXX = mColXX;
+        final int[] colYY = mColYY;
+        final int[] colXY = mColXY;
+        for (int x = 0; x < width; x++) {
+            final int p = a[i] & 0xFF;
+            final int q = b[j] & 0xFF;
+            colX[x] -= p;
+            colY[x] -= q;
+            colXX[x] -= p * p;
+            colYY[x] -= q * q;
+            colXY[x] -= p * q;
+            i += pixelStride;
+            j += pixelStride;
+        }
+    }
+
+    /**
+     * 单个窗口的 SSIM。分子、分母同乘 n⁴ 后只剩整数和，每个窗口只需要一次除法。
+     */
+    private static double windowSsim(int sx, int sy, int sxx, int syy, int sxy, int n, double c1, double c2) {
+        final long sxsy = (long) sx * sy;
+        final long sx2sy2 = (long) sx * sx + (long) sy * sy;
+        final double numerator = (2 * sxsy + c1) * (2 * ((long) n * sxy - sxsy) + c2);
+        final double denominator = (sx2sy2 + c1) * ((long) n * (sxx + syy) - sx2sy2 + c2);
+        return numerator / denominator;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 结果
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 单帧的分数。整帧的 PSNR 由三个平面的误差之和计算，整帧的 SSIM 按样本数加权（Y:U:V = 4:1:1）。
+     */
+    public static final class Score {
+
+        /** 三个平面的样本总数。 */
+        public final long samples;
+
+        public final long sseY;
+        public final long sseU;
+        public final long sseV;
+
+        public final double psnrY;
+        public final double psnrU;
+        public final double psnrV;
+        public final double psnr;
+
+        public final double ssimY;
+        public final double ssimU;
+        public final double ssimV;
+        public final double ssim;
+
+        Score(long lumaSamples, long chromaSamples, long sseY, long sseU, long sseV, double ssimY, double ssimU, double ssimV) {
+            samples = lumaSamples + 2 * chromaSamples;
+            this.sseY = sseY;
+            this.sseU = sseU;
+            this.sseV = sseV;
+            psnrY = psnr(sseY, lumaSamples);
+            psnrU = psnr(sseU, chromaSamples);
+            psnrV = psnr(sseV, chromaSamples);
+            psnr = psnr(sseY + sseU + sseV, samples);
+            this.ssimY = ssimY;
+            this.ssimU = ssimU;
+            this.ssimV = ssimV;
+            ssim = (ssimY * lumaSamples + (ssimU + ssimV) * chromaSamples) / samples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "PSNR Y %.3f U %.3f V %.3f All %.3f, SSIM Y %.5f U %.5f V %.5f All %.5f",
+                    psnrY, psnrU, psnrV, psnr, ssimY, ssimU, ssimV, ssim
+            );
+        }
+    }
+
+    /**
+     * 多帧的汇总：各项分数的逐帧平均值、最差的一帧，以及由所有帧的总误差计算的整体 PSNR。
+     */
+    public static final class Summary {
+
+        private int frames;
+        private double psnrY;
+        private double psnrU;
+        private double psnrV;
+        private double psnr;
+        private double ssimY;
+        private double ssimU;
+        private double ssimV;
+        private double ssim;
+        private long sse;
+        private long samples;
+        private double minSsim = Double.MAX_VALUE;
+        private int minSsimFrame = -1;
+
+        void add(Score score) {
+            psnrY += score.psnrY;
+            psnrU += score.psnrU;
+            psnrV += score.psnrV;
+            psnr += score.psnr;
+            ssimY += score.ssimY;
+            ssimU += score.ssimU;
+            ssimV += score.ssimV;
+            ssim += score.ssim;
+            sse += score.sseY + score.sseU + score.sseV;
+            samples += score.samples;
+            if (score.ssim < minSsim) {
+                minSsim = score.ssim;
+                minSsimFrame = frames;
+            }
+            frames++;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public double getAveragePsnrY() {
+            return average(psnrY);
+        }
+
+        public double getAveragePsnrU() {
+            return average(psnrU);
+        }
+
+        public double getAveragePsnrV() {
+            return average(psnrV);
+        }
+
+        public double getAveragePsnr() {
+            return average(psnr);
+        }
+
+        public double getAverageSsimY() {
+            return average(ssimY);
+        }
+
+        public double getAverageSsimU() {
+            return average(ssimU);
+        }
+
+        public double getAverageSsimV() {
+            return average(ssimV);
+        }
+
+        public double getAverageSsim() {
+            return average(ssim);
+        }
+
+        /** 整体 PSNR：所有帧的误差之和对应的 PSNR，不受个别完全相同的帧影响。 */
+        public double getGlobalPsnr() {
+            return frames == 0 ? Double.NaN : psnr(sse, samples);
+        }
+
+        public double getMinSsim() {
+            return frames == 0 ? Double.NaN : minSsim;
+        }
+
+        public int getMinSsimFrame() {
+            return minSsimFrame;
+        }
+
+        private double average(double sum) {
+            return frames == 0 ? Double.NaN : sum / frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "%d frames, PSNR Y %.3f U %.3f V %.3f All %.3f (global %.3f), SSIM Y %.5f U %.5f V %.5f All %.5f, min SSIM %.5f @%d",
+                    frames,
+                    getAveragePsnrY(), getAveragePsnrU(), getAveragePsnrV(), getAveragePsnr(), getGlobalPsnr(),
+                    getAverageSsimY(), getAverageSsimU(), getAverageSsimV(), getAverageSsim(),
+                    getMinSsim(), minSsimFrame
+            );
+        }
+    }
+
+}
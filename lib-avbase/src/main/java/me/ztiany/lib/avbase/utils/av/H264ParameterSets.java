@@ -0,0 +1,565 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 SPS/PPS 的解析（ITU-T H.264 7.3.2.1、7.3.2.2、E.1.1），用于从码流中得到准确的分辨率、帧率等信息来配置解码器。
+ * <p>
+ * 传入的 NAL 从 NAL 头开始（不包括起始码），例如 {@link AnnexBScanner#getNal()}；数据无效时抛出 {@link IllegalArgumentException}。
+ * </p>
+ */
+public final class H264ParameterSets {
+
+    public static final int NAL_SLICE = 1;
+    public static final int NAL_IDR = 5;
+    public static final int NAL_SEI = 6;
+    public static final int NAL_SPS = 7;
+    public static final int NAL_PPS = 8;
+    public static final int NAL_AUD = 9;
+
+    public static final int PROFILE_BASELINE = 66;
+    public static final int PROFILE_MAIN = 77;
+    public static final int PROFILE_HIGH = 100;
+
+    private H264ParameterSets() {
+        throw new UnsupportedOperationException();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // SPS
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static final class Sps {
+
+        private int mProfileIdc;
+        private int mConstraintFlags;
+        private int mLevelIdc;
+        private int mSpsId;
+        private int mChromaFormatIdc = 1;
+        private int mBitDepthLuma = 8;
+        private int mBitDepthChroma = 8;
+        private int mLog2MaxFrameNum;
+        private int mPicOrderCntType;
+        private int mLog2MaxPicOrderCntLsb;
+        private int mMaxNumRefFrames;
+        private boolean mFrameMbsOnly;
+        private int mCodedWidth;
+        private int mCodedHeight;
+        private int mWidth;
+        private int mHeight;
+        private int mCropLeft;
+        private int mCropRight;
+        private int mCropTop;
+        private int mCropBottom;
+        private int mSarWidth = 1;
+        private int mSarHeight = 1;
+        private boolean mFullRange;
+        private int mColourPrimaries = 2;
+        private int mTransferCharacteristics = 2;
+        private int mMatrixCoefficients = 2;
+        private long mNumUnitsInTick;
+        private long mTimeScale;
+        private boolean mFixedFrameRate;
+        private int mMaxNumReorderFrames;
+        private int mMaxDecFrameBuffering;
+
+        private Sps() {
+        }
+
+        public int getProfileIdc() {
+            return mProfileIdc;
+        }
+
+        /** constraint_set0_flag 到 constraint_set5_flag 以及 2 位保留位，即 SPS 的第 2 个字节。 */
+        public int getConstraintFlags() {
+            return mConstraintFlags;
+        }
+
+        /** 例如 31 表示 3.1。 */
+        public int getLevelIdc() {
+            return mLevelIdc;
+        }
+
+        public int getSpsId() {
+            return mSpsId;
+        }
+
+        /** 0 为单色，1 为 4:2:0，2 为 4:2:2，3 为 4:4:4。 */
+        public int getChromaFormatIdc() {
+            return mChromaFormatIdc;
+        }
+
+        public int getBitDepthLuma() {
+            return mBitDepthLuma;
+        }
+
+        public int getBitDepthChroma() {
+            return mBitDepthChroma;
+        }
+
+        public int getLog2MaxFrameNum() {
+            return mLog2MaxFrameNum;
+        }
+
+        public int getPicOrderCntType() {
+            return mPicOrderCntType;
+        }
+
+        public int getLog2MaxPicOrderCntLsb() {
+            return mLog2MaxPicOrderCntLsb;
+        }
+
+        public int getMaxNumRefFrames() {
+            return mMaxNumRefFrames;
+        }
+
+        public boolean isFrameMbsOnly() {
+            return mFrameMbsOnly;
+        }
+
+        /** 宏块对齐的宽度，即解码器输出缓冲区的最小宽度。 */
+        public int getCodedWidth() {
+            return mCodedWidth;
+        }
+
+        public int getCodedHeight() {
+            return mCodedHeight;
+        }
+
+        /** 裁剪后的显示宽度。 */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** 以亮度像素为单位的裁剪。 */
+        public int getCropLeft() {
+            return mCropLeft;
+        }
+
+        public int getCropRight() {
+            return mCropRight;
+        }
+
+        public int getCropTop() {
+            return mCropTop;
+        }
+
+        public int getCropBottom() {
+            return mCropBottom;
+        }
+
+        /** 像素宽高比，没有声明时为 1:1。 */
+        public int getSarWidth() {
+            return mSarWidth;
+        }
+
+        public int getSarHeight() {
+            return mSarHeight;
+        }
+
+        public boolean isFullRange() {
+            return mFullRange;
+        }
+
+        /** 没有声明时为 2（unspecified）。 */
+        public int getColourPrimaries() {
+            return mColourPrimaries;
+        }
+
+        public int getTransferCharacteristics() {
+            return mTransferCharacteristics;
+        }
+
+        public int getMatrixCoefficients() {
+            return mMatrixCoefficients;
+        }
+
+        /** VUI 中的 timing info，没有时为 0。 */
+        public long getNumUnitsInTick() {
+            return mNumUnitsInTick;
+        }
+
+        public long getTimeScale() {
+            return mTimeScale;
+        }
+
+        public boolean isFixedFrameRate() {
+            return mFixedFrameRate;
+        }
+
+        /** 由 timing info 得出的帧率（一帧为两个 tick），没有 timing info 时为 0。 */
+        public float getFrameRate() {
+            return mNumUnitsInTick > 0 ? mTimeScale / (2f * mNumUnitsInTick) : 0;
+        }
+
+        /** 重排序深度，即解码顺序与显示顺序之间最多相差的帧数，没有 bitstream_restriction 时按 profile/level 推算。 */
+        public int getMaxNumReorderFrames() {
+            return mMaxNumReorderFrames;
+        }
+
+        public int getMaxDecFrameBuffering() {
+            return mMaxDecFrameBuffering;
+        }
+
+        @Override
+        public String toString() {
+            return "Sps{" +
+                    "profile=" + mProfileIdc +
+                    ", level=" + mLevelIdc +
+                    ", id=" + mSpsId +
+                    ", chroma=" + mChromaFormatIdc +
+                    ", bitDepth=" + mBitDepthLuma +
+                    ", size=" + mWidth + "x" + mHeight +
+                    ", coded=" + mCodedWidth + "x" + mCodedHeight +
+                    ", sar=" + mSarWidth + ":" + mSarHeight +
+                    ", frameRate=" + getFrameRate() +
+                    ", refFrames=" + mMaxNumRefFrames +
+                    ", reorder=" + mMaxNumReorderFrames +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 解析 SPS，nal 从 NAL 头开始，不改变其 position。
+     */
+    public static Sps parseSps(ByteBuffer nal) {
+        final BitReader reader = new BitReader(nal);
+        final int nalType = reader.readBits(8) & 0x1F;
+        if (nalType != NAL_SPS) {
+            throw new IllegalArgumentException("not a sps: " + nalType);
+        }
+
+        final Sps sps = new Sps();
+        sps.mProfileIdc = reader.readBits(8);
+        sps.mConstraintFlags = reader.readBits(8);
+        sps.mLevelIdc = reader.readBits(8);
+        sps.mSpsId = readUE(reader, 31);
+
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(sps.mProfileIdc)) {
+            sps.mChromaFormatIdc = readUE(reader, 3);
+            if (sps.mChromaFormatIdc == 3) {
+                separateColourPlane = reader.readBool();
+            }
+            sps.mBitDepthLuma = readUE(reader, 6) + 8;
+            sps.mBitDepthChroma = readUE(reader, 6) + 8;
+            reader.skipBits(1);//qpprime_y_zero_transform_bypass_flag
+            if (reader.readBool()) {//seq_scaling_matrix_present_flag
+                final int count = sps.mChromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < count; i++) {
+                    if (reader.readBool()) {
+                        skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        sps.mLog2MaxFrameNum = readUE(reader, 12) + 4;
+        sps.mPicOrderCntType = readUE(reader, 2);
+        if (sps.mPicOrderCntType == 0) {
+            sps.mLog2MaxPicOrderCntLsb = readUE(reader, 12) + 4;
+        } else if (sps.mPicOrderCntType == 1) {
+            reader.skipBits(1);//delta_pic_order_always_zero_flag
+            reader.readSE();//offset_for_non_ref_pic
+            reader.readSE();//offset_for_top_to_bottom_field
+            final int cycle = readUE(reader, 255);
+            for (int i = 0; i < cycle; i++) {
+                reader.readSE();
+            }
+        }
+        sps.mMaxNumRefFrames = readUE(reader, 16);
+        reader.skipBits(1);//gaps_in_frame_num_value_allowed_flag
+
+        final int widthInMbs = readUE(reader, 1023) + 1;
+        final int heightInMapUnits = readUE(reader, 1023) + 1;
+        sps.mFrameMbsOnly = reader.readBool();
+        if (!sps.mFrameMbsOnly) {
+            reader.skipBits(1);//mb_adaptive_frame_field_flag
+        }
+        reader.skipBits(1);//direct_8x8_inference_flag
+
+        final int frameHeightInMbs = (sps.mFrameMbsOnly ? 1 : 2) * heightInMapUnits;
+        sps.mCodedWidth = widthInMbs * 16;
+        sps.mCodedHeight = frameHeightInMbs * 16;
+        if (reader.readBool()) {//frame_cropping_flag
+            final int chromaArrayType = separateColourPlane ? 0 : sps.mChromaFormatIdc;
+            final int cropUnitX = chromaArrayType == 0 || chromaArrayType == 3 ? 1 : 2;
+            final int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (sps.mFrameMbsOnly ? 1 : 2);
+            sps.mCropLeft = reader.readUE() * cropUnitX;
+            sps.mCropRight = reader.readUE() * cropUnitX;
+            sps.mCropTop = reader.readUE() * cropUnitY;
+            sps.mCropBottom = reader.readUE() * cropUnitY;
+        }
+        sps.mWidth = sps.mCodedWidth - sps.mCropLeft - sps.mCropRight;
+        sps.mHeight = sps.mCodedHeight - sps.mCropTop - sps.mCropBottom;
+        if (sps.mWidth <= 0 || sps.mHeight <= 0) {
+            throw new IllegalArgumentException("invalid cropping: " + sps);
+        }
+
+        // 没有 bitstream_restriction 时的默认值（E.2.1）。
+        sps.mMaxDecFrameBuffering = maxDpbFrames(sps, widthInMbs, frameHeightInMbs);
+        sps.mMaxNumReorderFrames = isIntraProfile(sps) ? 0 : sps.mMaxDecFrameBuffering;
+
+        if (reader.readBool()) {//vui_parameters_present_flag
+            parseVui(reader, sps);
+        }
+        return sps;
+    }
+
+    private static void parseVui(BitReader reader, Sps sps) {
+        if (reader.readBool()) {//aspect_ratio_info_present_flag
+            final int aspectRatioIdc = reader.readBits(8);
+            if (aspectRatioIdc == 255) {
+                sps.mSarWidth = reader.readBits(16);
+                sps.mSarHeight = reader.readBits(16);
+            } else if (aspectRatioIdc > 0 && aspectRatioIdc < ASPECT_RATIOS.length) {
+                sps.mSarWidth = ASPECT_RATIOS[aspectRatioIdc][0];
+                sps.mSarHeight = ASPECT_RATIOS[aspectRatioIdc][1];
+            }
+        }
+        if (reader.readBool()) {//overscan_info_present_flag
+            reader.skipBits(1);
+        }
+        if (reader.readBool()) {//video_signal_type_present_flag
+            reader.skipBits(3);//video_format
+            sps.mFullRange = reader.readBool();
+            if (reader.readBool()) {//colour_description_present_flag
+                sps.mColourPrimaries = reader.readBits(8);
+                sps.mTransferCharacteristics = reader.readBits(8);
+                sps.mMatrixCoefficients = reader.readBits(8);
+            }
+        }
+        if (reader.readBool()) {//chroma_loc_info_present_flag
+            reader.readUE();
+            reader.readUE();
+        }
+        if (reader.readBool()) {//timing_info_present_flag
+            sps.mNumUnitsInTick = reader.readUnsignedInt();
+            sps.mTimeScale = reader.readUnsignedInt();
+            sps.mFixedFrameRate = reader.readBool();
+        }
+        final boolean nalHrd = reader.readBool();
+        if (nalHrd) {
+            skipHrd(reader);
+        }
+        final boolean vclHrd = reader.readBool();
+        if (vclHrd) {
+            skipHrd(reader);
+        }
+        if (nalHrd || vclHrd) {
+            reader.skipBits(1);//low_delay_hrd_flag
+        }
+        reader.skipBits(1);//pic_struct_present_flag
+        if (reader.readBool()) {//bitstream_restriction_flag
+            reader.skipBits(1);//motion_vectors_over_pic_boundaries_flag
+            reader.readUE();//max_bytes_per_pic_denom
+            reader.readUE();//max_bits_per_mb_denom
+            reader.readUE();//log2_max_mv_length_horizontal
+            reader.readUE();//log2_max_mv_length_vertical
+            sps.mMaxNumReorderFrames = readUE(reader, 16);
+            sps.mMaxDecFrameBuffering = readUE(reader, 16);
+        }
+    }
+
+    private static void skipHrd(BitReader reader) {
+        final int cpbCount = readUE(reader, 31) + 1;
+        reader.skipBits(8);//bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCount; i++) {
+            reader.readUE();//bit_rate_value_minus1
+            reader.readUE();//cpb_size_value_minus1
+            reader.skipBits(1);//cbr_flag
+        }
+        reader.skipBits(20);//initial_cpb_removal_delay_length_minus1 等 4 个 5 位的长度
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size && nextScale != 0; i++) {
+            nextScale = (lastScale + reader.readSE() + 256) % 256;
+            if (nextScale != 0) {
+                lastScale = nextScale;
+            }
+        }
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** 只有帧内编码的 profile，constraint_set3_flag 表示 Intra。 */
+    private static boolean isIntraProfile(Sps sps) {
+        final boolean constraintSet3 = (sps.mConstraintFlags & 0x10) != 0;
+        switch (sps.mProfileIdc) {
+            case 44:
+                return true;
+            case 86:
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+                return constraintSet3;
+            default:
+                return false;
+        }
+    }
+
+    /** 表 A-1 的 MaxDpbMbs 换算为帧数。 */
+    private static int maxDpbFrames(Sps sps, int widthInMbs, int frameHeightInMbs) {
+        final int maxDpbMbs;
+        switch (sps.mLevelIdc) {
+            case 9:
+            case 10:
+                maxDpbMbs = 396;
+                break;
+            case 11:
+                // Baseline/Main/Extended 的 level 1b 为 level_idc 11 加 constraint_set3_flag。
+                final boolean level1b = (sps.mConstraintFlags & 0x10) != 0
+                        && (sps.mProfileIdc == 66 || sps.mProfileIdc == 77 || sps.mProfileIdc == 88);
+                maxDpbMbs = level1b ? 396 : 900;
+                break;
+            case 12:
+            case 13:
+            case 20:
+                maxDpbMbs = 2376;
+                break;
+            case 21:
+                maxDpbMbs = 4752;
+                break;
+            case 22:
+            case 30:
+                maxDpbMbs = 8100;
+                break;
+            case 31:
+                maxDpbMbs = 18000;
+                break;
+            case 32:
+                maxDpbMbs = 20480;
+                break;
+            case 40:
+            case 41:
+                maxDpbMbs = 32768;
+                break;
+            case 42:
+                maxDpbMbs = 34816;
+                break;
+            case 50:
+                maxDpbMbs = 110400;
+                break;
+            case 51:
+            case 52:
+                maxDpbMbs = 184320;
+                break;
+            default:
+                maxDpbMbs = 696320;
+                break;
+        }
+        return Math.max(1, Math.min(maxDpbMbs / (widthInMbs * frameHeightInMbs), 16));
+    }
+
+    /** 表 E-1，下标为 aspect_ratio_idc。 */
+    private static final int[][] ASPECT_RATIOS = {
+            {0, 0}, {1, 1}, {12, 11}, {10, 11}, {16, 11}, {40, 33}, {24, 11}, {20, 11}, {32, 11},
+            {80, 33}, {18, 11}, {15, 11}, {64, 33}, {160, 99}, {4, 3}, {3, 2}, {2, 1}
+    };
+
+    ///////////////////////////////////////////////////////////////////////////
+    // PPS
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static final class Pps {
+
+        private int mPpsId;
+        private int mSpsId;
+        private boolean mEntropyCodingModeFlag;
+        private boolean mBottomFieldPicOrderInFramePresent;
+
+        private Pps() {
+        }
+
+        public int getPpsId() {
+            return mPpsId;
+        }
+
+        public int getSpsId() {
+            return mSpsId;
+        }
+
+        /** true 为 CABAC，false 为 CAVLC。 */
+        public boolean isEntropyCodingModeFlag() {
+            return mEntropyCodingModeFlag;
+        }
+
+        public boolean isBottomFieldPicOrderInFramePresent() {
+            return mBottomFieldPicOrderInFramePresent;
+        }
+
+        @Override
+        public String toString() {
+            return "Pps{" +
+                    "id=" + mPpsId +
+                    ", spsId=" + mSpsId +
+                    ", cabac=" + mEntropyCodingModeFlag +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 解析 PPS 中与 SPS 关联的部分，nal 从 NAL 头开始，不改变其 position。
+     */
+    public static Pps parsePps(ByteBuffer nal) {
+        final BitReader reader = new BitReader(nal);
+        final int nalType = reader.readBits(8) & 0x1F;
+        if (nalType != NAL_PPS) {
+            throw new IllegalArgumentException("not a pps: " + nalType);
+        }
+        final Pps pps = new Pps();
+        pps.mPpsId = readUE(reader, 255);
+        pps.mSpsId = readUE(reader, 31);
+        pps.mEntropyCodingModeFlag = reader.readBool();
+        pps.mBottomFieldPicOrderInFramePresent = reader.readBool();
+        return pps;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 工具
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** NAL 头（第一个字节）中的 nal_unit_type。 */
+    public static int nalType(int header) {
+        return header & 0x1F;
+    }
+
+    /** 读取 ue(v) 并检查取值范围，避免损坏的数据导致后续计算溢出。 */
+    static int readUE(BitReader reader, int max) {
+        final int value = reader.readUE();
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("value out of range: " + value + " > " + max);
+        }
+        return value;
+    }
+
+}
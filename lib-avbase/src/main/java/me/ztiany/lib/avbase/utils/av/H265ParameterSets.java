@@ -0,0 +1,577 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+import static me.ztiany.lib.avbase.utils.av.H264ParameterSets.readUE;
+
+/**
+ * H.265 VPS/SPS/PPS 的解析（ITU-T H.265 7.3.2、E.2.1），用于从码流中得到准确的分辨率、帧率等信息来配置解码器。
+ * <p>
+ * 传入的 NAL 从 2 字节的 NAL 头开始（不包括起始码），例如 {@link AnnexBScanner#getNal()}；数据无效时抛出 {@link IllegalArgumentException}。
+ * SPS 只解析到 VUI 的 timing info，之后的 HRD 与 bitstream_restriction 不影响解码器的配置。
+ * </p>
+ */
+public final class H265ParameterSets {
+
+    public static final int NAL_TRAIL_R = 1;
+    public static final int NAL_IDR_W_RADL = 19;
+    public static final int NAL_IDR_N_LP = 20;
+    public static final int NAL_CRA = 21;
+    public static final int NAL_VPS = 32;
+    public static final int NAL_SPS = 33;
+    public static final int NAL_PPS = 34;
+    public static final int NAL_AUD = 35;
+    public static final int NAL_PREFIX_SEI = 39;
+
+    public static final int PROFILE_MAIN = 1;
+    public static final int PROFILE_MAIN_10 = 2;
+
+    private H265ParameterSets() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** profile_tier_level 中 general 部分的信息，VPS 与 SPS 共用。 */
+    public static class ProfileTierLevel {
+
+        int mProfileSpace;
+        boolean mHighTier;
+        int mProfileIdc;
+        int mProfileCompatibilityFlags;
+        int mLevelIdc;
+        int mMaxSubLayers;
+
+        ProfileTierLevel() {
+        }
+
+        public int getProfileSpace() {
+            return mProfileSpace;
+        }
+
+        public boolean isHighTier() {
+            return mHighTier;
+        }
+
+        /** 1 为 Main，2 为 Main 10。 */
+        public int getProfileIdc() {
+            return mProfileIdc;
+        }
+
+        public int getProfileCompatibilityFlags() {
+            return mProfileCompatibilityFlags;
+        }
+
+        /** 为 level 的 30 倍，例如 93 表示 3.1。 */
+        public int getLevelIdc() {
+            return mLevelIdc;
+        }
+
+        public int getMaxSubLayers() {
+            return mMaxSubLayers;
+        }
+
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // VPS
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static final class Vps extends ProfileTierLevel {
+
+        private int mVpsId;
+        private int mMaxNumReorderPics;
+        private long mNumUnitsInTick;
+        private long mTimeScale;
+
+        private Vps() {
+        }
+
+        public int getVpsId() {
+            return mVpsId;
+        }
+
+        /** 最高时域层的重排序深度。 */
+        public int getMaxNumReorderPics() {
+            return mMaxNumReorderPics;
+        }
+
+        public long getNumUnitsInTick() {
+            return mNumUnitsInTick;
+        }
+
+        public long getTimeScale() {
+            return mTimeScale;
+        }
+
+        @Override
+        public String toString() {
+            return "Vps{" +
+                    "id=" + mVpsId +
+                    ", profile=" + mProfileIdc +
+                    ", level=" + mLevelIdc +
+                    ", subLayers=" + mMaxSubLayers +
+                    ", reorder=" + mMaxNumReorderPics +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 解析 VPS，nal 从 NAL 头开始，不改变其 position。
+     */
+    public static Vps parseVps(ByteBuffer nal) {
+        final BitReader reader = new BitReader(nal);
+        checkNalType(reader, NAL_VPS);
+        final Vps vps = new Vps();
+        vps.mVpsId = reader.readBits(4);
+        reader.skipBits(8);//vps_base_layer_internal_flag, vps_base_layer_available_flag, vps_max_layers_minus1
+        vps.mMaxSubLayers = reader.readBits(3) + 1;
+        reader.skipBits(17);//vps_temporal_id_nesting_flag, vps_reserved_0xffff_16bits
+        parseProfileTierLevel(reader, vps, vps.mMaxSubLayers);
+        final boolean subLayerOrderingInfoPresent = reader.readBool();
+        for (int i = subLayerOrderingInfoPresent ? 0 : vps.mMaxSubLayers - 1; i < vps.mMaxSubLayers; i++) {
+            reader.readUE();//vps_max_dec_pic_buffering_minus1
+            vps.mMaxNumReorderPics = readUE(reader, 16);
+            reader.readUE();//vps_max_latency_increase_plus1
+        }
+        final int maxLayerId = reader.readBits(6);
+        final int numLayerSets = readUE(reader, 1023) + 1;
+        for (int i = 1; i < numLayerSets; i++) {
+            reader.skipBits(maxLayerId + 1);//layer_id_included_flag
+        }
+        if (reader.readBool()) {//vps_timing_info_present_flag
+            vps.mNumUnitsInTick = reader.readUnsignedInt();
+            vps.mTimeScale = reader.readUnsignedInt();
+        }
+        return vps;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // SPS
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static final class Sps extends ProfileTierLevel {
+
+        private int mVpsId;
+        private int mSpsId;
+        private int mChromaFormatIdc;
+        private int mBitDepthLuma;
+        private int mBitDepthChroma;
+        private int mCodedWidth;
+        private int mCodedHeight;
+        private int mWidth;
+        private int mHeight;
+        private int mCropLeft;
+        private int mCropRight;
+        private int mCropTop;
+        private int mCropBottom;
+        private int mLog2MaxPicOrderCntLsb;
+        private int mMaxDecPicBuffering;
+        private int mMaxNumReorderPics;
+        private int mSarWidth = 1;
+        private int mSarHeight = 1;
+        private boolean mFullRange;
+        private int mColourPrimaries = 2;
+        private int mTransferCharacteristics = 2;
+        private int mMatrixCoefficients = 2;
+        private long mNumUnitsInTick;
+        private long mTimeScale;
+
+        private Sps() {
+        }
+
+        public int getVpsId() {
+            return mVpsId;
+        }
+
+        public int getSpsId() {
+            return mSpsId;
+        }
+
+        /** 0 为单色，1 为 4:2:0，2 为 4:2:2，3 为 4:4:4。 */
+        public int getChromaFormatIdc() {
+            return mChromaFormatIdc;
+        }
+
+        public int getBitDepthLuma() {
+            return mBitDepthLuma;
+        }
+
+        public int getBitDepthChroma() {
+            return mBitDepthChroma;
+        }
+
+        /** pic_width_in_luma_samples，即解码后图像的宽度。 */
+        public int getCodedWidth() {
+            return mCodedWidth;
+        }
+
+        public int getCodedHeight() {
+            return mCodedHeight;
+        }
+
+        /** 按 conformance window 裁剪后的显示宽度。 */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** 以亮度像素为单位的裁剪。 */
+        public int getCropLeft() {
+            return mCropLeft;
+        }
+
+        public int getCropRight() {
+            return mCropRight;
+        }
+
+        public int getCropTop() {
+            return mCropTop;
+        }
+
+        public int getCropBottom() {
+            return mCropBottom;
+        }
+
+        public int getLog2MaxPicOrderCntLsb() {
+            return mLog2MaxPicOrderCntLsb;
+        }
+
+        /** 最高时域层需要的解码图像缓冲区大小（帧数）。 */
+        public int getMaxDecPicBuffering() {
+            return mMaxDecPicBuffering;
+        }
+
+        /** 最高时域层的重排序深度。 */
+        public int getMaxNumReorderPics() {
+            return mMaxNumReorderPics;
+        }
+
+        public int getSarWidth() {
+            return mSarWidth;
+        }
+
+        public int getSarHeight() {
+            return mSarHeight;
+        }
+
+        public boolean isFullRange() {
+            return mFullRange;
+        }
+
+        public int getColourPrimaries() {
+            return mColourPrimaries;
+        }
+
+        public int getTransferCharacteristics() {
+            return mTransferCharacteristics;
+        }
+
+        public int getMatrixCoefficients() {
+            return mMatrixCoefficients;
+        }
+
+        /** VUI 中的 timing info，没有时为 0。 */
+        public long getNumUnitsInTick() {
+            return mNumUnitsInTick;
+        }
+
+        public long getTimeScale() {
+            return mTimeScale;
+        }
+
+        /** 由 timing info 得出的帧率（H.265 中一帧为一个 tick），没有 timing info 时为 0。 */
+        public float getFrameRate() {
+            return mNumUnitsInTick > 0 ? (float) mTimeScale / mNumUnitsInTick : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Sps{" +
+                    "profile=" + mProfileIdc +
+                    ", level=" + mLevelIdc +
+                    ", id=" + mSpsId +
+                    ", chroma=" + mChromaFormatIdc +
+                    ", bitDepth=" + mBitDepthLuma +
+                    ", size=" + mWidth + "x" + mHeight +
+                    ", coded=" + mCodedWidth + "x" + mCodedHeight +
+                    ", sar=" + mSarWidth + ":" + mSarHeight +
+                    ", frameRate=" + getFrameRate() +
+                    ", reorder=" + mMaxNumReorderPics +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 解析 SPS，nal 从 NAL 头开始，不改变其 position。
+     */
+    public static Sps parseSps(ByteBuffer nal) {
+        final BitReader reader = new BitReader(nal);
+        checkNalType(reader, NAL_SPS);
+        final Sps sps = new Sps();
+        sps.mVpsId = reader.readBits(4);
+        sps.mMaxSubLayers = reader.readBits(3) + 1;
+        reader.skipBits(1);//sps_temporal_id_nesting_flag
+        parseProfileTierLevel(reader, sps, sps.mMaxSubLayers);
+        sps.mSpsId = readUE(reader, 15);
+        sps.mChromaFormatIdc = readUE(reader, 3);
+        final boolean separateColourPlane = sps.mChromaFormatIdc == 3 && reader.readBool();
+        sps.mCodedWidth = readUE(reader, 16888);
+        sps.mCodedHeight = readUE(reader, 16888);
+        if (reader.readBool()) {//conformance_window_flag
+            final int chromaArrayType = separateColourPlane ? 0 : sps.mChromaFormatIdc;
+            final int subWidth = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            final int subHeight = chromaArrayType == 1 ? 2 : 1;
+            sps.mCropLeft = reader.readUE() * subWidth;
+            sps.mCropRight = reader.readUE() * subWidth;
+            sps.mCropTop = reader.readUE() * subHeight;
+            sps.mCropBottom = reader.readUE() * subHeight;
+        }
+        sps.mWidth = sps.mCodedWidth - sps.mCropLeft - sps.mCropRight;
+        sps.mHeight = sps.mCodedHeight - sps.mCropTop - sps.mCropBottom;
+        if (sps.mWidth <= 0 || sps.mHeight <= 0) {
+            throw new IllegalArgumentException("invalid conformance window: " + sps);
+        }
+        sps.mBitDepthLuma = readUE(reader, 8) + 8;
+        sps.mBitDepthChroma = readUE(reader, 8) + 8;
+        sps.mLog2MaxPicOrderCntLsb = readUE(reader, 12) + 4;
+        final boolean subLayerOrderingInfoPresent = reader.readBool();
+        for (int i = subLayerOrderingInfoPresent ? 0 : sps.mMaxSubLayers - 1; i < sps.mMaxSubLayers; i++) {
+            sps.mMaxDecPicBuffering = readUE(reader, 15) + 1;
+            sps.mMaxNumReorderPics = readUE(reader, 15);
+            reader.readUE();//sps_max_latency_increase_plus1
+        }
+
+        readUE(reader, 3);//log2_min_luma_coding_block_size_minus3
+        readUE(reader, 3);//log2_diff_max_min_luma_coding_block_size
+        readUE(reader, 3);//log2_min_luma_transform_block_size_minus2
+        readUE(reader, 3);//log2_diff_max_min_luma_transform_block_size
+        readUE(reader, 4);//max_transform_hierarchy_depth_inter
+        readUE(reader, 4);//max_transform_hierarchy_depth_intra
+        if (reader.readBool() && reader.readBool()) {//scaling_list_enabled_flag, sps_scaling_list_data_present_flag
+            skipScalingListData(reader);
+        }
+        reader.skipBits(2);//amp_enabled_flag, sample_adaptive_offset_enabled_flag
+        if (reader.readBool()) {//pcm_enabled_flag
+            reader.skipBits(8);//pcm_sample_bit_depth_luma_minus1, pcm_sample_bit_depth_chroma_minus1
+            reader.readUE();//log2_min_pcm_luma_coding_block_size_minus3
+            reader.readUE();//log2_diff_max_min_pcm_luma_coding_block_size
+            reader.skipBits(1);//pcm_loop_filter_disabled_flag
+        }
+        skipShortTermRefPicSets(reader, readUE(reader, 64));
+        if (reader.readBool()) {//long_term_ref_pics_present_flag
+            final int count = readUE(reader, 32);
+            for (int i = 0; i < count; i++) {
+                reader.skipBits(sps.mLog2MaxPicOrderCntLsb + 1);//lt_ref_pic_poc_lsb_sps, used_by_curr_pic_lt_sps_flag
+            }
+        }
+        reader.skipBits(2);//sps_temporal_mvp_enabled_flag, strong_intra_smoothing_enabled_flag
+        if (reader.readBool()) {//vui_parameters_present_flag
+            parseVui(reader, sps);
+        }
+        return sps;
+    }
+
+    private static void parseVui(BitReader reader, Sps sps) {
+        if (reader.readBool()) {//aspect_ratio_info_present_flag
+            final int aspectRatioIdc = reader.readBits(8);
+            if (aspectRatioIdc == 255) {
+                sps.mSarWidth = reader.readBits(16);
+                sps.mSarHeight = reader.readBits(16);
+            } else if (aspectRatioIdc > 0 && aspectRatioIdc < ASPECT_RATIOS.length) {
+                sps.mSarWidth = ASPECT_RATIOS[aspectRatioIdc][0];
+                sps.mSarHeight = ASPECT_RATIOS[aspectRatioIdc][1];
+            }
+        }
+        if (reader.readBool()) {//overscan_info_present_flag
+            reader.skipBits(1);
+        }
+        if (reader.readBool()) {//video_signal_type_present_flag
+            reader.skipBits(3);//video_format
+            sps.mFullRange = reader.readBool();
+            if (reader.readBool()) {//colour_description_present_flag
+                sps.mColourPrimaries = reader.readBits(8);
+                sps.mTransferCharacteristics = reader.readBits(8);
+                sps.mMatrixCoefficients = reader.readBits(8);
+            }
+        }
+        if (reader.readBool()) {//chroma_loc_info_present_flag
+            reader.readUE();
+            reader.readUE();
+        }
+        reader.skipBits(3);//neutral_chroma_indication_flag, field_seq_flag, frame_field_info_present_flag
+        if (reader.readBool()) {//default_display_window_flag
+            reader.readUE();
+            reader.readUE();
+            reader.readUE();
+            reader.readUE();
+        }
+        if (reader.readBool()) {//vui_timing_info_present_flag
+            sps.mNumUnitsInTick = reader.readUnsignedInt();
+            sps.mTimeScale = reader.readUnsignedInt();
+        }
+    }
+
+    private static void parseProfileTierLevel(BitReader reader, ProfileTierLevel ptl, int maxSubLayers) {
+        ptl.mProfileSpace = reader.readBits(2);
+        ptl.mHighTier = reader.readBool();
+        ptl.mProfileIdc = reader.readBits(5);
+        ptl.mProfileCompatibilityFlags = reader.readBits(32);
+        reader.skipBits(48);//progressive/interlaced/non_packed/frame_only 与 44 位的约束标志
+        ptl.mLevelIdc = reader.readBits(8);
+        final int subLayers = maxSubLayers - 1;
+        final boolean[] profilePresent = new boolean[subLayers];
+        final boolean[] levelPresent = new boolean[subLayers];
+        for (int i = 0; i < subLayers; i++) {
+            profilePresent[i] = reader.readBool();
+            levelPresent[i] = reader.readBool();
+        }
+        if (subLayers > 0) {
+            reader.skipBits(2 * (8 - subLayers));//reserved_zero_2bits
+        }
+        for (int i = 0; i < subLayers; i++) {
+            if (profilePresent[i]) {
+                reader.skipBits(88);
+            }
+            if (levelPresent[i]) {
+                reader.skipBits(8);
+            }
+        }
+    }
+
+    private static void skipScalingListData(BitReader reader) {
+        for (int sizeId = 0; sizeId < 4; sizeId++) {
+            for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+                if (!reader.readBool()) {//scaling_list_pred_mode_flag
+                    reader.readUE();//scaling_list_pred_matrix_id_delta
+                } else {
+                    final int coefNum = Math.min(64, 1 << (4 + (sizeId << 1)));
+                    if (sizeId > 1) {
+                        reader.readSE();//scaling_list_dc_coef_minus8
+                    }
+                    for (int i = 0; i < coefNum; i++) {
+                        reader.readSE();
+                    }
+                }
+            }
+        }
+    }
+
+    /** 跳过 SPS 中的 st_ref_pic_set，只需要记录每一组的 NumDeltaPocs 用于帧间预测的组。 */
+    private static void skipShortTermRefPicSets(BitReader reader, int count) {
+        final int[] numDeltaPocs = new int[count];
+        for (int idx = 0; idx < count; idx++) {
+            if (idx != 0 && reader.readBool()) {//inter_ref_pic_set_prediction_flag
+                reader.skipBits(1);//delta_rps_sign
+                reader.readUE();//abs_delta_rps_minus1
+                int deltaPocs = 0;
+                for (int j = 0; j <= numDeltaPocs[idx - 1]; j++) {
+                    final boolean usedByCurrPic = reader.readBool();
+                    if (usedByCurrPic || reader.readBool()) {//use_delta_flag
+                        deltaPocs++;
+                    }
+                }
+                numDeltaPocs[idx] = deltaPocs;
+            } else {
+                final int negative = readUE(reader, 16);
+                final int positive = readUE(reader, 16);
+                for (int i = 0; i < negative + positive; i++) {
+                    reader.readUE();//delta_poc_s0_minus1 / delta_poc_s1_minus1
+                    reader.skipBits(1);//used_by_curr_pic_flag
+                }
+                numDeltaPocs[idx] = negative + positive;
+            }
+        }
+    }
+
+    /** 与 H.264 相同的表 E-1。 */
+    private static final int[][] ASPECT_RATIOS = {
+            {0, 0}, {1, 1}, {12, 11}, {10, 11}, {16, 11}, {40, 33}, {24, 11}, {20, 11}, {32, 11},
+            {80, 33}, {18, 11}, {15, 11}, {64, 33}, {160, 99}, {4, 3}, {3, 2}, {2, 1}
+    };
+
+    ///////////////////////////////////////////////////////////////////////////
+    // PPS
+    ///////////////////////////////////////////////////////////////////////////
+
+    public static final class Pps {
+
+        private int mPpsId;
+        private int mSpsId;
+        private boolean mDependentSliceSegmentsEnabled;
+        private boolean mOutputFlagPresent;
+        private int mNumExtraSliceHeaderBits;
+
+        private Pps() {
+        }
+
+        public int getPpsId() {
+            return mPpsId;
+        }
+
+        public int getSpsId() {
+            return mSpsId;
+        }
+
+        public boolean isDependentSliceSegmentsEnabled() {
+            return mDependentSliceSegmentsEnabled;
+        }
+
+        public boolean isOutputFlagPresent() {
+            return mOutputFlagPresent;
+        }
+
+        public int getNumExtraSliceHeaderBits() {
+            return mNumExtraSliceHeaderBits;
+        }
+
+        @Override
+        public String toString() {
+            return "Pps{" +
+                    "id=" + mPpsId +
+                    ", spsId=" + mSpsId +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 解析 PPS 中与 SPS 关联的部分，nal 从 NAL 头开始，不改变其 position。
+     */
+    public static Pps parsePps(ByteBuffer nal) {
+        final BitReader reader = new BitReader(nal);
+        checkNalType(reader, NAL_PPS);
+        final Pps pps = new Pps();
+        pps.mPpsId = readUE(reader, 63);
+        pps.mSpsId = readUE(reader, 15);
+        pps.mDependentSliceSegmentsEnabled = reader.readBool();
+        pps.mOutputFlagPresent = reader.readBool();
+        pps.mNumExtraSliceHeaderBits = reader.readBits(3);
+        return pps;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 工具
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** NAL 头第一个字节中的 nal_unit_type。 */
+    public static int nalType(int header) {
+        return (header >> 1) & 0x3F;
+    }
+
+    /** 是否为 IRAP（IDR、CRA、BLA），即可以从这里开始解码。 */
+    public static boolean isKeyFrame(int nalType) {
+        return nalType >= 16 && nalType <= 23;
+    }
+
+    private static void checkNalType(BitReader reader, int expected) {
+        final int nalType = nalType(reader.readBits(16) >> 8);
+        if (nalType != expected) {
+            throw new IllegalArgumentException("expected nal type " + expected + " but was " + nalType);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * 一次采集/推流会话共享的媒体时钟：以 {@link System#nanoTime()} 的某一时刻为原点，把各编码器输出的时间戳换算为从 0 开始的媒体时间。
+ * <p>
+ * MediaCodec 的 Surface 输入（VirtualDisplay、Camera）和按 {@link System#nanoTime()} 打的音频时间戳都属于同一个单调时钟，
+ * 音视频使用同一个原点后就不会因为各自以第一帧为起点而产生偏移。
+ * </p>
+ */
+public final class MediaClock {
+
+    private final long mOriginNanos;
+
+    /** 以当前时刻为原点。 */
+    public MediaClock() {
+        this(System.nanoTime());
+    }
+
+    public MediaClock(long originNanos) {
+        mOriginNanos = originNanos;
+    }
+
+    /** 原点，单位为 {@link System#nanoTime()} 时钟的微秒。 */
+    public long getOriginUs() {
+        return mOriginNanos / 1000;
+    }
+
+    /** 当前的系统单调时间，单位微秒，与 MediaCodec 的 presentationTimeUs 使用同一个时钟。 */
+    public static long systemTimeUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    /** 当前的媒体时间，单位微秒。 */
+    public long nowUs() {
+        return (System.nanoTime() - mOriginNanos) / 1000;
+    }
+
+    /**
+     * 把系统单调时钟上的时间（例如编码器输出的 presentationTimeUs）换算为媒体时间，原点之前的时间记为 0。
+     */
+    public long toMediaTimeUs(long systemTimeUs) {
+        return Math.max(0, systemTimeUs - mOriginNanos / 1000);
+    }
+
+    /** 同 {@link #toMediaTimeUs(long)}，单位毫秒。 */
+    public long toMediaTimeMs(long systemTimeUs) {
+        return toMediaTimeUs(systemTimeUs) / 1000;
+    }
+
+}
@@ -0,0 +1,1081 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 纯 Java 的 MP4（ISO-BMFF）解封装器，不依赖 Android，可以在 JVM 上运行。
+ * <p>
+ * 打开时只解析一次 moov，把每个 trak 的 stbl 展开为紧凑的基本类型数组（偏移、大小、解码时间、显示时间偏移、关键帧序号），
+ * 之后所有的读取都直接访问内存映射的文件，按时间 seek 是对这些数组的二分查找。
+ * </p>
+ * <p>
+ * 一个实例可以同时为任意多个 {@link SampleReader} 提供数据，每个 reader 有自己的读取位置，可以在不同的线程中使用，
+ * 不需要像 MediaExtractor 那样为每个轨道打开一次文件。解析完成后 Mp4Demuxer 与 {@link Track} 都是不可变的；
+ * 单个 SampleReader 不是线程安全的。
+ * </p>
+ * 不支持分片的 MP4（moof），只读取 moov 中的 sample；不支持加密的轨道。文件超过 1GB 时按区域映射，
+ * 相邻区域重叠最大 sample 的大小，所以每个 sample 都位于同一个区域中。
+ */
+public final class Mp4Demuxer implements Closeable {
+
+    /** 与 MediaFormat 中的 MIME 相同。 */
+    public static final String MIMETYPE_VIDEO_AVC = "video/avc";
+    public static final String MIMETYPE_VIDEO_HEVC = "video/hevc";
+    public static final String MIMETYPE_AUDIO_AAC = "audio/mp4a-latm";
+    public static final String MIMETYPE_AUDIO_MPEG = "audio/mpeg";
+
+    /** 与 MediaExtractor 中的取值相同。 */
+    public static final int SEEK_TO_PREVIOUS_SYNC = 0;
+    public static final int SEEK_TO_NEXT_SYNC = 1;
+    public static final int SEEK_TO_CLOSEST_SYNC = 2;
+    public static final int SAMPLE_FLAG_SYNC = 1;
+
+    public static final String HANDLER_VIDEO = "vide";
+    public static final String HANDLER_AUDIO = "soun";
+
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    /** 每个映射区域的步长。 */
+    private static final long REGION_SIZE = 1L << 30;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mRegionSize;
+
+    private long mFileSize;
+    private int mMaxSampleSize;
+    private long mMovieTimescale;
+    private long mMovieDurationUs;
+    private boolean mFragmented;
+    private final List<Track> mTracks = new ArrayList<>();
+
+    /** 第 i 个区域映射文件的 [i * mRegionSize, i * mRegionSize + mRegionSize + 最大 sample 大小)。 */
+    private ByteBuffer[] mRegions;
+
+    public Mp4Demuxer(File file) throws IOException {
+        this(new RandomAccessFile(file, "r"), REGION_SIZE);
+    }
+
+    /**
+     * 例如 ContentResolver.openFileDescriptor() 得到的 FileInputStream 的 channel，close 时会被关闭。
+     */
+    public Mp4Demuxer(FileChannel channel) throws IOException {
+        this(null, channel, REGION_SIZE);
+    }
+
+    private Mp4Demuxer(RandomAccessFile file, long regionSize) throws IOException {
+        this(file, file.getChannel(), regionSize);
+    }
+
+    /** regionSize 只在测试中修改。 */
+    Mp4Demuxer(RandomAccessFile file, FileChannel channel, long regionSize) throws IOException {
+        mFile = file;
+        mChannel = channel;
+        mRegionSize = regionSize;
+        try {
+            parse();
+            mapRegions();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            // 各个 box 的解析没有逐一检查长度，越界等异常都说明文件已损坏。
+            close();
+            throw new IOException("Invalid mp4 file", e);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void parse() throws IOException {
+        mFileSize = mChannel.size();
+        ByteBuffer moov = null;
+        long position = 0;
+        while (position + 8 <= mFileSize) {
+            final ByteBuffer header = readAt(position, (int) Math.min(16, mFileSize - position));
+            final String type = fourCC(header, 4);
+            long size = header.getInt(0) & MAX_UINT32;
+            int headerSize = 8;
+            if (size == 1 && header.limit() == 16) {
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = mFileSize - position;
+            }
+            if (size < headerSize) {
+                throw new IOException("Invalid box size " + size + " of " + type + " at " + position);
+            }
+            if (position == 0 && !"ftyp".equals(type) && !"moov".equals(type)
+                    && !"free".equals(type) && !"skip".equals(type) && !"mdat".equals(type) && !"wide".equals(type)) {
+                throw new IOException("Not a mp4 file: " + type);
+            }
+
+            if ("moov".equals(type)) {
+                if (size - headerSize > Integer.MAX_VALUE) {
+                    throw new IOException("moov too large: " + size);
+                }
+                // 录制中断的文件 moov 可能不完整，按实际长度读取，由后面的解析报错。
+                moov = readAt(position + headerSize, (int) Math.min(size - headerSize, mFileSize - position - headerSize));
+            } else if ("moof".equals(type)) {
+                mFragmented = true;
+            }
+            position += size;
+        }
+        if (moov == null) {
+            throw new IOException("Missing moov box");
+        }
+        parseMoov(moov);
+    }
+
+    private void parseMoov(ByteBuffer moov) throws IOException {
+        final ByteBuffer mvhd = findBox(moov, "mvhd");
+        if (mvhd == null) {
+            throw new IOException("Missing mvhd box");
+        }
+        if (mvhd.get(0) == 1) {
+            mMovieTimescale = mvhd.getInt(20) & MAX_UINT32;
+            mMovieDurationUs = scale(mvhd.getLong(24), mMovieTimescale);
+        } else {
+            mMovieTimescale = mvhd.getInt(12) & MAX_UINT32;
+            mMovieDurationUs = scale(mvhd.getInt(16) & MAX_UINT32, mMovieTimescale);
+        }
+        if (findBox(moov, "mvex") != null) {
+            mFragmented = true;
+        }
+        for (ByteBuffer trak : findBoxes(moov, "trak")) {
+            final Track track = parseTrak(trak);
+            if (track != null) {
+                track.mIndex = mTracks.size();
+                mTracks.add(track);
+            }
+        }
+        if (mMovieDurationUs <= 0) {
+            for (Track track : mTracks) {
+                mMovieDurationUs = Math.max(mMovieDurationUs, track.mDurationUs);
+            }
+        }
+    }
+
+    /** 缺少必要的 box 时返回 null，忽略这个轨道。 */
+    private Track parseTrak(ByteBuffer trak) throws IOException {
+        final ByteBuffer tkhd = findBox(trak, "tkhd");
+        final ByteBuffer mdia = findBox(trak, "mdia");
+        final ByteBuffer mdhd = mdia == null ? null : findBox(mdia, "mdhd");
+        final ByteBuffer hdlr = mdia == null ? null : findBox(mdia, "hdlr");
+        final ByteBuffer minf = mdia == null ? null : findBox(mdia, "minf");
+        final ByteBuffer stbl = minf == null ? null : findBox(minf, "stbl");
+        if (tkhd == null || mdhd == null || hdlr == null || stbl == null) {
+            return null;
+        }
+
+        final Track track = new Track();
+        parseTkhd(tkhd, track);
+        if (mdhd.get(0) == 1) {
+            track.mTimescale = mdhd.getInt(20) & MAX_UINT32;
+            track.mDurationUs = scale(mdhd.getLong(24), track.mTimescale);
+        } else {
+            track.mTimescale = mdhd.getInt(12) & MAX_UINT32;
+            track.mDurationUs = scale(mdhd.getInt(16) & MAX_UINT32, track.mTimescale);
+        }
+        if (track.mTimescale == 0) {
+            throw new IOException("Invalid timescale of track " + track.mTrackId);
+        }
+        track.mHandlerType = fourCC(hdlr, 8);
+
+        final ByteBuffer edts = findBox(trak, "edts");
+        final ByteBuffer elst = edts == null ? null : findBox(edts, "elst");
+        if (elst != null) {
+            parseElst(elst, track);
+        }
+
+        final ByteBuffer stsd = findBox(stbl, "stsd");
+        if (stsd != null) {
+            parseStsd(stsd, track);
+        }
+        parseSampleTable(stbl, track);
+        return track;
+    }
+
+    private static void parseTkhd(ByteBuffer tkhd, Track track) {
+        final boolean version1 = tkhd.get(0) == 1;
+        track.mTrackId = tkhd.getInt(version1 ? 20 : 12);
+        final int matrix = version1 ? 52 : 40;
+        if (tkhd.limit() >= matrix + 44) {
+            final int a = tkhd.getInt(matrix);
+            final int b = tkhd.getInt(matrix + 4);
+            if (a == 0 && b == 0x10000) {
+                track.mRotation = 90;
+            } else if (a == -0x10000 && b == 0) {
+                track.mRotation = 180;
+            } else if (a == 0 && b == -0x10000) {
+                track.mRotation = 270;
+            }
+            // 16.16 定点数。
+            track.mWidth = tkhd.getInt(matrix + 36) >>> 16;
+            track.mHeight = tkhd.getInt(matrix + 40) >>> 16;
+        }
+    }
+
+    /**
+     * 只处理开头的空白编辑和第一个有效编辑，这是编码器为 B 帧的显示时间偏移写入的常见形式。
+     */
+    private void parseElst(ByteBuffer elst, Track track) {
+        final boolean version1 = elst.get(0) == 1;
+        final int count = elst.getInt(4);
+        final int entrySize = version1 ? 20 : 12;
+        long emptyDuration = 0;
+        for (int i = 0, p = 8; i < count && p + entrySize <= elst.limit(); i++, p += entrySize) {
+            final long segmentDuration = version1 ? elst.getLong(p) : elst.getInt(p) & MAX_UINT32;
+            final long mediaTime = version1 ? elst.getLong(p + 8) : elst.getInt(p + 4);
+            if (mediaTime == -1) {
+                emptyDuration += segmentDuration;
+                continue;
+            }
+            final long empty = mMovieTimescale == 0 ? 0 : emptyDuration * track.mTimescale / mMovieTimescale;
+            track.mEditOffset = empty - mediaTime;
+            break;
+        }
+    }
+
+    private static void parseStsd(ByteBuffer stsd, Track track) throws IOException {
+        if (stsd.getInt(4) < 1 || stsd.limit() < 16) {
+            return;
+        }
+        final int size = stsd.getInt(8);
+        if (size < 8 || 8 + size > stsd.limit()) {
+            throw new IOException("Invalid sample entry size " + size);
+        }
+        track.mCodec = fourCC(stsd, 12);
+        final ByteBuffer entry = slice(stsd, 16, 8 + size);
+
+        if (HANDLER_VIDEO.equals(track.mHandlerType) && entry.limit() >= 78) {
+            final int width = entry.getShort(24) & 0xFFFF;
+            final int height = entry.getShort(26) & 0xFFFF;
+            if (width > 0 && height > 0) {
+                track.mWidth = width;
+                track.mHeight = height;
+            }
+            final ByteBuffer children = slice(entry, 78, entry.limit());
+            final ByteBuffer avcC = findBox(children, "avcC");
+            final ByteBuffer hvcC = findBox(children, "hvcC");
+            if (avcC != null) {
+                track.mDecoderConfigurationRecord = DecoderConfigurationRecord.parseAvc(avcC);
+                track.mMimeType = MIMETYPE_VIDEO_AVC;
+            } else if (hvcC != null) {
+                track.mDecoderConfigurationRecord = DecoderConfigurationRecord.parseHevc(hvcC);
+                track.mMimeType = MIMETYPE_VIDEO_HEVC;
+            }
+        } else if (HANDLER_AUDIO.equals(track.mHandlerType) && entry.limit() >= 28) {
+            // QuickTime 的 SoundDescription 第 1、2 版在 ISO 的 AudioSampleEntry 之后还有 16、36 个字节。
+            final int version = entry.getShort(8) & 0xFFFF;
+            int children = 28;
+            track.mChannelCount = entry.getShort(16) & 0xFFFF;
+            track.mSampleRate = entry.getInt(24) >>> 16;
+            if (version == 1) {
+                children += 16;
+            } else if (version == 2 && entry.limit() >= 64) {
+                children += 36;
+                track.mSampleRate = (int) Double.longBitsToDouble(entry.getLong(32));
+                track.mChannelCount = entry.getInt(40);
+            }
+            final ByteBuffer esds = children <= entry.limit() ? findBox(slice(entry, children, entry.limit()), "esds") : null;
+            if (esds != null) {
+                parseEsds(esds, track);
+            }
+        }
+    }
+
+    /**
+     * ES_Descriptor（0x03）→ DecoderConfigDescriptor（0x04）→ DecoderSpecificInfo（0x05，即 AudioSpecificConfig）。
+     */
+    private static void parseEsds(ByteBuffer esds, Track track) throws IOException {
+        final ByteBuffer in = slice(esds, 4, esds.limit());
+        try {
+            if (readDescriptorTag(in) != 0x03) {
+                return;
+            }
+            in.getShort();//ES_ID
+            final int flags = in.get() & 0xFF;
+            if ((flags & 0x80) != 0) {
+                in.getShort();//dependsOn_ES_ID
+            }
+            if ((flags & 0x40) != 0) {
+                in.position(in.position() + (in.get() & 0xFF));//URL
+            }
+            if ((flags & 0x20) != 0) {
+                in.getShort();//OCR_ES_Id
+            }
+            if (readDescriptorTag(in) != 0x04) {
+                return;
+            }
+            final int objectType = in.get() & 0xFF;
+            in.position(in.position() + 12);//streamType、bufferSizeDB、maxBitrate、avgBitrate
+            if (objectType == 0x40 || objectType == 0x66 || objectType == 0x67 || objectType == 0x68) {
+                track.mMimeType = MIMETYPE_AUDIO_AAC;
+            } else if (objectType == 0x69 || objectType == 0x6B) {
+                track.mMimeType = MIMETYPE_AUDIO_MPEG;
+            }
+            if (MIMETYPE_AUDIO_AAC.equals(track.mMimeType) && in.hasRemaining() && (in.get() & 0xFF) == 0x05) {
+                final byte[] config = new byte[Math.min(descriptorLength(in), in.remaining())];
+                in.get(config);
+                track.mCodecSpecificData = config;
+                track.mAudioSpecificConfig = AudioSpecificConfig.parse(config);
+                track.mSampleRate = track.mAudioSpecificConfig.getSampleRate();
+                track.mChannelCount = track.mAudioSpecificConfig.getChannelCount();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid esds of track " + track.mTrackId, e);
+        }
+    }
+
+    /** 读取描述符的 tag，并跳过其后的长度。 */
+    private static int readDescriptorTag(ByteBuffer in) {
+        final int tag = in.get() & 0xFF;
+        descriptorLength(in);
+        return tag;
+    }
+
+    /** 长度为 1 到 4 个字节，每个字节的最高位表示后面还有字节。 */
+    private static int descriptorLength(ByteBuffer in) {
+        int length = 0;
+        for (int i = 0; i < 4; i++) {
+            final int b = in.get() & 0xFF;
+            length = (length << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // sample 表
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void parseSampleTable(ByteBuffer stbl, Track track) throws IOException {
+        try {
+            final int[] sizes = readSampleSizes(stbl);
+            final long[] offsets = new long[sizes.length];
+            int count = readSampleOffsets(stbl, sizes, offsets);
+
+            // 录制中断的文件末尾的 sample 可能没有写完。
+            while (count > 0 && offsets[count - 1] + sizes[count - 1] > mFileSize) {
+                count--;
+            }
+
+            final long[] decodeTimes = new long[count];
+            final long endTime = readDecodeTimes(stbl, decodeTimes);
+            int maxSampleSize = 0;
+            for (int i = 0; i < count; i++) {
+                maxSampleSize = Math.max(maxSampleSize, sizes[i]);
+            }
+
+            track.mSampleCount = count;
+            track.mOffsets = count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
+            track.mSizes = count == sizes.length ? sizes : Arrays.copyOf(sizes, count);
+            track.mDecodeTimes = decodeTimes;
+            track.mCompositionOffsets = readCompositionOffsets(stbl, count);
+            track.mSyncSamples = readSyncSamples(stbl, count);
+            track.mMaxSampleSize = maxSampleSize;
+            if (track.mDurationUs <= 0) {
+                track.mDurationUs = scale(endTime, track.mTimescale);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Invalid sample table of track " + track.mTrackId, e);
+        }
+    }
+
+    private int[] readSampleSizes(ByteBuffer stbl) throws IOException {
+        final ByteBuffer stsz = findBox(stbl, "stsz");
+        if (stsz != null) {
+            final int fixedSize = stsz.getInt(4);
+            final int count = stsz.getInt(8);
+            // 先检查 count 再分配数组，损坏的文件不会导致 OOM。
+            if (fixedSize == 0) {
+                checkEntries(stsz, 12, count, 4);
+            } else if (fixedSize < 0 || count < 0 || count > mFileSize / fixedSize + 1) {
+                throw new IOException("Invalid stsz: size = " + fixedSize + ", count = " + count);
+            }
+            final int[] sizes = new int[count];
+            if (fixedSize != 0) {
+                Arrays.fill(sizes, fixedSize);
+                return sizes;
+            }
+            for (int i = 0; i < count; i++) {
+                sizes[i] = checkSize(stsz.getInt(12 + 4 * i));
+            }
+            return sizes;
+        }
+
+        final ByteBuffer stz2 = findBox(stbl, "stz2");
+        if (stz2 == null) {
+            return new int[0];
+        }
+        final int fieldSize = stz2.get(7) & 0xFF;
+        final int count = stz2.getInt(8);
+        if (fieldSize != 4 && fieldSize != 8 && fieldSize != 16) {
+            throw new IOException("Invalid stz2 field size " + fieldSize);
+        }
+        checkEntries(stz2, 12, (int) (((long) count * fieldSize + 7) / 8), 1);
+        final int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (fieldSize == 4) {
+                final int b = stz2.get(12 + i / 2) & 0xFF;
+                sizes[i] = i % 2 == 0 ? b >> 4 : b & 0x0F;
+            } else if (fieldSize == 8) {
+                sizes[i] = stz2.get(12 + i) & 0xFF;
+            } else {
+                sizes[i] = stz2.getShort(12 + 2 * i) & 0xFFFF;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * 由 stsc 与 stco/co64 计算每个 sample 的偏移。
+     *
+     * @return chunk 中实际描述的 sample 个数。
+     */
+    private static int readSampleOffsets(ByteBuffer stbl, int[] sizes, long[] offsets) throws IOException {
+        final ByteBuffer stsc = findBox(stbl, "stsc");
+        final ByteBuffer stco = findBox(stbl, "stco");
+        final ByteBuffer co64 = stco == null ? findBox(stbl, "co64") : null;
+        if (stsc == null || stco == null && co64 == null) {
+            return 0;
+        }
+
+        final ByteBuffer chunks = stco != null ? stco : co64;
+        final int chunkCount = chunks.getInt(4);
+        checkEntries(chunks, 8, chunkCount, stco != null ? 4 : 8);
+        final long[] chunkOffsets = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = stco != null ? stco.getInt(8 + 4 * i) & MAX_UINT32 : co64.getLong(8 + 8 * i);
+        }
+
+        final int entryCount = stsc.getInt(4);
+        checkEntries(stsc, 8, entryCount, 12);
+        int sample = 0;
+        for (int entry = 0; entry < entryCount && sample < sizes.length; entry++) {
+            final int firstChunk = Math.max(0, stsc.getInt(8 + 12 * entry) - 1);
+            final int samplesPerChunk = stsc.getInt(12 + 12 * entry);
+            final int nextFirstChunk = entry + 1 < entryCount ? stsc.getInt(8 + 12 * (entry + 1)) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk < nextFirstChunk && chunk < chunkCount && sample < sizes.length; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int i = 0; i < samplesPerChunk && sample < sizes.length; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * 由 stts 展开每个 sample 的解码时间，stts 描述的 sample 不够时沿用最后一个时长。
+     *
+     * @return 最后一个 sample 结束的时间。
+     */
+    private static long readDecodeTimes(ByteBuffer stbl, long[] decodeTimes) throws IOException {
+        final ByteBuffer stts = findBox(stbl, "stts");
+        long time = 0;
+        int delta = 0;
+        int sample = 0;
+        if (stts != null) {
+            final int entryCount = stts.getInt(4);
+            checkEntries(stts, 8, entryCount, 8);
+            for (int entry = 0; entry < entryCount && sample < decodeTimes.length; entry++) {
+                final long count = stts.getInt(8 + 8 * entry) & MAX_UINT32;
+                delta = stts.getInt(12 + 8 * entry);
+                for (long i = 0; i < count && sample < decodeTimes.length; i++) {
+                    decodeTimes[sample++] = time;
+                    time += delta;
+                }
+            }
+        }
+        while (sample < decodeTimes.length) {
+            decodeTimes[sample++] = time;
+            time += delta;
+        }
+        return time;
+    }
+
+    /** 没有 ctts 时返回 null，显示时间等于解码时间。 */
+    private static int[] readCompositionOffsets(ByteBuffer stbl, int sampleCount) throws IOException {
+        final ByteBuffer ctts = findBox(stbl, "ctts");
+        if (ctts == null) {
+            return null;
+        }
+        final int entryCount = ctts.getInt(4);
+        checkEntries(ctts, 8, entryCount, 8);
+        final int[] offsets = new int[sampleCount];
+        int sample = 0;
+        for (int entry = 0; entry < entryCount && sample < sampleCount; entry++) {
+            final long count = ctts.getInt(8 + 8 * entry) & MAX_UINT32;
+            // 第 0 版是无符号数，但实际的文件中也会写入负数，统一按有符号数处理。
+            final int offset = ctts.getInt(12 + 8 * entry);
+            for (long i = 0; i < count && sample < sampleCount; i++) {
+                offsets[sample++] = offset;
+            }
+        }
+        return offsets;
+    }
+
+    /** 没有 stss 时返回 null，表示每个 sample 都是关键帧；否则为升序的 sample 序号（从 0 开始）。 */
+    private static int[] readSyncSamples(ByteBuffer stbl, int sampleCount) throws IOException {
+        final ByteBuffer stss = findBox(stbl, "stss");
+        if (stss == null) {
+            return null;
+        }
+        final int entryCount = stss.getInt(4);
+        checkEntries(stss, 8, entryCount, 4);
+        final int[] syncSamples = new int[entryCount];
+        int count = 0;
+        for (int i = 0; i < entryCount; i++) {
+            final int sample = stss.getInt(8 + 4 * i) - 1;
+            if (sample >= 0 && sample < sampleCount && (count == 0 || sample > syncSamples[count - 1])) {
+                syncSamples[count++] = sample;
+            }
+        }
+        return count == entryCount ? syncSamples : Arrays.copyOf(syncSamples, count);
+    }
+
+    private static void checkEntries(ByteBuffer box, int from, int count, int entrySize) throws IOException {
+        if (count < 0 || from + (long) count * entrySize > box.limit()) {
+            throw new IOException("Invalid entry count " + count);
+        }
+    }
+
+    private static int checkSize(int size) throws IOException {
+        if (size < 0) {
+            throw new IOException("Invalid sample size " + (size & MAX_UINT32));
+        }
+        return size;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // box
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 返回第一个 type 类型的子 box 的内容（不包括 box 头），没有时返回 null。 */
+    private static ByteBuffer findBox(ByteBuffer parent, String type) throws IOException {
+        final List<ByteBuffer> boxes = findBoxes(parent, type, 1);
+        return boxes.isEmpty() ? null : boxes.get(0);
+    }
+
+    private static List<ByteBuffer> findBoxes(ByteBuffer parent, String type) throws IOException {
+        return findBoxes(parent, type, Integer.MAX_VALUE);
+    }
+
+    /** parent 为某个 box 的内容，从 0 开始。 */
+    private static List<ByteBuffer> findBoxes(ByteBuffer parent, String type, int max) throws IOException {
+        final List<ByteBuffer> boxes = new ArrayList<>(max == 1 ? 1 : 4);
+        final int limit = parent.limit();
+        int position = 0;
+        while (position + 8 <= limit && boxes.size() < max) {
+            long size = parent.getInt(position) & MAX_UINT32;
+            int headerSize = 8;
+            if (size == 1) {
+                if (position + 16 > limit) {
+                    break;
+                }
+                size = parent.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = limit - position;
+            }
+            if (size < headerSize || size > limit - position) {
+                throw new IOException("Invalid box size " + size + " of " + fourCC(parent, position + 4));
+            }
+            if (type.equals(fourCC(parent, position + 4))) {
+                boxes.add(slice(parent, position + headerSize, position + (int) size));
+            }
+            position += (int) size;
+        }
+        return boxes;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.clear();
+        duplicate.limit(to).position(from);
+        return duplicate.slice();
+    }
+
+    private ByteBuffer readAt(long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String fourCC(ByteBuffer buffer, int index) {
+        final char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(index + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /** 以 timescale 为单位的时间转换为微秒。 */
+    private static long scale(long time, long timescale) {
+        if (timescale <= 0) {
+            return 0;
+        }
+        if (Math.abs(time) < Long.MAX_VALUE / 1_000_000) {
+            return time * 1_000_000 / timescale;
+        }
+        return time / timescale * 1_000_000 + time % timescale * 1_000_000 / timescale;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 映射
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void mapRegions() throws IOException {
+        int maxSampleSize = 0;
+        for (Track track : mTracks) {
+            maxSampleSize = Math.max(maxSampleSize, track.mMaxSampleSize);
+        }
+        if (mRegionSize + maxSampleSize > Integer.MAX_VALUE) {
+            throw new IOException("Sample too large: " + maxSampleSize);
+        }
+        mMaxSampleSize = maxSampleSize;
+        mRegions = new ByteBuffer[(int) Math.max(1, (mFileSize + mRegionSize - 1) / mRegionSize)];
+    }
+
+    /**
+     * 按需映射第 index 个区域，避免大文件一次占用过多的地址空间。
+     */
+    synchronized ByteBuffer region(int index) throws IOException {
+        ByteBuffer region = mRegions[index];
+        if (region == null) {
+            final long start = index * mRegionSize;
+            final long size = Math.min(mFileSize - start, mRegionSize + mMaxSampleSize);
+            region = mChannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            mRegions[index] = region;
+        }
+        return region;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 轨道
+    ///////////////////////////////////////////////////////////////////////////
+
+    public int getTrackCount() {
+        return mTracks.size();
+    }
+
+    public Track getTrack(int index) {
+        return mTracks.get(index);
+    }
+
+    public List<Track> getTracks() {
+        return Collections.unmodifiableList(mTracks);
+    }
+
+    /** 第一个 handler 为 {@link #HANDLER_VIDEO}、{@link #HANDLER_AUDIO} 等的轨道，没有时返回 null。 */
+    public Track findTrack(String handlerType) {
+        for (Track track : mTracks) {
+            if (track.mHandlerType.equals(handlerType)) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /** 创建一个从第一个 sample 开始读取的 reader，每个 reader 只能在一个线程中使用。 */
+    public SampleReader newReader(Track track) {
+        if (track.mIndex >= mTracks.size() || mTracks.get(track.mIndex) != track) {
+            throw new IllegalArgumentException("Track " + track.mTrackId + " does not belong to this demuxer");
+        }
+        return new SampleReader(this, track);
+    }
+
+    public long getDurationUs() {
+        return mMovieDurationUs;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    /** 是否为分片的 MP4，此时只能读取 moov 中描述的 sample（通常没有）。 */
+    public boolean isFragmented() {
+        return mFragmented;
+    }
+
+    /**
+     * 关闭文件。已经映射的区域在被回收之前仍然有效，但之后不应该再使用这个实例创建的 reader。
+     */
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            mFile.close();
+        } else {
+            mChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Mp4Demuxer{" +
+                "durationUs=" + mMovieDurationUs +
+                ", fragmented=" + mFragmented +
+                ", tracks=" + mTracks +
+                '}';
+    }
+
+    /**
+     * 一个轨道的格式与 sample 表，sample 的序号从 0 开始，按解码顺序排列。
+     */
+    public static final class Track {
+
+        int mIndex;
+        int mTrackId;
+        String mHandlerType;
+        String mCodec;
+        String mMimeType;
+        long mTimescale;
+        long mDurationUs;
+        /** elst 带来的显示时间偏移，以 timescale 为单位。 */
+        long mEditOffset;
+
+        int mWidth;
+        int mHeight;
+        int mRotation;
+        int mChannelCount;
+        int mSampleRate;
+        DecoderConfigurationRecord mDecoderConfigurationRecord;
+        AudioSpecificConfig mAudioSpecificConfig;
+        byte[] mCodecSpecificData;
+
+        int mSampleCount;
+        long[] mOffsets;
+        int[] mSizes;
+        long[] mDecodeTimes;
+        /** 显示时间与解码时间的差，没有 ctts 时为 null。 */
+        int[] mCompositionOffsets;
+        /** 关键帧的序号，升序；为 null 时每个 sample 都是关键帧。 */
+        int[] mSyncSamples;
+        int mMaxSampleSize;
+
+        Track() {
+        }
+
+        /** 在 {@link Mp4Demuxer#getTracks()} 中的位置。 */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public int getTrackId() {
+            return mTrackId;
+        }
+
+        /** {@link #HANDLER_VIDEO}、{@link #HANDLER_AUDIO} 等。 */
+        public String getHandlerType() {
+            return mHandlerType;
+        }
+
+        public boolean isVideo() {
+            return HANDLER_VIDEO.equals(mHandlerType);
+        }
+
+        public boolean isAudio() {
+            return HANDLER_AUDIO.equals(mHandlerType);
+        }
+
+        /** sample entry 的类型，例如 avc1、hvc1、mp4a，没有时为 null。 */
+        public String getCodec() {
+            return mCodec;
+        }
+
+        /** {@link #MIMETYPE_VIDEO_AVC} 等，不支持的格式为 null。 */
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        public long getTimescale() {
+            return mTimescale;
+        }
+
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** tkhd 的矩阵表示的顺时针旋转角度，0、90、180 或 270。 */
+        public int getRotation() {
+            return mRotation;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        /** H.264/H.265 轨道的 avcC/hvcC，其他格式为 null；sample 中的 NAL 以 getLengthSize() 字节的长度为前缀。 */
+        public DecoderConfigurationRecord getDecoderConfigurationRecord() {
+            return mDecoderConfigurationRecord;
+        }
+
+        /** AAC 轨道 esds 中的 AudioSpecificConfig，其他格式为 null。 */
+        public AudioSpecificConfig getAudioSpecificConfig() {
+            return mAudioSpecificConfig;
+        }
+
+        /**
+         * AAC 轨道 esds 中 DecoderSpecificInfo 的原始数据，用作解码器的 csd-0，其他格式为 null。
+         * 其中可能有 {@link AudioSpecificConfig} 没有解析的内容（隐式 SBR/PS 的 0x2B7 扩展、PCE、ELD/LD 的配置），不能用它重新生成。
+         */
+        public byte[] getCodecSpecificData() {
+            return mCodecSpecificData == null ? null : mCodecSpecificData.clone();
+        }
+
+        public int getSampleCount() {
+            return mSampleCount;
+        }
+
+        public int getMaxSampleSize() {
+            return mMaxSampleSize;
+        }
+
+        public long getSampleOffset(int index) {
+            return mOffsets[index];
+        }
+
+        public int getSampleSize(int index) {
+            return mSizes[index];
+        }
+
+        /** 解码时间，微秒。 */
+        public long getDecodeTimeUs(int index) {
+            return scale(mDecodeTimes[index] + mEditOffset, mTimescale);
+        }
+
+        /** 显示时间，微秒，即 MediaExtractor 的 sampleTime。 */
+        public long getSampleTimeUs(int index) {
+            final long offset = mCompositionOffsets == null ? 0 : mCompositionOffsets[index];
+            return scale(mDecodeTimes[index] + offset + mEditOffset, mTimescale);
+        }
+
+        public boolean isSyncSample(int index) {
+            return mSyncSamples == null || Arrays.binarySearch(mSyncSamples, index) >= 0;
+        }
+
+        public int getSyncSampleCount() {
+            return mSyncSamples == null ? mSampleCount : mSyncSamples.length;
+        }
+
+        /**
+         * 按时间查找关键帧，O(log n)。关键帧的显示时间按升序排列（B 帧只会出现在关键帧之间），可以直接二分查找。
+         *
+         * @param mode {@link #SEEK_TO_PREVIOUS_SYNC}、{@link #SEEK_TO_NEXT_SYNC} 或 {@link #SEEK_TO_CLOSEST_SYNC}。
+         * @return sample 序号；之后没有关键帧（SEEK_TO_NEXT_SYNC）或者没有 sample 时返回 -1。
+         */
+        public int getSampleIndex(long timeUs, int mode) {
+            final int count = getSyncSampleCount();
+            if (count == 0) {
+                return -1;
+            }
+            // 最后一个显示时间不大于 timeUs 的关键帧。
+            int low = 0;
+            int high = count - 1;
+            int previous = -1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (getSampleTimeUs(syncSample(mid)) <= timeUs) {
+                    previous = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            switch (mode) {
+                case SEEK_TO_PREVIOUS_SYNC:
+                    return syncSample(Math.max(previous, 0));
+                case SEEK_TO_NEXT_SYNC: {
+                    if (previous >= 0 && getSampleTimeUs(syncSample(previous)) == timeUs) {
+                        return syncSample(previous);
+                    }
+                    return previous + 1 < count ? syncSample(previous + 1) : -1;
+                }
+                case SEEK_TO_CLOSEST_SYNC: {
+                    if (previous < 0) {
+                        return syncSample(0);
+                    }
+                    if (previous + 1 >= count) {
+                        return syncSample(previous);
+                    }
+                    final long before = timeUs - getSampleTimeUs(syncSample(previous));
+                    final long after = getSampleTimeUs(syncSample(previous + 1)) - timeUs;
+                    return syncSample(after < before ? previous + 1 : previous);
+                }
+                default:
+                    throw new IllegalArgumentException("mode = " + mode);
+            }
+        }
+
+        private int syncSample(int syncIndex) {
+            return mSyncSamples == null ? syncIndex : mSyncSamples[syncIndex];
+        }
+
+        @Override
+        public String toString() {
+            return "Track{" +
+                    "id=" + mTrackId +
+                    ", handler=" + mHandlerType +
+                    ", codec=" + mCodec +
+                    ", mime=" + mMimeType +
+                    (isVideo() ? ", size=" + mWidth + "x" + mHeight + ", rotation=" + mRotation : "") +
+                    (isAudio() ? ", sampleRate=" + mSampleRate + ", channels=" + mChannelCount : "") +
+                    ", samples=" + mSampleCount +
+                    ", syncSamples=" + getSyncSampleCount() +
+                    ", durationUs=" + mDurationUs +
+                    '}';
+        }
+
+    }
+
+    /**
+     * 按解码顺序读取一个轨道的 sample，接口与 MediaExtractor 相似。不同的 reader 之间互不影响。
+     */
+    public static final class SampleReader {
+
+        private final Mp4Demuxer mDemuxer;
+        private final Track mTrack;
+        /** 每个区域的独立视图，修改 position/limit 不影响其他 reader。 */
+        private final ByteBuffer[] mViews;
+        private int mIndex;
+        private boolean mAnnexB;
+
+        private SampleReader(Mp4Demuxer demuxer, Track track) {
+            mDemuxer = demuxer;
+            mTrack = track;
+            mViews = new ByteBuffer[demuxer.mRegions.length];
+        }
+
+        public Track getTrack() {
+            return mTrack;
+        }
+
+        /**
+         * 读取 H.264/H.265 时把长度前缀转换为 4 字节起始码（与 MediaExtractor 的输出相同），默认为 false。
+         */
+        public void setAnnexB(boolean annexB) {
+            if (annexB && mTrack.mDecoderConfigurationRecord == null) {
+                throw new IllegalStateException("Track " + mTrack.mTrackId + " is not H.264/H.265");
+            }
+            mAnnexB = annexB;
+        }
+
+        /**
+         * 把当前 sample 写入 dst 的 position 处，dst 的 position 前进写入的字节数，不会移动到下一个 sample。
+         *
+         * @return 写入的字节数，没有更多的 sample 时返回 -1。转换为 Annex-B 且长度前缀小于 4 字节时，写入的数据比 sample 大。
+         */
+        public int readSampleData(ByteBuffer dst) throws IOException {
+            if (mIndex >= mTrack.mSampleCount) {
+                return -1;
+            }
+            final ByteBuffer sample = view(mTrack.mOffsets[mIndex], mTrack.mSizes[mIndex]);
+            if (mAnnexB) {
+                return BitstreamConverter.lengthPrefixedToAnnexB(sample, mTrack.mDecoderConfigurationRecord.getLengthSize(), dst);
+            }
+            final int size = sample.remaining();
+            dst.put(sample);
+            return size;
+        }
+
+        private ByteBuffer view(long offset, int size) throws IOException {
+            final int region = (int) (offset / mDemuxer.mRegionSize);
+            ByteBuffer view = mViews[region];
+            if (view == null) {
+                view = mDemuxer.region(region).duplicate();
+                mViews[region] = view;
+            }
+            final int start = (int) (offset - region * mDemuxer.mRegionSize);
+            view.clear();
+            view.position(start).limit(start + size);
+            return view;
+        }
+
+        /** 当前 sample 的序号，读完时等于 sample 数。 */
+        public int getSampleIndex() {
+            return mIndex;
+        }
+
+        /** 当前 sample 的显示时间，没有更多的 sample 时返回 -1。 */
+        public long getSampleTime() {
+            return mIndex < mTrack.mSampleCount ? mTrack.getSampleTimeUs(mIndex) : -1;
+        }
+
+        /** 当前 sample 的大小，没有更多的 sample 时返回 -1。 */
+        public int getSampleSize() {
+            return mIndex < mTrack.mSampleCount ? mTrack.mSizes[mIndex] : -1;
+        }
+
+        /** {@link #SAMPLE_FLAG_SYNC} 或 0，没有更多的 sample 时返回 -1。 */
+        public int getSampleFlags() {
+            if (mIndex >= mTrack.mSampleCount) {
+                return -1;
+            }
+            return mTrack.isSyncSample(mIndex) ? SAMPLE_FLAG_SYNC : 0;
+        }
+
+        /**
+         * 移动到下一个 sample。
+         *
+         * @return 是否还有 sample。
+         */
+        public boolean advance() {
+            if (mIndex < mTrack.mSampleCount) {
+                mIndex++;
+            }
+            return mIndex < mTrack.mSampleCount;
+        }
+
+        /** 移动到指定时间附近的关键帧，参考 {@link Track#getSampleIndex(long, int)}；找不到时移动到末尾。 */
+        public void seekTo(long timeUs, int mode) {
+            final int index = mTrack.getSampleIndex(timeUs, mode);
+            mIndex = index < 0 ? mTrack.mSampleCount : index;
+        }
+
+        /** 移动到指定序号的 sample。 */
+        public void seekToSample(int index) {
+            if (index < 0 || index > mTrack.mSampleCount) {
+                throw new IndexOutOfBoundsException("index = " + index + ", count = " + mTrack.mSampleCount);
+            }
+            mIndex = index;
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+@file:JvmName("Mp4DemuxerEx")
+
+package me.ztiany.lib.avbase.utils.av
+
+import android.media.MediaFormat
+import java.nio.ByteBuffer
+
+/**
+ * 由 [Mp4Demuxer.Track] 创建解码器的 MediaFormat，不支持的格式返回 null。
+ *
+ * 视频的 csd 为 Annex-B，需要配合 [Mp4Demuxer.SampleReader.setAnnexB] 读取 sample。
+ */
+fun Mp4Demuxer.Track.toMediaFormat(): MediaFormat? {
+    val format = when {
+        isVideo -> createVideoFormat(decoderConfigurationRecord ?: return null)
+        isAudio && mimeType == Mp4Demuxer.MIMETYPE_AUDIO_AAC -> {
+            // 采样率、声道数取自解析的 AudioSpecificConfig，csd-0 使用 esds 中的原始数据。
+            val csd = codecSpecificData ?: return null
+            MediaFormat.createAudioFormat(mimeType, sampleRate, channelCount).apply {
+                setByteBuffer("csd-0", ByteBuffer.wrap(csd))
+            }
+        }
+        else -> null
+    } ?: return null
+
+    if (durationUs > 0) {
+        format.setLong(MediaFormat.KEY_DURATION, durationUs)
+    }
+    // 长度前缀小于 4 字节时，转换为 Annex-B 后会变大。
+    val lengthSize = decoderConfigurationRecord?.lengthSize ?: 4
+    format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, if (lengthSize == 4) maxSampleSize else maxSampleSize * 2)
+    if (rotation != 0) {
+        format.setInteger(MediaFormat.KEY_ROTATION, rotation)
+    }
+    return format
+}
+
+/**
+ * 由 avcC/hvcC 中的参数集创建解码器的 MediaFormat，参考 [createAvcFormat]、[createHevcFormat]。
+ */
+fun createVideoFormat(record: DecoderConfigurationRecord): MediaFormat? {
+    return if (record.type == DecoderConfigurationRecord.TYPE_AVC) {
+        val sps = record.getNalUnits(H264ParameterSets.NAL_SPS).firstOrNull() ?: return null
+        val pps = record.getNalUnits(H264ParameterSets.NAL_PPS).firstOrNull() ?: return null
+        createAvcFormat(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    } else {
+        val vps = record.getNalUnits(H265ParameterSets.NAL_VPS).firstOrNull() ?: return null
+        val sps = record.getNalUnits(H265ParameterSets.NAL_SPS).firstOrNull() ?: return null
+        val pps = record.getNalUnits(H265ParameterSets.NAL_PPS).firstOrNull() ?: return null
+        createHevcFormat(ByteBuffer.wrap(vps), ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+    }
+}
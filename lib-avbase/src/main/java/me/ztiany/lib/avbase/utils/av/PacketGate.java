@@ -0,0 +1,122 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * {@link ScreenChangeGate} 的状态机：编码器一直工作，在它的输出端决定每个包是否发送。时间由调用方传入，与 Android 无关。
+ * <ul>
+ *     <li>发送：回读检测到变化后的 holdMs 内，所有的包都发送。</li>
+ *     <li>静止：只发送关键帧，丢弃其他的包；距上一次发送超过 keepAliveIntervalMs 时请求一个关键帧作为保活。</li>
+ *     <li>静止时检测到变化：请求一个关键帧，到达之前继续丢弃其他的包，关键帧到达后开始发送。</li>
+ * </ul>
+ * 被丢弃的包可能是之后的帧的参考帧，所以每次从静止恢复发送都从关键帧开始，接收端不会缺少参考帧。
+ * 变化的那一帧即使在检测结果到达之前就被编码、丢弃了，编码器之后的关键帧（包括重复最后一帧产生的）也包含这个画面。
+ * <p>
+ * 实例是线程安全的：回读线程调用 {@link #onReadback(boolean, long)}，编码器的输出线程调用 {@link #shouldSend(boolean, long)}。
+ * </p>
+ */
+final class PacketGate {
+
+    /** 对编码器的操作，测试中用假的实现代替。 */
+    interface Encoder {
+
+        /** 请求编码器尽快输出一个关键帧。 */
+        void requestSyncFrame();
+    }
+
+    private final Encoder mEncoder;
+    private final long mKeepAliveIntervalMs;
+    private final long mHoldMs;
+
+    /** 第一次回读之前不知道画面是否变化，全部发送。 */
+    private long mActiveUntilMs = Long.MAX_VALUE;
+    /** 从上一个关键帧开始，所有的包都已发送。 */
+    private boolean mSending = true;
+    private long mLastSentMs = Long.MIN_VALUE;
+    private long mSyncRequestMs = Long.MIN_VALUE;
+
+    private long mSent;
+    private long mDropped;
+
+    /**
+     * @param keepAliveIntervalMs 画面静止时两次发送的最大间隔。
+     * @param holdMs              检测到变化后继续发送的时间，需要覆盖回读与编码输出之间的时差。
+     */
+    PacketGate(Encoder encoder, long keepAliveIntervalMs, long holdMs) {
+        mEncoder = encoder;
+        mKeepAliveIntervalMs = keepAliveIntervalMs;
+        mHoldMs = holdMs;
+    }
+
+    /**
+     * @param changed 回读的画面是否有变化。
+     * @param nowMs   单调递增的时间，例如 SystemClock.elapsedRealtime()。
+     */
+    synchronized void onReadback(boolean changed, long nowMs) {
+        if (!changed) {
+            return;
+        }
+        mActiveUntilMs = nowMs + mHoldMs;
+        if (!mSending) {
+            requestSyncFrame(nowMs);
+        }
+    }
+
+    /**
+     * 不再检测变化，之后从下一个关键帧开始全部发送。
+     */
+    synchronized void open(long nowMs) {
+        mActiveUntilMs = Long.MAX_VALUE;
+        if (!mSending) {
+            requestSyncFrame(nowMs);
+        }
+    }
+
+    /**
+     * @param keyFrame 是否为关键帧，编解码器配置（SPS/PPS 等）由调用方直接发送，不经过这里。
+     * @return 编码器输出的这个包是否需要发送。
+     */
+    synchronized boolean shouldSend(boolean keyFrame, long nowMs) {
+        if (mSending && nowMs >= mActiveUntilMs) {
+            mSending = false;
+        }
+        if (keyFrame) {
+            mSyncRequestMs = Long.MIN_VALUE;
+            mSending = nowMs < mActiveUntilMs;
+        }
+        if (keyFrame || mSending) {
+            mLastSentMs = nowMs;
+            mSent++;
+            return true;
+        }
+        if (mLastSentMs == Long.MIN_VALUE || nowMs - mLastSentMs >= mKeepAliveIntervalMs) {
+            requestSyncFrame(nowMs);
+        }
+        mDropped++;
+        return false;
+    }
+
+    /** 请求之后一个保活间隔内没有收到关键帧才再次请求。 */
+    private void requestSyncFrame(long nowMs) {
+        if (mSyncRequestMs != Long.MIN_VALUE && nowMs - mSyncRequestMs < mKeepAliveIntervalMs) {
+            return;
+        }
+        mSyncRequestMs = nowMs;
+        mEncoder.requestSyncFrame();
+    }
+
+    synchronized long getSent() {
+        return mSent;
+    }
+
+    synchronized long getDropped() {
+        return mDropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PacketGate{" +
+                "sent=" + mSent +
+                ", dropped=" + mDropped +
+                '}';
+    }
+
+}
@@ -0,0 +1,193 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * 缓存编码器输出的参数集（H.264 的 SPS/PPS，H.265 的 VPS/SPS/PPS），并在每个关键帧之前补上，用于直播这类接收端可能从中途开始解码的场景。
+ * <p>
+ * {@link #process(ByteBuffer)} 不拼接数据，而是返回要依次发送的 buffer 列表：关键帧为 [缓存的参数集, 编码器的输出 buffer]，
+ * 其他帧为 [编码器的输出 buffer]，由传输层按顺序发送（例如 WebSocket 的分片帧），每帧都不需要额外的拷贝；
+ * 只有参数集本身在变化时会被拷贝一次。
+ * </p>
+ * 只检查每帧开头的 NAL（跳过 AUD、SEI 等非 VCL 的 NAL），不会扫描整帧数据；3 字节与 4 字节的起始码都可以识别。
+ * 不以起始码开头的帧原样返回，不会中断推流。实例不是线程安全的。
+ */
+public final class ParameterSetCache {
+
+    public static final int CODEC_H264 = 0;
+    public static final int CODEC_H265 = 1;
+
+    private final boolean mHevc;
+
+    private ByteBuffer mParameterSets = ByteBuffer.allocate(0);
+    private int mParameterSetsLength;
+
+    /** 返回给调用方的列表与参数集视图，每次调用时复用。 */
+    private final List<ByteBuffer> mGatherList = new ArrayList<>(2);
+    private final List<ByteBuffer> mReadOnlyGatherList = Collections.unmodifiableList(mGatherList);
+    private ByteBuffer mParameterSetsView = mParameterSets.asReadOnlyBuffer();
+
+    private boolean mKeyFrame;
+    private long mInjectedCount;
+
+    /**
+     * @param codec {@link #CODEC_H264} 或 {@link #CODEC_H265}。
+     */
+    public ParameterSetCache(int codec) {
+        if (codec != CODEC_H264 && codec != CODEC_H265) {
+            throw new IllegalArgumentException("codec = " + codec);
+        }
+        mHevc = codec == CODEC_H265;
+    }
+
+    /**
+     * 处理编码器输出的一帧 Annex-B 数据 [position, limit)，不改变 frame 的 position。
+     *
+     * @return 需要依次发送的 buffer，下一次调用前有效；只包含参数集的帧被缓存下来，返回空列表。
+     */
+    public List<ByteBuffer> process(ByteBuffer frame) {
+        mGatherList.clear();
+        mKeyFrame = false;
+
+        final int start = frame.position();
+        final int limit = frame.limit();
+        int nal = start;
+        int parameterSetsStart = -1;
+        int parameterSetsEnd = -1;
+        while (nal >= 0 && nal < limit) {
+            final int startCodeLength = startCodeLength(frame, nal, limit);
+            if (startCodeLength == 0) {
+                // 之后的 NAL 都是查找起始码得到的，只有帧的开头可能没有起始码。
+                Timber.w("ParameterSetCache: no start code at the beginning of the frame, size = %d", limit - start);
+                break;
+            }
+            final int header = nal + startCodeLength;
+            if (header >= limit) {
+                break;
+            }
+            final int type = nalType(frame, header);
+            if (isParameterSet(type)) {
+                if (parameterSetsStart < 0) {
+                    parameterSetsStart = nal;
+                }
+                nal = AnnexBScanner.findStartCode(frame, header, limit);
+                parameterSetsEnd = nal < 0 ? limit : nal;
+                continue;
+            }
+            if (isVcl(type)) {
+                mKeyFrame = isKeyFrame(type);
+                break;
+            }
+            // AUD、SEI 等，继续看下一个 NAL。
+            nal = AnnexBScanner.findStartCode(frame, header, limit);
+        }
+
+        if (parameterSetsEnd >= 0) {
+            // 编码器输出的参数集（一般是单独的 BUFFER_FLAG_CODEC_CONFIG 帧），或者关键帧自带了参数集。
+            cache(frame, parameterSetsStart, parameterSetsEnd);
+            if (parameterSetsEnd < limit) {
+                mGatherList.add(frame);
+            }
+            return mReadOnlyGatherList;
+        }
+
+        if (mKeyFrame && mParameterSetsLength > 0) {
+            mParameterSetsView.clear();
+            mParameterSetsView.limit(mParameterSetsLength);
+            mGatherList.add(mParameterSetsView);
+            mInjectedCount++;
+        }
+        mGatherList.add(frame);
+        return mReadOnlyGatherList;
+    }
+
+    /** 上一次 {@link #process(ByteBuffer)} 处理的是否为关键帧。 */
+    public boolean isKeyFrame() {
+        return mKeyFrame;
+    }
+
+    public boolean hasParameterSets() {
+        return mParameterSetsLength > 0;
+    }
+
+    /** 缓存的参数集（带起始码），只读视图。 */
+    public ByteBuffer getParameterSets() {
+        final ByteBuffer view = mParameterSets.asReadOnlyBuffer();
+        view.clear();
+        view.limit(mParameterSetsLength);
+        return view;
+    }
+
+    /** 在关键帧之前补充参数集的次数。 */
+    public long getInjectedCount() {
+        return mInjectedCount;
+    }
+
+    private void cache(ByteBuffer frame, int from, int to) {
+        final int length = to - from;
+        if (length == mParameterSetsLength && rangeEquals(frame, from, mParameterSets, length)) {
+            return;
+        }
+        if (mParameterSets.capacity() < length) {
+            mParameterSets = ByteBuffer.allocate(length);
+            mParameterSetsView = mParameterSets.asReadOnlyBuffer();
+        }
+        final ByteBuffer source = frame.duplicate();
+        source.limit(to).position(from);
+        mParameterSets.clear();
+        mParameterSets.put(source);
+        mParameterSetsLength = length;
+    }
+
+    private static boolean rangeEquals(ByteBuffer a, int from, ByteBuffer b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a.get(from + i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // NAL 类型
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** position 处起始码的长度，没有起始码时返回 0。 */
+    private static int startCodeLength(ByteBuffer data, int position, int limit) {
+        if (position + 2 < limit && data.get(position) == 0 && data.get(position + 1) == 0) {
+            if (data.get(position + 2) == 1) {
+                return 3;
+            }
+            if (position + 3 < limit && data.get(position + 2) == 0 && data.get(position + 3) == 1) {
+                return 4;
+            }
+        }
+        return 0;
+    }
+
+    private int nalType(ByteBuffer data, int header) {
+        final int b = data.get(header) & 0xFF;
+        return mHevc ? H265ParameterSets.nalType(b) : H264ParameterSets.nalType(b);
+    }
+
+    private boolean isParameterSet(int type) {
+        if (mHevc) {
+            return type == H265ParameterSets.NAL_VPS || type == H265ParameterSets.NAL_SPS || type == H265ParameterSets.NAL_PPS;
+        }
+        return type == H264ParameterSets.NAL_SPS || type == H264ParameterSets.NAL_PPS;
+    }
+
+    private boolean isVcl(int type) {
+        return mHevc ? type < 32 : type >= H264ParameterSets.NAL_SLICE && type <= H264ParameterSets.NAL_IDR;
+    }
+
+    private boolean isKeyFrame(int type) {
+        return mHevc ? H265ParameterSets.isKeyFrame(type) : type == H264ParameterSets.NAL_IDR;
+    }
+
+}
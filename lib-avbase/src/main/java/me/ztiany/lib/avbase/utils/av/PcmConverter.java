@@ -0,0 +1,123 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 把任意采样率、声道数的 PCM（16 位整数或 float）统一转换为目标格式的 16 位 PCM：声道上混/下混 → {@link Resampler} 转换采样率 → 量化。
+ * 用于把不同来源解码出的 PCM 在进入混音、编码之前只归一化一次。
+ * <p>
+ * 内部按块处理，输入的大小没有限制；输出通过 {@link Sink} 回调，回调中的数组会被复用，只在回调期间有效。实例不是线程安全的。
+ * </p>
+ */
+public final class PcmConverter {
+
+    public interface Sink {
+
+        /**
+         * @param samples 声道交错的 16 位采样，只在回调期间有效。
+         * @param frames  有效的帧数。
+         */
+        void onPcm(short[] samples, int frames) throws IOException;
+
+    }
+
+    private static final int BLOCK_FRAMES = 4096;
+
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    private final Resampler mResampler;
+
+    private final float[] mInput;
+    private final float[] mRemixed;
+    private final float[] mResampled;
+    private final short[] mOutput;
+
+    public PcmConverter(int inputRate, int inputChannels, int outputRate, int outputChannels, int quality) {
+        mInputChannels = inputChannels;
+        mOutputChannels = outputChannels;
+        mResampler = new Resampler(inputRate, outputRate, outputChannels, quality);
+        mInput = new float[BLOCK_FRAMES * inputChannels];
+        mRemixed = new float[BLOCK_FRAMES * outputChannels];
+        final int maxFrames = mResampler.getMaxOutputFrames(BLOCK_FRAMES);
+        mResampled = new float[maxFrames * outputChannels];
+        mOutput = new short[maxFrames * outputChannels];
+    }
+
+    /**
+     * 判断是否需要转换。
+     */
+    public boolean isPassthrough() {
+        return mInputChannels == mOutputChannels && mResampler.getInputRate() == mResampler.getOutputRate();
+    }
+
+    /**
+     * 转换 16 位 PCM，例如 MediaCodec 解码器的输出缓冲区。读取 pcm 中剩余的所有完整帧，position 移动到 limit。
+     */
+    public void convert(ByteBuffer pcm, Sink sink) throws IOException {
+        final ByteBuffer source = pcm.order() == ByteOrder.LITTLE_ENDIAN ? pcm : pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int channels = mInputChannels;
+        final int frameSize = channels * 2;
+        int index = source.position();
+        int frames = source.remaining() / frameSize;
+        while (frames > 0) {
+            final int block = Math.min(frames, BLOCK_FRAMES);
+            final int samples = block * channels;
+            for (int i = 0; i < samples; i++, index += 2) {
+                mInput[i] = source.getShort(index) * (1f / 32768f);
+            }
+            process(block, sink);
+            frames -= block;
+        }
+        pcm.position(pcm.limit());
+    }
+
+    /**
+     * 转换 [-1, 1] 的 float PCM（解码器输出 ENCODING_PCM_FLOAT 时）。
+     */
+    public void convertFloat(ByteBuffer pcm, Sink sink) throws IOException {
+        final ByteBuffer source = pcm.order() == ByteOrder.LITTLE_ENDIAN ? pcm : pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int channels = mInputChannels;
+        int index = source.position();
+        int frames = source.remaining() / (channels * 4);
+        while (frames > 0) {
+            final int block = Math.min(frames, BLOCK_FRAMES);
+            final int samples = block * channels;
+            for (int i = 0; i < samples; i++, index += 4) {
+                mInput[i] = source.getFloat(index);
+            }
+            process(block, sink);
+            frames -= block;
+        }
+        pcm.position(pcm.limit());
+    }
+
+    /**
+     * 输入结束，输出重采样滤波器中剩余的采样。
+     */
+    public void flush(Sink sink) throws IOException {
+        final int frames = mResampler.flush(mResampled);
+        emit(frames, sink);
+    }
+
+    private void process(int frames, Sink sink) throws IOException {
+        Resampler.remix(mInput, mInputChannels, mRemixed, mOutputChannels, frames);
+        emit(mResampler.process(mRemixed, frames, mResampled), sink);
+    }
+
+    private void emit(int frames, Sink sink) throws IOException {
+        if (frames == 0) {
+            return;
+        }
+        final int samples = frames * mOutputChannels;
+        final float[] resampled = mResampled;
+        final short[] output = mOutput;
+        for (int i = 0; i < samples; i++) {
+            final int value = Math.round(resampled[i] * 32768f);
+            output[i] = (short) (value > Short.MAX_VALUE ? Short.MAX_VALUE : value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+        }
+        sink.onPcm(output, frames);
+    }
+
+}
@@ -0,0 +1,299 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+import timber.log.Timber;
+
+/**
+ * 连接流水线中两个阶段的 16 位 PCM 队列（声道交错），一个生产者、一个消费者，可以在不同的线程。
+ * <p>
+ * 缓存的数据不超过内存预算时保存在内存中；超过后新写入的数据溢出到磁盘文件，直到文件中的数据被读完再回到内存，
+ * 因此写入永远不会阻塞，读出的顺序与写入一致。溢出文件在第一次需要时创建，{@link #close()} 时删除。
+ * 生产者可以通过 {@link #awaitBelow(long)} 等待消费者，使缓存通常不会超过预算。
+ * </p>
+ * 生产者写完后调用 {@link #finish()}，出错时调用 {@link #fail(Throwable)}，消费者的 {@link #read(short[], int)} 会相应地返回或抛出异常。
+ * 也可以通过 {@link #startProducer(Producer, long, String)} 在单独的线程中驱动一个 {@link Producer}。
+ */
+public final class PcmQueue implements PcmConverter.Sink {
+
+    /**
+     * 分步产生 PCM（例如解码器）写入队列，所有方法都在 {@link #startProducer(Producer, long, String)} 创建的线程中调用。
+     */
+    public interface Producer {
+
+        void start() throws IOException;
+
+        /**
+         * 产生一部分数据写入队列。
+         *
+         * @return 是否还有数据需要产生。
+         */
+        boolean step() throws IOException;
+
+        void release();
+    }
+
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private final int mChannelCount;
+    private final long mBudgetSamples;
+    private final File mSpillFile;
+
+    private final ArrayDeque<short[]> mChunks = new ArrayDeque<>();
+    /** 第一个 chunk 中已经读出的采样数。 */
+    private int mHeadOffset;
+    private long mMemorySamples;
+
+    private FileChannel mSpillChannel;
+    private ByteBuffer mSpillBuffer;
+    private long mSpillWritePosition;
+    private long mSpillReadPosition;
+    private long mSpilledBytes;
+
+    private boolean mFinished;
+    private boolean mClosed;
+    private Throwable mFailure;
+
+    /**
+     * @param memoryBudgetBytes 内存中最多缓存的字节数。
+     * @param spillFile         超过预算时使用的临时文件。
+     */
+    public PcmQueue(int channelCount, long memoryBudgetBytes, File spillFile) {
+        if (channelCount <= 0 || memoryBudgetBytes < 0) {
+            throw new IllegalArgumentException("channelCount = " + channelCount + ", memoryBudgetBytes = " + memoryBudgetBytes);
+        }
+        mChannelCount = channelCount;
+        mBudgetSamples = memoryBudgetBytes / 2;
+        mSpillFile = spillFile;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 生产者
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onPcm(short[] samples, int frames) throws IOException {
+        write(samples, frames);
+    }
+
+    /**
+     * 写入 frames 帧，不会阻塞。samples 在返回后可以复用。
+     */
+    public synchronized void write(short[] samples, int frames) throws IOException {
+        if (mClosed) {
+            throw new IOException("queue closed");
+        }
+        final int count = frames * mChannelCount;
+        if (count == 0) {
+            return;
+        }
+        final boolean spilling = mSpillWritePosition != mSpillReadPosition;
+        if (!spilling && mMemorySamples + count <= mBudgetSamples) {
+            final short[] chunk = new short[count];
+            System.arraycopy(samples, 0, chunk, 0, count);
+            mChunks.addLast(chunk);
+            mMemorySamples += count;
+        } else {
+            spill(samples, count);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 阻塞生产者，直到缓存的帧数少于 frames（或者队列被关闭），用于在消费者跟不上时限制缓存的数据量。
+     */
+    public synchronized void awaitBelow(long frames) throws InterruptedIOException {
+        while (availableSamples() / mChannelCount >= frames && !mClosed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("await interrupted");
+            }
+        }
+    }
+
+    /**
+     * 在新线程中驱动 producer：每一步之前等待缓存少于 highWaterFrames 帧，结束后调用 {@link #finish()}，出错时调用 {@link #fail(Throwable)}。
+     * 多个输入各用一个线程时，总耗时接近最慢的输入而不是所有输入之和；{@link #close()} 或者中断线程都会让它尽快退出。
+     */
+    public Thread startProducer(Producer producer, long highWaterFrames, String name) {
+        final Thread thread = new Thread(() -> {
+            try {
+                producer.start();
+                do {
+                    awaitBelow(highWaterFrames);
+                } while (producer.step());
+                finish();
+            } catch (Exception e) {
+                Timber.e(e, "PcmQueue: producer %s failed", name);
+                fail(e);
+            } finally {
+                producer.release();
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    /** 生产者写完了。 */
+    public synchronized void finish() {
+        mFinished = true;
+        notifyAll();
+    }
+
+    /** 生产者出错，之后消费者的读取会抛出异常。 */
+    public synchronized void fail(Throwable throwable) {
+        if (mFailure == null) {
+            mFailure = throwable;
+        }
+        notifyAll();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 消费者
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 读出 frames 帧，数据不足时阻塞，直到足够或者生产者结束。
+     *
+     * @return 读出的帧数，只有在生产者结束后才会小于 frames，为 0 表示已经读完。
+     */
+    public synchronized int read(short[] out, int frames) throws IOException {
+        final int wanted = frames * mChannelCount;
+        while (availableSamples() < wanted && !mFinished && mFailure == null && !mClosed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("read interrupted");
+            }
+        }
+        if (mFailure != null) {
+            throw new IOException("producer failed", mFailure);
+        }
+        if (mClosed) {
+            throw new IOException("queue closed");
+        }
+
+        final int count = (int) Math.min(wanted, availableSamples()) / mChannelCount * mChannelCount;
+        int copied = 0;
+        while (copied < count && !mChunks.isEmpty()) {
+            final short[] head = mChunks.peekFirst();
+            final int n = Math.min(head.length - mHeadOffset, count - copied);
+            System.arraycopy(head, mHeadOffset, out, copied, n);
+            copied += n;
+            mHeadOffset += n;
+            mMemorySamples -= n;
+            if (mHeadOffset == head.length) {
+                mChunks.removeFirst();
+                mHeadOffset = 0;
+            }
+        }
+        if (copied < count) {
+            copied += unspill(out, copied, count - copied);
+        }
+        notifyAll();
+        return copied / mChannelCount;
+    }
+
+    /** 当前缓存的帧数（内存 + 磁盘）。 */
+    public synchronized long getBufferedFrames() {
+        return availableSamples() / mChannelCount;
+    }
+
+    /** 累计溢出到磁盘的字节数。 */
+    public synchronized long getSpilledBytes() {
+        return mSpilledBytes;
+    }
+
+    /**
+     * 丢弃缓存的数据并删除溢出文件，之后的写入会抛出异常，阻塞中的读取也会返回。
+     */
+    public synchronized void close() {
+        mClosed = true;
+        mChunks.clear();
+        mMemorySamples = 0;
+        mHeadOffset = 0;
+        mSpillWritePosition = mSpillReadPosition = 0;
+        if (mSpillChannel != null) {
+            try {
+                mSpillChannel.close();
+            } catch (IOException ignore) {
+                //ignore
+            }
+            mSpillChannel = null;
+            //noinspection ResultOfMethodCallIgnored
+            mSpillFile.delete();
+        }
+        notifyAll();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 溢出文件
+    ///////////////////////////////////////////////////////////////////////////
+
+    private long availableSamples() {
+        return mMemorySamples + (mSpillWritePosition - mSpillReadPosition) / 2;
+    }
+
+    private void spill(short[] samples, int count) throws IOException {
+        if (mSpillChannel == null) {
+            if (mSpillFile == null) {
+                throw new IOException("memory budget exceeded and no spill file");
+            }
+            mSpillChannel = new RandomAccessFile(mSpillFile, "rw").getChannel();
+            mSpillBuffer = ByteBuffer.allocateDirect(SPILL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        final ByteBuffer buffer = mSpillBuffer;
+        int offset = 0;
+        while (offset < count) {
+            final int n = Math.min(count - offset, buffer.capacity() / 2);
+            buffer.clear();
+            buffer.asShortBuffer().put(samples, offset, n);
+            buffer.limit(n * 2);
+            while (buffer.hasRemaining()) {
+                mSpillWritePosition += mSpillChannel.write(buffer, mSpillWritePosition);
+            }
+            offset += n;
+        }
+        mSpilledBytes += count * 2L;
+    }
+
+    private int unspill(short[] out, int offset, int count) throws IOException {
+        final ByteBuffer buffer = mSpillBuffer;
+        int copied = 0;
+        while (copied < count) {
+            final int n = Math.min(count - copied, buffer.capacity() / 2);
+            buffer.clear();
+            buffer.limit(n * 2);
+            while (buffer.hasRemaining()) {
+                final int read = mSpillChannel.read(buffer, mSpillReadPosition);
+                if (read < 0) {
+                    throw new IOException("spill file truncated");
+                }
+                mSpillReadPosition += read;
+            }
+            buffer.flip();
+            buffer.asShortBuffer().get(out, offset + copied, n);
+            copied += n;
+        }
+        // 文件中的数据读完了，从头复用，之后的写入回到内存。
+        if (mSpillReadPosition == mSpillWritePosition) {
+            mSpillReadPosition = mSpillWritePosition = 0;
+        }
+        return copied;
+    }
+
+}
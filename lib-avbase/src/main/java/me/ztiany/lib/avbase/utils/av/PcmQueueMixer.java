@@ -0,0 +1,84 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 从各输入的 {@link PcmQueue} 中按块读取，经 {@link AudioMixer} 混音后写入 dst（例如编码器的输入缓冲区）。
+ * <p>
+ * 每一块都从所有输入读取相同的帧数，输出只取决于各输入的数据，与生产者在哪个线程、以什么节奏写入无关。
+ * 输出的长度以最长的输入为准，较短的输入结束后按静音处理。
+ * </p>
+ * 实例不是线程安全的，只在消费者线程中使用。
+ */
+public final class PcmQueueMixer {
+
+    private final PcmQueue[] mQueues;
+    private final int mChannelCount;
+    private final int mBlockFrames;
+    private final AudioMixer mMixer;
+    private final short[][] mSamples;
+    private final int[] mFrames;
+    private final boolean[] mEnded;
+    private final short[] mOutput;
+
+    /**
+     * @param queues      各输入的队列，声道数必须相同。
+     * @param gains       各输入的增益。
+     * @param blockFrames 每次混音最多处理的帧数。
+     */
+    public PcmQueueMixer(PcmQueue[] queues, float[] gains, int blockFrames) {
+        if (queues.length == 0 || gains.length != queues.length || blockFrames <= 0) {
+            throw new IllegalArgumentException("queues = " + queues.length + ", gains = " + gains.length + ", blockFrames = " + blockFrames);
+        }
+        mQueues = queues;
+        mChannelCount = queues[0].getChannelCount();
+        for (PcmQueue queue : queues) {
+            if (queue.getChannelCount() != mChannelCount) {
+                throw new IllegalArgumentException("channel count mismatch: " + queue.getChannelCount() + " != " + mChannelCount);
+            }
+        }
+        mBlockFrames = blockFrames;
+        mMixer = new AudioMixer(mChannelCount, queues.length);
+        mSamples = new short[queues.length][blockFrames * mChannelCount];
+        mFrames = new int[queues.length];
+        mEnded = new boolean[queues.length];
+        mOutput = new short[blockFrames * mChannelCount];
+        for (int i = 0; i < queues.length; i++) {
+            mMixer.setGain(i, gains[i]);
+        }
+    }
+
+    /**
+     * 混音一块写入 dst 的 position 处（16 位小端），dst 的 position 前进写入的字节数；数据不足时阻塞等待生产者。
+     *
+     * @return 写入 dst 的字节数，为 0 表示所有输入都已读完。
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        final int frameSize = mChannelCount * 2;
+        final int wanted = Math.min(mBlockFrames, dst.remaining() / frameSize);
+        int blockFrames = 0;
+        for (int i = 0; i < mQueues.length; i++) {
+            mFrames[i] = 0;
+            if (mEnded[i]) {
+                continue;
+            }
+            mFrames[i] = mQueues[i].read(mSamples[i], wanted);
+            if (mFrames[i] < wanted) {
+                mEnded[i] = true;
+            }
+            blockFrames = Math.max(blockFrames, mFrames[i]);
+        }
+        if (blockFrames == 0) {
+            return 0;
+        }
+        mMixer.mix(mSamples, mFrames, mOutput, blockFrames);
+        final int count = blockFrames * mChannelCount;
+        final int position = dst.position();
+        dst.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(mOutput, 0, count);
+        dst.position(position + count * 2);
+        return count * 2;
+    }
+
+}
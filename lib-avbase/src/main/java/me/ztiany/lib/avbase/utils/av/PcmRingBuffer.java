@@ -0,0 +1,194 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁的单生产者、单消费者 PCM 环形缓冲区，用于把采集（AudioRecord）和编码（MediaCodec）解耦：
+ * 生产者的 {@link #write(byte[], int, int)} 永远不会阻塞，缓冲区满时丢弃放不下的帧并计入溢出统计。
+ * <p>
+ * 读写位置是单调递增的字节数，各自只由一个线程修改，通过 {@link AtomicLong#lazySet(long)} 发布，不需要加锁。
+ * 容量向上取整为 2 的幂，位置对容量取模即为数组下标。消费者可以通过 {@link #awaitReadable(long)} 等待数据，
+ * 生产者写入后只会 unpark 消费者，不会等待。
+ * </p>
+ * 同一时刻只能有一个线程写、一个线程读。
+ */
+public final class PcmRingBuffer {
+
+    private final byte[] mBuffer;
+    private final int mMask;
+    private final int mFrameSize;
+
+    /** 累计写入的字节数，只由生产者修改。 */
+    private final AtomicLong mWritePosition = new AtomicLong();
+    /** 累计读出的字节数，只由消费者修改。 */
+    private final AtomicLong mReadPosition = new AtomicLong();
+
+    private volatile long mOverflowBytes;
+    private volatile long mOverflowCount;
+    private volatile int mHighWaterMark;
+
+    private volatile Thread mWaiter;
+
+    /**
+     * @param capacityBytes 最少能缓存的字节数。
+     * @param frameSize     一帧（所有声道一个采样）的字节数，溢出时按整帧丢弃。
+     */
+    public PcmRingBuffer(int capacityBytes, int frameSize) {
+        if (capacityBytes <= 0 || frameSize <= 0 || capacityBytes > (1 << 30)) {
+            throw new IllegalArgumentException("capacityBytes = " + capacityBytes + ", frameSize = " + frameSize);
+        }
+        final int capacity = Integer.highestOneBit(capacityBytes - 1) << 1;
+        mBuffer = new byte[Math.max(capacity, 1)];
+        mMask = mBuffer.length - 1;
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * 按时长创建，例如 44100Hz、双声道、16 位的 500 毫秒约为 86KB（取整后为 128KB）。
+     */
+    public static PcmRingBuffer ofDuration(int sampleRate, int channelCount, int bytesPerSample, int capacityMs) {
+        final int frameSize = channelCount * bytesPerSample;
+        final long bytes = (long) sampleRate * capacityMs / 1000 * frameSize;
+        return new PcmRingBuffer((int) Math.min(1 << 30, Math.max(frameSize, bytes)), frameSize);
+    }
+
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 生产者
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 写入 len 字节，不会阻塞。空间不足时只写入能放下的整帧，其余丢弃并计入溢出。
+     *
+     * @return 实际写入的字节数。
+     */
+    public int write(byte[] src, int offset, int len) {
+        final long write = mWritePosition.get();
+        final long read = mReadPosition.get();
+        final int free = mBuffer.length - (int) (write - read);
+        int count = len;
+        if (count > free) {
+            count = free - free % mFrameSize;
+            mOverflowBytes += len - count;
+            mOverflowCount++;
+        }
+
+        if (count > 0) {
+            final int index = (int) (write & mMask);
+            final int first = Math.min(count, mBuffer.length - index);
+            System.arraycopy(src, offset, mBuffer, index, first);
+            if (first < count) {
+                System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+            }
+            mWritePosition.lazySet(write + count);
+
+            final int buffered = (int) (write + count - read);
+            if (buffered > mHighWaterMark) {
+                mHighWaterMark = buffered;
+            }
+        }
+
+        final Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return count;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 消费者
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 可以读取的字节数。 */
+    public int available() {
+        return (int) (mWritePosition.get() - mReadPosition.get());
+    }
+
+    /**
+     * 等待直到有数据可读或者超时（也可能提前返回），只能由消费者调用。
+     *
+     * @return 是否有数据可读。
+     */
+    public boolean awaitReadable(long timeoutNanos) {
+        if (available() > 0) {
+            return true;
+        }
+        mWaiter = Thread.currentThread();
+        try {
+            // 设置 waiter 之后再检查一次，避免错过生产者的 unpark。
+            if (available() == 0) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            mWaiter = null;
+        }
+        return available() > 0;
+    }
+
+    /**
+     * 读取不超过 dst.remaining() 的整帧数据到 dst 中，例如直接读入编码器的输入缓冲区。
+     *
+     * @return 读出的字节数。
+     */
+    public int read(ByteBuffer dst) {
+        final long read = mReadPosition.get();
+        final int available = (int) (mWritePosition.get() - read);
+        final int room = dst.remaining();
+        int count = Math.min(available, room - room % mFrameSize);
+        if (count <= 0) {
+            return 0;
+        }
+        final int index = (int) (read & mMask);
+        final int first = Math.min(count, mBuffer.length - index);
+        dst.put(mBuffer, index, first);
+        if (first < count) {
+            dst.put(mBuffer, 0, count - first);
+        }
+        mReadPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * 读取不超过 len 的整帧数据。
+     *
+     * @return 读出的字节数。
+     */
+    public int read(byte[] dst, int offset, int len) {
+        return read(ByteBuffer.wrap(dst, offset, len));
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 统计
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 累计读出的字节数，可以用来计算时间戳。 */
+    public long getReadPosition() {
+        return mReadPosition.get();
+    }
+
+    /** 累计写入的字节数。 */
+    public long getWritePosition() {
+        return mWritePosition.get();
+    }
+
+    /** 因缓冲区满而丢弃的字节数。 */
+    public long getOverflowBytes() {
+        return mOverflowBytes;
+    }
+
+    /** 发生溢出的写入次数。 */
+    public long getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /** 缓冲区中曾经达到的最大字节数。 */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+}
@@ -162,6 +162,9 @@ public class PcmWavUtils {
     // Parse
     ///////////////////////////////////////////////////////////////////////////
 
+    /**
+     * 只支持标准的 44 字节文件头，并且会把整个文件读到内存中。任意 chunk 布局、RF64、大文件请使用 {@link WavReader}。
+     */
     @Nullable
     public static WavFile parseWavFile(InputStream inputStream, boolean readWholeData, boolean autoClose) {
         try {
@@ -0,0 +1,412 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 分块（tile）的平面旋转内核，供 {@link YUVUtils} 使用。
+ * <p>
+ * 旋转 90°/270° 时，源图像按行读取，目标图像按列写入，如果逐行处理整幅画面，每写一个像素都会落在不同的缓存行上。
+ * 这里把画面切成 {@link #TILE} x {@link #TILE} 的小块，块内的源行和目标行都能留在 L1 缓存中。
+ * </p>
+ * 坐标约定：先水平镜像（可选），再顺时针旋转 rotation 度。宽高均指源平面的像素数。
+ */
+final class PlaneRotator {
+
+    /** 64x64 的块：单字节平面 4KB，交错的 UV 平面 8KB，源块与目标块一起也能放进 32KB 的 L1。 */
+    static final int TILE = 64;
+
+    private PlaneRotator() {
+        throw new UnsupportedOperationException();
+    }
+
+    static void checkRotation(int rotation) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
+            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        }
+    }
+
+    /**
+     * 旋转单分量平面（Y、I420 的 U/V）。大平面会按行切分后交给 {@link RowBands} 并行处理。
+     *
+     * @param srcPixelStride 源平面相邻像素的间隔，交错的 UV 平面为 2。
+     * @param dstPixelStride 目标平面相邻像素的间隔，写入 NV12/NV21 的 UV 平面时为 2。
+     */
+    static void rotate(
+            final byte[] src, final int srcOffset, final int srcRowStride, final int srcPixelStride,
+            final byte[] dst, final int dstOffset, final int dstRowStride, final int dstPixelStride,
+            final int width, final int height, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + origin(width, height, rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepX = stepX(rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepY = stepY(rotation, dstRowStride, dstPixelStride);
+        RowBands.run(width, height, (rowStart, rowEnd) -> rotateRows(
+                src, srcOffset, srcRowStride, srcPixelStride,
+                dst, origin, stepX, stepY, dstPixelStride,
+                width, rowStart, rowEnd
+        ));
+    }
+
+    private static void rotateRows(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int origin, int stepX, int stepY, int dstPixelStride,
+            int width, int rowStart, int rowEnd
+    ) {
+        // 没有旋转也没有镜像：逐行拷贝。
+        if (stepX == 1 && srcPixelStride == 1) {
+            for (int y = rowStart; y < rowEnd; y++) {
+                System.arraycopy(src, srcOffset + y * srcRowStride, dst, origin + y * stepY, width);
+            }
+            return;
+        }
+
+        // 0°/180°（含镜像）：源和目标都是顺序访问，不需要分块。
+        if (isRowOrder(stepX, dstPixelStride)) {
+            copyBlock(
+                    src, srcOffset + rowStart * srcRowStride, srcRowStride, srcPixelStride,
+                    dst, origin + rowStart * stepY, stepX, stepY,
+                    width, rowEnd - rowStart
+            );
+            return;
+        }
+
+        for (int by = rowStart; by < rowEnd; by += TILE) {
+            final int tileHeight = Math.min(TILE, rowEnd - by);
+            for (int bx = 0; bx < width; bx += TILE) {
+                copyBlock(
+                        src, srcOffset + by * srcRowStride + bx * srcPixelStride, srcRowStride, srcPixelStride,
+                        dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                        Math.min(TILE, width - bx), tileHeight
+                );
+            }
+        }
+    }
+
+    /**
+     * 旋转一对色度分量，结果以交错的形式（NV12/NV21 的 UV 平面）写入 dst：dst[d] 来自 src0，dst[d + 1] 来自 src1。
+     * src0 与 src1 可以是同一个数组（例如 NV21 中的 V 与 U），调整 srcOffset0/srcOffset1 即可完成 U/V 交换。
+     */
+    static void rotatePair(
+            final byte[] src0, final int srcOffset0, final byte[] src1, final int srcOffset1,
+            final int srcRowStride, final int srcPixelStride,
+            final byte[] dst, final int dstOffset, final int dstRowStride,
+            final int width, final int height, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + origin(width, height, rotation, mirror, dstRowStride, 2);
+        final int stepX = stepX(rotation, mirror, dstRowStride, 2);
+        final int stepY = stepY(rotation, dstRowStride, 2);
+        RowBands.run(width, height, (rowStart, rowEnd) -> rotatePairRows(
+                src0, srcOffset0, src1, srcOffset1, srcRowStride, srcPixelStride,
+                dst, origin, stepX, stepY,
+                width, rowStart, rowEnd
+        ));
+    }
+
+    private static void rotatePairRows(
+            byte[] src0, int srcOffset0, byte[] src1, int srcOffset1, int srcRowStride, int srcPixelStride,
+            byte[] dst, int origin, int stepX, int stepY,
+            int width, int rowStart, int rowEnd
+    ) {
+        // 源为交错存储（pixelStride == 2）且不旋转、不镜像：src0 的一整行已经是目标行的样子（偶数位正确），
+        // 整行 arraycopy 后只需用 src1 补写奇数位。src0/src1 恰好是同一块交错内存时，补写的值与原值相同。
+        if (stepX == 2 && srcPixelStride == 2 && width > 0) {
+            final int rowLength = 2 * width - 1;
+            for (int y = rowStart; y < rowEnd; y++) {
+                final int d = origin + y * stepY;
+                System.arraycopy(src0, srcOffset0 + y * srcRowStride, dst, d, rowLength);
+                int s1 = srcOffset1 + y * srcRowStride;
+                final int end = d + rowLength + 1;
+                for (int i = d + 1; i < end; i += 2) {
+                    dst[i] = src1[s1];
+                    s1 += 2;
+                }
+            }
+            return;
+        }
+
+        if (isRowOrder(stepX, 2)) {
+            final int s = rowStart * srcRowStride;
+            copyBlockPair(
+                    src0, srcOffset0 + s, src1, srcOffset1 + s, srcRowStride, srcPixelStride,
+                    dst, origin + rowStart * stepY, stepX, stepY,
+                    width, rowEnd - rowStart
+            );
+            return;
+        }
+
+        for (int by = rowStart; by < rowEnd; by += TILE) {
+            final int tileHeight = Math.min(TILE, rowEnd - by);
+            for (int bx = 0; bx < width; bx += TILE) {
+                final int s = by * srcRowStride + bx * srcPixelStride;
+                copyBlockPair(
+                        src0, srcOffset0 + s, src1, srcOffset1 + s, srcRowStride, srcPixelStride,
+                        dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                        Math.min(TILE, width - bx), tileHeight
+                );
+            }
+        }
+    }
+
+    /**
+     * 同 {@link #rotate(byte[], int, int, int, byte[], int, int, int, int, int, int, boolean)}，直接从 ByteBuffer（例如 Image.Plane）读取。
+     * srcOffset 是绝对下标，与 src 的 position 无关。
+     * <p>
+     * 逐字节调用 {@link ByteBuffer#get(int)} 比访问数组慢得多，所以这里每次只把一行或 TILE 行批量读到线程私有的暂存区中，
+     * 暂存区始终留在缓存里，不会产生整帧的拷贝。
+     * </p>
+     */
+    static void rotate(
+            final ByteBuffer src, final int srcOffset, final int srcRowStride, final int srcPixelStride,
+            final byte[] dst, final int dstOffset, final int dstRowStride, final int dstPixelStride,
+            final int width, final int height, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + origin(width, height, rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepX = stepX(rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepY = stepY(rotation, dstRowStride, dstPixelStride);
+        RowBands.run(width, height, (rowStart, rowEnd) -> rotateRows(
+                src, srcOffset, srcRowStride, srcPixelStride,
+                dst, origin, stepX, stepY, dstPixelStride,
+                width, rowStart, rowEnd
+        ));
+    }
+
+    private static void rotateRows(
+            ByteBuffer src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int origin, int stepX, int stepY, int dstPixelStride,
+            int width, int rowStart, int rowEnd
+    ) {
+        // 每个条带复制一个视图来做相对读取，不改变调用方 buffer 的 position。
+        final ByteBuffer rows = src.duplicate();
+
+        if (stepX == 1 && srcPixelStride == 1) {
+            for (int y = rowStart; y < rowEnd; y++) {
+                rows.position(srcOffset + y * srcRowStride);
+                rows.get(dst, origin + y * stepY, width);
+            }
+            return;
+        }
+
+        final int span = span(width, srcPixelStride);
+
+        if (isRowOrder(stepX, dstPixelStride)) {
+            final byte[] line = scratch(span);
+            for (int y = rowStart; y < rowEnd; y++) {
+                stage(rows, srcOffset + y * srcRowStride, srcRowStride, span, 1, line, 0, span);
+                copyBlock(line, 0, span, srcPixelStride, dst, origin + y * stepY, stepX, stepY, width, 1);
+            }
+            return;
+        }
+
+        // 每次读入 TILE 行组成一个条带（1080p 约 120KB，可留在 L2），再在条带内按块旋转。
+        final byte[] band = scratch(span * TILE);
+        for (int by = rowStart; by < rowEnd; by += TILE) {
+            final int tileHeight = Math.min(TILE, rowEnd - by);
+            stage(rows, srcOffset + by * srcRowStride, srcRowStride, span, tileHeight, band, 0, span);
+            for (int bx = 0; bx < width; bx += TILE) {
+                copyBlock(
+                        band, bx * srcPixelStride, span, srcPixelStride,
+                        dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                        Math.min(TILE, width - bx), tileHeight
+                );
+            }
+        }
+    }
+
+    /**
+     * 同 {@link #rotatePair(byte[], int, byte[], int, int, int, byte[], int, int, int, int, int, boolean)}，直接从 ByteBuffer 读取。
+     */
+    static void rotatePair(
+            final ByteBuffer src0, final int srcOffset0, final ByteBuffer src1, final int srcOffset1,
+            final int srcRowStride, final int srcPixelStride,
+            final byte[] dst, final int dstOffset, final int dstRowStride,
+            final int width, final int height, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + origin(width, height, rotation, mirror, dstRowStride, 2);
+        final int stepX = stepX(rotation, mirror, dstRowStride, 2);
+        final int stepY = stepY(rotation, dstRowStride, 2);
+        RowBands.run(width, height, (rowStart, rowEnd) -> rotatePairRows(
+                src0, srcOffset0, src1, srcOffset1, srcRowStride, srcPixelStride,
+                dst, origin, stepX, stepY,
+                width, rowStart, rowEnd
+        ));
+    }
+
+    private static void rotatePairRows(
+            ByteBuffer src0, int srcOffset0, ByteBuffer src1, int srcOffset1, int srcRowStride, int srcPixelStride,
+            byte[] dst, int origin, int stepX, int stepY,
+            int width, int rowStart, int rowEnd
+    ) {
+        final ByteBuffer rows0 = src0.duplicate();
+        final ByteBuffer rows1 = src1.duplicate();
+        final int span = span(width, srcPixelStride);
+
+        if (isRowOrder(stepX, 2)) {
+            final byte[] line = scratch(span * 2);
+            for (int y = rowStart; y < rowEnd; y++) {
+                stage(rows0, srcOffset0 + y * srcRowStride, srcRowStride, span, 1, line, 0, span);
+                stage(rows1, srcOffset1 + y * srcRowStride, srcRowStride, span, 1, line, span, span);
+                copyBlockPair(line, 0, line, span, span, srcPixelStride, dst, origin + y * stepY, stepX, stepY, width, 1);
+            }
+            return;
+        }
+
+        final int bandSize = span * TILE;
+        final byte[] band = scratch(bandSize * 2);
+        for (int by = rowStart; by < rowEnd; by += TILE) {
+            final int tileHeight = Math.min(TILE, rowEnd - by);
+            stage(rows0, srcOffset0 + by * srcRowStride, srcRowStride, span, tileHeight, band, 0, span);
+            stage(rows1, srcOffset1 + by * srcRowStride, srcRowStride, span, tileHeight, band, bandSize, span);
+            for (int bx = 0; bx < width; bx += TILE) {
+                copyBlockPair(
+                        band, bx * srcPixelStride, band, bandSize + bx * srcPixelStride, span, srcPixelStride,
+                        dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                        Math.min(TILE, width - bx), tileHeight
+                );
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 块内核
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<>();
+
+    static byte[] scratch(int size) {
+        byte[] buffer = SCRATCH.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            SCRATCH.set(buffer);
+        }
+        return buffer;
+    }
+
+    /** 一行 count 个像素在源平面中实际跨越的字节数，最后一个像素之后的字节可能并不存在。 */
+    private static int span(int count, int pixelStride) {
+        return (count - 1) * pixelStride + 1;
+    }
+
+    /** 把 src 中 rowCount 行、每行 span 字节批量读入 out，out 中的行间距为 outStride。 */
+    private static void stage(ByteBuffer src, int offset, int srcRowStride, int span, int rowCount, byte[] out, int outOffset, int outStride) {
+        for (int y = 0; y < rowCount; y++) {
+            src.position(offset + y * srcRowStride);
+            src.get(out, outOffset + y * outStride, span);
+        }
+    }
+
+    private static boolean isRowOrder(int stepX, int dstPixelStride) {
+        return stepX == dstPixelStride || stepX == -dstPixelStride;
+    }
+
+    /**
+     * 把源中 width x height 的块写到 dst：源像素 (x, y) 写到 d0 + x * stepX + y * stepY。
+     * 行序（0°/180°）时按源行遍历；转置（90°/270°）时按目标行遍历，保证写入连续，读取落在块内的若干源行上。
+     */
+    static void copyBlock(
+            byte[] src, int s0, int srcRowStride, int srcPixelStride,
+            byte[] dst, int d0, int stepX, int stepY,
+            int width, int height
+    ) {
+        if (Math.abs(stepX) < Math.abs(stepY)) {
+            for (int y = 0; y < height; y++) {
+                int s = s0 + y * srcRowStride;
+                int d = d0 + y * stepY;
+                for (int x = 0; x < width; x++) {
+                    dst[d] = src[s];
+                    s += srcPixelStride;
+                    d += stepX;
+                }
+            }
+        } else {
+            for (int x = 0; x < width; x++) {
+                int s = s0 + x * srcPixelStride;
+                int d = d0 + x * stepX;
+                for (int y = 0; y < height; y++) {
+                    dst[d] = src[s];
+                    s += srcRowStride;
+                    d += stepY;
+                }
+            }
+        }
+    }
+
+    static void copyBlockPair(
+            byte[] src0, int s00, byte[] src1, int s10, int srcRowStride, int srcPixelStride,
+            byte[] dst, int d0, int stepX, int stepY,
+            int width, int height
+    ) {
+        if (Math.abs(stepX) < Math.abs(stepY)) {
+            for (int y = 0; y < height; y++) {
+                int s0 = s00 + y * srcRowStride;
+                int s1 = s10 + y * srcRowStride;
+                int d = d0 + y * stepY;
+                for (int x = 0; x < width; x++) {
+                    dst[d] = src0[s0];
+                    dst[d + 1] = src1[s1];
+                    s0 += srcPixelStride;
+                    s1 += srcPixelStride;
+                    d += stepX;
+                }
+            }
+        } else {
+            for (int x = 0; x < width; x++) {
+                int s0 = s00 + x * srcPixelStride;
+                int s1 = s10 + x * srcPixelStride;
+                int d = d0 + x * stepX;
+                for (int y = 0; y < height; y++) {
+                    dst[d] = src0[s0];
+                    dst[d + 1] = src1[s1];
+                    s0 += srcRowStride;
+                    s1 += srcRowStride;
+                    d += stepY;
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 源像素 (x, y) 在目标中的位置为 origin + x * stepX + y * stepY。
+    ///////////////////////////////////////////////////////////////////////////
+
+    static int origin(int width, int height, int rotation, boolean mirror, int dstRowStride, int dstPixelStride) {
+        // 镜像后的横坐标 x' = mirror ? (width - 1 - x) : x，这里的 b 为其常数项。
+        final int b = mirror ? width - 1 : 0;
+        switch (rotation) {
+            case 90:
+                return b * dstRowStride + (height - 1) * dstPixelStride;
+            case 180:
+                return (width - 1 - b) * dstPixelStride + (height - 1) * dstRowStride;
+            case 270:
+                return (width - 1 - b) * dstRowStride;
+            default:
+                return b * dstPixelStride;
+        }
+    }
+
+    static int stepX(int rotation, boolean mirror, int dstRowStride, int dstPixelStride) {
+        final int a = mirror ? -1 : 1;
+        switch (rotation) {
+            case 90:
+                return a * dstRowStride;
+            case 180:
+                return -a * dstPixelStride;
+            case 270:
+                return -a * dstRowStride;
+            default:
+                return a * dstPixelStride;
+        }
+    }
+
+    static int stepY(int rotation, int dstRowStride, int dstPixelStride) {
+        switch (rotation) {
+            case 90:
+                return -dstPixelStride;
+            case 180:
+                return -dstRowStride;
+            case 270:
+                return dstPixelStride;
+            default:
+                return dstRowStride;
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * 平面缩放内核，供 {@link YUVUtils} 使用。
+ * <p>
+ * 宽高都恰好缩小为 1/2^n 时使用盒式滤波（取 2^n x 2^n 个源像素的平均值），其他比例使用双线性插值。
+ * 需要旋转时，每次缩放出 {@link PlaneRotator#TILE} 行放在线程私有的暂存区，再按块旋转写入目标，缩放后的整帧不会落地。
+ * </p>
+ * 宽高均指缩放、旋转前的像素数：源平面为 srcWidth x srcHeight，缩放为 dstWidth x dstHeight 后再旋转。
+ */
+final class PlaneScaler {
+
+    private static final int TILE = PlaneRotator.TILE;
+
+    /** 双线性插值中坐标的定点小数位数。 */
+    private static final int SHIFT = 16;
+
+    private static final ThreadLocal<int[]> COLUMNS = new ThreadLocal<>();
+
+    private PlaneScaler() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 缩放（并旋转）单分量平面。
+     */
+    static void scale(
+            final byte[] src, final int srcOffset, final int srcRowStride, final int srcPixelStride,
+            final int srcWidth, final int srcHeight,
+            final byte[] dst, final int dstOffset, final int dstRowStride, final int dstPixelStride,
+            final int dstWidth, final int dstHeight, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + PlaneRotator.origin(dstWidth, dstHeight, rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepX = PlaneRotator.stepX(rotation, mirror, dstRowStride, dstPixelStride);
+        final int stepY = PlaneRotator.stepY(rotation, dstRowStride, dstPixelStride);
+        RowBands.run(dstWidth, dstHeight, (rowStart, rowEnd) -> {
+            // 不旋转、不镜像：直接缩放到目标中。
+            if (stepX == 1) {
+                scaleRows(
+                        src, srcOffset, srcRowStride, srcPixelStride, srcWidth, srcHeight,
+                        dst, origin + rowStart * stepY, stepY, dstWidth, dstHeight,
+                        rowStart, rowEnd
+                );
+                return;
+            }
+            final byte[] band = PlaneRotator.scratch(dstWidth * TILE);
+            for (int by = rowStart; by < rowEnd; by += TILE) {
+                final int tileHeight = Math.min(TILE, rowEnd - by);
+                scaleRows(
+                        src, srcOffset, srcRowStride, srcPixelStride, srcWidth, srcHeight,
+                        band, 0, dstWidth, dstWidth, dstHeight,
+                        by, by + tileHeight
+                );
+                for (int bx = 0; bx < dstWidth; bx += TILE) {
+                    PlaneRotator.copyBlock(
+                            band, bx, dstWidth, 1,
+                            dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                            Math.min(TILE, dstWidth - bx), tileHeight
+                    );
+                }
+            }
+        });
+    }
+
+    /**
+     * 缩放（并旋转）一对色度分量，以交错的形式写入 dst：dst[d] 来自 src0，dst[d + 1] 来自 src1。
+     */
+    static void scalePair(
+            final byte[] src0, final int srcOffset0, final byte[] src1, final int srcOffset1,
+            final int srcRowStride, final int srcPixelStride, final int srcWidth, final int srcHeight,
+            final byte[] dst, final int dstOffset, final int dstRowStride,
+            final int dstWidth, final int dstHeight, final int rotation, final boolean mirror
+    ) {
+        final int origin = dstOffset + PlaneRotator.origin(dstWidth, dstHeight, rotation, mirror, dstRowStride, 2);
+        final int stepX = PlaneRotator.stepX(rotation, mirror, dstRowStride, 2);
+        final int stepY = PlaneRotator.stepY(rotation, dstRowStride, 2);
+        RowBands.run(dstWidth, dstHeight, (rowStart, rowEnd) -> {
+            final int bandSize = dstWidth * TILE;
+            final byte[] band = PlaneRotator.scratch(bandSize * 2);
+            for (int by = rowStart; by < rowEnd; by += TILE) {
+                final int tileHeight = Math.min(TILE, rowEnd - by);
+                scaleRows(
+                        src0, srcOffset0, srcRowStride, srcPixelStride, srcWidth, srcHeight,
+                        band, 0, dstWidth, dstWidth, dstHeight,
+                        by, by + tileHeight
+                );
+                scaleRows(
+                        src1, srcOffset1, srcRowStride, srcPixelStride, srcWidth, srcHeight,
+                        band, bandSize, dstWidth, dstWidth, dstHeight,
+                        by, by + tileHeight
+                );
+                for (int bx = 0; bx < dstWidth; bx += TILE) {
+                    PlaneRotator.copyBlockPair(
+                            band, bx, band, bandSize + bx, dstWidth, 1,
+                            dst, origin + by * stepY + bx * stepX, stepX, stepY,
+                            Math.min(TILE, dstWidth - bx), tileHeight
+                    );
+                }
+            }
+        });
+    }
+
+    /**
+     * 宽高是否都恰好缩小为 1/2^n，是则返回 n，否则返回 -1。
+     */
+    static int boxShift(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        for (int shift = 0; shift < 8; shift++) {
+            if (dstWidth << shift == srcWidth && dstHeight << shift == srcHeight) {
+                return shift;
+            }
+            if (dstWidth << shift > srcWidth) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 计算输出的 [rowStart, rowEnd) 行，第 rowStart 行写到 dst[dstOffset]，之后每行间隔 dstRowStride。
+     */
+    private static void scaleRows(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride, int srcWidth, int srcHeight,
+            byte[] dst, int dstOffset, int dstRowStride, int dstWidth, int dstHeight,
+            int rowStart, int rowEnd
+    ) {
+        final int shift = boxShift(srcWidth, srcHeight, dstWidth, dstHeight);
+        if (shift == 0) {
+            copyRows(src, srcOffset, srcRowStride, srcPixelStride, dst, dstOffset, dstRowStride, dstWidth, rowStart, rowEnd);
+        } else if (shift == 1) {
+            boxRows2(src, srcOffset, srcRowStride, srcPixelStride, dst, dstOffset, dstRowStride, dstWidth, rowStart, rowEnd);
+        } else if (shift > 1) {
+            boxRows(src, srcOffset, srcRowStride, srcPixelStride, dst, dstOffset, dstRowStride, dstWidth, rowStart, rowEnd, shift);
+        } else {
+            bilinearRows(src, srcOffset, srcRowStride, srcPixelStride, srcWidth, srcHeight, dst, dstOffset, dstRowStride, dstWidth, dstHeight, rowStart, rowEnd);
+        }
+    }
+
+    private static void copyRows(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int dstOffset, int dstRowStride, int width,
+            int rowStart, int rowEnd
+    ) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            final int s0 = srcOffset + y * srcRowStride;
+            final int d0 = dstOffset + (y - rowStart) * dstRowStride;
+            if (srcPixelStride == 1) {
+                System.arraycopy(src, s0, dst, d0, width);
+            } else {
+                for (int x = 0, s = s0; x < width; x++, s += srcPixelStride) {
+                    dst[d0 + x] = src[s];
+                }
+            }
+        }
+    }
+
+    /** 1/2：每个输出像素为 2x2 源像素的平均值，最常用，单独展开。 */
+    private static void boxRows2(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int dstOffset, int dstRowStride, int width,
+            int rowStart, int rowEnd
+    ) {
+        final int step = srcPixelStride * 2;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int s0 = srcOffset + 2 * y * srcRowStride;
+            int s1 = s0 + srcRowStride;
+            int d = dstOffset + (y - rowStart) * dstRowStride;
+            for (int x = 0; x < width; x++) {
+                final int sum = (src[s0] & 0xFF) + (src[s0 + srcPixelStride] & 0xFF)
+                        + (src[s1] & 0xFF) + (src[s1 + srcPixelStride] & 0xFF);
+                dst[d++] = (byte) ((sum + 2) >> 2);
+                s0 += step;
+                s1 += step;
+            }
+        }
+    }
+
+    private static void boxRows(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int dstOffset, int dstRowStride, int width,
+            int rowStart, int rowEnd, int shift
+    ) {
+        final int factor = 1 << shift;
+        final int round = 1 << (2 * shift - 1);
+        final int step = srcPixelStride * factor;
+        for (int y = rowStart; y < rowEnd; y++) {
+            final int s0 = srcOffset + (y << shift) * srcRowStride;
+            int d = dstOffset + (y - rowStart) * dstRowStride;
+            for (int x = 0; x < width; x++) {
+                final int sx = s0 + x * step;
+                int sum = 0;
+                for (int j = 0; j < factor; j++) {
+                    int s = sx + j * srcRowStride;
+                    for (int i = 0; i < factor; i++) {
+                        sum += src[s] & 0xFF;
+                        s += srcPixelStride;
+                    }
+                }
+                dst[d++] = (byte) ((sum + round) >> (2 * shift));
+            }
+        }
+    }
+
+    /**
+     * 双线性插值，按像素中心对齐：输出像素 x 对应源坐标 (x + 0.5) * srcWidth / dstWidth - 0.5，边缘像素向内收敛。
+     */
+    private static void bilinearRows(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride, int srcWidth, int srcHeight,
+            byte[] dst, int dstOffset, int dstRowStride, int dstWidth, int dstHeight,
+            int rowStart, int rowEnd
+    ) {
+        final int dx = (int) (((long) srcWidth << SHIFT) / dstWidth);
+        final int dy = (int) (((long) srcHeight << SHIFT) / dstHeight);
+        final int x0 = (dx >> 1) - (1 << (SHIFT - 1));
+        final int y0 = (dy >> 1) - (1 << (SHIFT - 1));
+        final int maxX = srcWidth - 1;
+        final int maxY = srcHeight - 1;
+
+        // 每列的左、右源像素偏移和权重对所有行都相同，先算好。
+        final int[] columns = columns(dstWidth * 3);
+        for (int x = 0, fx = x0; x < dstWidth; x++, fx += dx) {
+            final int cx = Math.max(0, fx);
+            final int left = Math.min(cx >> SHIFT, maxX);
+            columns[3 * x] = left * srcPixelStride;
+            columns[3 * x + 1] = Math.min(left + 1, maxX) * srcPixelStride;
+            columns[3 * x + 2] = (cx >> (SHIFT - 8)) & 0xFF;
+        }
+
+        for (int y = rowStart; y < rowEnd; y++) {
+            final int fy = Math.max(0, y0 + y * dy);
+            final int top = Math.min(fy >> SHIFT, maxY);
+            final int bottom = Math.min(top + 1, maxY);
+            // 权重取 8 位，乘积不会超过 int。
+            final int wy = (fy >> (SHIFT - 8)) & 0xFF;
+            final int r0 = srcOffset + top * srcRowStride;
+            final int r1 = srcOffset + bottom * srcRowStride;
+            int d = dstOffset + (y - rowStart) * dstRowStride;
+            for (int c = 0, end = dstWidth * 3; c < end; c += 3) {
+                final int sl = columns[c];
+                final int sr = columns[c + 1];
+                final int wx = columns[c + 2];
+                final int t = (src[r0 + sl] & 0xFF) * (256 - wx) + (src[r0 + sr] & 0xFF) * wx;
+                final int b = (src[r1 + sl] & 0xFF) * (256 - wx) + (src[r1 + sr] & 0xFF) * wx;
+                dst[d++] = (byte) ((t * (256 - wy) + b * wy + (1 << 15)) >> 16);
+            }
+        }
+    }
+
+    private static int[] columns(int size) {
+        int[] columns = COLUMNS.get();
+        if (columns == null || columns.length < size) {
+            columns = new int[size];
+            COLUMNS.set(columns);
+        }
+        return columns;
+    }
+
+}
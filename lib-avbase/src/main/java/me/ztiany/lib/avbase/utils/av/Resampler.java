@@ -0,0 +1,323 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.util.Arrays;
+
+/**
+ * 流式的多相（polyphase）采样率转换，输入、输出均为声道交错的 float 采样。
+ * <p>
+ * 转换比例约分为 L/M（例如 48000 → 44100 为 147/160），每个输出采样对应输入上的一个位置：整数部分决定从哪个输入采样开始卷积，
+ * 小数部分（相位）决定使用哪一组滤波系数。各相位的系数（Kaiser 窗 sinc，低通截止频率取两个采样率中较低的一个）在构造时一次性算好，
+ * 之后每个输出采样只是 taps 次乘加。L 过大（两个采样率几乎互质）时相位数限制为 {@link #MAX_PHASES}，相位取最近的一组。
+ * </p>
+ * 采样率相同时直接拷贝。输入可以按任意大小分块传入，分块不影响结果；输出相对输入没有延迟（开头补了半个滤波器长度的 0），结束时调用 {@link #flush(float[])} 取出剩余的输出。
+ * 实例不是线程安全的。
+ */
+public final class Resampler {
+
+    /** 8 个抽头，适合实时场景。 */
+    public static final int QUALITY_FAST = 0;
+    /** 16 个抽头。 */
+    public static final int QUALITY_MEDIUM = 1;
+    /** 32 个抽头，适合离线处理。 */
+    public static final int QUALITY_HIGH = 2;
+
+    static final int MAX_PHASES = 1024;
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mChannelCount;
+
+    /** 约分后的转换比例 mUp / mDown：每个输出采样在输入上前进 mDown / mUp 帧。 */
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    private final int mPhases;
+    private final float[] mFilters;
+
+    /** 尚未用完的输入，声道交错，从 mBuffer[0] 开始。 */
+    private float[] mBuffer;
+    private int mBufferedFrames;
+    /** 下一个输出采样在 mBuffer 中的位置：整数帧 + mFraction / mUp。 */
+    private int mFraction;
+
+    public Resampler(int inputRate, int outputRate, int channelCount, int quality) {
+        if (inputRate <= 0 || outputRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("inputRate = " + inputRate + ", outputRate = " + outputRate + ", channelCount = " + channelCount);
+        }
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mChannelCount = channelCount;
+
+        final int gcd = gcd(inputRate, outputRate);
+        mUp = outputRate / gcd;
+        mDown = inputRate / gcd;
+
+        final double rolloff;
+        final double beta;
+        switch (quality) {
+            case QUALITY_FAST:
+                mTaps = 8;
+                rolloff = 0.85;
+                beta = 6;
+                break;
+            case QUALITY_HIGH:
+                mTaps = 32;
+                rolloff = 0.95;
+                beta = 10;
+                break;
+            default:
+                mTaps = 16;
+                rolloff = 0.9;
+                beta = 8;
+                break;
+        }
+        mPhases = Math.min(mUp, MAX_PHASES);
+        mFilters = buildFilters(mPhases, mTaps, Math.min(1.0, (double) outputRate / inputRate) * rolloff, beta);
+
+        // 开头补 taps / 2 - 1 帧 0，使第一个输出对齐第一个输入。
+        mBuffer = new float[(mTaps + 1024) * channelCount];
+        mBufferedFrames = mTaps / 2 - 1;
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 输入 inputFrames 帧时最多产生的输出帧数，用于分配输出数组（也适用于 {@link #flush(float[])}，此时传入 0）。
+     */
+    public int getMaxOutputFrames(int inputFrames) {
+        final long frames = (long) (mBufferedFrames + inputFrames + mTaps) * mUp / mDown + 1;
+        return (int) Math.min(Integer.MAX_VALUE, frames);
+    }
+
+    /**
+     * @param input  声道交错的输入。
+     * @param output 至少 {@link #getMaxOutputFrames(int)} 帧。
+     * @return 写入 output 的帧数。
+     */
+    public int process(float[] input, int inputFrames, float[] output) {
+        if (mUp == mDown) {
+            System.arraycopy(input, 0, output, 0, inputFrames * mChannelCount);
+            return inputFrames;
+        }
+        append(input, inputFrames);
+        return drain(output);
+    }
+
+    /**
+     * 输入结束：补 taps / 2 帧 0，把最后的输入也转换出来。之后可以继续 process 新的流。
+     */
+    public int flush(float[] output) {
+        if (mUp == mDown) {
+            return 0;
+        }
+        final float[] zeros = new float[(mTaps / 2) * mChannelCount];
+        append(zeros, mTaps / 2);
+        final int frames = drain(output);
+        reset();
+        return frames;
+    }
+
+    /** 丢弃缓存的输入，回到初始状态。 */
+    public void reset() {
+        Arrays.fill(mBuffer, 0f);
+        mBufferedFrames = mTaps / 2 - 1;
+        mFraction = 0;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 内部实现
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void append(float[] input, int frames) {
+        final int channels = mChannelCount;
+        final int needed = (mBufferedFrames + frames) * channels;
+        if (mBuffer.length < needed) {
+            final float[] grown = new float[Math.max(needed, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, grown, 0, mBufferedFrames * channels);
+            mBuffer = grown;
+        }
+        System.arraycopy(input, 0, mBuffer, mBufferedFrames * channels, frames * channels);
+        mBufferedFrames += frames;
+    }
+
+    private int drain(float[] output) {
+        final int channels = mChannelCount;
+        final int taps = mTaps;
+        final int up = mUp;
+        final int down = mDown;
+        final int phases = mPhases;
+        final float[] buffer = mBuffer;
+        final float[] filters = mFilters;
+
+        int frame = 0;
+        int fraction = mFraction;
+        int out = 0;
+        while (frame + taps <= mBufferedFrames) {
+            final int phase = phases == up ? fraction : nearestPhase(fraction, phases, up);
+            final int filter = phase * taps;
+            final int base = frame * channels;
+            if (channels == 2) {
+                float left = 0;
+                float right = 0;
+                for (int k = 0, s = base; k < taps; k++, s += 2) {
+                    final float h = filters[filter + k];
+                    left += buffer[s] * h;
+                    right += buffer[s + 1] * h;
+                }
+                output[out++] = left;
+                output[out++] = right;
+            } else {
+                for (int c = 0; c < channels; c++) {
+                    float sum = 0;
+                    for (int k = 0, s = base + c; k < taps; k++, s += channels) {
+                        sum += buffer[s] * filters[filter + k];
+                    }
+                    output[out++] = sum;
+                }
+            }
+            fraction += down;
+            frame += fraction / up;
+            fraction %= up;
+        }
+
+        // 把没有用完的输入移到开头。
+        final int consumed = Math.min(frame, mBufferedFrames);
+        final int remaining = mBufferedFrames - consumed;
+        System.arraycopy(buffer, consumed * channels, buffer, 0, remaining * channels);
+        mBufferedFrames = remaining;
+        mFraction = fraction;
+        return out / channels;
+    }
+
+    /**
+     * 相位 p 的第 k 个系数对应输入采样与输出位置的距离 t = taps / 2 - 1 - k + p / phases。
+     */
+    /** 位置 fraction / up 最近的相位，最后半个相位间隔也取最后一组，不进位到下一个输入帧。 */
+    static int nearestPhase(int fraction, int phases, int up) {
+        return (int) Math.min(((long) fraction * phases + up / 2) / up, phases - 1);
+    }
+
+    private static float[] buildFilters(int phases, int taps, double cutoff, double beta) {
+        final float[] filters = new float[phases * taps];
+        final double half = taps / 2.0;
+        final double i0Beta = besselI0(beta);
+        for (int p = 0; p < phases; p++) {
+            double sum = 0;
+            final double[] h = new double[taps];
+            for (int k = 0; k < taps; k++) {
+                final double t = taps / 2 - 1 - k + (double) p / phases;
+                final double x = Math.PI * cutoff * t;
+                final double sinc = t == 0 ? 1 : Math.sin(x) / x;
+                final double r = t / half;
+                final double window = Math.abs(r) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - r * r)) / i0Beta;
+                h[k] = cutoff * sinc * window;
+                sum += h[k];
+            }
+            // 每个相位单独归一化，保证直流增益为 1。
+            for (int k = 0; k < taps; k++) {
+                filters[p * taps + k] = (float) (h[k] / sum);
+            }
+        }
+        return filters;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        final double quarter = x * x / 4;
+        for (int k = 1; k < 50; k++) {
+            term *= quarter / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 声道转换
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 声道上混/下混：
+     * <ul>
+     *     <li>单声道 → 多声道：复制到每个声道。</li>
+     *     <li>多声道 → 单声道：取平均。</li>
+     *     <li>5.1（FL FR FC LFE BL BR）→ 立体声：L = FL + 0.707 FC + 0.707 BL，R 同理，再整体乘以 1 / (1 + 0.707 * 2)，丢弃 LFE。</li>
+     *     <li>其他情况：输出声道 c 取所有 j % outputChannels == c 的输入声道的平均值；上混时多出的声道重复已有的声道。</li>
+     * </ul>
+     * in 与 out 不能是同一个数组。
+     */
+    public static void remix(float[] in, int inputChannels, float[] out, int outputChannels, int frames) {
+        if (inputChannels == outputChannels) {
+            System.arraycopy(in, 0, out, 0, frames * inputChannels);
+        } else if (inputChannels == 1) {
+            for (int f = 0, o = 0; f < frames; f++) {
+                final float x = in[f];
+                for (int c = 0; c < outputChannels; c++) {
+                    out[o++] = x;
+                }
+            }
+        } else if (outputChannels == 1) {
+            final float scale = 1f / inputChannels;
+            for (int f = 0, i = 0; f < frames; f++) {
+                float sum = 0;
+                for (int c = 0; c < inputChannels; c++) {
+                    sum += in[i++];
+                }
+                out[f] = sum * scale;
+            }
+        } else if (inputChannels == 6 && outputChannels == 2) {
+            final float side = 0.70710677f;
+            final float scale = 1f / (1f + 2 * side);
+            for (int f = 0, i = 0, o = 0; f < frames; f++, i += 6) {
+                final float center = in[i + 2] * side;
+                out[o++] = (in[i] + center + in[i + 4] * side) * scale;
+                out[o++] = (in[i + 1] + center + in[i + 5] * side) * scale;
+            }
+        } else if (inputChannels > outputChannels) {
+            for (int f = 0; f < frames; f++) {
+                final int i = f * inputChannels;
+                final int o = f * outputChannels;
+                for (int c = 0; c < outputChannels; c++) {
+                    float sum = 0;
+                    int count = 0;
+                    for (int j = c; j < inputChannels; j += outputChannels) {
+                        sum += in[i + j];
+                        count++;
+                    }
+                    out[o + c] = sum / count;
+                }
+            }
+        } else {
+            for (int f = 0; f < frames; f++) {
+                final int i = f * inputChannels;
+                final int o = f * outputChannels;
+                for (int c = 0; c < outputChannels; c++) {
+                    out[o + c] = in[i + c % inputChannels];
+                }
+            }
+        }
+    }
+
+}
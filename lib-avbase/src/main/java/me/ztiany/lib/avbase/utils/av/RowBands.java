@@ -0,0 +1,177 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把一个平面按行切成若干条带，交给共享的 {@link ForkJoinPool} 并行处理，供 {@link YUVUtils} 的各个转换使用。
+ * <p>
+ * 线程池是全局共享、可复用的，线程数由 {@link #setParallelism(int)} 控制；默认为 1，即不开启并行。
+ * 小于 {@link #setThreshold(int)} 像素的平面始终串行处理，避免线程调度的开销超过转换本身。
+ * </p>
+ * 修改线程数时新的线程池通过 volatile 字段发布，旧的线程池等正在使用它的 {@link #run} 全部返回后才关闭，
+ * 其他线程中正在进行的转换不会因此失败。
+ */
+final class RowBands {
+
+    interface Task {
+
+        /** 处理 [rowStart, rowEnd) 行，不同条带写入的目标区域互不重叠。 */
+        void run(int rowStart, int rowEnd);
+
+    }
+
+    /** 条带的最小行数，与分块旋转的块大小一致，保证每个条带内的块都是完整的。 */
+    private static final int MIN_BAND_ROWS = PlaneRotator.TILE;
+
+    private static volatile int sParallelism = 1;
+
+    /** 默认约为 VGA 的亮度平面大小。 */
+    private static volatile int sThreshold = 640 * 480;
+
+    private static volatile Pool sPool;
+
+    private RowBands() {
+        throw new UnsupportedOperationException();
+    }
+
+    static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1");
+        }
+        if (threads == sParallelism) {
+            return;
+        }
+        sParallelism = threads;
+        final Pool old = sPool;
+        sPool = null;
+        if (old != null) {
+            old.retire();
+        }
+    }
+
+    static int getParallelism() {
+        return sParallelism;
+    }
+
+    static void setThreshold(int pixels) {
+        sThreshold = pixels;
+    }
+
+    static int getThreshold() {
+        return sThreshold;
+    }
+
+    static void run(int width, int height, Task task) {
+        final int parallelism = sParallelism;
+        if (parallelism <= 1 || (long) width * height < sThreshold || height < 2 * MIN_BAND_ROWS) {
+            task.run(0, height);
+            return;
+        }
+        // 每个线程大约分到两个条带，条带行数向上取整到块大小的整数倍。
+        final int bands = parallelism * 2;
+        int bandRows = (height + bands - 1) / bands;
+        bandRows = (bandRows + MIN_BAND_ROWS - 1) / MIN_BAND_ROWS * MIN_BAND_ROWS;
+        final Pool pool = acquire();
+        try {
+            pool.mPool.invoke(new Band(task, 0, height, bandRows));
+        } finally {
+            pool.release();
+        }
+    }
+
+    /** 返回当前的线程池并登记一个使用者，之后必须调用 {@link Pool#release()}。 */
+    private static Pool acquire() {
+        while (true) {
+            Pool pool = sPool;
+            if (pool == null) {
+                synchronized (RowBands.class) {
+                    pool = sPool;
+                    if (pool == null) {
+                        pool = new Pool(new ForkJoinPool(sParallelism, new WorkerFactory(), null, false));
+                        sPool = pool;
+                    }
+                }
+            }
+            pool.mUsers.incrementAndGet();
+            // 登记之前已经被替换的线程池可能已经关闭，换用新的线程池。
+            if (!pool.mRetired) {
+                return pool;
+            }
+            pool.release();
+        }
+    }
+
+    /** 线程池与正在使用它的 {@link #run} 的个数。 */
+    private static final class Pool {
+
+        private final ForkJoinPool mPool;
+        private final AtomicInteger mUsers = new AtomicInteger();
+        private volatile boolean mRetired;
+
+        Pool(ForkJoinPool pool) {
+            mPool = pool;
+        }
+
+        /** 先标记再检查使用者，与 {@link #acquire()} 中先登记再检查标记的顺序相反，保证最后一个使用者一定会关闭线程池。 */
+        void retire() {
+            mRetired = true;
+            if (mUsers.get() == 0) {
+                mPool.shutdown();
+            }
+        }
+
+        void release() {
+            if (mUsers.decrementAndGet() == 0 && mRetired) {
+                mPool.shutdown();
+            }
+        }
+    }
+
+    private static final class Band extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Task task;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int bandRows;
+
+        Band(Task task, int rowStart, int rowEnd, int bandRows) {
+            this.task = task;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            final int rows = rowEnd - rowStart;
+            if (rows <= bandRows) {
+                task.run(rowStart, rowEnd);
+                return;
+            }
+            // 从条带边界处一分为二。
+            final int half = (rows / bandRows + 1) / 2 * bandRows;
+            invokeAll(
+                    new Band(task, rowStart, rowStart + half, bandRows),
+                    new Band(task, rowStart + half, rowEnd, bandRows)
+            );
+        }
+    }
+
+    private static final class WorkerFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("yuv-worker-" + mCount.incrementAndGet());
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.projection.MediaProjection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import timber.log.Timber;
+
+/**
+ * 屏幕共享的抽帧控制：画面静止时丢弃编码器输出的非关键帧，画面变化时恢复发送，到了保活时间时请求一个关键帧发送。
+ * <p>
+ * 编码器的输入 Surface 上拿不到像素，所以从同一个 MediaProjection 再创建一个 1/4 尺寸的 VirtualDisplay 输出到 ImageReader（RGBA_8888），
+ * 用 {@link FrameChangeDetector} 检测回读的画面，检测结果交给 {@link PacketGate}，由编码器的输出线程调用
+ * {@link #shouldSend(MediaCodec.BufferInfo)} 决定每个包是否发送。
+ * </p>
+ * 编码器一直工作，不会暂停：回读的检测结果总是晚于同一次合成的帧到达编码器，如果在输入端暂停编码器，
+ * 只变化一次的画面会在恢复之前就被丢弃，之后恢复、保活编码的都是旧画面。在输出端过滤时，变化的帧已经被编码，
+ * 即使它的包因为检测结果还没到达而被丢弃，之后请求的关键帧也包含这个画面。这样节省的是带宽，编码器的开销不变。
+ * <p>
+ * 画面静止时 VirtualDisplay 不再产生新帧，编码器需要配置 {@link MediaFormat#KEY_REPEAT_PREVIOUS_FRAME_AFTER}（{@link #REPEAT_PREVIOUS_FRAME_AFTER_US}），
+ * 重复最后一帧，请求的关键帧才会被编码、输出。
+ * </p>
+ */
+public final class ScreenChangeGate {
+
+    /** 配置给编码器的 {@link MediaFormat#KEY_REPEAT_PREVIOUS_FRAME_AFTER}，单位为微秒。 */
+    public static final long REPEAT_PREVIOUS_FRAME_AFTER_US = 100_000;
+
+    /** 回读画面相对编码尺寸的缩小倍数。 */
+    private static final int READBACK_SCALE = 4;
+
+    /** 检测到变化后继续发送的时间：覆盖回读与编码输出之间的时差，再让编码器重复几帧，把静止画面的质量补上来。 */
+    private static final long HOLD_MS = 4 * REPEAT_PREVIOUS_FRAME_AFTER_US / 1000;
+
+    private final PacketGate mGate;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ImageReader mImageReader;
+    private VirtualDisplay mVirtualDisplay;
+    private FrameChangeDetector mDetector;
+
+    private long mDetectNanos;
+    private long mFrames;
+
+    /**
+     * @param encoder             以 Surface 为输入的编码器，用于请求关键帧。
+     * @param keepAliveIntervalMs 画面静止时两次发送的最大间隔。
+     */
+    public ScreenChangeGate(@NonNull MediaCodec encoder, long keepAliveIntervalMs) {
+        mGate = new PacketGate(() -> requestSyncFrame(encoder), keepAliveIntervalMs, HOLD_MS);
+    }
+
+    /**
+     * @param width  编码（共享）画面的宽度。
+     * @param height 编码（共享）画面的高度。
+     * @return 是否开始检测。无法创建回读的 VirtualDisplay 时返回 false，此时所有的包都发送。
+     */
+    public synchronized boolean start(@NonNull MediaProjection projection, int width, int height) {
+        if (mThread != null) {
+            return true;
+        }
+        final int readbackWidth = Math.max(16, width / READBACK_SCALE);
+        final int readbackHeight = Math.max(16, height / READBACK_SCALE);
+
+        mThread = new HandlerThread("screen-change-gate");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mDetector = new FrameChangeDetector(readbackWidth, readbackHeight, 1, 16, 8, 1);
+        mImageReader = ImageReader.newInstance(readbackWidth, readbackHeight, PixelFormat.RGBA_8888, 2);
+        mImageReader.setOnImageAvailableListener(this::onImageAvailable, mHandler);
+
+        try {
+            mVirtualDisplay = projection.createVirtualDisplay(
+                    "screen-change-gate",
+                    readbackWidth, readbackHeight,
+                    1,
+                    DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC,
+                    mImageReader.getSurface(),
+                    null,
+                    null
+            );
+        } catch (RuntimeException e) {
+            // Android 14 起同一个 MediaProjection 只能创建一个 VirtualDisplay，部分更早的系统也不允许。
+            Timber.e(e, "ScreenChangeGate: failed to create the readback display, static frames will be sent as usual.");
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        Timber.d("ScreenChangeGate stopped: %s, average detection %d us.", mGate, mFrames == 0 ? 0 : mDetectNanos / mFrames / 1000);
+        release();
+        mGate.open(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 在编码器的输出线程中对每个输出的包调用，编解码器配置总是发送。
+     *
+     * @return 是否发送这个包，返回 false 时直接 releaseOutputBuffer。
+     */
+    public boolean shouldSend(@NonNull MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            return true;
+        }
+        return mGate.shouldSend((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0, SystemClock.elapsedRealtime());
+    }
+
+    private void release() {
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (mHandler != null) {
+            mHandler.removeCallbacksAndMessages(null);
+            mHandler = null;
+        }
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+        }
+    }
+
+    private synchronized void onImageAvailable(ImageReader reader) {
+        if (reader != mImageReader) {
+            return;
+        }
+        final Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        final boolean changed;
+        try {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final Image.Plane plane = image.getPlanes()[0];
+            changed = mDetector.updateRGBA(plane.getBuffer(), plane.getRowStride());
+            mDetectNanos += SystemClock.elapsedRealtimeNanos() - start;
+            mFrames++;
+        } finally {
+            image.close();
+        }
+        mGate.onReadback(changed, SystemClock.elapsedRealtime());
+    }
+
+    private static void requestSyncFrame(MediaCodec encoder) {
+        final Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            encoder.setParameters(params);
+        } catch (IllegalStateException e) {
+            // 编码器还没有 start 或者已经 release。
+            Timber.w(e, "ScreenChangeGate: failed to request a sync frame.");
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+@file:JvmName("VideoFormatEx")
+
+package me.ztiany.lib.avbase.utils.av
+
+import android.media.MediaCodecInfo.CodecProfileLevel
+import android.media.MediaFormat
+import timber.log.Timber
+import java.io.IOException
+import java.nio.ByteBuffer
+import kotlin.math.roundToInt
+
+private val START_CODE = byteArrayOf(0, 0, 0, 1)
+
+/**
+ * 由 H.264 的 SPS/PPS（从 NAL 头开始，不带起始码）创建解码器的 MediaFormat：分辨率、帧率、profile/level 取自 SPS，csd-0 为 SPS，csd-1 为 PPS。
+ */
+fun createAvcFormat(sps: ByteBuffer, pps: ByteBuffer): MediaFormat {
+    val parsed = H264ParameterSets.parseSps(sps)
+    Timber.d("createAvcFormat: %s", parsed)
+    return MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, parsed.width, parsed.height).apply {
+        setByteBuffer("csd-0", withStartCode(sps))
+        setByteBuffer("csd-1", withStartCode(pps))
+        if (parsed.frameRate > 0) {
+            setInteger(MediaFormat.KEY_FRAME_RATE, parsed.frameRate.roundToInt())
+        }
+        setProfileLevel(avcProfile(parsed.profileIdc), avcLevel(parsed))
+    }
+}
+
+/**
+ * 由 H.265 的 VPS/SPS/PPS（从 NAL 头开始，不带起始码）创建解码器的 MediaFormat，csd-0 为带起始码的 VPS、SPS、PPS。
+ * 分辨率、帧率、profile/tier/level 取自 SPS。
+ */
+fun createHevcFormat(vps: ByteBuffer, sps: ByteBuffer, pps: ByteBuffer): MediaFormat {
+    val parsed = H265ParameterSets.parseSps(sps)
+    Timber.d("createHevcFormat: %s", parsed)
+    return MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, parsed.width, parsed.height).apply {
+        setByteBuffer("csd-0", withStartCode(vps, sps, pps))
+        if (parsed.frameRate > 0) {
+            setInteger(MediaFormat.KEY_FRAME_RATE, parsed.frameRate.roundToInt())
+        }
+        setProfileLevel(hevcProfile(parsed.profileIdc), hevcLevel(parsed.levelIdc, parsed.isHighTier))
+    }
+}
+
+/**
+ * 从 Annex-B 数据的前 maxNalCount 个 NAL 中找到 SPS/PPS 并创建 MediaFormat，找不到时返回 null。
+ */
+@Throws(IOException::class)
+fun readAvcFormat(scanner: AnnexBScanner, maxNalCount: Int): MediaFormat? {
+    var sps: ByteBuffer? = null
+    var pps: ByteBuffer? = null
+    while ((sps == null || pps == null) && scanner.nalCount < maxNalCount && scanner.next()) {
+        when (scanner.h264NalType) {
+            H264ParameterSets.NAL_SPS -> sps = sps ?: copy(scanner.nal)
+            H264ParameterSets.NAL_PPS -> pps = pps ?: copy(scanner.nal)
+        }
+    }
+    return if (sps != null && pps != null) createAvcFormat(sps, pps) else null
+}
+
+/**
+ * 从 Annex-B 数据的前 maxNalCount 个 NAL 中找到 VPS/SPS/PPS 并创建 MediaFormat，找不到时返回 null。
+ */
+@Throws(IOException::class)
+fun readHevcFormat(scanner: AnnexBScanner, maxNalCount: Int): MediaFormat? {
+    var vps: ByteBuffer? = null
+    var sps: ByteBuffer? = null
+    var pps: ByteBuffer? = null
+    while ((vps == null || sps == null || pps == null) && scanner.nalCount < maxNalCount && scanner.next()) {
+        when (scanner.h265NalType) {
+            H265ParameterSets.NAL_VPS -> vps = vps ?: copy(scanner.nal)
+            H265ParameterSets.NAL_SPS -> sps = sps ?: copy(scanner.nal)
+            H265ParameterSets.NAL_PPS -> pps = pps ?: copy(scanner.nal)
+        }
+    }
+    return if (vps != null && sps != null && pps != null) createHevcFormat(vps, sps, pps) else null
+}
+
+/** 解码器用 KEY_PROFILE/KEY_LEVEL 提前判断能否解码；无法映射时（值为 0）不设置，由解码器自己从 csd 中解析。 */
+private fun MediaFormat.setProfileLevel(profile: Int, level: Int) {
+    if (profile != 0 && level != 0) {
+        setInteger(MediaFormat.KEY_PROFILE, profile)
+        setInteger(MediaFormat.KEY_LEVEL, level)
+    }
+}
+
+/** H.264 profile_idc 对应的 CodecProfileLevel.AVCProfile*。 */
+private fun avcProfile(profileIdc: Int): Int = when (profileIdc) {
+    H264ParameterSets.PROFILE_BASELINE -> CodecProfileLevel.AVCProfileBaseline
+    H264ParameterSets.PROFILE_MAIN -> CodecProfileLevel.AVCProfileMain
+    88 -> CodecProfileLevel.AVCProfileExtended
+    H264ParameterSets.PROFILE_HIGH -> CodecProfileLevel.AVCProfileHigh
+    110 -> CodecProfileLevel.AVCProfileHigh10
+    122 -> CodecProfileLevel.AVCProfileHigh422
+    244 -> CodecProfileLevel.AVCProfileHigh444
+    else -> 0
+}
+
+/** H.264 level_idc 对应的 CodecProfileLevel.AVCLevel*，level 1b 为 level_idc 11 加上 constraint_set3_flag（Baseline/Main/Extended）或者 level_idc 9。 */
+private fun avcLevel(sps: H264ParameterSets.Sps): Int {
+    val constraintSet3 = (sps.constraintFlags and 0x10) != 0
+    val level1b = sps.profileIdc == H264ParameterSets.PROFILE_BASELINE || sps.profileIdc == H264ParameterSets.PROFILE_MAIN || sps.profileIdc == 88
+    return when (sps.levelIdc) {
+        9 -> CodecProfileLevel.AVCLevel1b
+        10 -> CodecProfileLevel.AVCLevel1
+        11 -> if (constraintSet3 && level1b) CodecProfileLevel.AVCLevel1b else CodecProfileLevel.AVCLevel11
+        12 -> CodecProfileLevel.AVCLevel12
+        13 -> CodecProfileLevel.AVCLevel13
+        20 -> CodecProfileLevel.AVCLevel2
+        21 -> CodecProfileLevel.AVCLevel21
+        22 -> CodecProfileLevel.AVCLevel22
+        30 -> CodecProfileLevel.AVCLevel3
+        31 -> CodecProfileLevel.AVCLevel31
+        32 -> CodecProfileLevel.AVCLevel32
+        40 -> CodecProfileLevel.AVCLevel4
+        41 -> CodecProfileLevel.AVCLevel41
+        42 -> CodecProfileLevel.AVCLevel42
+        50 -> CodecProfileLevel.AVCLevel5
+        51 -> CodecProfileLevel.AVCLevel51
+        52 -> CodecProfileLevel.AVCLevel52
+        60 -> CodecProfileLevel.AVCLevel6
+        61 -> CodecProfileLevel.AVCLevel61
+        62 -> CodecProfileLevel.AVCLevel62
+        else -> 0
+    }
+}
+
+/** H.265 general_profile_idc 对应的 CodecProfileLevel.HEVCProfile*。 */
+private fun hevcProfile(profileIdc: Int): Int = when (profileIdc) {
+    H265ParameterSets.PROFILE_MAIN -> CodecProfileLevel.HEVCProfileMain
+    H265ParameterSets.PROFILE_MAIN_10 -> CodecProfileLevel.HEVCProfileMain10
+    3 -> CodecProfileLevel.HEVCProfileMainStill
+    else -> 0
+}
+
+/** H.265 general_level_idc（level 的 30 倍）与 tier 对应的 CodecProfileLevel.HEVC*TierLevel*。 */
+private fun hevcLevel(levelIdc: Int, highTier: Boolean): Int = when (levelIdc) {
+    30 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel1 else CodecProfileLevel.HEVCMainTierLevel1
+    60 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel2 else CodecProfileLevel.HEVCMainTierLevel2
+    63 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel21 else CodecProfileLevel.HEVCMainTierLevel21
+    90 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel3 else CodecProfileLevel.HEVCMainTierLevel3
+    93 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel31 else CodecProfileLevel.HEVCMainTierLevel31
+    120 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel4 else CodecProfileLevel.HEVCMainTierLevel4
+    123 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel41 else CodecProfileLevel.HEVCMainTierLevel41
+    150 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel5 else CodecProfileLevel.HEVCMainTierLevel5
+    153 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel51 else CodecProfileLevel.HEVCMainTierLevel51
+    156 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel52 else CodecProfileLevel.HEVCMainTierLevel52
+    180 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel6 else CodecProfileLevel.HEVCMainTierLevel6
+    183 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel61 else CodecProfileLevel.HEVCMainTierLevel61
+    186 -> if (highTier) CodecProfileLevel.HEVCHighTierLevel62 else CodecProfileLevel.HEVCMainTierLevel62
+    else -> 0
+}
+
+/** scanner 返回的视图只在下一次 next 之前有效，参数集需要拷贝出来。 */
+private fun copy(nal: ByteBuffer): ByteBuffer {
+    val copy = ByteBuffer.allocate(nal.remaining())
+    copy.put(nal.duplicate()).flip()
+    return copy
+}
+
+private fun withStartCode(vararg nals: ByteBuffer): ByteBuffer {
+    val csd = ByteBuffer.allocate(nals.sumOf { START_CODE.size + it.remaining() })
+    for (nal in nals) {
+        csd.put(START_CODE).put(nal.duplicate())
+    }
+    csd.flip()
+    return csd
+}
@@ -0,0 +1,490 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于内存映射的 wav 读取器：按 chunk 解析文件头，把 data chunk 映射到内存，打开大文件只需要 O(1) 的堆内存，seek 只是修改位置。
+ * <p>
+ * 支持：
+ * <ul>
+ *     <li>RIFF 与 RF64（ds64）文件头，以及 fmt 之外的 LIST、fact、JUNK 等任意 chunk（LIST/INFO 中的文本会被读出）。</li>
+ *     <li>整数 PCM（8/16/24/32 位）、IEEE float（32/64 位），以及 WAVE_FORMAT_EXTENSIBLE 中的这两种子格式。</li>
+ * </ul>
+ * data 的大小为 0、0xFFFFFFFF 或者超出文件长度时，视为录制中断、没有回填大小的文件（例如 {@link WavWriter} 写入的初始文件头），
+ * 以文件的剩余长度作为 data 的大小；所以 data 之后还有其他 chunk 的空 data 不受支持。
+ * data 不超过 2GB 时整体映射，可以通过 {@link #getData()}、{@link #asShortBuffer()}、{@link #asFloatBuffer()} 直接访问；
+ * 超过 2GB 时 {@link #read(ByteBuffer)} 等顺序读取的方法按窗口映射。
+ * </p>
+ * 读取位置相关的方法不是线程安全的。
+ */
+public final class WavReader implements Closeable {
+
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    /** data 超过 2GB 时每次映射的大小。 */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+
+    private int mFormat;
+    private int mChannelCount;
+    private int mSampleRate;
+    private int mBlockAlign;
+    private int mBitsPerSample;
+    private int mValidBitsPerSample;
+    private int mChannelMask;
+    private long mFactSampleLength = -1;
+    private final Map<String, String> mInfo = new LinkedHashMap<>();
+
+    private long mDataOffset = -1;
+    private long mDataSize;
+
+    /** 整个 data 的映射，超过 2GB 时为 null。 */
+    private ByteBuffer mData;
+    /** 超过 2GB 时当前映射的窗口。 */
+    private ByteBuffer mWindow;
+    private long mWindowStart;
+
+    /** 读取位置，相对于 data 的起点，按 blockAlign 对齐。 */
+    private long mPosition;
+
+    public WavReader(File file) throws IOException {
+        this(new RandomAccessFile(file, "r"));
+    }
+
+    /**
+     * 例如 ContentResolver.openFileDescriptor() 得到的 FileInputStream 的 channel，close 时会被关闭。
+     */
+    public WavReader(FileChannel channel) throws IOException {
+        mFile = null;
+        mChannel = channel;
+        init();
+    }
+
+    private WavReader(RandomAccessFile file) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        init();
+    }
+
+    private void init() throws IOException {
+        try {
+            parse();
+            if (mDataSize <= Integer.MAX_VALUE) {
+                mData = map(mDataOffset, mDataSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 解析
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void parse() throws IOException {
+        final long fileSize = mChannel.size();
+        final ByteBuffer header = readAt(0, 12);
+        final String riff = fourCC(header, 0);
+        final boolean rf64 = "RF64".equals(riff);
+        if (!rf64 && !"RIFF".equals(riff) || !"WAVE".equals(fourCC(header, 8))) {
+            throw new IOException("Not a wav file: " + riff);
+        }
+
+        long ds64DataSize = -1;
+        boolean hasFormat = false;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer chunkHeader = readAt(position, 8);
+            final String id = fourCC(chunkHeader, 0);
+            long size = chunkHeader.getInt(4) & MAX_UINT32;
+            final long body = position + 8;
+
+            switch (id) {
+                case "ds64": {
+                    // riffSize、dataSize、sampleCount 各 8 字节，之后的 table 不需要。
+                    if (size < 24) {
+                        throw new IOException("Invalid ds64 chunk size: " + size);
+                    }
+                    final ByteBuffer ds64 = readAt(body, 24);
+                    ds64DataSize = ds64.getLong(8);
+                    mFactSampleLength = ds64.getLong(16);
+                    break;
+                }
+                case "fmt ":
+                    parseFormat(readAt(body, (int) Math.min(size, 64)), (int) size);
+                    hasFormat = true;
+                    break;
+                case "fact":
+                    if (size >= 4 && mFactSampleLength < 0) {
+                        mFactSampleLength = readAt(body, 4).getInt(0) & MAX_UINT32;
+                    }
+                    break;
+                case "LIST":
+                    if (size >= 4 && size <= 64 * 1024) {
+                        parseList(readAt(body, (int) size));
+                    }
+                    break;
+                case "data":
+                    if (rf64 && size == MAX_UINT32 && ds64DataSize >= 0) {
+                        size = ds64DataSize;
+                    }
+                    // 录制中断的文件大小可能没有回填，以实际的文件长度为准。
+                    if (size == 0 || size == MAX_UINT32 || body + size > fileSize) {
+                        size = fileSize - body;
+                    }
+                    mDataOffset = body;
+                    mDataSize = size;
+                    break;
+                default:
+                    break;
+            }
+            if (mDataOffset >= 0 && hasFormat) {
+                break;
+            }
+            // chunk 按 2 字节对齐。
+            position = body + size + (size & 1);
+        }
+
+        if (!hasFormat) {
+            throw new IOException("Missing fmt chunk");
+        }
+        if (mDataOffset < 0) {
+            throw new IOException("Missing data chunk");
+        }
+        mDataSize -= mDataSize % mBlockAlign;
+    }
+
+    private void parseFormat(ByteBuffer fmt, int size) throws IOException {
+        if (size < 16) {
+            throw new IOException("Invalid fmt chunk size: " + size);
+        }
+        int format = fmt.getShort(0) & 0xFFFF;
+        mChannelCount = fmt.getShort(2) & 0xFFFF;
+        mSampleRate = fmt.getInt(4);
+        mBlockAlign = fmt.getShort(12) & 0xFFFF;
+        mBitsPerSample = fmt.getShort(14) & 0xFFFF;
+        mValidBitsPerSample = mBitsPerSample;
+
+        if (format == FORMAT_EXTENSIBLE) {
+            if (size < 40) {
+                throw new IOException("Invalid WAVE_FORMAT_EXTENSIBLE fmt chunk size: " + size);
+            }
+            final int validBits = fmt.getShort(18) & 0xFFFF;
+            if (validBits != 0) {
+                mValidBitsPerSample = validBits;
+            }
+            mChannelMask = fmt.getInt(20);
+            // SubFormat GUID 的前两个字节就是对应的格式编号。
+            format = fmt.getShort(24) & 0xFFFF;
+        }
+
+        final boolean pcm = format == FORMAT_PCM && mBitsPerSample >= 8 && mBitsPerSample <= 32 && mBitsPerSample % 8 == 0;
+        final boolean floating = format == FORMAT_IEEE_FLOAT && (mBitsPerSample == 32 || mBitsPerSample == 64);
+        if (!pcm && !floating) {
+            throw new IOException("Unsupported format " + format + " with " + mBitsPerSample + " bits");
+        }
+        if (mChannelCount <= 0 || mSampleRate <= 0 || mBlockAlign != mChannelCount * mBitsPerSample / 8) {
+            throw new IOException("Invalid fmt chunk: channels = " + mChannelCount + ", sampleRate = " + mSampleRate + ", blockAlign = " + mBlockAlign);
+        }
+        mFormat = format;
+    }
+
+    private void parseList(ByteBuffer list) {
+        if (!"INFO".equals(fourCC(list, 0))) {
+            return;
+        }
+        int position = 4;
+        while (position + 8 <= list.limit()) {
+            final String id = fourCC(list, position);
+            final int size = list.getInt(position + 4);
+            if (size < 0 || position + 8 + size > list.limit()) {
+                return;
+            }
+            int length = size;
+            // 文本以 '\0' 结尾。
+            while (length > 0 && list.get(position + 8 + length - 1) == 0) {
+                length--;
+            }
+            final byte[] text = new byte[length];
+            for (int i = 0; i < length; i++) {
+                text[i] = list.get(position + 8 + i);
+            }
+            mInfo.put(id, new String(text, StandardCharsets.UTF_8));
+            position += 8 + size + (size & 1);
+        }
+    }
+
+    private ByteBuffer readAt(long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String fourCC(ByteBuffer buffer, int index) {
+        final char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(index + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private ByteBuffer map(long offset, long size) throws IOException {
+        final MappedByteBuffer mapped = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 格式
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** {@link #FORMAT_PCM} 或 {@link #FORMAT_IEEE_FLOAT}，WAVE_FORMAT_EXTENSIBLE 返回其子格式。 */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** 每个采样占用的位数（容器大小）。 */
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /** 有效位数，只有 WAVE_FORMAT_EXTENSIBLE 可能小于 {@link #getBitsPerSample()}。 */
+    public int getValidBitsPerSample() {
+        return mValidBitsPerSample;
+    }
+
+    /** 一帧（所有声道各一个采样）的字节数。 */
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    /** WAVE_FORMAT_EXTENSIBLE 中的声道掩码，其他格式为 0。 */
+    public int getChannelMask() {
+        return mChannelMask;
+    }
+
+    /** fact 或 ds64 中记录的采样帧数，没有时为 -1。 */
+    public long getFactSampleLength() {
+        return mFactSampleLength;
+    }
+
+    /** LIST/INFO 中的文本，例如 INAM（标题）、IART（作者）。 */
+    public Map<String, String> getInfo() {
+        return Collections.unmodifiableMap(mInfo);
+    }
+
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    public long getFrameCount() {
+        return mDataSize / mBlockAlign;
+    }
+
+    public long getDurationUs() {
+        return frameToUs(getFrameCount());
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 整体访问
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 整个 data chunk 的只读视图，字节序为 LITTLE_ENDIAN，每次调用返回新的视图。data 超过 2GB 时抛出 UnsupportedOperationException。
+     */
+    public ByteBuffer getData() {
+        if (mData == null) {
+            throw new UnsupportedOperationException("data chunk larger than 2GB: " + mDataSize);
+        }
+        return mData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** 16 位整数 PCM 的采样视图，声道交错。 */
+    public ShortBuffer asShortBuffer() {
+        if (mFormat != FORMAT_PCM || mBitsPerSample != 16) {
+            throw new IllegalStateException("not 16-bit PCM");
+        }
+        return getData().asShortBuffer();
+    }
+
+    /** 32 位 float 的采样视图，声道交错。 */
+    public FloatBuffer asFloatBuffer() {
+        if (mFormat != FORMAT_IEEE_FLOAT || mBitsPerSample != 32) {
+            throw new IllegalStateException("not 32-bit float");
+        }
+        return getData().asFloatBuffer();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 顺序读取
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 跳到 timeUs 所在的帧，超出范围时取边界。
+     */
+    public void seekToUs(long timeUs) {
+        final long frame = timeUs <= 0 ? 0 : timeUs * mSampleRate / 1000_000L;
+        seekToFrame(frame);
+    }
+
+    public void seekToFrame(long frame) {
+        mPosition = Math.max(0, Math.min(frame, getFrameCount())) * mBlockAlign;
+    }
+
+    public long getPositionUs() {
+        return frameToUs(mPosition / mBlockAlign);
+    }
+
+    public long getPositionFrame() {
+        return mPosition / mBlockAlign;
+    }
+
+    /**
+     * 从当前位置读取原始字节到 dst，只读取整帧，返回读取的字节数，到达末尾时返回 -1。
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        final long remaining = mDataSize - mPosition;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int length = (int) Math.min(remaining, dst.remaining());
+        length -= length % mBlockAlign;
+        if (length == 0) {
+            return 0;
+        }
+        final ByteBuffer source = slice(mPosition, length);
+        dst.put(source);
+        mPosition += length;
+        return length;
+    }
+
+    public int read(byte[] dst, int offset, int length) throws IOException {
+        return read(ByteBuffer.wrap(dst, offset, length));
+    }
+
+    /**
+     * 从当前位置读取最多 frames 帧，转换为 [-1, 1] 的 float（声道交错）写入 dst，返回读取的帧数，到达末尾时返回 -1。
+     * 适用于所有支持的格式，例如 24 位 PCM。
+     */
+    public int readFloats(float[] dst, int offset, int frames) throws IOException {
+        final long remainingFrames = (mDataSize - mPosition) / mBlockAlign;
+        if (remainingFrames <= 0) {
+            return -1;
+        }
+        frames = (int) Math.min(frames, remainingFrames);
+        final int samples = frames * mChannelCount;
+        final ByteBuffer source = slice(mPosition, frames * mBlockAlign);
+        final int base = source.position();
+        final int bytes = mBitsPerSample / 8;
+        for (int i = 0; i < samples; i++) {
+            dst[offset + i] = sampleToFloat(source, base + i * bytes);
+        }
+        mPosition += (long) frames * mBlockAlign;
+        return frames;
+    }
+
+    private float sampleToFloat(ByteBuffer source, int index) {
+        if (mFormat == FORMAT_IEEE_FLOAT) {
+            return mBitsPerSample == 32 ? source.getFloat(index) : (float) source.getDouble(index);
+        }
+        switch (mBitsPerSample) {
+            case 8:
+                // 8 位 PCM 是无符号的。
+                return ((source.get(index) & 0xFF) - 128) / 128f;
+            case 16:
+                return source.getShort(index) / 32768f;
+            case 24:
+                return ((source.get(index) & 0xFF) | (source.get(index + 1) & 0xFF) << 8 | source.get(index + 2) << 16) / 8388608f;
+            default:
+                return source.getInt(index) / 2147483648f;
+        }
+    }
+
+    /**
+     * 返回 data 中 [position, position + length) 的视图，position 为视图在返回的 buffer 中的起点。
+     */
+    private ByteBuffer slice(long position, int length) throws IOException {
+        ByteBuffer buffer = mData;
+        long start = 0;
+        if (buffer == null) {
+            if (mWindow == null || position < mWindowStart || position + length > mWindowStart + mWindow.capacity()) {
+                mWindowStart = position;
+                mWindow = map(mDataOffset + position, Math.min(Math.max(WINDOW_SIZE, length), mDataSize - position));
+            }
+            buffer = mWindow;
+            start = mWindowStart;
+        }
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int index = (int) (position - start);
+        view.limit(index + length).position(index);
+        return view;
+    }
+
+    private long frameToUs(long frame) {
+        return frame * 1000_000L / mSampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mData = null;
+        mWindow = null;
+        if (mFile != null) {
+            mFile.close();
+        } else {
+            mChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WavReader{" +
+                "format=" + mFormat +
+                ", channelCount=" + mChannelCount +
+                ", sampleRate=" + mSampleRate +
+                ", bitsPerSample=" + mBitsPerSample +
+                ", validBitsPerSample=" + mValidBitsPerSample +
+                ", channelMask=" + mChannelMask +
+                ", dataOffset=" + mDataOffset +
+                ", dataSize=" + mDataSize +
+                ", durationUs=" + getDurationUs() +
+                ", info=" + mInfo +
+                '}';
+    }
+
+}
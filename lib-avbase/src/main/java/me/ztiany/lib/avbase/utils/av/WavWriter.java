@@ -0,0 +1,250 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
+/**
+ * 边写边生成的 wav 文件：先写入大小为 0 的文件头，采样数据通过 FileChannel 直接追加到文件末尾，close 时回填 RIFF/data 的大小。
+ * 不需要先写 pcm 文件再整体拷贝一遍。
+ * <p>
+ * reserveRf64 为 true 时，在 fmt 之前预留一个 36 字节的 JUNK chunk（EBU Tech 3306 的做法）：
+ * 数据不超过 4GB 时它就是一个普通的填充 chunk，超过 4GB 时改写为 ds64，文件头改为 RF64，不需要移动数据。
+ * 为 false 时写入标准的 44 字节文件头，超过 4GB 时大小字段填 0xFFFFFFFF。
+ * </p>
+ * 实例不是线程安全的。
+ */
+public final class WavWriter implements Closeable {
+
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int DS64_CHUNK_SIZE = 8 + 28;
+    private static final int FMT_CHUNK_SIZE = 8 + 16;
+    private static final int DATA_CHUNK_HEADER_SIZE = 8;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+
+    private final int mFormat;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final int mBlockAlign;
+    private final boolean mReserveRf64;
+    private final int mHeaderSize;
+    /** 32 位大小字段能表示的最大值，测试时调小以验证切换到 RF64。 */
+    private final long mMaxChunkSize;
+
+    private final ByteBuffer mHeader;
+    private ByteBuffer mScratch;
+
+    private long mDataSize;
+    private boolean mClosed;
+
+    /**
+     * 写入整数 PCM，文件头为标准的 44 字节。
+     */
+    public WavWriter(File file, int sampleRate, int channelCount, int bitsPerSample) throws IOException {
+        this(file, FORMAT_PCM, sampleRate, channelCount, bitsPerSample, false);
+    }
+
+    /**
+     * @param format        {@link #FORMAT_PCM} 或 {@link #FORMAT_IEEE_FLOAT}（bitsPerSample 为 32）。
+     * @param bitsPerSample 8、16、24 或 32。
+     * @param reserveRf64   是否为超过 4GB 的情况预留 ds64 的空间。
+     */
+    public WavWriter(File file, int format, int sampleRate, int channelCount, int bitsPerSample, boolean reserveRf64) throws IOException {
+        this(file, format, sampleRate, channelCount, bitsPerSample, reserveRf64, MAX_UINT32);
+    }
+
+    WavWriter(File file, int format, int sampleRate, int channelCount, int bitsPerSample, boolean reserveRf64, long maxChunkSize) throws IOException {
+        if (format != FORMAT_PCM && format != FORMAT_IEEE_FLOAT) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        if (bitsPerSample % 8 != 0 || bitsPerSample <= 0 || bitsPerSample > 32 || (format == FORMAT_IEEE_FLOAT && bitsPerSample != 32)) {
+            throw new IllegalArgumentException("Unsupported bitsPerSample: " + bitsPerSample);
+        }
+        if (channelCount <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sampleRate/channelCount: " + sampleRate + "/" + channelCount);
+        }
+        mFormat = format;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mBlockAlign = channelCount * bitsPerSample / 8;
+        mReserveRf64 = reserveRf64;
+        mMaxChunkSize = maxChunkSize;
+        mHeaderSize = RIFF_HEADER_SIZE + (reserveRf64 ? DS64_CHUNK_SIZE : 0) + FMT_CHUNK_SIZE + DATA_CHUNK_HEADER_SIZE;
+        mHeader = ByteBuffer.allocate(mHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            mChannel.truncate(0);
+            writeHeader();
+            mChannel.position(mHeaderSize);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 写入
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * 写入 data 中剩余的所有字节（例如 MediaCodec 的输出缓冲区），data 的 position 会移动到 limit。
+     */
+    public void write(ByteBuffer data) throws IOException {
+        checkOpen();
+        final int length = data.remaining();
+        while (data.hasRemaining()) {
+            mChannel.write(data);
+        }
+        mDataSize += length;
+    }
+
+    /**
+     * 写入 16 位的采样，只能用于 bitsPerSample 为 16 的整数 PCM。
+     */
+    public void write(short[] samples, int offset, int length) throws IOException {
+        if (mFormat != FORMAT_PCM || mBitsPerSample != 16) {
+            throw new IllegalStateException("short samples require 16-bit PCM");
+        }
+        checkOpen();
+        final ByteBuffer scratch = scratch();
+        while (length > 0) {
+            final int count = Math.min(length, scratch.capacity() / 2);
+            scratch.clear();
+            scratch.asShortBuffer().put(samples, offset, count);
+            scratch.limit(count * 2);
+            write(scratch);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * 回填当前的大小，文件在此之后即可被正常读取。录制时可以定期调用，避免异常退出后得到一个大小为 0 的文件。
+     */
+    public void updateHeader() throws IOException {
+        checkOpen();
+        writeHeader();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            // chunk 需要按 2 字节对齐，填充字节不计入 data 的大小。
+            if ((mDataSize & 1) != 0) {
+                mChannel.write(ByteBuffer.allocate(1), mHeaderSize + mDataSize);
+            }
+            writeHeader();
+        } finally {
+            mClosed = true;
+            mFile.close();
+        }
+    }
+
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    public long getFrameCount() {
+        return mDataSize / mBlockAlign;
+    }
+
+    public long getDurationUs() {
+        return getFrameCount() * 1000_000L / mSampleRate;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 文件头
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void writeHeader() throws IOException {
+        final long paddedDataSize = mDataSize + (mDataSize & 1);
+        final long riffSize = mHeaderSize - 8 + paddedDataSize;
+        final boolean rf64 = riffSize > mMaxChunkSize;
+        if (rf64 && !mReserveRf64) {
+            Timber.w("WavWriter: data size %d exceeds 4GB, the size fields are saturated.", mDataSize);
+        }
+
+        final ByteBuffer header = mHeader;
+        header.clear();
+        putFourCC(header, rf64 && mReserveRf64 ? "RF64" : "RIFF");
+        header.putInt((int) (rf64 ? MAX_UINT32 : riffSize));
+        putFourCC(header, "WAVE");
+
+        if (mReserveRf64) {
+            putFourCC(header, rf64 ? "ds64" : "JUNK");
+            header.putInt(DS64_CHUNK_SIZE - 8);
+            if (rf64) {
+                header.putLong(riffSize);
+                header.putLong(mDataSize);
+                header.putLong(getFrameCount());
+                // table length
+                header.putInt(0);
+            } else {
+                header.put(new byte[DS64_CHUNK_SIZE - 8]);
+            }
+        }
+
+        putFourCC(header, "fmt ");
+        header.putInt(FMT_CHUNK_SIZE - 8);
+        header.putShort((short) mFormat);
+        header.putShort((short) mChannelCount);
+        header.putInt(mSampleRate);
+        header.putInt(mSampleRate * mBlockAlign);
+        header.putShort((short) mBlockAlign);
+        header.putShort((short) mBitsPerSample);
+
+        putFourCC(header, "data");
+        // RF64 中 data 的大小固定为 -1，以 ds64 为准。
+        header.putInt((int) (rf64 && mReserveRf64 || mDataSize > mMaxChunkSize ? MAX_UINT32 : mDataSize));
+
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += mChannel.write(header, position);
+        }
+    }
+
+    private static void putFourCC(ByteBuffer buffer, String fourCC) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) fourCC.charAt(i));
+        }
+    }
+
+    private ByteBuffer scratch() {
+        if (mScratch == null) {
+            mScratch = ByteBuffer.allocateDirect(16 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return mScratch;
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("WavWriter is closed");
+        }
+    }
+
+}
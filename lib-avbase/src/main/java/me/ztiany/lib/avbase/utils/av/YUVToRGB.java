@@ -0,0 +1,424 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * YUV420（NV21/NV12/I420 以及任意 rowStride/pixelStride 的三平面）转 ARGB_8888/RGB565。
+ * <p>
+ * 使用定点整数运算，系数在构造时预先计算成 256 项的查找表，转换过程中不分配内存。实例创建后不可变，可以在多个线程中共享。
+ * 大图会通过 {@link YUVUtils#setParallelism(int)} 设置的线程池按行并行转换。
+ * </p>
+ * 输出格式：
+ * <ul>
+ *     <li>int[]：颜色值为 0xAARRGGBB（即 {@code android.graphics.Color}），可用于 Bitmap.setPixels/createBitmap。</li>
+ *     <li>IntBuffer：按 ARGB_8888 Bitmap 的内存排列（R、G、B、A 四个字节）写入，可直接用于 Bitmap.copyPixelsFromBuffer。</li>
+ *     <li>short[]/ShortBuffer：RGB565，可直接用于 RGB_565 Bitmap 的 copyPixelsFromBuffer。</li>
+ * </ul>
+ * 宽高应为偶数。
+ */
+public final class YUVToRGB {
+
+    /** ITU-R BT.601，标清以及大部分摄像头、JPEG 使用。 */
+    public static final int BT601 = 601;
+
+    /** ITU-R BT.709，高清视频使用。 */
+    public static final int BT709 = 709;
+
+    /** 定点小数位数。 */
+    private static final int SHIFT = 16;
+
+    private static final int ALPHA = 0xFF000000;
+
+    /**
+     * 饱和到 0~255 的查找表，代替逐分量的比较分支（随机的色度会让分支预测频繁失败）。
+     * 所有标准下 Y + 色度项的取值都落在 [-CLAMP_OFFSET, CLAMP.length - CLAMP_OFFSET) 内。
+     */
+    private static final int CLAMP_OFFSET = 512;
+    private static final int[] CLAMP = new int[1024 + 256];
+
+    static {
+        for (int i = 0; i < CLAMP.length; i++) {
+            CLAMP[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+        }
+    }
+
+    private static final ThreadLocal<int[]> INT_ROW = new ThreadLocal<>();
+    private static final ThreadLocal<short[]> SHORT_ROW = new ThreadLocal<>();
+
+    /** Y 映射到定点数，已包含舍入用的 0.5。 */
+    private final int[] mY = new int[256];
+    private final int[] mRV = new int[256];
+    private final int[] mGU = new int[256];
+    private final int[] mGV = new int[256];
+    private final int[] mBU = new int[256];
+
+    private final int mStandard;
+    private final boolean mFullRange;
+
+    /**
+     * @param standard  {@link #BT601} 或 {@link #BT709}。
+     * @param fullRange true 表示 Y/U/V 取值为 0~255（JPEG）；false 表示 Y 为 16~235、U/V 为 16~240（视频常用的 limited range）。
+     */
+    public YUVToRGB(int standard, boolean fullRange) {
+        final double kr;
+        final double kb;
+        if (standard == BT601) {
+            kr = 0.299;
+            kb = 0.114;
+        } else if (standard == BT709) {
+            kr = 0.2126;
+            kb = 0.0722;
+        } else {
+            throw new IllegalArgumentException("Unsupported standard: " + standard);
+        }
+        mStandard = standard;
+        mFullRange = fullRange;
+
+        final double kg = 1 - kr - kb;
+        final double yScale = fullRange ? 1.0 : 255.0 / 219.0;
+        final double yOffset = fullRange ? 0 : 16;
+        final double cScale = fullRange ? 1.0 : 255.0 / 224.0;
+        final double rv = 2 * (1 - kr) * cScale;
+        final double gu = 2 * kb * (1 - kb) / kg * cScale;
+        final double gv = 2 * kr * (1 - kr) / kg * cScale;
+        final double bu = 2 * (1 - kb) * cScale;
+        final double one = 1 << SHIFT;
+
+        for (int i = 0; i < 256; i++) {
+            mY[i] = (int) Math.round((i - yOffset) * yScale * one + one / 2);
+            final int c = i - 128;
+            mRV[i] = (int) Math.round(rv * c * one);
+            mGU[i] = (int) Math.round(gu * c * one);
+            mGV[i] = (int) Math.round(gv * c * one);
+            mBU[i] = (int) Math.round(bu * c * one);
+        }
+    }
+
+    public int getStandard() {
+        return mStandard;
+    }
+
+    public boolean isFullRange() {
+        return mFullRange;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // ARGB_8888
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param argb 长度至少为 width * height，写入 0xAARRGGBB。
+     */
+    public void nv21ToARGB(byte[] nv21, int width, int height, int[] argb) {
+        final int frameSize = width * height;
+        toARGB(nv21, 0, width, nv21, frameSize + 1, nv21, frameSize, width, 2, width, height, argb, 0, width);
+    }
+
+    public void nv12ToARGB(byte[] nv12, int width, int height, int[] argb) {
+        final int frameSize = width * height;
+        toARGB(nv12, 0, width, nv12, frameSize, nv12, frameSize + 1, width, 2, width, height, argb, 0, width);
+    }
+
+    public void i420ToARGB(byte[] i420, int width, int height, int[] argb) {
+        final int frameSize = width * height;
+        toARGB(i420, 0, width, i420, frameSize, i420, frameSize + frameSize / 4, width / 2, 1, width, height, argb, 0, width);
+    }
+
+    /**
+     * 按 Bitmap 的内存排列写入 IntBuffer，从 position 开始写，不会修改 position。
+     */
+    public void nv21ToARGB(byte[] nv21, int width, int height, IntBuffer argb) {
+        final int frameSize = width * height;
+        toARGB(nv21, 0, width, nv21, frameSize + 1, nv21, frameSize, width, 2, width, height, argb);
+    }
+
+    public void nv12ToARGB(byte[] nv12, int width, int height, IntBuffer argb) {
+        final int frameSize = width * height;
+        toARGB(nv12, 0, width, nv12, frameSize, nv12, frameSize + 1, width, 2, width, height, argb);
+    }
+
+    public void i420ToARGB(byte[] i420, int width, int height, IntBuffer argb) {
+        final int frameSize = width * height;
+        toARGB(i420, 0, width, i420, frameSize, i420, frameSize + frameSize / 4, width / 2, 1, width, height, argb);
+    }
+
+    /**
+     * 通用版本，Y/U/V 可以位于不同的数组中，也可以是同一个数组的不同偏移（例如解码器输出的带 stride 的 NV12）。
+     *
+     * @param uvRowStride   U/V 平面的 rowStride。
+     * @param uvPixelStride U/V 平面的 pixelStride，1 表示 planar，2 表示 U/V 交错存储。
+     * @param outStride     输出每行的像素数。
+     */
+    public void toARGB(
+            final byte[] y, final int yOffset, final int yRowStride,
+            final byte[] u, final int uOffset, final byte[] v, final int vOffset,
+            final int uvRowStride, final int uvPixelStride,
+            final int width, final int height,
+            final int[] out, final int outOffset, final int outStride
+    ) {
+        RowBands.run(width, height, (rowStart, rowEnd) -> {
+            for (int row = rowStart; row < rowEnd; row++) {
+                argbRow(
+                        y, yOffset + row * yRowStride,
+                        u, v, uOffset, vOffset, (row >> 1) * uvRowStride, uvPixelStride,
+                        out, outOffset + row * outStride, width, 16, 0
+                );
+            }
+        });
+    }
+
+    /**
+     * IntBuffer 版本，按 Bitmap 的内存排列写入，从 position 开始写，不会修改 position。
+     */
+    public void toARGB(
+            final byte[] y, final int yOffset, final int yRowStride,
+            final byte[] u, final int uOffset, final byte[] v, final int vOffset,
+            final int uvRowStride, final int uvPixelStride,
+            final int width, final int height,
+            final IntBuffer out
+    ) {
+        // Android 设备都是小端：内存中的 R、G、B、A 读成 int 为 0xAABBGGRR；
+        // 大端的 buffer（例如没有设置 order 的 ByteBuffer.asIntBuffer()）则为 0xRRGGBBAA。
+        final boolean littleEndian = out.order() == ByteOrder.LITTLE_ENDIAN;
+        final int base = out.position();
+
+        if (out.hasArray() && littleEndian) {
+            final int[] array = out.array();
+            final int offset = out.arrayOffset() + base;
+            RowBands.run(width, height, (rowStart, rowEnd) -> {
+                for (int row = rowStart; row < rowEnd; row++) {
+                    argbRow(
+                            y, yOffset + row * yRowStride,
+                            u, v, uOffset, vOffset, (row >> 1) * uvRowStride, uvPixelStride,
+                            array, offset + row * width, width, 0, 16
+                    );
+                }
+            });
+            return;
+        }
+
+        RowBands.run(width, height, (rowStart, rowEnd) -> {
+            final IntBuffer rows = out.duplicate();
+            final int[] line = intRow(width);
+            for (int row = rowStart; row < rowEnd; row++) {
+                argbRow(
+                        y, yOffset + row * yRowStride,
+                        u, v, uOffset, vOffset, (row >> 1) * uvRowStride, uvPixelStride,
+                        line, 0, width, littleEndian ? 0 : 16, littleEndian ? 16 : 0
+                );
+                if (!littleEndian) {
+                    for (int i = 0; i < width; i++) {
+                        line[i] = (line[i] << 8) | 0xFF;
+                    }
+                }
+                rows.position(base + row * width);
+                rows.put(line, 0, width);
+            }
+        });
+    }
+
+    private void argbRow(
+            byte[] yPlane, int yIndex,
+            byte[] uPlane, byte[] vPlane, int uOffset, int vOffset, int uvRow, int uvPixelStride,
+            int[] out, int outIndex, int width, int rShift, int bShift
+    ) {
+        final int[] yTable = mY;
+        final int[] rvTable = mRV;
+        final int[] guTable = mGU;
+        final int[] gvTable = mGV;
+        final int[] buTable = mBU;
+
+        int uIndex = uOffset + uvRow;
+        int vIndex = vOffset + uvRow;
+        final int pairs = width >> 1;
+        for (int i = 0; i < pairs; i++) {
+            final int uValue = uPlane[uIndex] & 0xFF;
+            final int vValue = vPlane[vIndex] & 0xFF;
+            uIndex += uvPixelStride;
+            vIndex += uvPixelStride;
+            final int rv = rvTable[vValue];
+            final int guv = guTable[uValue] + gvTable[vValue];
+            final int bu = buTable[uValue];
+
+            int l = yTable[yPlane[yIndex++] & 0xFF];
+            out[outIndex++] = ALPHA | clamp(l + rv) << rShift | clamp(l - guv) << 8 | clamp(l + bu) << bShift;
+            l = yTable[yPlane[yIndex++] & 0xFF];
+            out[outIndex++] = ALPHA | clamp(l + rv) << rShift | clamp(l - guv) << 8 | clamp(l + bu) << bShift;
+        }
+
+        if ((width & 1) != 0) {
+            final int uValue = uPlane[uIndex] & 0xFF;
+            final int vValue = vPlane[vIndex] & 0xFF;
+            final int l = yTable[yPlane[yIndex] & 0xFF];
+            out[outIndex] = ALPHA
+                    | clamp(l + rvTable[vValue]) << rShift
+                    | clamp(l - guTable[uValue] - gvTable[vValue]) << 8
+                    | clamp(l + buTable[uValue]) << bShift;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // RGB565
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param rgb565 长度至少为 width * height。
+     */
+    public void nv21ToRGB565(byte[] nv21, int width, int height, short[] rgb565) {
+        final int frameSize = width * height;
+        toRGB565(nv21, 0, width, nv21, frameSize + 1, nv21, frameSize, width, 2, width, height, rgb565, 0, width);
+    }
+
+    public void nv12ToRGB565(byte[] nv12, int width, int height, short[] rgb565) {
+        final int frameSize = width * height;
+        toRGB565(nv12, 0, width, nv12, frameSize, nv12, frameSize + 1, width, 2, width, height, rgb565, 0, width);
+    }
+
+    public void i420ToRGB565(byte[] i420, int width, int height, short[] rgb565) {
+        final int frameSize = width * height;
+        toRGB565(i420, 0, width, i420, frameSize, i420, frameSize + frameSize / 4, width / 2, 1, width, height, rgb565, 0, width);
+    }
+
+    public void nv21ToRGB565(byte[] nv21, int width, int height, ShortBuffer rgb565) {
+        final int frameSize = width * height;
+        toRGB565(nv21, 0, width, nv21, frameSize + 1, nv21, frameSize, width, 2, width, height, rgb565);
+    }
+
+    public void nv12ToRGB565(byte[] nv12, int width, int height, ShortBuffer rgb565) {
+        final int frameSize = width * height;
+        toRGB565(nv12, 0, width, nv12, frameSize, nv12, frameSize + 1, width, 2, width, height, rgb565);
+    }
+
+    public void i420ToRGB565(byte[] i420, int width, int height, ShortBuffer rgb565) {
+        final int frameSize = width * height;
+        toRGB565(i420, 0, width, i420, frameSize, i420, frameSize + frameSize / 4, width / 2, 1, width, height, rgb565);
+    }
+
+    /**
+     * 通用版本，参数含义同 {@link #toARGB(byte[], int, int, byte[], int, byte[], int, int, int, int, int, int[], int, int)}。
+     */
+    public void toRGB565(
+            final byte[] y, final int yOffset, final int yRowStride,
+            final byte[] u, final int uOffset, final byte[] v, final int vOffset,
+            final int uvRowStride, final int uvPixelStride,
+            final int width, final int height,
+            final short[] out, final int outOffset, final int outStride
+    ) {
+        RowBands.run(width, height, (rowStart, rowEnd) -> {
+            for (int row = rowStart; row < rowEnd; row++) {
+                rgb565Row(
+                        y, yOffset + row * yRowStride,
+                        u, v, uOffset, vOffset, (row >> 1) * uvRowStride, uvPixelStride,
+                        out, outOffset + row * outStride, width
+                );
+            }
+        });
+    }
+
+    /**
+     * ShortBuffer 版本，从 position 开始写，不会修改 position。
+     */
+    public void toRGB565(
+            final byte[] y, final int yOffset, final int yRowStride,
+            final byte[] u, final int uOffset, final byte[] v, final int vOffset,
+            final int uvRowStride, final int uvPixelStride,
+            final int width, final int height,
+            final ShortBuffer out
+    ) {
+        final int base = out.position();
+        if (out.hasArray()) {
+            toRGB565(y, yOffset, yRowStride, u, uOffset, v, vOffset, uvRowStride, uvPixelStride, width, height, out.array(), out.arrayOffset() + base, width);
+            return;
+        }
+        RowBands.run(width, height, (rowStart, rowEnd) -> {
+            final ShortBuffer rows = out.duplicate();
+            final short[] line = shortRow(width);
+            for (int row = rowStart; row < rowEnd; row++) {
+                rgb565Row(
+                        y, yOffset + row * yRowStride,
+                        u, v, uOffset, vOffset, (row >> 1) * uvRowStride, uvPixelStride,
+                        line, 0, width
+                );
+                rows.position(base + row * width);
+                rows.put(line, 0, width);
+            }
+        });
+    }
+
+    private void rgb565Row(
+            byte[] yPlane, int yIndex,
+            byte[] uPlane, byte[] vPlane, int uOffset, int vOffset, int uvRow, int uvPixelStride,
+            short[] out, int outIndex, int width
+    ) {
+        final int[] yTable = mY;
+        final int[] rvTable = mRV;
+        final int[] guTable = mGU;
+        final int[] gvTable = mGV;
+        final int[] buTable = mBU;
+
+        int uIndex = uOffset + uvRow;
+        int vIndex = vOffset + uvRow;
+        final int pairs = width >> 1;
+        for (int i = 0; i < pairs; i++) {
+            final int uValue = uPlane[uIndex] & 0xFF;
+            final int vValue = vPlane[vIndex] & 0xFF;
+            uIndex += uvPixelStride;
+            vIndex += uvPixelStride;
+            final int rv = rvTable[vValue];
+            final int guv = guTable[uValue] + gvTable[vValue];
+            final int bu = buTable[uValue];
+
+            int l = yTable[yPlane[yIndex++] & 0xFF];
+            out[outIndex++] = pack565(clamp(l + rv), clamp(l - guv), clamp(l + bu));
+            l = yTable[yPlane[yIndex++] & 0xFF];
+            out[outIndex++] = pack565(clamp(l + rv), clamp(l - guv), clamp(l + bu));
+        }
+
+        if ((width & 1) != 0) {
+            final int uValue = uPlane[uIndex] & 0xFF;
+            final int vValue = vPlane[vIndex] & 0xFF;
+            final int l = yTable[yPlane[yIndex] & 0xFF];
+            out[outIndex] = pack565(
+                    clamp(l + rvTable[vValue]),
+                    clamp(l - guTable[uValue] - gvTable[vValue]),
+                    clamp(l + buTable[uValue])
+            );
+        }
+    }
+
+    private static short pack565(int r, int g, int b) {
+        return (short) ((r >> 3) << 11 | (g >> 2) << 5 | (b >> 3));
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Helpers
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 定点数转为 0~255。
+     */
+    private static int clamp(int fixed) {
+        return CLAMP[(fixed >> SHIFT) + CLAMP_OFFSET];
+    }
+
+    private static int[] intRow(int size) {
+        int[] row = INT_ROW.get();
+        if (row == null || row.length < size) {
+            row = new int[size];
+            INT_ROW.set(row);
+        }
+        return row;
+    }
+
+    private static short[] shortRow(int size) {
+        short[] row = SHORT_ROW.get();
+        if (row == null || row.length < size) {
+            row = new short[size];
+            SHORT_ROW.set(row);
+        }
+        return row;
+    }
+
+}
@@ -1,9 +1,34 @@
 package me.ztiany.lib.avbase.utils.av;
 
+import java.nio.ByteBuffer;
+
 import timber.log.Timber;
 
 public class YUVUtils {
 
+    ///////////////////////////////////////////////////////////////////////////
+    // 并行
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 设置旋转/格式转换使用的线程数，大平面会按行切成条带交给一个共享的 ForkJoinPool 处理。
+     * 默认为 1，即不开启并行；一般设置为大核的数量即可，不要超过 {@link Runtime#availableProcessors()}。
+     */
+    public static void setParallelism(int threads) {
+        RowBands.setParallelism(threads);
+    }
+
+    public static int getParallelism() {
+        return RowBands.getParallelism();
+    }
+
+    /**
+     * 平面像素数小于 pixels 时始终串行处理，默认为 640 * 480。
+     */
+    public static void setParallelThreshold(int pixels) {
+        RowBands.setThreshold(pixels);
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // NV21
     ///////////////////////////////////////////////////////////////////////////
@@ -14,44 +39,24 @@ public class YUVUtils {
      * 1. https://stackoverflow.com/questions/44994510/how-to-convert-rotate-raw-nv21-array-image-android-media-image-from-front-ca
      * 2. https://stackoverflow.com/questions/6853401/camera-pixels-rotated/31425229#31425229
      * </p>
+     * 注意：rotation 为 0 时不会写入 output。
      */
     public static void nv21RotateCW(final byte[] yuv, final byte[] output, final int width, final int height, final int rotation) {
         if (rotation == 0) {
             return;
         }
+        nv21Rotate(yuv, output, width, height, rotation, false);
+    }
 
-        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
-            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
-        }
-
-        final int frameSize = width * height;
-        final boolean swap = rotation % 180 != 0;
-        final boolean xflip = rotation % 270 != 0;
-        final boolean yflip = rotation >= 180;
-
-        for (int j = 0; j < height; j++) {
-
-            for (int i = 0; i < width; i++) {
-                final int yIn = j * width + i;
-                final int uIn = frameSize + (j >> 1) * width + (i & ~1);
-                final int vIn = uIn + 1;
-
-                final int wOut = swap ? height : width;
-                final int hOut = swap ? width : height;
-                final int iSwapped = swap ? j : i;
-                final int jSwapped = swap ? i : j;
-                final int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
-                final int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
-
-                final int yOut = jOut * wOut + iOut;
-                final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
-                final int vOut = uOut + 1;
-
-                output[yOut] = (byte) (0xff & yuv[yIn]);
-                output[uOut] = (byte) (0xff & yuv[uIn]);
-                output[vOut] = (byte) (0xff & yuv[vIn]);
-            }
-        }
+    /**
+     * NV21 画面先水平镜像（可选）再顺时针旋转。亮度和色度平面分别按块旋转，每组 UV 只写一次。
+     *
+     * @param output   长度至少为 width * height * 3 / 2，旋转 90°/270° 后宽高互换。
+     * @param rotation 0、90、180、270。
+     * @param mirror   是否水平镜像，一般用于前置摄像头。
+     */
+    public static void nv21Rotate(byte[] nv21, byte[] output, int width, int height, int rotation, boolean mirror) {
+        semiPlanarRotate(nv21, output, width, height, rotation, mirror);
     }
 
     /**
@@ -136,39 +141,16 @@ public class YUVUtils {
         System.arraycopy(y, 0, nv21, 0, y.length);
         // 注意，若 length 值为 y.length * 3 / 2 会有数组越界的风险，需使用真实数据长度计算。
         int length = y.length + u.length / 2 + v.length / 2;
-        int uIndex = 0, vIndex = 0;
         int endOfY = stride * height;
-        for (int i = endOfY; i < length; i += 2) {
-            nv21[i] = v[vIndex];
-            nv21[i + 1] = u[uIndex];
-            vIndex += 2;
-            uIndex += 2;
-        }
+        // V 与 U 是同一块交错内存错开一个字节的视图，各取偶数位，每次处理 4 组。
+        ChromaSwar.mergeEven(ChromaSwar.wrap(v), 0, ChromaSwar.wrap(u), 0, ChromaSwar.wrap(nv21), endOfY, Math.max(0, (length - endOfY + 1) / 2));
     }
 
+    /**
+     * 【Camera2】U/V 交错存储（pixelStride == 2）时按 width 裁剪，整行拷贝，见 {@link PlaneRotator#rotatePair}。
+     */
     private static void nv21FromYUV422CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int width, int height) {
-        //copy each line of y.
-        int originalYIndex = 0;
-        int yIndex = 0;
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(y, originalYIndex, nv21, yIndex, width);
-            originalYIndex += stride;
-            yIndex += width;
-        }
-        //copy uv
-        int uvStep = 0;
-        int uvIndex = width * height;
-        int originalUVIndex = 0;
-        for (int i = 0; i < height / 2; i++) {
-            for (int j = 0; j < width / 2; j++) {
-                nv21[uvIndex + 2 * j] = v[originalUVIndex + uvStep];//0 2 4  <----> 0 2 4
-                nv21[uvIndex + 2 * j + 1] = u[originalUVIndex + uvStep];//1 3 5 <----> 0 2 4
-                uvStep += 2;
-            }
-            uvIndex += width;
-            originalUVIndex += stride;
-            uvStep = 0;
-        }
+        semiPlanarFromYUV420888(y, v, u, stride, stride, 2, nv21, width, height, 0, false);
     }
 
     /**
@@ -182,21 +164,14 @@ public class YUVUtils {
      * @param height 图像高度
      */
     private static void nv21FromYUV420(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int height) {
-        System.arraycopy(y, 0, nv21, 0, y.length);
-        // 注意，若 length 值为 y.length * 3 / 2 会有数组越界的风险，需使用真实数据长度计算
-        int length = y.length + u.length + v.length;
-        int uIndex = 0, vIndex = 0;
-        for (int i = stride * height; i < length; i++) {
-            nv21[i] = v[vIndex++];
-            nv21[i + 1] = u[uIndex++];
-        }
+        nv21FromYUV420CutToWidth(y, u, v, nv21, stride, stride, height);
     }
 
     /**
-     * 【Camera2】TODO: This method has not been implemented.
+     * 【Camera2】U/V 为 planar 存储（pixelStride == 1，U/V 的 rowStride 为 stride / 2）时按 width 裁剪并交错为 VU。
      */
     private static void nv21FromYUV420CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int width, int height) {
-        Timber.w("nv21FromYUV420CutToWidth has not been implemented.");
+        semiPlanarFromYUV420888(y, v, u, stride, stride / 2, 1, nv21, width, height, 0, false);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -207,22 +182,35 @@ public class YUVUtils {
      * NV12 顺时针旋转 90°
      */
     public static void nv12Rotate90CW(byte[] data, byte[] output, int width, int height) {
-        int y_len = width * height;
-        int uvHeight = height >> 1;
-        int k = 0;
+        nv12Rotate(data, output, width, height, 90, false);
+    }
 
-        for (int j = 0; j < width; j++) {
-            for (int i = height - 1; i >= 0; i--) {
-                output[k++] = data[width * i + j];
-            }
-        }
+    /**
+     * NV12 画面先水平镜像（可选）再顺时针旋转，参数同 {@link #nv21Rotate(byte[], byte[], int, int, int, boolean)}。
+     */
+    public static void nv12Rotate(byte[] nv12, byte[] output, int width, int height, int rotation, boolean mirror) {
+        semiPlanarRotate(nv12, output, width, height, rotation, mirror);
+    }
 
-        for (int j = 0; j < width; j += 2) {
-            for (int i = uvHeight - 1; i >= 0; i--) {
-                output[k++] = data[y_len + width * i + j];
-                output[k++] = data[y_len + width * i + j + 1];
-            }
-        }
+    /**
+     * NV12 与 NV21 的 UV 都是成对存储的，旋转时把一组 UV 当作一个像素即可，二者的旋转方式相同。
+     */
+    private static void semiPlanarRotate(byte[] src, byte[] output, int width, int height, int rotation, boolean mirror) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final boolean swap = rotation % 180 != 0;
+        final int outWidth = swap ? height : width;
+
+        PlaneRotator.rotate(
+                src, 0, width, 1,
+                output, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotatePair(
+                src, frameSize, src, frameSize + 1, width, 2,
+                output, frameSize, outWidth,
+                width >> 1, height >> 1, rotation, mirror
+        );
     }
 
     /**
@@ -232,12 +220,64 @@ public class YUVUtils {
         int size = nv21.length;
         int len = size * 2 / 3;//length of y planer.
         System.arraycopy(nv21, 0, nv12, 0, len);
-        int i = len;
-        while (i < size - 1) {
-            nv12[i] = nv21[i + 1];
-            nv12[i + 1] = nv21[i];
-            i += 2;
-        }
+        // 每次交换 4 组 UV，见 ChromaSwar。
+        ChromaSwar.swapPairs(ChromaSwar.wrap(nv21), len, ChromaSwar.wrap(nv12), len, (size - len) / 2);
+    }
+
+    /**
+     * NV12 转换为 NV21，与 {@link #nv12FromNV21(byte[], byte[])} 是同一个操作。
+     */
+    public static void nv21FromNV12(byte[] nv12, byte[] nv21) {
+        nv12FromNV21(nv12, nv21);
+    }
+
+    /**
+     * I420 转换为 NV12，U/V 平面每次交错 8 组。
+     */
+    public static void nv12FromI420(byte[] i420, byte[] nv12, int width, int height) {
+        semiPlanarFromI420(i420, nv12, width, height, false);
+    }
+
+    /**
+     * I420 转换为 NV21。
+     */
+    public static void nv21FromI420(byte[] i420, byte[] nv21, int width, int height) {
+        semiPlanarFromI420(i420, nv21, width, height, true);
+    }
+
+    private static void semiPlanarFromI420(byte[] i420, byte[] output, int width, int height, boolean vFirst) {
+        final int frameSize = width * height;
+        final int quarter = frameSize / 4;
+        System.arraycopy(i420, 0, output, 0, frameSize);
+        final ByteBuffer src = ChromaSwar.wrap(i420);
+        final int uStart = frameSize;
+        final int vStart = frameSize + quarter;
+        ChromaSwar.interleave(
+                src, vFirst ? vStart : uStart, src, vFirst ? uStart : vStart,
+                ChromaSwar.wrap(output), frameSize, quarter
+        );
+    }
+
+    /**
+     * NV21 转换为 NV12，同时完成镜像（可选）与顺时针旋转，只遍历一次数据。
+     *
+     * @param nv12 长度至少为 width * height * 3 / 2，旋转 90°/270° 后宽高互换。
+     */
+    public static void nv12FromNV21(byte[] nv21, byte[] nv12, int width, int height, int rotation, boolean mirror) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final int outWidth = rotation % 180 != 0 ? height : width;
+        PlaneRotator.rotate(
+                nv21, 0, width, 1,
+                nv12, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        // NV21 的 UV 平面为 VUVU...，交换两个源偏移即可得到 UVUV...
+        PlaneRotator.rotatePair(
+                nv21, frameSize + 1, nv21, frameSize, width, 2,
+                nv12, frameSize, outWidth,
+                width >> 1, height >> 1, rotation, mirror
+        );
     }
 
     /**
@@ -283,92 +323,70 @@ public class YUVUtils {
         System.arraycopy(y, 0, nv21, 0, y.length);
         // 注意，若 length 值为 y.length * 3 / 2 会有数组越界的风险，需使用真实数据长度计算。
         int length = y.length + u.length / 2 + v.length / 2;
-        int uIndex = 0, vIndex = 0;
         int endOfY = stride * height;
-        for (int i = endOfY; i < length; i += 2) {
-            nv21[i] = u[uIndex];
-            nv21[i + 1] = v[vIndex];
-            vIndex += 2;
-            uIndex += 2;
-        }
+        // U 与 V 是同一块交错内存错开一个字节的视图，各取偶数位，每次处理 4 组。
+        ChromaSwar.mergeEven(ChromaSwar.wrap(u), 0, ChromaSwar.wrap(v), 0, ChromaSwar.wrap(nv21), endOfY, Math.max(0, (length - endOfY + 1) / 2));
     }
 
     /**
-     * 【Camera2】
+     * 【Camera2】U/V 交错存储（pixelStride == 2）时按 width 裁剪，整行拷贝，见 {@link PlaneRotator#rotatePair}。
      */
-    private static void nv12FromYUV422CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int width, int height) {
-        //copy each line of y.
-        int originalYIndex = 0;
-        int yIndex = 0;
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(y, originalYIndex, nv21, yIndex, width);
-            originalYIndex += stride;
-            yIndex += width;
-        }
-        //copy uv
-        int uvStep = 0;
-        int uvIndex = width * height;
-        int originalUVIndex = 0;
-        for (int i = 0; i < height / 2; i++) {
-            for (int j = 0; j < width / 2; j++) {
-                nv21[uvIndex + 2 * j] = u[originalUVIndex + uvStep];//0 2 4  <----> 0 2 4
-                nv21[uvIndex + 2 * j + 1] = v[originalUVIndex + uvStep];//1 3 5 <----> 0 2 4
-                uvStep += 2;
-            }
-            uvIndex += width;
-            originalUVIndex += stride;
-            uvStep = 0;
-        }
+    private static void nv12FromYUV422CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv12, int stride, int width, int height) {
+        semiPlanarFromYUV420888(y, u, v, stride, stride, 2, nv12, width, height, 0, false);
     }
 
     /**
      * 【Camera2】
      */
-    private static void nv12FromYUV420(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int height) {
-        System.arraycopy(y, 0, nv21, 0, y.length);
-        // 注意，若 length 值为 y.length * 3 / 2 会有数组越界的风险，需使用真实数据长度计算
-        int length = y.length + u.length + v.length;
-        int uIndex = 0, vIndex = 0;
-        for (int i = stride * height; i < length; i++) {
-            nv21[i] = u[uIndex++];
-            nv21[i + 1] = v[vIndex++];
-        }
+    private static void nv12FromYUV420(byte[] y, byte[] u, byte[] v, byte[] nv12, int stride, int height) {
+        nv12FromYUV420CutToWidth(y, u, v, nv12, stride, stride, height);
     }
 
     /**
-     * 【Camera2】
+     * 【Camera2】U/V 为 planar 存储（pixelStride == 1，U/V 的 rowStride 为 stride / 2）时按 width 裁剪并交错为 UV。
      */
-    private static void nv12FromYUV420CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv21, int stride, int width, int height) {
-        Timber.w("nv12FromYUV420CutToWidth has not been implemented.");
+    private static void nv12FromYUV420CutToWidth(byte[] y, byte[] u, byte[] v, byte[] nv12, int stride, int width, int height) {
+        semiPlanarFromYUV420888(y, u, v, stride, stride / 2, 1, nv12, width, height, 0, false);
     }
 
     ///////////////////////////////////////////////////////////////////////////
     // I420
     ///////////////////////////////////////////////////////////////////////////
+    /**
+     * I420 顺时针旋转 90°
+     */
     public static void i420Rotate90CW(byte[] data, byte[] output, int width, int height) {
-        int yLength = width * height;
-        int uLength = width * height >> 2;
-        int uvWidth = width >> 1;
-        int uvHeight = height >> 1;
-        int k = 0;
-        //rotate y
-        for (int j = 0; j < width; j++) {
-            for (int i = height - 1; i >= 0; i--) {
-                output[k++] = data[width * i + j];
-            }
-        }
-        //rotate u
-        for (int j = 0; j < uvWidth; j++) {
-            for (int i = (uvHeight) - 1; i >= 0; i--) {
-                output[k++] = data[yLength + uvWidth * i + j];
-            }
-        }
-        //rotate v
-        for (int j = 0; j < uvWidth; j++) {
-            for (int i = (uvHeight) - 1; i >= 0; i--) {
-                output[k++] = data[yLength + uLength + uvWidth * i + j];
-            }
-        }
+        i420Rotate(data, output, width, height, 90, false);
+    }
+
+    /**
+     * I420 画面先水平镜像（可选）再顺时针旋转，参数同 {@link #nv21Rotate(byte[], byte[], int, int, int, boolean)}。
+     */
+    public static void i420Rotate(byte[] i420, byte[] output, int width, int height, int rotation, boolean mirror) {
+        PlaneRotator.checkRotation(rotation);
+        final int yLength = width * height;
+        final int uvWidth = width >> 1;
+        final int uvHeight = height >> 1;
+        final int uLength = uvWidth * uvHeight;
+        final boolean swap = rotation % 180 != 0;
+        final int outWidth = swap ? height : width;
+        final int outUVWidth = swap ? uvHeight : uvWidth;
+
+        PlaneRotator.rotate(
+                i420, 0, width, 1,
+                output, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                i420, yLength, uvWidth, 1,
+                output, yLength, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                i420, yLength + uLength, uvWidth, 1,
+                output, yLength + uLength, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
     }
 
     /**
@@ -419,35 +437,10 @@ public class YUVUtils {
     }
 
     /**
-     * 【Camera2】
+     * 【Camera2】U/V 交错存储（pixelStride == 2）时按 width 裁剪并拆分为 U、V 两个平面。
      */
     private static void i420FromYUV422CutToWidth(byte[] y, byte[] u, byte[] v, byte[] i420, int stride, int width, int height) {
-        //copy each line of y.
-        int originalYIndex = 0;
-        int yIndex = 0;
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(y, originalYIndex, i420, yIndex, width);
-            originalYIndex += stride;
-            yIndex += width;
-        }
-
-        //copy uv
-        int uvStep = 0;
-        int uIndex = width * height;
-        int vIndex = uIndex + width * height / 4;
-        int originalUVIndex = 0;
-
-        for (int i = 0; i < height / 2; i++) {
-            for (int j = 0; j < width / 2; j++) {
-                i420[uIndex + j] = u[originalUVIndex + uvStep];//1 2 3  <----> 0 2 4
-                i420[vIndex + j] = v[originalUVIndex + uvStep];//1 2 3 <----> 0 2 4
-                uvStep += 2;
-            }
-            uIndex += width / 2;
-            vIndex += width / 2;
-            originalUVIndex += stride;
-            uvStep = 0;
-        }
+        i420FromYUV420888(y, u, v, stride, stride, 2, i420, width, height, 0, false);
     }
 
     /**
@@ -476,10 +469,376 @@ public class YUVUtils {
     }
 
     /**
-     * 【Camera2】TODO: This method has not been implemented.
+     * 【Camera2】U/V 为 planar 存储（pixelStride == 1，U/V 的 rowStride 为 stride / 2）时按 width 裁剪，各平面整行拷贝。
      */
     private static void i420FromYUV420CutToWidth(byte[] y, byte[] u, byte[] v, byte[] i420, int stride, int width, int height) {
-        Timber.w("i420FromYUV420CutToWidth has not been implemented.");
+        i420FromYUV420888(y, u, v, stride, stride / 2, 1, i420, width, height, 0, false);
+    }
+
+    /**
+     * NV12 转换为 I420，UV 平面每次拆分 8 组。
+     */
+    public static void i420FromNV12(byte[] nv12, byte[] i420, int width, int height) {
+        i420FromSemiPlanar(nv12, i420, width, height, false);
+    }
+
+    /**
+     * NV21 转换为 I420。
+     */
+    public static void i420FromNV21(byte[] nv21, byte[] i420, int width, int height) {
+        i420FromSemiPlanar(nv21, i420, width, height, true);
+    }
+
+    private static void i420FromSemiPlanar(byte[] src, byte[] i420, int width, int height, boolean vFirst) {
+        final int frameSize = width * height;
+        final int quarter = frameSize / 4;
+        System.arraycopy(src, 0, i420, 0, frameSize);
+        final ByteBuffer dst = ChromaSwar.wrap(i420);
+        final int uStart = frameSize;
+        final int vStart = frameSize + quarter;
+        ChromaSwar.deinterleave(
+                ChromaSwar.wrap(src), frameSize,
+                dst, vFirst ? vStart : uStart, dst, vFirst ? uStart : vStart,
+                quarter
+        );
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // YUV_420_888 → 编码器输入格式
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 【Camera2】把 YUV_420_888 的三个平面一次性转换为 NV12：裁剪到 width、镜像（可选）、顺时针旋转都在同一遍内完成，
+     * 不需要中间的 NV21/I420 缓冲区。
+     *
+     * @param yRowStride    Y 平面的 rowStride。
+     * @param uvRowStride   U/V 平面的 rowStride。
+     * @param uvPixelStride U/V 平面的 pixelStride，1 表示 planar，2 表示 U/V 交错存储。
+     * @param nv12          长度至少为 width * height * 3 / 2，旋转 90°/270° 后宽高互换。
+     */
+    public static void nv12FromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] nv12, int width, int height, int rotation, boolean mirror
+    ) {
+        semiPlanarFromYUV420888(y, u, v, yRowStride, uvRowStride, uvPixelStride, nv12, width, height, rotation, mirror);
+    }
+
+    /**
+     * 【Camera2】同 {@link #nv12FromYUV420888(byte[], byte[], byte[], int, int, int, byte[], int, int, int, boolean)}，输出 NV21。
+     */
+    public static void nv21FromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] nv21, int width, int height, int rotation, boolean mirror
+    ) {
+        semiPlanarFromYUV420888(y, v, u, yRowStride, uvRowStride, uvPixelStride, nv21, width, height, rotation, mirror);
+    }
+
+    /**
+     * 【Camera2】同 {@link #nv12FromYUV420888(byte[], byte[], byte[], int, int, int, byte[], int, int, int, boolean)}，输出 I420。
+     */
+    public static void i420FromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] i420, int width, int height, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final int uvWidth = width >> 1;
+        final int uvHeight = height >> 1;
+        final boolean swap = rotation % 180 != 0;
+        final int outWidth = swap ? height : width;
+        final int outUVWidth = swap ? uvHeight : uvWidth;
+
+        PlaneRotator.rotate(
+                y, 0, yRowStride, 1,
+                i420, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                u, 0, uvRowStride, uvPixelStride,
+                i420, frameSize, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                v, 0, uvRowStride, uvPixelStride,
+                i420, frameSize + uvWidth * uvHeight, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+    }
+
+    /**
+     * 【Camera2】适配 {@code FrameListener} 只回传了 Y 平面 stride 的情况，U/V 平面的步长按 {@link #nv21FromYUV} 中的经验推断：
+     * y.length / u.length == 2 时为交错存储（pixelStride == 2，rowStride 与 Y 相同），== 4 时为 planar（pixelStride == 1，rowStride 为 Y 的一半）。
+     */
+    public static void nv12FromYUV420888(byte[] y, byte[] u, byte[] v, byte[] nv12, int stride, int width, int height, int rotation, boolean mirror) {
+        final int uvPixelStride = guessUVPixelStride(y, u);
+        if (uvPixelStride != 0) {
+            nv12FromYUV420888(y, u, v, stride, stride * uvPixelStride / 2, uvPixelStride, nv12, width, height, rotation, mirror);
+        }
+    }
+
+    /**
+     * 【Camera2】参见 {@link #nv12FromYUV420888(byte[], byte[], byte[], byte[], int, int, int, int, boolean)}。
+     */
+    public static void i420FromYUV420888(byte[] y, byte[] u, byte[] v, byte[] i420, int stride, int width, int height, int rotation, boolean mirror) {
+        final int uvPixelStride = guessUVPixelStride(y, u);
+        if (uvPixelStride != 0) {
+            i420FromYUV420888(y, u, v, stride, stride * uvPixelStride / 2, uvPixelStride, i420, width, height, rotation, mirror);
+        }
+    }
+
+    /**
+     * 【Camera2】同 {@link #nv12FromYUV420888(byte[], byte[], byte[], int, int, int, byte[], int, int, int, boolean)}，
+     * 直接读取 Image.Plane 的 ByteBuffer，省去把平面拷贝到 byte[] 的那一次全帧复制。从各 buffer 的 position 开始读取，不会修改 position。
+     */
+    public static void nv12FromYUV420888(
+            ByteBuffer y, ByteBuffer u, ByteBuffer v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] nv12, int width, int height, int rotation, boolean mirror
+    ) {
+        semiPlanarFromYUV420888(y, u, v, yRowStride, uvRowStride, uvPixelStride, nv12, width, height, rotation, mirror);
+    }
+
+    /**
+     * 【Camera2】ByteBuffer 版本，输出 NV21，参见 {@link #nv12FromYUV420888(ByteBuffer, ByteBuffer, ByteBuffer, int, int, int, byte[], int, int, int, boolean)}。
+     */
+    public static void nv21FromYUV420888(
+            ByteBuffer y, ByteBuffer u, ByteBuffer v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] nv21, int width, int height, int rotation, boolean mirror
+    ) {
+        semiPlanarFromYUV420888(y, v, u, yRowStride, uvRowStride, uvPixelStride, nv21, width, height, rotation, mirror);
+    }
+
+    /**
+     * 【Camera2】ByteBuffer 版本，输出 I420，参见 {@link #nv12FromYUV420888(ByteBuffer, ByteBuffer, ByteBuffer, int, int, int, byte[], int, int, int, boolean)}。
+     */
+    public static void i420FromYUV420888(
+            ByteBuffer y, ByteBuffer u, ByteBuffer v,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] i420, int width, int height, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final int uvWidth = width >> 1;
+        final int uvHeight = height >> 1;
+        final boolean swap = rotation % 180 != 0;
+        final int outWidth = swap ? height : width;
+        final int outUVWidth = swap ? uvHeight : uvWidth;
+
+        PlaneRotator.rotate(
+                y, y.position(), yRowStride, 1,
+                i420, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                u, u.position(), uvRowStride, uvPixelStride,
+                i420, frameSize, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+        PlaneRotator.rotate(
+                v, v.position(), uvRowStride, uvPixelStride,
+                i420, frameSize + uvWidth * uvHeight, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+    }
+
+    private static int guessUVPixelStride(byte[] y, byte[] u) {
+        final int ratio = y.length / u.length;
+        if (ratio == 2) {
+            return 2;
+        }
+        if (ratio == 4) {
+            return 1;
+        }
+        Timber.w("unsupported yuv layout: y.length = %d, u.length = %d", y.length, u.length);
+        return 0;
+    }
+
+    /**
+     * NV12 的 UV 平面为 UVUV...，NV21 为 VUVU...，调用方交换 first/second 即可。
+     */
+    private static void semiPlanarFromYUV420888(
+            byte[] y, byte[] first, byte[] second,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] output, int width, int height, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final int outWidth = rotation % 180 != 0 ? height : width;
+        PlaneRotator.rotate(
+                y, 0, yRowStride, 1,
+                output, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotatePair(
+                first, 0, second, 0, uvRowStride, uvPixelStride,
+                output, frameSize, outWidth,
+                width >> 1, height >> 1, rotation, mirror
+        );
+    }
+
+    private static void semiPlanarFromYUV420888(
+            ByteBuffer y, ByteBuffer first, ByteBuffer second,
+            int yRowStride, int uvRowStride, int uvPixelStride,
+            byte[] output, int width, int height, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = width * height;
+        final int outWidth = rotation % 180 != 0 ? height : width;
+        PlaneRotator.rotate(
+                y, y.position(), yRowStride, 1,
+                output, 0, outWidth, 1,
+                width, height, rotation, mirror
+        );
+        PlaneRotator.rotatePair(
+                first, first.position(), second, second.position(), uvRowStride, uvPixelStride,
+                output, frameSize, outWidth,
+                width >> 1, height >> 1, rotation, mirror
+        );
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 缩放
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * I420 缩放，并可在同一遍内镜像、顺时针旋转。宽高都恰好为 1/2、1/4…… 时使用盒式滤波，其他比例使用双线性插值。
+     * 可以用于同一路采集同时输出高分辨率的录制和低分辨率的推流。
+     *
+     * @param dstWidth  缩放后、旋转前的宽度，应为偶数。
+     * @param dstHeight 缩放后、旋转前的高度，应为偶数。
+     * @param output    长度至少为 dstWidth * dstHeight * 3 / 2，旋转 90°/270° 后宽高互换。
+     */
+    public static void i420Scale(byte[] i420, int srcWidth, int srcHeight, byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror) {
+        final int srcFrameSize = srcWidth * srcHeight;
+        final int srcUVStride = srcWidth >> 1;
+        i420ScaledFromYUV420888(
+                i420, 0, i420, srcFrameSize, i420, srcFrameSize + srcFrameSize / 4,
+                srcWidth, srcUVStride, 1, srcWidth, srcHeight,
+                output, dstWidth, dstHeight, rotation, mirror
+        );
+    }
+
+    /**
+     * NV12 缩放，参见 {@link #i420Scale(byte[], int, int, byte[], int, int, int, boolean)}。
+     */
+    public static void nv12Scale(byte[] nv12, int srcWidth, int srcHeight, byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror) {
+        semiPlanarScale(nv12, srcWidth, srcHeight, output, dstWidth, dstHeight, rotation, mirror);
+    }
+
+    /**
+     * NV21 缩放，参见 {@link #i420Scale(byte[], int, int, byte[], int, int, int, boolean)}。
+     */
+    public static void nv21Scale(byte[] nv21, int srcWidth, int srcHeight, byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror) {
+        semiPlanarScale(nv21, srcWidth, srcHeight, output, dstWidth, dstHeight, rotation, mirror);
+    }
+
+    /**
+     * 【Camera2】同 {@link #nv12FromYUV420888(byte[], byte[], byte[], int, int, int, byte[], int, int, int, boolean)}，
+     * 同时把 srcWidth x srcHeight 的画面缩放为 dstWidth x dstHeight（旋转前的尺寸）。
+     */
+    public static void nv12ScaledFromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride, int srcWidth, int srcHeight,
+            byte[] nv12, int dstWidth, int dstHeight, int rotation, boolean mirror
+    ) {
+        semiPlanarScaledFromYUV420888(
+                y, 0, u, 0, v, 0,
+                yRowStride, uvRowStride, uvPixelStride, srcWidth, srcHeight,
+                nv12, dstWidth, dstHeight, rotation, mirror
+        );
+    }
+
+    /**
+     * 【Camera2】参见 {@link #nv12ScaledFromYUV420888(byte[], byte[], byte[], int, int, int, int, int, byte[], int, int, int, boolean)}，输出 NV21。
+     */
+    public static void nv21ScaledFromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride, int srcWidth, int srcHeight,
+            byte[] nv21, int dstWidth, int dstHeight, int rotation, boolean mirror
+    ) {
+        semiPlanarScaledFromYUV420888(
+                y, 0, v, 0, u, 0,
+                yRowStride, uvRowStride, uvPixelStride, srcWidth, srcHeight,
+                nv21, dstWidth, dstHeight, rotation, mirror
+        );
+    }
+
+    /**
+     * 【Camera2】参见 {@link #nv12ScaledFromYUV420888(byte[], byte[], byte[], int, int, int, int, int, byte[], int, int, int, boolean)}，输出 I420。
+     */
+    public static void i420ScaledFromYUV420888(
+            byte[] y, byte[] u, byte[] v,
+            int yRowStride, int uvRowStride, int uvPixelStride, int srcWidth, int srcHeight,
+            byte[] i420, int dstWidth, int dstHeight, int rotation, boolean mirror
+    ) {
+        i420ScaledFromYUV420888(
+                y, 0, u, 0, v, 0,
+                yRowStride, uvRowStride, uvPixelStride, srcWidth, srcHeight,
+                i420, dstWidth, dstHeight, rotation, mirror
+        );
+    }
+
+    private static void semiPlanarScale(byte[] src, int srcWidth, int srcHeight, byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror) {
+        final int srcFrameSize = srcWidth * srcHeight;
+        semiPlanarScaledFromYUV420888(
+                src, 0, src, srcFrameSize, src, srcFrameSize + 1,
+                srcWidth, srcWidth, 2, srcWidth, srcHeight,
+                output, dstWidth, dstHeight, rotation, mirror
+        );
+    }
+
+    private static void i420ScaledFromYUV420888(
+            byte[] y, int yOffset, byte[] u, int uOffset, byte[] v, int vOffset,
+            int yRowStride, int uvRowStride, int uvPixelStride, int srcWidth, int srcHeight,
+            byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = dstWidth * dstHeight;
+        final int uvWidth = dstWidth >> 1;
+        final int uvHeight = dstHeight >> 1;
+        final boolean swap = rotation % 180 != 0;
+        final int outWidth = swap ? dstHeight : dstWidth;
+        final int outUVWidth = swap ? uvHeight : uvWidth;
+
+        PlaneScaler.scale(
+                y, yOffset, yRowStride, 1, srcWidth, srcHeight,
+                output, 0, outWidth, 1,
+                dstWidth, dstHeight, rotation, mirror
+        );
+        PlaneScaler.scale(
+                u, uOffset, uvRowStride, uvPixelStride, srcWidth >> 1, srcHeight >> 1,
+                output, frameSize, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+        PlaneScaler.scale(
+                v, vOffset, uvRowStride, uvPixelStride, srcWidth >> 1, srcHeight >> 1,
+                output, frameSize + uvWidth * uvHeight, outUVWidth, 1,
+                uvWidth, uvHeight, rotation, mirror
+        );
+    }
+
+    private static void semiPlanarScaledFromYUV420888(
+            byte[] y, int yOffset, byte[] first, int firstOffset, byte[] second, int secondOffset,
+            int yRowStride, int uvRowStride, int uvPixelStride, int srcWidth, int srcHeight,
+            byte[] output, int dstWidth, int dstHeight, int rotation, boolean mirror
+    ) {
+        PlaneRotator.checkRotation(rotation);
+        final int frameSize = dstWidth * dstHeight;
+        final int outWidth = rotation % 180 != 0 ? dstHeight : dstWidth;
+        PlaneScaler.scale(
+                y, yOffset, yRowStride, 1, srcWidth, srcHeight,
+                output, 0, outWidth, 1,
+                dstWidth, dstHeight, rotation, mirror
+        );
+        PlaneScaler.scalePair(
+                first, firstOffset, second, secondOffset, uvRowStride, uvPixelStride, srcWidth >> 1, srcHeight >> 1,
+                output, frameSize, outWidth,
+                dstWidth >> 1, dstHeight >> 1, rotation, mirror
+        );
     }
 
 }
\ No newline at end of file
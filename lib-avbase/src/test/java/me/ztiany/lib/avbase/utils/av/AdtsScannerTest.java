@@ -0,0 +1,50 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdtsScannerTest {
+
+    @Test
+    public void scansFramesAcrossBufferRefillsAndSkipsGarbage() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // 开头的垃圾数据中包含一个假的同步字。
+        stream.write(new byte[]{0x01, (byte) 0xFF, (byte) 0xF1, 0x50, (byte) 0x80, 0x00, 0x1F, (byte) 0xFC, 0x02});
+        final byte[] header = new byte[AdtsHeader.HEADER_SIZE];
+        final int frames = 500;
+        for (int i = 0; i < frames; i++) {
+            final int payload = 200 + i % 300;
+            AdtsHeader.write(header, 0, 2, 3, 2, payload);
+            stream.write(header);
+            for (int j = 0; j < payload; j++) {
+                stream.write(i);
+            }
+        }
+        // 末尾不完整的帧。
+        AdtsHeader.write(header, 0, 2, 3, 2, 100);
+        stream.write(header);
+        stream.write(new byte[10]);
+
+        final AdtsScanner scanner = new AdtsScanner(new ByteArrayInputStream(stream.toByteArray()));
+        for (int i = 0; i < frames; i++) {
+            assertTrue(scanner.next());
+            assertEquals(200 + i % 300, scanner.getPayloadLength());
+            assertEquals(48000, scanner.getHeader().getSampleRate());
+            assertEquals((byte) i, scanner.getBuffer()[scanner.getPayloadOffset()]);
+            assertEquals((byte) i, scanner.getBuffer()[scanner.getPayloadOffset() + scanner.getPayloadLength() - 1]);
+            assertEquals(i * 1024L * 1000_000L / 48000, scanner.getFrameTimeUs(), 1);
+        }
+        assertFalse(scanner.next());
+        assertEquals(frames, scanner.getFrameCount());
+        assertEquals(9 + 17, scanner.getSkippedBytes());
+        scanner.close();
+    }
+
+}
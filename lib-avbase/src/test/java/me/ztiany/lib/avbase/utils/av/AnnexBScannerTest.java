@@ -0,0 +1,75 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnnexBScannerTest {
+
+    private static final byte[] STREAM = {
+            // 第一个起始码之前的垃圾数据
+            0x12, 0x34,
+            0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1E,
+            // 3 字节起始码，NAL 末尾的 trailing_zero_8bits
+            0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80, 0, 0,
+            0, 0, 0, 1, 0x65, (byte) 0x88, 0, 0, 3, 0, 0, 2, 0x01,
+            0, 0, 1, 0x41, (byte) 0x9A
+    };
+
+    @Test
+    public void findsBothStartCodeForms() throws IOException {
+        final AnnexBScanner scanner = new AnnexBScanner(ByteBuffer.wrap(STREAM));
+        assertNal(scanner, 7, 4, 2, 4);
+        assertNal(scanner, 8, 3, 10, 4);
+        // 00 00 03 与 00 00 02 都不是起始码。
+        assertNal(scanner, 5, 4, 19, 9);
+        assertNal(scanner, 1, 3, 32, 2);
+        assertFalse(scanner.next());
+        assertEquals(4, scanner.getNalCount());
+    }
+
+    @Test
+    public void nalUnitsCrossMappedWindows() throws IOException {
+        final File file = File.createTempFile("annexb", ".h264");
+        try {
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                for (int i = 0; i < 50; i++) {
+                    output.write(STREAM);
+                }
+            }
+            // 窗口只有 16 字节，几乎每个 NAL 都会跨窗口。
+            final AnnexBScanner scanner = new AnnexBScanner(new RandomAccessFile(file, "r"), 16);
+            int count = 0;
+            while (scanner.next()) {
+                final int type = scanner.getH264NalType();
+                assertEquals(new int[]{7, 8, 5, 1}[count % 4], type);
+                // 每段 STREAM 的最后一个 NAL 会带上下一段开头的垃圾数据。
+                final int expected = new int[]{4, 4, 9, count == 199 ? 2 : 4}[count % 4];
+                assertEquals(expected, scanner.getNal().remaining());
+                count++;
+            }
+            scanner.close();
+            assertEquals(200, count);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static void assertNal(AnnexBScanner scanner, int type, int startCodeLength, long position, int length) throws IOException {
+        assertTrue(scanner.next());
+        assertEquals(type, scanner.getH264NalType());
+        assertEquals(startCodeLength, scanner.getStartCodeLength());
+        assertEquals(position, scanner.getPosition());
+        assertEquals(length, scanner.getNal().remaining());
+        assertEquals(length + startCodeLength, scanner.getUnit().remaining());
+    }
+
+}
@@ -0,0 +1,40 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioFramerTest {
+
+    @Test
+    public void timestampsFollowSampleCountDespiteJitter() {
+        final AudioFramer framer = new AudioFramer(48000, 4, AudioFramer.AAC_SAMPLES_PER_FRAME, 1);
+        assertEquals(4096, framer.getChunkBytes());
+        framer.start(1_000_000L);
+        // 每帧 21333 微秒，读取时刻有 ±10 毫秒的抖动。
+        final long[] jitter = {10_000, -5_000, 8_000, -10_000, 0};
+        for (int i = 0; i < jitter.length; i++) {
+            final long now = 1_000_000L + (i + 1) * 21_333L + 30_000L + jitter[i];
+            assertEquals(1_000_000L + i * 1024L * 1000_000L / 48000, framer.nextPresentationTimeUs(now, 0));
+            assertFalse(framer.isDiscontinuity());
+        }
+    }
+
+    @Test
+    public void dropoutMovesAnchorForward() {
+        final AudioFramer framer = new AudioFramer(48000, 4, AudioFramer.AAC_SAMPLES_PER_FRAME, 1);
+        framer.start(0);
+        assertEquals(0, framer.nextPresentationTimeUs(21_333L, 0));
+        // 丢了约 500 毫秒的数据：这一块在 500 毫秒后才被采集到，之后还有 1 帧在缓冲区中。
+        final long pts = framer.nextPresentationTimeUs(542_666L, 4096);
+        assertTrue(framer.isDiscontinuity());
+        assertEquals(500_000L, pts, 1);
+        assertEquals(1, framer.getDiscontinuityCount());
+        // 之后继续按采样数推进。
+        assertEquals(pts + 21_333L, framer.nextPresentationTimeUs(542_666L + 21_333L, 4096));
+        assertFalse(framer.isDiscontinuity());
+    }
+
+}
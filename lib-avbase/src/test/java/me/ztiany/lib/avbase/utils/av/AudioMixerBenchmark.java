@@ -0,0 +1,44 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 测量 AudioMixer 混合 2、8、32 路 16 位立体声的吞吐量：每次混合 4096 帧，并且定期触发增益渐变。
+ */
+public final class AudioMixerBenchmark {
+
+    private static final int FRAMES = 4096;
+    private static final int CHANNELS = 2;
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        for (int tracks : new int[]{2, 8, 32}) {
+            final AudioMixer mixer = new AudioMixer(CHANNELS, tracks);
+            final short[][] inputs = new short[tracks][FRAMES * CHANNELS];
+            for (short[] input : inputs) {
+                for (int i = 0; i < input.length; i++) {
+                    input[i] = (short) (random.nextGaussian() * 3000);
+                }
+            }
+            final int[] inputFrames = new int[tracks];
+            Arrays.fill(inputFrames, FRAMES);
+            for (int track = 0; track < tracks; track++) {
+                mixer.setGain(track, 0.5f);
+            }
+            final short[] out = new short[FRAMES * CHANNELS];
+            final int[] blocks = {0};
+
+            final double millis = Benchmarks.medianMillis(3000, 2000, () -> {
+                if (blocks[0]++ % 100 == 0) {
+                    mixer.rampGain(blocks[0] % tracks, blocks[0] % 200 == 1 ? 0.3f : 0.5f, 1024);
+                }
+                mixer.mix(inputs, inputFrames, out, FRAMES);
+            });
+            final double outputSamples = FRAMES * CHANNELS / millis / 1000;
+            System.out.printf("%d tracks: %.3f ms per block, %.1f M input samples/s, %.1f M output samples/s (%.0fx realtime @44.1k)%n",
+                    tracks, millis, outputSamples * tracks, outputSamples, FRAMES / millis * 1000 / 44100);
+        }
+    }
+
+}
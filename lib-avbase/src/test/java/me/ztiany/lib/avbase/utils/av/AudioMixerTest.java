@@ -0,0 +1,54 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioMixerTest {
+
+    @Test
+    public void rampIsSampleAccurateAndShortInputsAreSilent() {
+        final AudioMixer mixer = new AudioMixer(1, 2);
+        mixer.rampGain(0, 0f, 4);
+        final short[] out = new short[8];
+        mixer.mix(
+                new short[][]{{16384, 16384, 16384, 16384, 16384, 16384, 16384, 16384}, {1000, 1000, 5, 5}},
+                new int[]{8, 2},
+                out,
+                8
+        );
+        // 增益 0.75、0.5、0.25、0，第二个输入只有 2 帧有效。
+        assertArrayEquals(new short[]{13288, 9192, 4096, 0, 0, 0, 0, 0}, out);
+        assertEquals(0f, mixer.getGain(0), 0f);
+    }
+
+    @Test
+    public void rampContinuesAcrossBlocks() {
+        final AudioMixer mixer = new AudioMixer(2, 1);
+        mixer.setGain(0, 0f);
+        mixer.rampGain(0, 1f, 4);
+        final float[] out = new float[4];
+        final float[][] input = {{1, 1, 1, 1}};
+        mixer.mix(input, new int[]{2}, out, 2);
+        assertArrayEquals(new float[]{0.25f, 0.25f, 0.5f, 0.5f}, out, 1e-6f);
+        mixer.mix(input, new int[]{2}, out, 2);
+        // 增益 1 的采样超过限幅阈值 0.8：0.8 + 0.2 * 1 / (1 + 1)。
+        assertArrayEquals(new float[]{0.75f, 0.75f, 0.9f, 0.9f}, out, 1e-6f);
+    }
+
+    @Test
+    public void limiterIsContinuousAndBounded() {
+        assertEquals(0.5f, AudioMixer.limit(0.5f, 0.8f), 0f);
+        assertEquals(0.8f, AudioMixer.limit(0.8f + 1e-6f, 0.8f), 1e-5f);
+        assertTrue(AudioMixer.limit(100f, 0.8f) < 1f);
+        assertEquals(-AudioMixer.limit(3f, 0.8f), AudioMixer.limit(-3f, 0.8f), 0f);
+
+        final AudioMixer mixer = new AudioMixer(1, 2);
+        final short[] out = new short[1];
+        mixer.mix(new short[][]{{32767}, {32767}}, new int[]{1, 1}, out, 1);
+        assertTrue(out[0] < Short.MAX_VALUE);
+    }
+
+}
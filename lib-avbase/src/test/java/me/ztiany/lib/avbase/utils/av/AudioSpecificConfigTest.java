@@ -0,0 +1,90 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioSpecificConfigTest {
+
+    @Test
+    public void lcStereo44100IsTwoBytes() {
+        final AudioSpecificConfig config = AudioSpecificConfig.create(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, 44100, 2);
+        assertArrayEquals(new byte[]{0x12, 0x10}, config.toBytes());
+        assertEquals(config, AudioSpecificConfig.parse(new byte[]{0x12, 0x10}));
+        assertArrayEquals(new byte[]{(byte) 0xAF, 0x00, 0x12, 0x10}, config.toFlvSequenceHeader());
+    }
+
+    @Test
+    public void explicitSbrAndNonStandardRate() {
+        // HE-AAC：objectType 5，核心 24000Hz，立体声，扩展 48000Hz，核心 LC。
+        final AudioSpecificConfig heAac = AudioSpecificConfig.parse(new byte[]{0x2B, (byte) 0x11, (byte) 0x88, 0x00});
+        assertTrue(heAac.isSbr());
+        assertEquals(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, heAac.getObjectType());
+        assertEquals(24000, heAac.getSampleRate());
+        assertEquals(48000, heAac.getOutputSampleRate());
+        assertEquals(2, heAac.getChannelCount());
+        assertEquals(heAac, AudioSpecificConfig.parse(heAac.toBytes()));
+
+        final AudioSpecificConfig custom = AudioSpecificConfig.create(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, 44000, 1);
+        assertEquals(5, custom.toBytes().length);
+        assertEquals(44000, AudioSpecificConfig.parse(custom.toBytes()).getSampleRate());
+    }
+
+    @Test
+    public void explicitPsWithExplicitRatesRoundTrips() {
+        // HE-AACv2：objectType 29，核心 22000Hz（显式），立体声，扩展 44000Hz（显式），核心 LC，共 73 位。
+        final byte[] bytes = bits("11101" + "1111" + bits(22000, 24) + "0010" + "1111" + bits(44000, 24) + "00010" + "000");
+        assertEquals(10, bytes.length);
+        final AudioSpecificConfig config = AudioSpecificConfig.parse(bytes);
+        assertTrue(config.isPs());
+        assertEquals(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, config.getObjectType());
+        assertEquals(22000, config.getSampleRate());
+        assertEquals(44000, config.getOutputSampleRate());
+        assertArrayEquals(bytes, config.toBytes());
+        assertEquals(config, AudioSpecificConfig.parse(config.toBytes()));
+
+        try {
+            AudioSpecificConfig.parse(bytes, 0, 4);
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // 数据不完整
+        }
+    }
+
+    @Test
+    public void adtsHeaderRoundTrip() {
+        final byte[] header = new byte[AdtsHeader.HEADER_SIZE];
+        AudioSpecificConfig.create(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, 44100, 2).writeAdtsHeader(header, 0, 371);
+        assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0xF1, 0x50, (byte) 0x80, 0x2F, 0x5F, (byte) 0xFC}, header);
+
+        final AdtsHeader parsed = new AdtsHeader();
+        assertTrue(parsed.parse(header, 0, header.length));
+        assertEquals(2, parsed.getObjectType());
+        assertEquals(44100, parsed.getSampleRate());
+        assertEquals(2, parsed.getChannelConfig());
+        assertEquals(378, parsed.getFrameLength());
+        assertEquals(371, parsed.getPayloadLength());
+        assertEquals(1, parsed.getRawDataBlocks());
+    }
+
+    private static String bits(int value, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = count - 1; i >= 0; i--) {
+            builder.append((value >> i) & 1);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bits(String bits) {
+        final byte[] bytes = new byte[(bits.length() + 7) / 8];
+        for (int i = 0; i < bits.length(); i++) {
+            if (bits.charAt(i) == '1') {
+                bytes[i / 8] |= (byte) (0x80 >> (i % 8));
+            }
+        }
+        return bytes;
+    }
+
+}
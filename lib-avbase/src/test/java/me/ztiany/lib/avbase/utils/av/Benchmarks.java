@@ -0,0 +1,30 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.util.Arrays;
+
+/**
+ * 各个 *Benchmark 共用的计时方法。benchmark 都是带 main 方法的普通类，不会作为单元测试运行，
+ * 在 JVM 上直接运行（例如 IDE 中运行 main，或者 java -cp 测试的 classes 目录）即可。
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** 预热 warmup 次后运行 iterations 次，返回每次耗时的中位数（毫秒）。 */
+    static double medianMillis(int warmup, int iterations, Runnable action) {
+        for (int i = 0; i < warmup; i++) {
+            action.run();
+        }
+        final long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            action.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[iterations / 2] / 1e6;
+    }
+
+}
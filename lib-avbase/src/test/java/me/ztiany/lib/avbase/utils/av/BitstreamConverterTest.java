@@ -0,0 +1,140 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitstreamConverterTest {
+
+    private static final String H264_SPS = "67640028ACB402201E3CBCA41418181B4284D4";
+    private static final String H264_PPS = "68EE06E2C0";
+
+    /** ParameterSetsTest 中构造的 H.265 参数集（Main@4.0，1920x1080）。 */
+    private static final String H265_VPS = "40010C01FFFF016000000300B0000003000003007895C0C000000300400000064880";
+    private static final String H265_SPS = "420101016000000300B00000030000030078A003C0801107CB96579244BA69A69A69A69AAB4D34D34D34D34D34D34D34D34D34D34D34D34D34D34D34D3556104D34D34D34D34D34D34D34D34D34D34D34D34D34D34D34D3556104D34D34D34D34D34D34D34D34D34D34D34D34D34D34D34D3536B5AD8F016E0202020800001F480003A9810";
+    private static final String H265_PPS = "4401C0F2C0";
+
+    @Test
+    public void convertsBetweenAnnexBAndLengthPrefixed() {
+        final byte[] annexB = hex("00000001" + H264_SPS + "000001" + H264_PPS + "0000000165888400FF" + "000001418A");
+        final BitstreamConverter converter = new BitstreamConverter();
+        final ByteBuffer src = ByteBuffer.wrap(annexB);
+        final int size = converter.lengthPrefixedSize(src);
+        assertEquals(annexB.length + 2, size);
+
+        // 有 3 字节起始码，不能原地转换，数据不变。
+        assertEquals(-1, converter.annexBToLengthPrefixed(src, src));
+        assertArrayEquals(hex("00000001" + H264_SPS + "000001" + H264_PPS + "0000000165888400FF" + "000001418A"), annexB);
+
+        final ByteBuffer avcc = ByteBuffer.allocate(size);
+        assertEquals(size, converter.annexBToLengthPrefixed(src, avcc));
+        assertEquals(4, converter.getNalCount());
+        assertEquals(0, src.position());
+        assertEquals(size, avcc.position());
+        assertArrayEquals(hex("00000013" + H264_SPS + "00000005" + H264_PPS + "0000000565888400FF" + "00000002418A"), avcc.array());
+
+        avcc.flip();
+        final ByteBuffer back = ByteBuffer.allocate(size);
+        assertEquals(size, BitstreamConverter.lengthPrefixedToAnnexB(avcc, 4, back));
+        assertArrayEquals(hex("00000001" + H264_SPS + "00000001" + H264_PPS + "0000000165888400FF" + "00000001418A"), back.array());
+
+        // 全部是 4 字节起始码时原地来回转换。
+        back.flip();
+        assertEquals(size, converter.annexBToLengthPrefixed(back, back));
+        assertEquals(0, back.position());
+        assertArrayEquals(avcc.array(), back.array());
+        BitstreamConverter.lengthPrefixedToAnnexB(back);
+        assertEquals(size, back.limit());
+        assertArrayEquals(hex("00000001" + H264_SPS + "00000001" + H264_PPS + "0000000165888400FF" + "00000001418A"), back.array());
+
+        final ByteBuffer shortLengths = ByteBuffer.wrap(hex("0005" + H264_PPS + "0002418A"));
+        final ByteBuffer out = ByteBuffer.allocate(shortLengths.remaining() + 4);
+        BitstreamConverter.lengthPrefixedToAnnexB(shortLengths, 2, out);
+        assertArrayEquals(hex("00000001" + H264_PPS + "00000001418A"), out.array());
+
+        try {
+            BitstreamConverter.lengthPrefixedToAnnexB(ByteBuffer.wrap(hex("00000006" + H264_PPS)));
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // 长度超出数据范围
+        }
+    }
+
+    @Test
+    public void trimsZeroPaddingBeforeStartCodes() {
+        // trailing_zero_8bits 与流末尾的填充不计入 NAL 的长度。
+        final String padded = "00000001" + H264_SPS + "0000" + "00000001" + H264_PPS + "000000" + "000001" + "418A" + "0000";
+        final BitstreamConverter converter = new BitstreamConverter();
+        final ByteBuffer src = ByteBuffer.wrap(hex(padded));
+        final int size = converter.lengthPrefixedSize(src);
+        final byte[] expected = hex("00000013" + H264_SPS + "00000005" + H264_PPS + "00000002418A");
+        assertEquals(expected.length, size);
+
+        final ByteBuffer avcc = ByteBuffer.allocate(size);
+        assertEquals(size, converter.annexBToLengthPrefixed(src, avcc));
+        assertEquals(3, converter.getNalCount());
+        assertArrayEquals(expected, avcc.array());
+
+        // 4 字节起始码之间有填充时不能原地转换，数据不变。
+        final ByteBuffer inPlace = ByteBuffer.wrap(hex("00000001" + H264_SPS + "00" + "00000001" + H264_PPS));
+        assertEquals(-1, converter.annexBToLengthPrefixed(inPlace, inPlace));
+        assertArrayEquals(hex("00000001" + H264_SPS + "00" + "00000001" + H264_PPS), inPlace.array());
+    }
+
+    @Test
+    public void createsAndParsesAvcC() {
+        final DecoderConfigurationRecord record = DecoderConfigurationRecord.createAvc(
+                Collections.singletonList(ByteBuffer.wrap(hex(H264_SPS))),
+                Collections.singletonList(ByteBuffer.wrap(hex(H264_PPS))));
+        final byte[] bytes = record.toBytes();
+        assertArrayEquals(hex("01640028FFE10013" + H264_SPS + "010005" + H264_PPS + "FDF8F800"), bytes);
+
+        final DecoderConfigurationRecord parsed = DecoderConfigurationRecord.parseAvc(ByteBuffer.wrap(bytes));
+        assertEquals(record, parsed);
+        assertEquals(H264ParameterSets.PROFILE_HIGH, parsed.getProfileIdc());
+        assertEquals(40, parsed.getLevelIdc());
+        assertEquals(4, parsed.getLengthSize());
+        assertArrayEquals(hex(H264_PPS), parsed.getNalUnits(H264ParameterSets.NAL_PPS).get(0));
+        assertArrayEquals(hex("00000001" + H264_SPS + "00000001" + H264_PPS), parsed.toAnnexB());
+
+        final byte[] flv = parsed.toFlvSequenceHeader();
+        assertEquals(DecoderConfigurationRecord.FLV_AVC_KEY_FRAME, flv[0]);
+        assertArrayEquals(bytes, Arrays.copyOfRange(flv, 5, flv.length));
+    }
+
+    @Test
+    public void createsAndParsesHvcC() {
+        final DecoderConfigurationRecord record = DecoderConfigurationRecord.createHevc(
+                Collections.singletonList(ByteBuffer.wrap(hex(H265_VPS))),
+                Collections.singletonList(ByteBuffer.wrap(hex(H265_SPS))),
+                Collections.singletonList(ByteBuffer.wrap(hex(H265_PPS))));
+        final byte[] bytes = record.toBytes();
+        // general_profile_space 到 general_level_idc 取自 SPS。
+        assertArrayEquals(hex("0101600000" + "00B0000000" + "000078"), Arrays.copyOfRange(bytes, 0, 13));
+        assertEquals(3, bytes[22]);
+
+        final DecoderConfigurationRecord parsed = DecoderConfigurationRecord.parseHevc(ByteBuffer.wrap(bytes));
+        assertEquals(record, parsed);
+        assertEquals(H265ParameterSets.PROFILE_MAIN, parsed.getProfileIdc());
+        assertEquals(120, parsed.getLevelIdc());
+        assertEquals(4, parsed.getLengthSize());
+        assertEquals(3, parsed.getNalUnits().size());
+        assertArrayEquals(hex(H265_SPS), parsed.getNalUnits(H265ParameterSets.NAL_SPS).get(0));
+        assertTrue(parsed.toString().contains("hvcC"));
+    }
+
+    private static byte[] hex(String s) {
+        final byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
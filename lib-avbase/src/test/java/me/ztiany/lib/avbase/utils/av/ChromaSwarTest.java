@@ -0,0 +1,145 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 与逐字节的标量实现比较：覆盖 0~40 对（包括不足一个 long 的尾部）、不按 8 对齐的偏移，以及 heap/direct、大端/小端的 buffer。
+ */
+public class ChromaSwarTest {
+
+    private static final int MAX_PAIRS = 40;
+    private static final int MAX_OFFSET = 9;
+    private static final int SIZE = 2 * MAX_PAIRS + 2 * MAX_OFFSET + 16;
+
+    private final Random mRandom = new Random(20240611);
+
+    @Test
+    public void swapPairsMatchesScalar() {
+        forEachCase((pairs, srcIndex, dstIndex, kind) -> {
+            final byte[] src = random();
+            final byte[] expected = random();
+            final byte[] actual = expected.clone();
+            for (int i = 0; i < pairs; i++) {
+                expected[dstIndex + 2 * i] = src[srcIndex + 2 * i + 1];
+                expected[dstIndex + 2 * i + 1] = src[srcIndex + 2 * i];
+            }
+            final ByteBuffer dst = buffer(actual, kind);
+            ChromaSwar.swapPairs(buffer(src, kind), srcIndex, dst, dstIndex, pairs);
+            assertArrayEquals(expected, array(dst));
+
+            // 原地交换。
+            final byte[] swapped = src.clone();
+            final ByteBuffer inPlace = buffer(src.clone(), kind);
+            ChromaSwar.swapPairs(inPlace, srcIndex, inPlace, srcIndex, pairs);
+            for (int i = 0; i < pairs; i++) {
+                swapped[srcIndex + 2 * i] = src[srcIndex + 2 * i + 1];
+                swapped[srcIndex + 2 * i + 1] = src[srcIndex + 2 * i];
+            }
+            assertArrayEquals(swapped, array(inPlace));
+        });
+    }
+
+    @Test
+    public void interleaveAndDeinterleaveMatchScalar() {
+        forEachCase((pairs, srcIndex, dstIndex, kind) -> {
+            final byte[] u = random();
+            final byte[] v = random();
+            final byte[] expected = random();
+            final byte[] initial = expected.clone();
+            for (int i = 0; i < pairs; i++) {
+                expected[dstIndex + 2 * i] = u[srcIndex + i];
+                expected[dstIndex + 2 * i + 1] = v[srcIndex + i];
+            }
+            final ByteBuffer dst = buffer(initial, kind);
+            ChromaSwar.interleave(buffer(u, kind), srcIndex, buffer(v, kind), srcIndex, dst, dstIndex, pairs);
+            assertArrayEquals(expected, array(dst));
+
+            final byte[] expectedFirst = random();
+            final byte[] expectedSecond = random();
+            final ByteBuffer first = buffer(expectedFirst.clone(), kind);
+            final ByteBuffer second = buffer(expectedSecond.clone(), kind);
+            for (int i = 0; i < pairs; i++) {
+                expectedFirst[srcIndex + i] = expected[dstIndex + 2 * i];
+                expectedSecond[srcIndex + i] = expected[dstIndex + 2 * i + 1];
+            }
+            ChromaSwar.deinterleave(buffer(expected, kind), dstIndex, first, srcIndex, second, srcIndex, pairs);
+            assertArrayEquals(expectedFirst, array(first));
+            assertArrayEquals(expectedSecond, array(second));
+        });
+    }
+
+    @Test
+    public void mergeEvenMatchesScalarWithoutOverreading() {
+        forEachCase((pairs, srcIndex, dstIndex, kind) -> {
+            if (pairs == 0) {
+                return;
+            }
+            // 与设备上一样，V 平面是同一块内存错开一个字节的视图，两个平面都在最后一个样本之后结束。
+            final byte[] uv = random();
+            final int length = srcIndex + 2 * pairs;
+            final byte[] first = Arrays.copyOf(uv, length - 1);
+            final byte[] second = Arrays.copyOfRange(uv, 1, length);
+            final byte[] expected = random();
+            final byte[] initial = expected.clone();
+            for (int i = 0; i < pairs; i++) {
+                expected[dstIndex + 2 * i] = uv[srcIndex + 2 * i];
+                expected[dstIndex + 2 * i + 1] = uv[srcIndex + 2 * i + 1];
+            }
+            final ByteBuffer dst = buffer(initial, kind);
+            ChromaSwar.mergeEven(buffer(first, kind), srcIndex, buffer(second, kind), srcIndex, dst, dstIndex, pairs);
+            assertArrayEquals(expected, array(dst));
+        });
+    }
+
+    private interface Case {
+
+        void run(int pairs, int srcIndex, int dstIndex, int kind);
+
+    }
+
+    /** kind：0 为 heap 小端，1 为 heap 大端，2 为 direct 小端，3 为 direct 大端。 */
+    private static void forEachCase(Case action) {
+        for (int kind = 0; kind < 4; kind++) {
+            for (int pairs = 0; pairs <= MAX_PAIRS; pairs++) {
+                for (int srcIndex = 0; srcIndex <= MAX_OFFSET; srcIndex += 3) {
+                    for (int dstIndex = 0; dstIndex <= MAX_OFFSET; dstIndex += 4) {
+                        action.run(pairs, srcIndex, dstIndex, kind);
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] random() {
+        final byte[] bytes = new byte[SIZE];
+        mRandom.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer buffer(byte[] bytes, int kind) {
+        final ByteBuffer buffer;
+        if (kind < 2) {
+            buffer = ByteBuffer.wrap(bytes);
+        } else {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).clear();
+        }
+        return buffer.order(kind % 2 == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    private static byte[] array(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.capacity()];
+        final ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,101 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameBufferPoolTest {
+
+    @Test
+    public void reusesBuffersBySize() {
+        final FrameBufferPool pool = new FrameBufferPool(1 << 20, false);
+        final byte[] first = pool.obtain(4000);
+        assertEquals(1, pool.getOutstanding());
+        pool.recycle(first);
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(4000, pool.getRetainedBytes());
+
+        assertTrue(first == pool.obtain(4000));
+        final byte[] other = pool.obtain(3000);
+        assertTrue(first != other);
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.getOutstanding());
+        assertEquals(0, pool.getRetainedBytes());
+
+        // obtainAtLeast 按 2 的幂取整，大小不同的请求落在同一档位。
+        final byte[] atLeast = pool.obtainAtLeast(1500);
+        assertEquals(2048, atLeast.length);
+        pool.recycle(atLeast);
+        assertTrue(atLeast == pool.obtainAtLeast(2000));
+
+        final ByteBuffer direct = pool.obtainDirect(256);
+        direct.putInt(1).order(ByteOrder.LITTLE_ENDIAN);
+        pool.recycle(direct);
+        final ByteBuffer reused = pool.obtainDirect(256);
+        assertTrue(direct == reused);
+        assertEquals(0, reused.position());
+        assertEquals(256, reused.limit());
+        assertEquals(ByteOrder.BIG_ENDIAN, reused.order());
+    }
+
+    @Test
+    public void dropsBuffersOverTheLimit() {
+        final FrameBufferPool pool = new FrameBufferPool(10000, false);
+        final byte[] a = pool.obtain(6000);
+        final byte[] b = pool.obtain(6000);
+        pool.recycle(a);
+        pool.recycle(b);
+        assertEquals(1, pool.getDrops());
+        assertEquals(6000, pool.getRetainedBytes());
+        assertEquals(0, pool.getOutstanding());
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+        pool.obtain(6000);
+        assertEquals(2 + 1, pool.getMisses());
+    }
+
+    @Test
+    public void rejectsDoubleAndForeignRecycle() {
+        for (boolean leakDetection : new boolean[]{false, true}) {
+            final FrameBufferPool pool = new FrameBufferPool(1 << 20, leakDetection);
+            final byte[] buffer = pool.obtain(100);
+            final byte[] kept = pool.obtain(100);
+            pool.recycle(buffer);
+            assertThrows(() -> pool.recycle(buffer));
+            assertEquals(1, pool.getOutstanding());
+
+            // 重复回收没有生效：缓冲区只会被借出一次。
+            assertTrue(buffer == pool.obtain(100));
+            assertTrue(buffer != pool.obtain(100));
+
+            if (leakDetection) {
+                assertThrows(() -> pool.recycle(new byte[100]));
+                assertThrows(() -> pool.recycle(ByteBuffer.allocateDirect(100)));
+                assertEquals(3, pool.getOutstanding());
+            }
+            pool.recycle(kept);
+            assertEquals(2, pool.getOutstanding());
+        }
+
+        final FrameBufferPool pool = new FrameBufferPool(1 << 20, false);
+        assertThrows(() -> pool.recycle(new byte[100]));
+        assertThrows(() -> pool.recycle(ByteBuffer.allocate(100)));
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    private static void assertThrows(Runnable action) {
+        try {
+            action.run();
+        } catch (IllegalStateException | IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError("expected an exception");
+    }
+
+}
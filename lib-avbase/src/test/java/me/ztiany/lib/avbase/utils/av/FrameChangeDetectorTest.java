@@ -0,0 +1,89 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameChangeDetectorTest {
+
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+
+    @Test
+    public void detectsSampledChangesPerBlock() {
+        final byte[] luma = new byte[WIDTH * HEIGHT];
+        final FrameChangeDetector detector = new FrameChangeDetector(WIDTH, HEIGHT);
+
+        assertTrue(detector.update(luma, 0, WIDTH, 1));
+        assertEquals(detector.getBlocks(), detector.getChangedBlocks());
+        assertFalse(detector.update(luma, 0, WIDTH, 1));
+
+        // 低于阈值的差异被忽略。
+        luma[8 * WIDTH + 8] = 8;
+        assertFalse(detector.update(luma, 0, WIDTH, 1));
+
+        luma[8 * WIDTH + 8] = 100;
+        luma[68 * WIDTH + 200] = 100;
+        assertTrue(detector.update(luma, 0, WIDTH, 1));
+        assertEquals(2, detector.getChangedBlocks());
+        assertFalse(detector.update(luma, 0, WIDTH, 1));
+
+        detector.reset();
+        assertTrue(detector.update(luma, 0, WIDTH, 1));
+    }
+
+    @Test
+    public void readsRGBA() {
+        final ByteBuffer rgba = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        final FrameChangeDetector detector = new FrameChangeDetector(WIDTH, HEIGHT, 1, 16, 8, 1);
+        detector.updateRGBA(rgba, WIDTH * 4);
+
+        // 只有 G 变化，亮度变化 (2 * 40) / 4 = 20。
+        rgba.put((3 * WIDTH + 5) * 4 + 1, (byte) 40);
+        assertTrue(detector.updateRGBA(rgba, WIDTH * 4));
+        assertEquals(1, detector.getChangedBlocks());
+    }
+
+    @Test
+    public void decimatorKeepsAliveAndTrails() {
+        final FrameDecimator decimator = new FrameDecimator(1000, 2);
+        final boolean[] changed = {true, false, false, false, false, false, false, false, false, false};
+        final StringBuilder decisions = new StringBuilder();
+        for (int i = 0; i < changed.length; i++) {
+            decisions.append(decimator.shouldEncode(changed[i], i * 100) ? '1' : '0');
+        }
+        decisions.append(decimator.shouldEncode(false, 1200) ? '1' : '0');
+        decisions.append(decimator.shouldEncode(false, 1300) ? '1' : '0');
+
+        assertEquals("111000000010", decisions.toString());
+        assertEquals(4, decimator.getEncoded());
+        assertEquals(8, decimator.getSkipped());
+    }
+
+    @Test
+    public void decimatorKeepsAliveWithoutFrames() {
+        final FrameDecimator decimator = new FrameDecimator(1000, 0);
+        assertEquals(Long.MIN_VALUE, decimator.getKeepAliveDeadlineMs());
+        assertTrue(decimator.shouldEncode(true, 0));
+        assertEquals(1000, decimator.getKeepAliveDeadlineMs());
+
+        // 画面静止后没有新帧，shouldEncode 不再被调用，只有定时器在 deadline 前后 poll。
+        assertFalse(decimator.pollKeepAlive(999));
+        assertTrue(decimator.pollKeepAlive(1000));
+        assertEquals(2000, decimator.getKeepAliveDeadlineMs());
+        assertFalse(decimator.pollKeepAlive(1500));
+        assertTrue(decimator.pollKeepAlive(2600));
+        assertEquals(3600, decimator.getKeepAliveDeadlineMs());
+
+        // 之后到达的静止帧以最近一次保活为准。
+        assertFalse(decimator.shouldEncode(false, 3000));
+        assertTrue(decimator.shouldEncode(false, 3600));
+        assertEquals(4, decimator.getEncoded());
+        assertEquals(1, decimator.getSkipped());
+    }
+
+}
@@ -0,0 +1,118 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用逐窗口直接求和的 SSIM 校验滚动积分的结果，并验证文件流的逐帧比较与汇总。
+ */
+public class FrameQualityTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 24;
+
+    private static byte[] frame(long seed, int noise, byte[] base) {
+        final Random random = new Random(seed);
+        final byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            final int value = base == null ? (i % WIDTH) * 5 + (i / WIDTH) * 3 : base[i] & 0xFF;
+            frame[i] = (byte) Math.max(0, Math.min(255, value + random.nextInt(2 * noise + 1) - noise));
+        }
+        return frame;
+    }
+
+    private static double naiveSsim(byte[] a, byte[] b, int offset, int rowStride, int pixelStride, int width, int height) {
+        final double c1 = (0.01 * 255) * (0.01 * 255);
+        final double c2 = (0.03 * 255) * (0.03 * 255);
+        double total = 0;
+        int windows = 0;
+        for (int y = 0; y + 8 <= height; y++) {
+            for (int x = 0; x + 8 <= width; x++) {
+                double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+                for (int j = 0; j < 8; j++) {
+                    for (int i = 0; i < 8; i++) {
+                        final int k = offset + (y + j) * rowStride + (x + i) * pixelStride;
+                        final int p = a[k] & 0xFF;
+                        final int q = b[k] & 0xFF;
+                        sx += p;
+                        sy += q;
+                        sxx += p * p;
+                        syy += q * q;
+                        sxy += p * q;
+                    }
+                }
+                final double mx = sx / 64, my = sy / 64;
+                final double vx = sxx / 64 - mx * mx, vy = syy / 64 - my * my, cov = sxy / 64 - mx * my;
+                total += ((2 * mx * my + c1) * (2 * cov + c2)) / ((mx * mx + my * my + c1) * (vx + vy + c2));
+                windows++;
+            }
+        }
+        return total / windows;
+    }
+
+    @Test
+    public void identicalFrames() {
+        final byte[] frame = frame(1, 0, null);
+        final FrameQuality.Score score = new FrameQuality(WIDTH, HEIGHT, FrameQuality.I420).compare(frame, frame);
+        assertEquals(FrameQuality.MAX_PSNR, score.psnr, 0);
+        assertEquals(1, score.ssim, 1e-12);
+    }
+
+    @Test
+    public void ssimMatchesDirectWindows() {
+        final byte[] reference = frame(1, 0, null);
+        final byte[] distorted = frame(2, 12, reference);
+        final int frameSize = WIDTH * HEIGHT;
+
+        final FrameQuality.Score i420 = new FrameQuality(WIDTH, HEIGHT, FrameQuality.I420).compare(reference, distorted);
+        assertEquals(naiveSsim(reference, distorted, 0, WIDTH, 1, WIDTH, HEIGHT), i420.ssimY, 1e-9);
+        assertEquals(naiveSsim(reference, distorted, frameSize, WIDTH / 2, 1, WIDTH / 2, HEIGHT / 2), i420.ssimU, 1e-9);
+
+        final FrameQuality.Score nv21 = new FrameQuality(WIDTH, HEIGHT, FrameQuality.NV21).compare(reference, distorted);
+        assertEquals(naiveSsim(reference, distorted, frameSize, WIDTH, 2, WIDTH / 2, HEIGHT / 2), nv21.ssimV, 1e-9);
+        assertEquals(naiveSsim(reference, distorted, frameSize + 1, WIDTH, 2, WIDTH / 2, HEIGHT / 2), nv21.ssimU, 1e-9);
+
+        long sse = 0;
+        for (int i = 0; i < frameSize; i++) {
+            final int d = (reference[i] & 0xFF) - (distorted[i] & 0xFF);
+            sse += d * d;
+        }
+        assertEquals(sse, i420.sseY);
+        assertEquals(10 * Math.log10(255.0 * 255.0 * frameSize / sse), i420.psnrY, 1e-9);
+    }
+
+    @Test
+    public void streamsFrameByFrame() throws IOException {
+        final byte[] reference = frame(1, 0, null);
+        final byte[] distorted = frame(2, 20, reference);
+        final ByteArrayOutputStream referenceFile = new ByteArrayOutputStream();
+        final ByteArrayOutputStream distortedFile = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            referenceFile.write(reference);
+            distortedFile.write(i == 2 ? distorted : reference);
+        }
+        // 末尾不足一帧的数据被忽略。
+        distortedFile.write(new byte[7]);
+
+        final int[] calls = new int[1];
+        final FrameQuality.Summary summary = new FrameQuality(WIDTH, HEIGHT, FrameQuality.NV12).compareStreams(
+                new ByteArrayInputStream(referenceFile.toByteArray()),
+                new ByteArrayInputStream(distortedFile.toByteArray()),
+                (index, score) -> assertEquals(calls[0]++, index)
+        );
+
+        assertEquals(4, summary.getFrames());
+        assertEquals(4, calls[0]);
+        assertEquals(2, summary.getMinSsimFrame());
+        assertTrue(summary.getMinSsim() < 1);
+        assertTrue(summary.getGlobalPsnr() < summary.getAveragePsnr());
+    }
+
+}
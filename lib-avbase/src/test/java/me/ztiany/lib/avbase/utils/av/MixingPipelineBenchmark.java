@@ -0,0 +1,239 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 测量混音流水线中 PCM 部分的 I/O 与耗时：两路 5 分钟的 44.1kHz 16 位立体声（解码的输出用合成数据代替，JVM 上没有 MediaCodec）。
+ * <ul>
+ * <li>temp files：原来的 mixAudioTrack，解码写 video.pcm、bg.pcm → 读出混音写 mixed.pcm → 转换为 mixed.wav → 读 mixed.wav 送编码器。</li>
+ * <li>queue：两个解码线程写入 {@link PcmQueue}，缓存达到预算的一半时等待，混音线程读出混音，与 VideoAudioMixing 相同。</li>
+ * <li>queue + spill：解码线程不等待、全部写完后才开始混音（编码器远慢于解码的最坏情况），超过预算的部分全部溢出到磁盘。</li>
+ * </ul>
+ */
+public final class MixingPipelineBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final long CLIP_FRAMES = 5L * 60 * SAMPLE_RATE;
+    private static final long BUDGET_BYTES = 8 * 1024 * 1024;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private static final short[] BLOCK = new short[BLOCK_FRAMES * CHANNELS];
+
+    /** 各个场景的读写字节数，每次运行时重新统计。 */
+    private static long sWritten;
+    private static long sRead;
+
+    public static void main(String[] args) throws IOException {
+        for (int i = 0; i < BLOCK.length; i++) {
+            BLOCK[i] = (short) (Math.sin(i * 0.01) * 8000);
+        }
+        final File dir = File.createTempFile("mixing", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("can not create " + dir);
+        }
+        try {
+            run("temp files", () -> tempFiles(dir));
+            run("queue", () -> queues(dir, true));
+            run("queue + spill", () -> queues(dir, false));
+        } finally {
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            dir.delete();
+        }
+    }
+
+    private interface Pipeline {
+        void run() throws Exception;
+    }
+
+    private static void run(String name, Pipeline pipeline) {
+        final double millis = Benchmarks.medianMillis(1, 5, () -> {
+            sWritten = 0;
+            sRead = 0;
+            try {
+                pipeline.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        System.out.printf("%-14s %8.0f ms, written %6.1f MB, read %6.1f MB%n", name, millis, sWritten / 1e6, sRead / 1e6);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 原来的实现
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static void tempFiles(File dir) throws IOException {
+        final File video = new File(dir, "video.pcm");
+        final File bg = new File(dir, "bg.pcm");
+        final File mixed = new File(dir, "mixed.pcm");
+        final File wav = new File(dir, "mixed.wav");
+        decodeToFile(video);
+        decodeToFile(bg);
+
+        final AudioMixer mixer = new AudioMixer(CHANNELS, 2);
+        final short[][] samples = new short[2][BLOCK.length];
+        final int[] frames = new int[2];
+        final short[] out = new short[BLOCK.length];
+        try (FileChannel in1 = open(video, "r"); FileChannel in2 = open(bg, "r"); FileChannel dst = open(mixed, "rw")) {
+            final ByteBuffer buffer1 = ByteBuffer.allocateDirect(BLOCK.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            final ByteBuffer buffer2 = ByteBuffer.allocateDirect(BLOCK.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            final ByteBuffer output = ByteBuffer.allocateDirect(BLOCK.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            while (true) {
+                frames[0] = readBlock(in1, buffer1, samples[0]);
+                frames[1] = readBlock(in2, buffer2, samples[1]);
+                final int blockFrames = Math.max(frames[0], frames[1]);
+                if (blockFrames == 0) {
+                    break;
+                }
+                mixer.mix(samples, frames, out, blockFrames);
+                output.clear();
+                output.asShortBuffer().put(out, 0, blockFrames * CHANNELS);
+                output.limit(blockFrames * CHANNELS * 2);
+                write(dst, output);
+            }
+        }
+
+        // pcm → wav：写 44 字节的头，再整体拷贝一遍。
+        try (FileChannel src = open(mixed, "r"); FileChannel dst = open(wav, "rw")) {
+            write(dst, ByteBuffer.allocate(44));
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            while (read(src, buffer) > 0) {
+                buffer.flip();
+                write(dst, buffer);
+                buffer.clear();
+            }
+        }
+
+        // MediaExtractor 读出 wav 送给编码器。
+        try (FileChannel src = open(wav, "r")) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            while (read(src, buffer) > 0) {
+                buffer.clear();
+            }
+        }
+    }
+
+    private static void decodeToFile(File file) throws IOException {
+        try (FileChannel channel = open(file, "rw")) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (long frames = 0; frames < CLIP_FRAMES; frames += BLOCK_FRAMES) {
+                final int count = (int) Math.min(BLOCK_FRAMES, CLIP_FRAMES - frames) * CHANNELS;
+                buffer.clear();
+                buffer.asShortBuffer().put(BLOCK, 0, count);
+                buffer.limit(count * 2);
+                write(channel, buffer);
+            }
+        }
+    }
+
+    private static int readBlock(FileChannel channel, ByteBuffer buffer, short[] samples) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && read(channel, buffer) > 0) {
+            // 读满一块
+        }
+        buffer.flip();
+        final int count = buffer.remaining() / 2;
+        buffer.asShortBuffer().get(samples, 0, count);
+        return count / CHANNELS;
+    }
+
+    private static FileChannel open(File file, String mode) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, mode);
+        if (mode.contains("w")) {
+            raf.setLength(0);
+        }
+        return raf.getChannel();
+    }
+
+    private static int read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        final int read = channel.read(buffer);
+        if (read > 0) {
+            sRead += read;
+        }
+        return read;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            sWritten += channel.write(buffer);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // PcmQueue 流水线
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static void queues(File dir, boolean throttle) throws Exception {
+        final long highWaterFrames = BUDGET_BYTES / 2 / 2 / (CHANNELS * 2);
+        final PcmQueue[] queues = new PcmQueue[2];
+        final Thread[] producers = new Thread[2];
+        for (int i = 0; i < queues.length; i++) {
+            final PcmQueue queue = new PcmQueue(CHANNELS, BUDGET_BYTES / 2, new File(dir, "spill-" + i + ".pcm"));
+            queues[i] = queue;
+            producers[i] = new Thread(() -> {
+                try {
+                    for (long frames = 0; frames < CLIP_FRAMES; frames += BLOCK_FRAMES) {
+                        if (throttle) {
+                            queue.awaitBelow(highWaterFrames);
+                        }
+                        queue.write(BLOCK, (int) Math.min(BLOCK_FRAMES, CLIP_FRAMES - frames));
+                    }
+                    queue.finish();
+                } catch (IOException e) {
+                    queue.fail(e);
+                }
+            });
+            producers[i].start();
+        }
+        if (!throttle) {
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        }
+
+        final AudioMixer mixer = new AudioMixer(CHANNELS, 2);
+        final short[][] samples = new short[2][BLOCK.length];
+        final int[] frames = new int[2];
+        final short[] out = new short[BLOCK.length];
+        // 代替编码器的输入缓冲区。
+        final ByteBuffer encoderInput = ByteBuffer.allocateDirect(BLOCK.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (true) {
+                frames[0] = queues[0].read(samples[0], BLOCK_FRAMES);
+                frames[1] = queues[1].read(samples[1], BLOCK_FRAMES);
+                final int blockFrames = Math.max(frames[0], frames[1]);
+                if (blockFrames == 0) {
+                    break;
+                }
+                mixer.mix(samples, frames, out, blockFrames);
+                encoderInput.clear();
+                encoderInput.asShortBuffer().put(out, 0, blockFrames * CHANNELS);
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        } finally {
+            for (PcmQueue queue : queues) {
+                // 溢出的数据写入一次、读出一次。
+                sWritten += queue.getSpilledBytes();
+                sRead += queue.getSpilledBytes();
+                queue.close();
+            }
+        }
+    }
+
+}
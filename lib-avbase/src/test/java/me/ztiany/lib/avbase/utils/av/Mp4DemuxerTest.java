@@ -0,0 +1,359 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4DemuxerTest {
+
+    private static final String H264_SPS = "67640028ACB402201E3CBCA41418181B4284D4";
+    private static final String H264_PPS = "68EE06E2C0";
+
+    private static final int VIDEO_SAMPLES = 6;
+    private static final int AUDIO_SAMPLES = 4;
+    private static final int AUDIO_SAMPLE_SIZE = 8;
+    /** 显示时间偏移，elst 的 media_time 抵消第一帧的偏移。 */
+    private static final int[] CTTS = {200, 500, 100, 200, 500, 100};
+
+    @Test
+    public void parsesTracksAndSeeks() throws IOException {
+        final File file = writeMp4();
+        try (Mp4Demuxer demuxer = new Mp4Demuxer(file)) {
+            assertEquals(2, demuxer.getTrackCount());
+            assertEquals(2_000_000, demuxer.getDurationUs());
+            assertFalse(demuxer.isFragmented());
+
+            final Mp4Demuxer.Track video = demuxer.findTrack(Mp4Demuxer.HANDLER_VIDEO);
+            assertEquals(1, video.getTrackId());
+            assertEquals("avc1", video.getCodec());
+            assertEquals(Mp4Demuxer.MIMETYPE_VIDEO_AVC, video.getMimeType());
+            assertEquals(1080, video.getWidth());
+            assertEquals(1920, video.getHeight());
+            assertEquals(90, video.getRotation());
+            assertEquals(40, video.getDecoderConfigurationRecord().getLevelIdc());
+            assertEquals(VIDEO_SAMPLES, video.getSampleCount());
+            assertEquals(2, video.getSyncSampleCount());
+            assertTrue(video.isSyncSample(3));
+            assertFalse(video.isSyncSample(4));
+            assertEquals(0, video.getSampleTimeUs(0));
+            assertEquals(100_000, video.getSampleTimeUs(3));
+            assertEquals(233_333, video.getSampleTimeUs(4));
+            assertEquals(-66_666, video.getDecodeTimeUs(0));
+
+            assertEquals(0, video.getSampleIndex(50_000, Mp4Demuxer.SEEK_TO_PREVIOUS_SYNC));
+            assertEquals(3, video.getSampleIndex(50_000, Mp4Demuxer.SEEK_TO_NEXT_SYNC));
+            assertEquals(0, video.getSampleIndex(50_000, Mp4Demuxer.SEEK_TO_CLOSEST_SYNC));
+            assertEquals(3, video.getSampleIndex(60_000, Mp4Demuxer.SEEK_TO_CLOSEST_SYNC));
+            assertEquals(3, video.getSampleIndex(100_000, Mp4Demuxer.SEEK_TO_NEXT_SYNC));
+            assertEquals(-1, video.getSampleIndex(200_000, Mp4Demuxer.SEEK_TO_NEXT_SYNC));
+
+            final Mp4Demuxer.Track audio = demuxer.findTrack(Mp4Demuxer.HANDLER_AUDIO);
+            assertEquals(Mp4Demuxer.MIMETYPE_AUDIO_AAC, audio.getMimeType());
+            assertEquals(44100, audio.getSampleRate());
+            assertEquals(2, audio.getChannelCount());
+            assertEquals(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, audio.getAudioSpecificConfig().getObjectType());
+            // csd-0 是 esds 中的原始数据，包括 AudioSpecificConfig 不会写出的扩展。
+            assertArrayEquals(audioConfig(), audio.getCodecSpecificData());
+            assertEquals(AUDIO_SAMPLES, audio.getSyncSampleCount());
+            assertEquals(69_000, audio.getSampleTimeUs(3));
+            assertEquals(2, audio.getSampleIndex(50_000, Mp4Demuxer.SEEK_TO_CLOSEST_SYNC));
+
+            // 两个轨道的 reader 交替读取，互不影响。
+            final Mp4Demuxer.SampleReader videoReader = demuxer.newReader(video);
+            final Mp4Demuxer.SampleReader audioReader = demuxer.newReader(audio);
+            final ByteBuffer buffer = ByteBuffer.allocate(video.getMaxSampleSize() + 16);
+            for (int i = 0; i < AUDIO_SAMPLES; i++) {
+                buffer.clear();
+                assertEquals(AUDIO_SAMPLE_SIZE, audioReader.readSampleData(buffer));
+                assertArrayEquals(audioSample(i), Arrays.copyOf(buffer.array(), AUDIO_SAMPLE_SIZE));
+                assertEquals(Mp4Demuxer.SAMPLE_FLAG_SYNC, audioReader.getSampleFlags());
+                audioReader.advance();
+
+                buffer.clear();
+                final byte[] expected = videoSample(i);
+                assertEquals(expected.length, videoReader.readSampleData(buffer));
+                assertArrayEquals(expected, Arrays.copyOf(buffer.array(), expected.length));
+                assertEquals(i == 0 || i == 3 ? Mp4Demuxer.SAMPLE_FLAG_SYNC : 0, videoReader.getSampleFlags());
+                videoReader.advance();
+            }
+            assertEquals(-1, audioReader.readSampleData(buffer));
+            assertEquals(-1, audioReader.getSampleTime());
+
+            videoReader.setAnnexB(true);
+            videoReader.seekTo(150_000, Mp4Demuxer.SEEK_TO_PREVIOUS_SYNC);
+            assertEquals(3, videoReader.getSampleIndex());
+            assertEquals(100_000, videoReader.getSampleTime());
+            buffer.clear();
+            final byte[] annexB = videoSample(3);
+            annexB[3] = 1;
+            assertEquals(annexB.length, videoReader.readSampleData(buffer));
+            assertArrayEquals(annexB, Arrays.copyOf(buffer.array(), annexB.length));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void rejectsCorruptSampleSizes() throws IOException {
+        final Box[] corrupt = {
+                new Box("stsz").u32(0).u32(0).u32(Integer.MAX_VALUE),
+                new Box("stsz").u32(0).u32(16).u32(Integer.MAX_VALUE),
+                new Box("stsz").u32(0).u32(0).u32(-1),
+                // 截断的 box，解析时的越界异常也转换为 IOException。
+                new Box("stsz").u32(0)
+        };
+        for (Box stsz : corrupt) {
+            final File file = writeMp4(stsz);
+            try (Mp4Demuxer demuxer = new Mp4Demuxer(file)) {
+                throw new AssertionError("expected IOException, but parsed " + demuxer.getTrackCount() + " tracks");
+            } catch (IOException expected) {
+                // 在分配数组之前拒绝
+            } finally {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    @Test
+    public void readsConcurrentlyAcrossMappedRegions() throws Exception {
+        final File file = writeMp4();
+        // 每 16 个字节一个区域，几乎每个 sample 都落在区域的重叠部分。
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try (Mp4Demuxer demuxer = new Mp4Demuxer(randomAccessFile, randomAccessFile.getChannel(), 16)) {
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final Mp4Demuxer.Track track = demuxer.getTrack(t % 2);
+                threads[t] = new Thread(() -> {
+                    try {
+                        final Mp4Demuxer.SampleReader reader = demuxer.newReader(track);
+                        final ByteBuffer buffer = ByteBuffer.allocate(track.getMaxSampleSize());
+                        for (int round = 0; round < 200; round++) {
+                            reader.seekToSample(0);
+                            int index = 0;
+                            do {
+                                buffer.clear();
+                                final int size = reader.readSampleData(buffer);
+                                final byte[] expected = track.isVideo() ? videoSample(index) : audioSample(index);
+                                assertArrayEquals(expected, Arrays.copyOf(buffer.array(), size));
+                                index++;
+                            } while (reader.advance());
+                            assertEquals(track.getSampleCount(), index);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (error.get() != null) {
+                throw new AssertionError(error.get());
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 构造测试文件
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** 4 字节长度前缀的一个 NAL，关键帧为 IDR。 */
+    private static byte[] videoSample(int index) {
+        final byte[] sample = new byte[4 + 10 + index];
+        sample[3] = (byte) (10 + index);
+        sample[4] = (byte) (index == 0 || index == 3 ? 0x65 : 0x41);
+        Arrays.fill(sample, 5, sample.length, (byte) index);
+        return sample;
+    }
+
+    private static byte[] audioSample(int index) {
+        final byte[] sample = new byte[AUDIO_SAMPLE_SIZE];
+        Arrays.fill(sample, (byte) (0xA0 + index));
+        return sample;
+    }
+
+    /**
+     * ftyp、mdat、moov 的顺序。视频 4 个 chunk（2、2、1、1 个 sample），音频的一个 chunk 位于视频第 2、3 个 chunk 之间。
+     */
+    private static File writeMp4() throws IOException {
+        return writeMp4(stsz());
+    }
+
+    private static File writeMp4(Box videoStsz) throws IOException {
+        final ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        final long mdatData = 16 + 8;
+        final long[] videoChunks = new long[4];
+        final int[] chunkFirstSample = {0, 2, 4, 5, VIDEO_SAMPLES};
+        long audioChunk = 0;
+        for (int chunk = 0; chunk < 4; chunk++) {
+            if (chunk == 2) {
+                audioChunk = mdatData + mdat.size();
+                for (int i = 0; i < AUDIO_SAMPLES; i++) {
+                    mdat.write(audioSample(i));
+                }
+            }
+            videoChunks[chunk] = mdatData + mdat.size();
+            for (int i = chunkFirstSample[chunk]; i < chunkFirstSample[chunk + 1]; i++) {
+                mdat.write(videoSample(i));
+            }
+        }
+
+        final DecoderConfigurationRecord avcC = DecoderConfigurationRecord.createAvc(
+                Collections.singletonList(ByteBuffer.wrap(hex(H264_SPS))),
+                Collections.singletonList(ByteBuffer.wrap(hex(H264_PPS))));
+        final Box avc1 = new Box("avc1").zeros(6).u16(1).zeros(16).u16(1080).u16(1920)
+                .u32(0x480000).u32(0x480000).zeros(4).u16(1).zeros(32).u16(0x18).u16(0xFFFF)
+                .child(new Box("avcC").bytes(avcC.toBytes()));
+        final Box videoStbl = new Box("stbl")
+                .child(new Box("stsd").u32(0).u32(1).child(avc1))
+                .child(new Box("stts").u32(0).u32(1).u32(VIDEO_SAMPLES).u32(100))
+                .child(ctts())
+                .child(new Box("stss").u32(0).u32(2).u32(1).u32(4))
+                .child(videoStsz)
+                .child(new Box("stsc").u32(0).u32(2).u32(1).u32(2).u32(1).u32(3).u32(1).u32(1))
+                .child(new Box("stco").u32(0).u32(4).u32(videoChunks[0]).u32(videoChunks[1]).u32(videoChunks[2]).u32(videoChunks[3]));
+        final Box videoTrak = new Box("trak")
+                .child(tkhd(1, 0, 0x10000, 1080, 1920))
+                .child(new Box("edts").child(new Box("elst").u32(0).u32(1).u32(2000).u32(200).u32(0x10000)))
+                .child(mdia(3000, VIDEO_SAMPLES * 100, "vide", videoStbl));
+
+        final byte[] asc = audioConfig();
+        final Box esds = new Box("esds").u32(0)
+                .u8(0x03).u8(3 + 15 + 2 + asc.length + 3).u16(1).u8(0)
+                .u8(0x04).u8(13 + 2 + asc.length).u8(0x40).u8(0x15).zeros(3).u32(128000).u32(128000)
+                .u8(0x05).u8(asc.length).bytes(asc)
+                .u8(0x06).u8(1).u8(2);
+        final Box mp4a = new Box("mp4a").zeros(6).u16(1).zeros(8).u16(2).u16(16).zeros(4).u32(44100L << 16).child(esds);
+        final Box audioStbl = new Box("stbl")
+                .child(new Box("stsd").u32(0).u32(1).child(mp4a))
+                .child(new Box("stts").u32(0).u32(1).u32(AUDIO_SAMPLES).u32(23))
+                .child(new Box("stsz").u32(0).u32(AUDIO_SAMPLE_SIZE).u32(AUDIO_SAMPLES))
+                .child(new Box("stsc").u32(0).u32(1).u32(1).u32(AUDIO_SAMPLES).u32(1))
+                .child(new Box("co64").u32(0).u32(1).u32(0).u32(audioChunk));
+        final Box audioTrak = new Box("trak")
+                .child(tkhd(2, 0x10000, 0, 0, 0))
+                .child(mdia(1000, AUDIO_SAMPLES * 23, "soun", audioStbl));
+
+        final Box moov = new Box("moov")
+                .child(new Box("mvhd").u32(0).u32(0).u32(0).u32(1000).u32(2000).zeros(80))
+                .child(videoTrak)
+                .child(audioTrak);
+
+        final File file = File.createTempFile("demuxer", ".mp4");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new Box("ftyp").bytes("isom".getBytes()).u32(0).toBytes());
+            out.write(new Box("mdat").bytes(mdat.toByteArray()).toBytes());
+            out.write(moov.toBytes());
+        }
+        return file;
+    }
+
+    /** AAC-LC 之后带有 SBR 的同步扩展（0x2B7，sbrPresentFlag = 0），toBytes() 不会写出这部分。 */
+    private static byte[] audioConfig() {
+        final byte[] asc = AudioSpecificConfig.create(AudioSpecificConfig.OBJECT_TYPE_AAC_LC, 44100, 2).toBytes();
+        final byte[] config = Arrays.copyOf(asc, asc.length + 3);
+        config[asc.length] = 0x56;
+        config[asc.length + 1] = (byte) 0xE5;
+        return config;
+    }
+
+    private static Box ctts() {
+        final Box ctts = new Box("ctts").u32(0).u32(CTTS.length);
+        for (int offset : CTTS) {
+            ctts.u32(1).u32(offset);
+        }
+        return ctts;
+    }
+
+    private static Box stsz() {
+        final Box stsz = new Box("stsz").u32(0).u32(0).u32(VIDEO_SAMPLES);
+        for (int i = 0; i < VIDEO_SAMPLES; i++) {
+            stsz.u32(videoSample(i).length);
+        }
+        return stsz;
+    }
+
+    /** 矩阵的 a、b 决定旋转角度。 */
+    private static Box tkhd(int trackId, int a, int b, int width, int height) {
+        return new Box("tkhd").u32(7).u32(0).u32(0).u32(trackId).u32(0).u32(0).zeros(8).zeros(8)
+                .u32(a).u32(b).u32(0).u32(-b).u32(a).u32(0).u32(0).u32(0).u32(0x40000000)
+                .u32((long) width << 16).u32((long) height << 16);
+    }
+
+    private static Box mdia(int timescale, int duration, String handler, Box stbl) {
+        return new Box("mdia")
+                .child(new Box("mdhd").u32(0).u32(0).u32(0).u32(timescale).u32(duration).u16(0x55C4).u16(0))
+                .child(new Box("hdlr").u32(0).u32(0).bytes(handler.getBytes()).zeros(12).u8(0))
+                .child(new Box("minf").child(stbl));
+    }
+
+    private static byte[] hex(String s) {
+        final byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static final class Box {
+
+        private final String type;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        Box(String type) {
+            this.type = type;
+        }
+
+        Box u8(int value) {
+            content.write(value);
+            return this;
+        }
+
+        Box u16(int value) {
+            return u8(value >> 8).u8(value);
+        }
+
+        Box u32(long value) {
+            return u16((int) (value >> 16) & 0xFFFF).u16((int) value & 0xFFFF);
+        }
+
+        Box zeros(int count) {
+            return bytes(new byte[count]);
+        }
+
+        Box bytes(byte[] bytes) {
+            content.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Box child(Box box) {
+            return bytes(box.toBytes());
+        }
+
+        byte[] toBytes() {
+            final byte[] body = content.toByteArray();
+            final ByteBuffer box = ByteBuffer.allocate(8 + body.length);
+            box.putInt(8 + body.length).put(type.getBytes()).put(body);
+            return box.array();
+        }
+
+    }
+
+}
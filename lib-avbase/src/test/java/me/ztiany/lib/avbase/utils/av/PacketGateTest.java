@@ -0,0 +1,122 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PacketGateTest {
+
+    private static final long KEEP_ALIVE_MS = 1000;
+    private static final long HOLD_MS = 400;
+
+    /** 记录关键帧请求的假编码器。 */
+    private static final class FakeEncoder implements PacketGate.Encoder {
+
+        int mSyncRequests;
+
+        @Override
+        public void requestSyncFrame() {
+            mSyncRequests++;
+        }
+    }
+
+    @Test
+    public void sendsWhileChangingThenOnlyKeyFrames() {
+        final FakeEncoder encoder = new FakeEncoder();
+        final PacketGate gate = new PacketGate(encoder, KEEP_ALIVE_MS, HOLD_MS);
+
+        // 第一次回读之前全部发送。
+        assertTrue(gate.shouldSend(true, 0));
+        assertTrue(gate.shouldSend(false, 50));
+
+        gate.onReadback(true, 100);
+        gate.onReadback(false, 200);
+        assertTrue(gate.shouldSend(false, 300));
+        assertTrue(gate.shouldSend(false, 499));
+
+        // hold 结束，静止：只发送关键帧。
+        assertFalse(gate.shouldSend(false, 500));
+        assertFalse(gate.shouldSend(false, 600));
+        assertTrue(gate.shouldSend(true, 700));
+        assertFalse(gate.shouldSend(false, 800));
+        assertEquals(0, encoder.mSyncRequests);
+        assertEquals(5, gate.getSent());
+        assertEquals(3, gate.getDropped());
+    }
+
+    @Test
+    public void oneShotChangeResumesFromAKeyFrame() {
+        final FakeEncoder encoder = new FakeEncoder();
+        final PacketGate gate = new PacketGate(encoder, KEEP_ALIVE_MS, HOLD_MS);
+        gate.onReadback(true, 0);
+        assertTrue(gate.shouldSend(false, 100));
+        assertFalse(gate.shouldSend(false, 500));
+
+        // 变化的那一帧先于检测结果从编码器输出，被丢弃。
+        assertFalse(gate.shouldSend(false, 900));
+        gate.onReadback(true, 910);
+        assertEquals(1, encoder.mSyncRequests);
+        // 编码器还没来得及响应，关键帧之前的包继续丢弃，也不重复请求。
+        assertFalse(gate.shouldSend(false, 950));
+        gate.onReadback(true, 960);
+        assertEquals(1, encoder.mSyncRequests);
+
+        // 画面已经静止，关键帧来自编码器重复最后一帧，包含变化后的画面；之后 hold 内全部发送。
+        assertTrue(gate.shouldSend(true, 1000));
+        assertTrue(gate.shouldSend(false, 1100));
+        assertTrue(gate.shouldSend(false, 1359));
+        assertFalse(gate.shouldSend(false, 1360));
+        assertEquals(1, encoder.mSyncRequests);
+    }
+
+    @Test
+    public void keepAliveRequestsAKeyFrame() {
+        final FakeEncoder encoder = new FakeEncoder();
+        final PacketGate gate = new PacketGate(encoder, KEEP_ALIVE_MS, HOLD_MS);
+        gate.onReadback(true, 0);
+        assertTrue(gate.shouldSend(false, 200));
+
+        // 静止时编码器每 100ms 重复一帧，距上一次发送（200）满一个保活间隔才请求关键帧。
+        for (long now = 500; now < 1200; now += 100) {
+            assertFalse(gate.shouldSend(false, now));
+        }
+        assertEquals(0, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 1200));
+        assertEquals(1, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 1300));
+        assertTrue(gate.shouldSend(true, 1400));
+        // 保活的关键帧不恢复发送。
+        assertFalse(gate.shouldSend(false, 1500));
+
+        // 下一次保活以 1400 的关键帧为准；请求没有得到响应时，一个保活间隔后再次请求。
+        for (long now = 1600; now < 2400; now += 100) {
+            assertFalse(gate.shouldSend(false, now));
+        }
+        assertEquals(1, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 2400));
+        assertEquals(2, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 3300));
+        assertEquals(2, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 3400));
+        assertEquals(3, encoder.mSyncRequests);
+    }
+
+    @Test
+    public void openSendsEverythingFromTheNextKeyFrame() {
+        final FakeEncoder encoder = new FakeEncoder();
+        final PacketGate gate = new PacketGate(encoder, KEEP_ALIVE_MS, HOLD_MS);
+        gate.onReadback(true, 0);
+        assertFalse(gate.shouldSend(false, 500));
+
+        gate.open(600);
+        assertEquals(1, encoder.mSyncRequests);
+        assertFalse(gate.shouldSend(false, 650));
+        assertTrue(gate.shouldSend(true, 700));
+        assertTrue(gate.shouldSend(false, 10_000));
+        assertTrue(gate.shouldSend(false, 100_000));
+        assertEquals(1, encoder.mSyncRequests);
+    }
+
+}
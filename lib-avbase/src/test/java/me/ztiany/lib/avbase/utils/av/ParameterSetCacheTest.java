@@ -0,0 +1,90 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterSetCacheTest {
+
+    private static final byte[] H265_CONFIG = {
+            0, 0, 0, 1, 0x40, 0x01, 0x0C,
+            0, 0, 0, 1, 0x42, 0x01, 0x01,
+            0, 0, 1, 0x44, 0x01, (byte) 0xC1
+    };
+    private static final byte[] H265_IDR = {0, 0, 0, 1, 0x26, 0x01, (byte) 0xAF, 0x11};
+    private static final byte[] H265_P = {0, 0, 1, 0x02, 0x01, (byte) 0xD0, 0x22};
+
+    @Test
+    public void injectsCachedParameterSetsBeforeKeyFrames() {
+        final ParameterSetCache cache = new ParameterSetCache(ParameterSetCache.CODEC_H265);
+        assertTrue(cache.process(ByteBuffer.wrap(H265_CONFIG)).isEmpty());
+        assertTrue(cache.hasParameterSets());
+
+        for (int i = 0; i < 2; i++) {
+            final ByteBuffer idr = ByteBuffer.wrap(H265_IDR);
+            List<ByteBuffer> buffers = cache.process(idr);
+            assertTrue(cache.isKeyFrame());
+            assertEquals(2, buffers.size());
+            assertArrayEquals(H265_CONFIG, buffers.get(0));
+            assertTrue(buffers.get(1) == idr);
+            // 传输层读完之后，下一次仍然是完整的参数集。
+            buffers.get(0).position(buffers.get(0).limit());
+
+            buffers = cache.process(ByteBuffer.wrap(H265_P));
+            assertFalse(cache.isKeyFrame());
+            assertEquals(1, buffers.size());
+        }
+        assertEquals(2, cache.getInjectedCount());
+    }
+
+    @Test
+    public void keyFrameCarryingItsOwnParameterSetsIsSentAsIs() {
+        final byte[] frame = {
+                0, 0, 0, 1, 0x09, (byte) 0xF0,
+                0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1E,
+                0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80,
+                0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84
+        };
+        final ParameterSetCache cache = new ParameterSetCache(ParameterSetCache.CODEC_H264);
+        final List<ByteBuffer> buffers = cache.process(ByteBuffer.wrap(frame));
+        assertEquals(1, buffers.size());
+        assertTrue(cache.isKeyFrame());
+        assertEquals(0, cache.getInjectedCount());
+        // 只缓存 SPS/PPS，不包括前面的 AUD。
+        assertEquals(15, cache.getParameterSets().remaining());
+    }
+
+    @Test
+    public void framesWithoutStartCodeAreForwardedUnchanged() {
+        final ParameterSetCache cache = new ParameterSetCache(ParameterSetCache.CODEC_H265);
+        cache.process(ByteBuffer.wrap(H265_CONFIG));
+        final byte[][] frames = {
+                {0x26, 0x01, (byte) 0xAF, 0x11},
+                {0, 0, 2, 0x26, 0x01},
+                {0, 0},
+                {0, 0, 1},
+                {}
+        };
+        for (byte[] data : frames) {
+            final ByteBuffer frame = ByteBuffer.wrap(data);
+            final List<ByteBuffer> buffers = cache.process(frame);
+            assertEquals(1, buffers.size());
+            assertTrue(buffers.get(0) == frame);
+            assertFalse(cache.isKeyFrame());
+        }
+        assertEquals(0, cache.getInjectedCount());
+    }
+
+    private static void assertArrayEquals(byte[] expected, ByteBuffer actual) {
+        assertEquals(expected.length, actual.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual.get(actual.position() + i));
+        }
+    }
+
+}
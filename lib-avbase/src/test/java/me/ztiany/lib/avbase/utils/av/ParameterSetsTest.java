@@ -0,0 +1,216 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterSetsTest {
+
+    /** 手机硬编码输出的 SPS/PPS（1080x1920，High@4.0，右侧裁剪 8 像素）。 */
+    private static final String H264_SPS = "67640028ACB402201E3CBCA41418181B4284D4";
+    private static final String H264_PPS = "68EE06E2C0";
+
+    @Test
+    public void readsExpGolombAcrossEmulationPrevention() {
+        final BitWriter writer = new BitWriter();
+        writer.u(0, 16).u(1, 8).ue(0).ue(1).ue(254).se(-3).se(7).u(0, 16).u(2, 2).ue(65534).u(0xCAFEBABEL, 32);
+        final byte[] nal = writer.toNal();
+
+        // 00 00 01 写入时变为 00 00 03 01。
+        assertEquals(3, nal[2]);
+        final BitReader reader = new BitReader(nal, 0, nal.length);
+        assertEquals(0, reader.readBits(16));
+        assertEquals(1, reader.readBits(8));
+        assertEquals(0, reader.readUE());
+        assertEquals(1, reader.readUE());
+        assertEquals(254, reader.readUE());
+        assertEquals(-3, reader.readSE());
+        assertEquals(7, reader.readSE());
+        assertEquals(0, reader.readBits(16));
+        assertEquals(2, reader.readBits(2));
+        assertEquals(65534, reader.readUE());
+        assertEquals(0xCAFEBABEL, reader.readUnsignedInt());
+        assertEquals(writer.bits, reader.getBitsRead());
+    }
+
+    @Test
+    public void parsesH264Sps() {
+        final H264ParameterSets.Sps sps = H264ParameterSets.parseSps(ByteBuffer.wrap(hex(H264_SPS)));
+        assertEquals(H264ParameterSets.PROFILE_HIGH, sps.getProfileIdc());
+        assertEquals(40, sps.getLevelIdc());
+        assertEquals(1088, sps.getCodedWidth());
+        assertEquals(1920, sps.getCodedHeight());
+        assertEquals(1080, sps.getWidth());
+        assertEquals(1920, sps.getHeight());
+        assertEquals(8, sps.getCropRight());
+        assertEquals(1, sps.getMaxNumRefFrames());
+        assertEquals(0, sps.getMaxNumReorderFrames());
+
+        final H264ParameterSets.Pps pps = H264ParameterSets.parsePps(ByteBuffer.wrap(hex(H264_PPS)));
+        assertEquals(0, pps.getSpsId());
+        assertTrue(pps.isEntropyCodingModeFlag());
+    }
+
+    @Test
+    public void parsesH264VuiTiming() {
+        final BitWriter writer = new BitWriter();
+        writer.u(0x67, 8).u(66, 8).u(0xC0, 8).u(30, 8).ue(0);
+        writer.ue(0).ue(0).ue(0).ue(3).u(0, 1);
+        // 640x360：23 行宏块，底部裁剪 8 行。
+        writer.ue(39).ue(22).u(1, 1).u(1, 1).u(1, 1).ue(0).ue(0).ue(0).ue(4);
+        writer.u(1, 1);//vui
+        writer.u(1, 1).u(255, 8).u(4, 16).u(3, 16);
+        writer.u(0, 1).u(0, 1).u(0, 1);
+        writer.u(1, 1).u(1001, 32).u(60000, 32).u(1, 1);
+        writer.u(0, 1).u(0, 1).u(0, 1);
+        writer.u(1, 1).u(1, 1).ue(0).ue(0).ue(16).ue(16).ue(2).ue(4);
+        final H264ParameterSets.Sps sps = H264ParameterSets.parseSps(ByteBuffer.wrap(writer.toNal()));
+        assertEquals(640, sps.getWidth());
+        assertEquals(360, sps.getHeight());
+        assertEquals(4, sps.getSarWidth());
+        assertEquals(3, sps.getSarHeight());
+        assertEquals(29.97, sps.getFrameRate(), 0.01);
+        assertTrue(sps.isFixedFrameRate());
+        assertEquals(2, sps.getMaxNumReorderFrames());
+        assertEquals(4, sps.getMaxDecFrameBuffering());
+    }
+
+    @Test
+    public void parsesH265ParameterSets() {
+        final BitWriter vps = new BitWriter();
+        vps.u(NAL_HEADER_VPS, 16).u(0, 4).u(3, 2).u(0, 6).u(0, 3).u(1, 1).u(0xFFFF, 16);
+        profileTierLevel(vps);
+        vps.u(1, 1).ue(4).ue(2).ue(0).u(0, 6).ue(0).u(1, 1).u(1, 32).u(25, 32).u(0, 1).u(0, 1);
+        final H265ParameterSets.Vps parsedVps = H265ParameterSets.parseVps(ByteBuffer.wrap(vps.toNal()));
+        assertEquals(H265ParameterSets.PROFILE_MAIN, parsedVps.getProfileIdc());
+        assertEquals(120, parsedVps.getLevelIdc());
+        assertEquals(2, parsedVps.getMaxNumReorderPics());
+        assertEquals(25, parsedVps.getTimeScale());
+
+        final BitWriter sps = new BitWriter();
+        sps.u(NAL_HEADER_SPS, 16).u(0, 4).u(0, 3).u(1, 1);
+        profileTierLevel(sps);
+        // 1920x1088，conformance window 底部裁剪 4 个色度行即 8 行。
+        sps.ue(0).ue(1).ue(1920).ue(1088).u(1, 1).ue(0).ue(0).ue(0).ue(4);
+        sps.ue(0).ue(0).ue(4).u(1, 1).ue(4).ue(2).ue(0);
+        sps.ue(0).ue(3).ue(0).ue(3).ue(1).ue(1);
+        sps.u(1, 1).u(1, 1);//scaling list
+        for (int sizeId = 0; sizeId < 4; sizeId++) {
+            for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+                if (matrixId == 0) {
+                    sps.u(1, 1);
+                    if (sizeId > 1) {
+                        sps.se(8);
+                    }
+                    for (int i = 0; i < Math.min(64, 1 << (4 + (sizeId << 1))); i++) {
+                        sps.se(i % 2 == 0 ? 1 : -1);
+                    }
+                } else {
+                    sps.u(0, 1).ue(0);
+                }
+            }
+        }
+        sps.u(0, 1).u(1, 1).u(0, 1);//amp, sao, pcm
+        // 两组短期参考：第二组由第一组预测。
+        sps.ue(2);
+        sps.ue(2).ue(1).ue(0).u(1, 1).ue(1).u(1, 1).ue(0).u(0, 1);
+        sps.u(1, 1).u(0, 1).ue(0).u(1, 1).u(0, 1).u(1, 1).u(1, 1).u(0, 1).u(0, 1);
+        sps.u(0, 1);//long term
+        sps.u(1, 1).u(1, 1);
+        sps.u(1, 1);//vui
+        sps.u(1, 1).u(1, 8).u(0, 1).u(1, 1).u(5, 3).u(1, 1).u(1, 1).u(1, 8).u(1, 8).u(1, 8).u(0, 1);
+        sps.u(0, 3).u(0, 1).u(1, 1).u(1001, 32).u(30000, 32).u(0, 1).u(0, 1);
+        final H265ParameterSets.Sps parsedSps = H265ParameterSets.parseSps(ByteBuffer.wrap(sps.toNal()));
+        assertEquals(1920, parsedSps.getWidth());
+        assertEquals(1080, parsedSps.getHeight());
+        assertEquals(1088, parsedSps.getCodedHeight());
+        assertEquals(5, parsedSps.getMaxDecPicBuffering());
+        assertEquals(2, parsedSps.getMaxNumReorderPics());
+        assertTrue(parsedSps.isFullRange());
+        assertEquals(1, parsedSps.getMatrixCoefficients());
+        assertEquals(29.97, parsedSps.getFrameRate(), 0.01);
+
+        final BitWriter pps = new BitWriter();
+        pps.u(NAL_HEADER_PPS, 16).ue(0).ue(0).u(0, 1).u(0, 1).u(0, 3).u(1, 1).u(0, 1).u(1, 1);
+        final H265ParameterSets.Pps parsedPps = H265ParameterSets.parsePps(ByteBuffer.wrap(pps.toNal()));
+        assertEquals(0, parsedPps.getSpsId());
+        assertFalse(parsedPps.isDependentSliceSegmentsEnabled());
+    }
+
+    private static final int NAL_HEADER_VPS = 0x4001;
+    private static final int NAL_HEADER_SPS = 0x4201;
+    private static final int NAL_HEADER_PPS = 0x4401;
+
+    /** Main profile，level 4.0，没有子层。 */
+    private static void profileTierLevel(BitWriter writer) {
+        writer.u(0, 2).u(0, 1).u(1, 5).u(0x60000000L, 32).u(0xB, 4).u(0, 44).u(120, 8);
+    }
+
+    private static byte[] hex(String s) {
+        final byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /** 按位写入，toNal 时加上 rbsp_trailing_bits 和防竞争字节。 */
+    private static final class BitWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current;
+        private int currentBits;
+        long bits;
+
+        BitWriter u(long value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >>> i) & 1);
+                bits++;
+                if (++currentBits == 8) {
+                    bytes.write(current);
+                    current = 0;
+                    currentBits = 0;
+                }
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            final long codeNum = value + 1L;
+            final int length = 64 - Long.numberOfLeadingZeros(codeNum);
+            return u(0, length - 1).u(codeNum, length);
+        }
+
+        BitWriter se(int value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        byte[] toNal() {
+            final long dataBits = bits;
+            u(1, 1);
+            while (currentBits != 0) {
+                u(0, 1);
+            }
+            bits = dataBits;
+            final byte[] rbsp = bytes.toByteArray();
+            final ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            int zeros = 0;
+            for (byte b : rbsp) {
+                if (zeros >= 2 && (b & 0xFF) <= 3) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PcmQueueMixerTest {
+
+    private static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 4096;
+    /** 两个输入的长度不同，较短的输入结束后按静音处理。 */
+    private static final int[] LENGTHS = {48_017, 30_001};
+    private static final float[] GAINS = {1f, 0.5f};
+
+    @Test
+    public void concurrentProducersMatchSingleThreadedPath() throws Exception {
+        final byte[] expected = mixSingleThreaded();
+        assertEquals(LENGTHS[0] * CHANNELS * 2, expected.length);
+        // 较短的输入结束之后，输出就是第一个输入本身。
+        final ByteBuffer tail = ByteBuffer.wrap(expected).order(ByteOrder.LITTLE_ENDIAN);
+        for (int frame = LENGTHS[1]; frame < LENGTHS[0]; frame++) {
+            assertEquals(sample(0, frame, 0), tail.getShort(frame * CHANNELS * 2));
+            assertEquals(sample(0, frame, 1), tail.getShort(frame * CHANNELS * 2 + 2));
+        }
+
+        // 每个输入一个线程，预算很小：生产者频繁等待消费者，超出的部分溢出到文件。
+        for (int round = 0; round < 20; round++) {
+            final File[] spills = new File[LENGTHS.length];
+            final PcmQueue[] queues = new PcmQueue[LENGTHS.length];
+            final Thread[] threads = new Thread[LENGTHS.length];
+            try {
+                for (int i = 0; i < LENGTHS.length; i++) {
+                    spills[i] = File.createTempFile("mixer", ".pcm");
+                    queues[i] = new PcmQueue(CHANNELS, BLOCK_FRAMES * CHANNELS * 2, spills[i]);
+                    threads[i] = queues[i].startProducer(new FakeDecoder(i, queues[i], round), 2L * BLOCK_FRAMES, "producer-" + i);
+                }
+                assertArrayEquals(expected, drain(new PcmQueueMixer(queues, GAINS, BLOCK_FRAMES)));
+            } finally {
+                for (int i = 0; i < LENGTHS.length; i++) {
+                    if (queues[i] != null) {
+                        queues[i].close();
+                    }
+                    if (threads[i] != null) {
+                        threads[i].join();
+                    }
+                    if (spills[i] != null) {
+                        //noinspection ResultOfMethodCallIgnored
+                        spills[i].delete();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void producerFailureReachesTheMixer() throws Exception {
+        final PcmQueue[] queues = {new PcmQueue(CHANNELS, 1 << 20, null), new PcmQueue(CHANNELS, 1 << 20, null)};
+        final FakeDecoder failing = new FakeDecoder(1, queues[1], 0) {
+            @Override
+            public boolean step() throws IOException {
+                throw new IOException("decoder error");
+            }
+        };
+        final Thread[] threads = {
+                queues[0].startProducer(new FakeDecoder(0, queues[0], 0), Long.MAX_VALUE, "producer-0"),
+                queues[1].startProducer(failing, Long.MAX_VALUE, "producer-1")
+        };
+        try {
+            drain(new PcmQueueMixer(queues, GAINS, BLOCK_FRAMES));
+            throw new AssertionError("expected IOException");
+        } catch (IOException expected) {
+            assertEquals("decoder error", expected.getCause().getMessage());
+        } finally {
+            for (int i = 0; i < queues.length; i++) {
+                queues[i].close();
+                threads[i].join();
+            }
+        }
+        assertTrue(failing.mReleased);
+    }
+
+    /** 原来的单线程路径：各输入依次在调用线程中解码完，再混音。 */
+    private static byte[] mixSingleThreaded() throws IOException {
+        final PcmQueue[] queues = new PcmQueue[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            queues[i] = new PcmQueue(CHANNELS, Long.MAX_VALUE, null);
+            final FakeDecoder decoder = new FakeDecoder(i, queues[i], 0);
+            decoder.start();
+            while (decoder.step()) {
+                // 解码到结束
+            }
+            decoder.release();
+            queues[i].finish();
+        }
+        return drain(new PcmQueueMixer(queues, GAINS, BLOCK_FRAMES));
+    }
+
+    private static byte[] drain(PcmQueueMixer mixer) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 与编码器的输入缓冲区一样，每次的大小不一定是整块。
+        final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_FRAMES * CHANNELS * 2);
+        for (int reads = 0; ; reads++) {
+            buffer.clear();
+            buffer.limit(reads % 3 == 2 ? (BLOCK_FRAMES - reads % 1000) * CHANNELS * 2 : buffer.capacity());
+            final int size = mixer.read(buffer);
+            if (size == 0) {
+                return out.toByteArray();
+            }
+            assertEquals(size, buffer.position());
+            out.write(buffer.array(), 0, size);
+        }
+    }
+
+    private static short sample(int input, int frame, int channel) {
+        final int value = (input + 1) * 1000 + frame % 1000;
+        return (short) (channel == 0 ? value : -value);
+    }
+
+    /** 每一步输出长度随机的一段，相当于解码器每次输出的帧数不固定。 */
+    private static class FakeDecoder implements PcmQueue.Producer {
+
+        private final int mInput;
+        private final PcmQueue mQueue;
+        private final Random mRandom;
+        private int mFrame;
+        volatile boolean mReleased;
+
+        FakeDecoder(int input, PcmQueue queue, int seed) {
+            mInput = input;
+            mQueue = queue;
+            mRandom = new Random(seed * 31L + input);
+        }
+
+        @Override
+        public void start() {
+            mFrame = 0;
+        }
+
+        @Override
+        public boolean step() throws IOException {
+            final int frames = Math.min(1 + mRandom.nextInt(1500), LENGTHS[mInput] - mFrame);
+            final short[] samples = new short[frames * CHANNELS];
+            for (int i = 0; i < frames; i++) {
+                samples[i * CHANNELS] = sample(mInput, mFrame + i, 0);
+                samples[i * CHANNELS + 1] = sample(mInput, mFrame + i, 1);
+            }
+            mQueue.write(samples, frames);
+            mFrame += frames;
+            if (mRandom.nextInt(4) == 0) {
+                Thread.yield();
+            }
+            return mFrame < LENGTHS[mInput];
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+    }
+
+}
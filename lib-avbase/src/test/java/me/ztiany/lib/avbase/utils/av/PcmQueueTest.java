@@ -0,0 +1,91 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PcmQueueTest {
+
+    private static short[] ramp(int start, int count) {
+        final short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) (start + i);
+        }
+        return samples;
+    }
+
+    @Test
+    public void orderIsKeptAcrossMemoryAndSpillFile() throws IOException {
+        final File spill = File.createTempFile("pcm-queue", ".pcm");
+        // 预算 8 个采样：第一次写入留在内存，第二次溢出到文件。
+        final PcmQueue queue = new PcmQueue(2, 16, spill);
+        queue.write(ramp(0, 6), 3);
+        queue.write(ramp(6, 6), 3);
+        assertEquals(12, queue.getSpilledBytes());
+        assertEquals(6, queue.getBufferedFrames());
+
+        final short[] out = new short[8];
+        assertEquals(4, queue.read(out, 4));
+        assertArrayEquals(ramp(0, 8), out);
+
+        // 文件中还有数据，新写入继续追加到文件后面。
+        queue.write(ramp(12, 4), 2);
+        assertEquals(20, queue.getSpilledBytes());
+        queue.finish();
+
+        final short[] rest = new short[8];
+        assertEquals(4, queue.read(rest, 4));
+        assertArrayEquals(ramp(8, 8), rest);
+        assertEquals(0, queue.read(rest, 4));
+
+        queue.close();
+        assertFalse(spill.exists());
+    }
+
+    @Test
+    public void readBlocksUntilProducerFinishes() throws Exception {
+        final PcmQueue queue = new PcmQueue(1, 1024, null);
+        final Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 10; i++) {
+                    queue.write(ramp(i * 10, 10), 10);
+                }
+                queue.finish();
+            } catch (IOException e) {
+                queue.fail(e);
+            }
+        });
+        producer.start();
+
+        final short[] out = new short[64];
+        int total = 0;
+        int read;
+        while ((read = queue.read(out, 64)) > 0) {
+            for (int i = 0; i < read; i++) {
+                assertEquals(total + i, out[i]);
+            }
+            total += read;
+        }
+        producer.join();
+        assertEquals(100, total);
+    }
+
+    @Test
+    public void producerFailureReachesConsumer() {
+        final PcmQueue queue = new PcmQueue(1, 1024, null);
+        queue.fail(new IllegalStateException("decoder"));
+        try {
+            queue.read(new short[4], 4);
+            assertTrue(false);
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+}
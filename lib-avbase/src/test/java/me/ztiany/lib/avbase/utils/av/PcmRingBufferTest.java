@@ -0,0 +1,67 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void wrapsAroundAndDropsWholeFramesOnOverflow() {
+        final PcmRingBuffer ring = new PcmRingBuffer(6, 4);
+        assertEquals(8, ring.getCapacity());
+
+        assertEquals(4, ring.write(new byte[]{1, 2, 3, 4}, 0, 4));
+        final byte[] out = new byte[8];
+        assertEquals(4, ring.read(out, 0, 8));
+
+        // 写入位置从 4 开始，跨过数组末尾；12 字节只能放下 8 字节。
+        assertEquals(8, ring.write(new byte[]{5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, 0, 12));
+        assertEquals(4, ring.getOverflowBytes());
+        assertEquals(1, ring.getOverflowCount());
+        assertEquals(8, ring.getHighWaterMark());
+
+        // 只读出整帧。
+        assertEquals(4, ring.read(ByteBuffer.wrap(out, 0, 6)));
+        assertEquals(4, ring.read(out, 4, 4));
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, out);
+        assertEquals(12, ring.getReadPosition());
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void producerAndConsumerOnDifferentThreads() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(1024, 1);
+        final int total = 1 << 20;
+        final Thread producer = new Thread(() -> {
+            final byte[] chunk = new byte[100];
+            int next = 0;
+            while (next < total) {
+                final int len = Math.min(chunk.length, total - next);
+                for (int i = 0; i < len; i++) {
+                    chunk[i] = (byte) (next + i);
+                }
+                next += ring.write(chunk, 0, len);
+            }
+        });
+        producer.start();
+
+        final byte[] out = new byte[333];
+        int received = 0;
+        while (received < total) {
+            ring.awaitReadable(1_000_000L);
+            final int n = ring.read(out, 0, out.length);
+            for (int i = 0; i < n; i++) {
+                assertEquals((byte) (received + i), out[i]);
+            }
+            received += n;
+        }
+        producer.join();
+        assertEquals(total, ring.getWritePosition());
+        assertEquals(ring.getOverflowBytes() > 0, ring.getOverflowCount() > 0);
+    }
+
+}
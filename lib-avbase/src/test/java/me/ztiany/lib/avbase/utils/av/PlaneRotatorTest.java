@@ -0,0 +1,187 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 分块旋转内核与逐像素映射的对比。尺寸不是 {@link PlaneRotator#TILE} 的整数倍，覆盖完整的块和边缘不完整的块；
+ * 源平面的行尾有填充，目标平面中不属于本分量的字节必须保持不变。
+ */
+public class PlaneRotatorTest {
+
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 98;
+    private static final int ROW_PADDING = 10;
+    private static final int SRC_OFFSET = 5;
+    private static final int DST_OFFSET = 3;
+    private static final byte UNTOUCHED = (byte) 0xEE;
+
+    @Test
+    public void rotateMatchesPerPixelMapping() {
+        forEachParallelism(() -> {
+            for (int srcPixelStride : new int[]{1, 2}) {
+                for (int dstPixelStride : new int[]{1, 2}) {
+                    final int srcRowStride = WIDTH * srcPixelStride + ROW_PADDING;
+                    final byte[] src = randomBytes(SRC_OFFSET + srcRowStride * HEIGHT);
+                    forEachOrientation((rotation, mirror) -> {
+                        final int dstRowStride = outWidth(rotation) * dstPixelStride;
+                        final byte[] dst = filled(DST_OFFSET + dstRowStride * outHeight(rotation));
+                        PlaneRotator.rotate(
+                                src, SRC_OFFSET, srcRowStride, srcPixelStride,
+                                dst, DST_OFFSET, dstRowStride, dstPixelStride,
+                                WIDTH, HEIGHT, rotation, mirror
+                        );
+                        return dst;
+                    }, (rotation, mirror) -> {
+                        final int dstRowStride = outWidth(rotation) * dstPixelStride;
+                        final byte[] expected = filled(DST_OFFSET + dstRowStride * outHeight(rotation));
+                        mapPixels(src, SRC_OFFSET, srcRowStride, srcPixelStride, expected, DST_OFFSET, dstRowStride, dstPixelStride, 0, rotation, mirror);
+                        return expected;
+                    });
+                }
+            }
+        });
+    }
+
+    @Test
+    public void rotatePairInterleavesBothSources() {
+        forEachParallelism(() -> {
+            // 交错的源（NV12/NV21 的 UV 平面，同一个数组错开一个字节），以及两个独立的 planar 源。
+            final int interleavedStride = WIDTH * 2 + ROW_PADDING;
+            final byte[] interleaved = randomBytes(SRC_OFFSET + interleavedStride * HEIGHT);
+            final int planarStride = WIDTH + ROW_PADDING;
+            final byte[] planarU = randomBytes(planarStride * HEIGHT);
+            final byte[] planarV = randomBytes(planarStride * HEIGHT);
+            final Object[][] sources = {
+                    {interleaved, SRC_OFFSET, interleaved, SRC_OFFSET + 1, interleavedStride, 2},
+                    {interleaved, SRC_OFFSET + 1, interleaved, SRC_OFFSET, interleavedStride, 2},
+                    {planarU, 0, planarV, 0, planarStride, 1},
+            };
+            for (Object[] source : sources) {
+                final byte[] src0 = (byte[]) source[0];
+                final int offset0 = (int) source[1];
+                final byte[] src1 = (byte[]) source[2];
+                final int offset1 = (int) source[3];
+                final int srcRowStride = (int) source[4];
+                final int srcPixelStride = (int) source[5];
+                forEachOrientation((rotation, mirror) -> {
+                    final int dstRowStride = outWidth(rotation) * 2;
+                    final byte[] dst = filled(DST_OFFSET + dstRowStride * outHeight(rotation));
+                    PlaneRotator.rotatePair(
+                            src0, offset0, src1, offset1, srcRowStride, srcPixelStride,
+                            dst, DST_OFFSET, dstRowStride,
+                            WIDTH, HEIGHT, rotation, mirror
+                    );
+                    return dst;
+                }, (rotation, mirror) -> {
+                    final int dstRowStride = outWidth(rotation) * 2;
+                    final byte[] expected = filled(DST_OFFSET + dstRowStride * outHeight(rotation));
+                    mapPixels(src0, offset0, srcRowStride, srcPixelStride, expected, DST_OFFSET, dstRowStride, 2, 0, rotation, mirror);
+                    mapPixels(src1, offset1, srcRowStride, srcPixelStride, expected, DST_OFFSET, dstRowStride, 2, 1, rotation, mirror);
+                    return expected;
+                });
+            }
+        });
+    }
+
+    @Test
+    public void rejectsUnsupportedRotation() {
+        for (int rotation : new int[]{-90, 45, 360}) {
+            try {
+                PlaneRotator.checkRotation(rotation);
+                throw new AssertionError("expected IllegalArgumentException for " + rotation);
+            } catch (IllegalArgumentException expected) {
+                // 只支持 0、90、180、270
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 参考实现
+    ///////////////////////////////////////////////////////////////////////////
+
+    private interface Frame {
+        byte[] get(int rotation, boolean mirror);
+    }
+
+    private static void forEachOrientation(Frame actual, Frame expected) {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                assertArrayEquals("rotation = " + rotation + ", mirror = " + mirror, expected.get(rotation, mirror), actual.get(rotation, mirror));
+            }
+        }
+    }
+
+    /** 串行，以及按行切成条带并行（条带边界不在块的边界上）。 */
+    private static void forEachParallelism(Runnable test) {
+        final int parallelism = RowBands.getParallelism();
+        final int threshold = RowBands.getThreshold();
+        try {
+            test.run();
+            RowBands.setThreshold(0);
+            RowBands.setParallelism(3);
+            test.run();
+        } finally {
+            RowBands.setParallelism(parallelism);
+            RowBands.setThreshold(threshold);
+        }
+    }
+
+    /** 先水平镜像再顺时针旋转，源 (x, y) 写到目标的 (dx, dy)，dst 中的下标再加上 component。 */
+    private static void mapPixels(
+            byte[] src, int srcOffset, int srcRowStride, int srcPixelStride,
+            byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride, int component,
+            int rotation, boolean mirror
+    ) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int mx = mirror ? WIDTH - 1 - x : x;
+                final int dx;
+                final int dy;
+                switch (rotation) {
+                    case 90:
+                        dx = HEIGHT - 1 - y;
+                        dy = mx;
+                        break;
+                    case 180:
+                        dx = WIDTH - 1 - mx;
+                        dy = HEIGHT - 1 - y;
+                        break;
+                    case 270:
+                        dx = y;
+                        dy = WIDTH - 1 - mx;
+                        break;
+                    default:
+                        dx = mx;
+                        dy = y;
+                }
+                dst[dstOffset + dy * dstRowStride + dx * dstPixelStride + component] = src[srcOffset + y * srcRowStride + x * srcPixelStride];
+            }
+        }
+    }
+
+    private static int outWidth(int rotation) {
+        return rotation % 180 == 0 ? WIDTH : HEIGHT;
+    }
+
+    private static int outHeight(int rotation) {
+        return rotation % 180 == 0 ? HEIGHT : WIDTH;
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] filled(int length) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, UNTOUCHED);
+        return bytes;
+    }
+
+}
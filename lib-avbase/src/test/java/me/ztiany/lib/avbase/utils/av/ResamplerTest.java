@@ -0,0 +1,87 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest {
+
+    private static float[] sine(int rate, int frames, double frequency) {
+        final float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * i / rate));
+        }
+        return samples;
+    }
+
+    private static float[] resample(Resampler resampler, float[] input, int chunk) {
+        final float[] output = new float[resampler.getMaxOutputFrames(input.length) + resampler.getMaxOutputFrames(0)];
+        final float[] block = new float[chunk];
+        final float[] out = new float[resampler.getMaxOutputFrames(chunk)];
+        int written = 0;
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            final int frames = Math.min(chunk, input.length - offset);
+            System.arraycopy(input, offset, block, 0, frames);
+            final int produced = resampler.process(block, frames, out);
+            System.arraycopy(out, 0, output, written, produced);
+            written += produced;
+        }
+        final float[] tail = new float[resampler.getMaxOutputFrames(0)];
+        final int produced = resampler.flush(tail);
+        System.arraycopy(tail, 0, output, written, produced);
+        written += produced;
+        final float[] result = new float[written];
+        System.arraycopy(output, 0, result, 0, written);
+        return result;
+    }
+
+    @Test
+    public void outputLengthAndContentDoNotDependOnChunking() {
+        final float[] input = sine(48000, 4800, 1000);
+        final float[] whole = resample(new Resampler(48000, 44100, 1, Resampler.QUALITY_MEDIUM), input, input.length);
+        final float[] chunked = resample(new Resampler(48000, 44100, 1, Resampler.QUALITY_MEDIUM), input, 37);
+        assertEquals(4410, whole.length);
+        assertArrayEquals(whole, chunked, 0f);
+    }
+
+    @Test
+    public void sineSurvivesConversion() {
+        final float[] output = resample(new Resampler(48000, 44100, 1, Resampler.QUALITY_HIGH), sine(48000, 4800, 1000), 512);
+        final float[] expected = sine(44100, output.length, 1000);
+        // 跳过两端滤波器补 0 的部分。
+        for (int i = 32; i < output.length - 32; i++) {
+            assertEquals(expected[i], output[i], 1e-3f);
+        }
+    }
+
+    @Test
+    public void roundsToNearestPhase() {
+        // 44100 → 48001 约分后 L = 48001，超过 MAX_PHASES。
+        final int up = 48001;
+        final int phases = Resampler.MAX_PHASES;
+        assertEquals(0, Resampler.nearestPhase(0, phases, up));
+        assertEquals(0, Resampler.nearestPhase(up / phases / 2 - 1, phases, up));
+        assertEquals(1, Resampler.nearestPhase(up / phases / 2 + 1, phases, up));
+        assertEquals(512, Resampler.nearestPhase(up / 2, phases, up));
+        assertEquals(phases - 1, Resampler.nearestPhase(up - 1, phases, up));
+        for (int fraction = 0; fraction < up; fraction++) {
+            final int phase = Resampler.nearestPhase(fraction, phases, up);
+            final double exact = (double) fraction * phases / up;
+            assertTrue(Math.abs(phase - exact) <= 0.5 || phase == phases - 1);
+        }
+    }
+
+    @Test
+    public void remixFiveOneToStereo() {
+        final float[] in = {1, 0, 1, 1, 0, 0};
+        final float[] out = new float[2];
+        Resampler.remix(in, 6, out, 2, 1);
+        final float scale = 1f / (1f + 2 * 0.70710677f);
+        assertEquals((1 + 0.70710677f) * scale, out[0], 1e-6f);
+        assertEquals(0.70710677f * scale, out[1], 1e-6f);
+        assertTrue(out[0] <= 1f);
+    }
+
+}
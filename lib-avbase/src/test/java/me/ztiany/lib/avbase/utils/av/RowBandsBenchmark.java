@@ -0,0 +1,33 @@
+package me.ztiany.lib.avbase.utils.av;
+
+/**
+ * 测量 YUVUtils 旋转在不同线程数下的耗时，观察 RowBands 的并行扩展性；需要在多核的机器上运行才有意义。
+ */
+public final class RowBandsBenchmark {
+
+    public static void main(String[] args) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int[][] sizes = {{1920, 1080}, {3840, 2160}};
+        System.out.println("cores = " + cores);
+        for (int[] size : sizes) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] nv12 = new byte[width * height * 3 / 2];
+            final byte[] output = new byte[nv12.length];
+            for (int i = 0; i < nv12.length; i++) {
+                nv12[i] = (byte) (i * 31);
+            }
+            double serial = 0;
+            for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+                YUVUtils.setParallelism(threads);
+                final double millis = Benchmarks.medianMillis(20, 50, () -> YUVUtils.nv12Rotate(nv12, output, width, height, 90, false));
+                if (threads == 1) {
+                    serial = millis;
+                }
+                System.out.printf("%dx%d rot90 threads=%d: %.2f ms (x%.2f)%n", width, height, threads, millis, serial / millis);
+            }
+        }
+        YUVUtils.setParallelism(1);
+    }
+
+}
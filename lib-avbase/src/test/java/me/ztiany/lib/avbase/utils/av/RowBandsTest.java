@@ -0,0 +1,63 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+public class RowBandsTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 1000;
+
+    /**
+     * 一个线程不断修改线程数，其他线程同时通过 RowBands 处理平面：不能抛出 RejectedExecutionException，每行都恰好处理一次。
+     */
+    @Test
+    public void reconfiguresWhileRunning() throws Exception {
+        final int threshold = RowBands.getThreshold();
+        RowBands.setThreshold(0);
+        try {
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final Thread[] workers = new Thread[3];
+            for (int t = 0; t < workers.length; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 300; i++) {
+                            final AtomicIntegerArray rows = new AtomicIntegerArray(HEIGHT);
+                            RowBands.run(WIDTH, HEIGHT, (rowStart, rowEnd) -> {
+                                for (int row = rowStart; row < rowEnd; row++) {
+                                    rows.incrementAndGet(row);
+                                }
+                            });
+                            for (int row = 0; row < HEIGHT; row++) {
+                                assertEquals(1, rows.get(row));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                workers[t].start();
+            }
+            int threads = 1;
+            while (workers[0].isAlive() || workers[1].isAlive() || workers[2].isAlive()) {
+                threads = threads % 4 + 1;
+                RowBands.setParallelism(threads);
+                Thread.yield();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            if (error.get() != null) {
+                throw new AssertionError(error.get());
+            }
+        } finally {
+            RowBands.setParallelism(1);
+            RowBands.setThreshold(threshold);
+        }
+    }
+
+}
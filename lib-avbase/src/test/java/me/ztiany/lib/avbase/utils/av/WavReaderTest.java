@@ -0,0 +1,203 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WavReaderTest {
+
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    @Test
+    public void skipsUnknownChunksAndConverts24Bit() throws IOException {
+        // -1.0、0.5、约 -0.5、0 的 24 位小端采样，单声道。
+        final byte[] samples = {0x00, 0x00, (byte) 0x80, 0x00, 0x00, 0x40, 0x01, 0x00, (byte) 0xC0, 0x00, 0x00, 0x00};
+        final File file = write(riff(
+                // 奇数大小的 chunk 后有一个填充字节。
+                chunk("JUNK", new byte[3]),
+                chunk("fmt ", fmt(WavReader.FORMAT_PCM, 1, 48000, 24)),
+                chunk("fact", le(4).putInt(4).array()),
+                chunk("LIST", list("INAM", "title", "IART", "me")),
+                chunk("data", samples),
+                chunk("smpl", new byte[8])));
+        try (WavReader reader = new WavReader(file)) {
+            assertEquals(WavReader.FORMAT_PCM, reader.getFormat());
+            assertEquals(24, reader.getBitsPerSample());
+            assertEquals(3, reader.getBlockAlign());
+            assertEquals(4, reader.getFactSampleLength());
+            assertEquals("title", reader.getInfo().get("INAM"));
+            assertEquals("me", reader.getInfo().get("IART"));
+            assertEquals(12 + 12 + 24 + 12 + 8 + 30 + 8, reader.getDataOffset());
+            assertEquals(12, reader.getDataSize());
+
+            final float[] floats = new float[8];
+            assertEquals(4, reader.readFloats(floats, 1, 8));
+            assertArrayEquals(new float[]{0, -1f, 0.5f, -0.49999988f, 0, 0, 0, 0}, floats, 0);
+            assertEquals(-1, reader.readFloats(floats, 0, 1));
+
+            reader.seekToFrame(2);
+            final ByteBuffer bytes = ByteBuffer.allocate(8);
+            // 只读取整帧。
+            assertEquals(6, reader.read(bytes));
+            assertEquals(83, reader.getPositionUs());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readsRf64WithDs64Sizes() throws IOException {
+        final ByteBuffer data = le(16);
+        data.asFloatBuffer().put(new float[]{0.25f, -0.25f, 1f, -1f});
+        final ByteBuffer ds64 = le(28).putLong(0).putLong(16).putLong(2).putInt(0);
+        final File file = write(rf64(
+                chunk("ds64", ds64.array()),
+                chunk("fmt ", fmt(WavReader.FORMAT_IEEE_FLOAT, 2, 44100, 32)),
+                chunk("data", data.array(), MAX_UINT32)));
+        try (WavReader reader = new WavReader(file)) {
+            assertEquals(WavReader.FORMAT_IEEE_FLOAT, reader.getFormat());
+            assertEquals(16, reader.getDataSize());
+            assertEquals(2, reader.getFrameCount());
+            assertEquals(2, reader.getFactSampleLength());
+            final float[] floats = new float[4];
+            reader.asFloatBuffer().get(floats);
+            assertArrayEquals(new float[]{0.25f, -0.25f, 1f, -1f}, floats, 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readsExtensibleFormat() throws IOException {
+        final ByteBuffer fmt = le(40);
+        fmt.put(fmt(0xFFFE, 2, 96000, 32));
+        // cbSize、有效位数、声道掩码、SubFormat GUID（前两个字节为格式编号）。
+        fmt.putShort((short) 22).putShort((short) 24).putInt(0x3).putShort((short) WavReader.FORMAT_PCM);
+        final ByteBuffer data = le(8).putInt(Integer.MIN_VALUE).putInt(0x40000000);
+        final File file = write(riff(chunk("fmt ", fmt.array()), chunk("data", data.array())));
+        try (WavReader reader = new WavReader(file)) {
+            assertEquals(WavReader.FORMAT_PCM, reader.getFormat());
+            assertEquals(32, reader.getBitsPerSample());
+            assertEquals(24, reader.getValidBitsPerSample());
+            assertEquals(0x3, reader.getChannelMask());
+            final float[] floats = new float[2];
+            assertEquals(1, reader.readFloats(floats, 0, 1));
+            assertArrayEquals(new float[]{-1f, 0.5f}, floats, 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void usesFileLengthForUnpatchedSizes() throws IOException {
+        // 录制中断：data 的大小为 0，或者大于实际写入的长度，最后的半帧被丢弃。
+        final byte[] samples = {1, 0, 2, 0, 3};
+        for (long size : new long[]{0, 1000}) {
+            final File file = write(riff(chunk("fmt ", fmt(WavReader.FORMAT_PCM, 1, 8000, 16)), chunk("data", samples, size)));
+            try (WavReader reader = new WavReader(file)) {
+                assertEquals(4, reader.getDataSize());
+                final short[] shorts = new short[2];
+                reader.asShortBuffer().get(shorts);
+                assertArrayEquals(new short[]{1, 2}, shorts);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidFiles() throws IOException {
+        assertInvalid(riff(chunk("data", new byte[4])));
+        assertInvalid(riff(chunk("fmt ", fmt(WavReader.FORMAT_PCM, 1, 8000, 12)), chunk("data", new byte[4])));
+        assertInvalid(rf64(chunk("ds64", new byte[16]), chunk("fmt ", fmt(WavReader.FORMAT_PCM, 1, 8000, 16)), chunk("data", new byte[4], MAX_UINT32)));
+        final byte[] notWav = riff(chunk("fmt ", fmt(WavReader.FORMAT_PCM, 1, 8000, 16)));
+        notWav[8] = 'A';
+        assertInvalid(notWav);
+    }
+
+    private static void assertInvalid(byte[] bytes) throws IOException {
+        final File file = write(bytes);
+        try {
+            new WavReader(file).close();
+            throw new AssertionError("expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage() != null);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] fmt(int format, int channels, int sampleRate, int bits) {
+        final int blockAlign = channels * bits / 8;
+        return le(16).putShort((short) format).putShort((short) channels).putInt(sampleRate)
+                .putInt(sampleRate * blockAlign).putShort((short) blockAlign).putShort((short) bits).array();
+    }
+
+    private static byte[] list(String... entries) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("INFO".getBytes("US-ASCII"));
+        for (int i = 0; i < entries.length; i += 2) {
+            final byte[] text = (entries[i + 1] + '\0').getBytes("UTF-8");
+            out.write(chunk(entries[i], text));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(String id, byte[] body) throws IOException {
+        return chunk(id, body, body.length);
+    }
+
+    private static byte[] chunk(String id, byte[] body, long size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(id.getBytes("US-ASCII"));
+        out.write(le(4).putInt((int) size).array());
+        out.write(body);
+        // 没有回填大小的 chunk 不会有填充字节。
+        if ((body.length & 1) != 0 && size == body.length) {
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] riff(byte[]... chunks) throws IOException {
+        return container("RIFF", -1, chunks);
+    }
+
+    private static byte[] rf64(byte[]... chunks) throws IOException {
+        return container("RF64", MAX_UINT32, chunks);
+    }
+
+    private static byte[] container(String id, long size, byte[]... chunks) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("WAVE".getBytes("US-ASCII"));
+        for (byte[] chunk : chunks) {
+            body.write(chunk);
+        }
+        final byte[] bytes = body.toByteArray();
+        final ByteBuffer file = le(8 + bytes.length);
+        file.put(id.getBytes("US-ASCII")).putInt((int) (size < 0 ? bytes.length : size)).put(bytes);
+        return file.array();
+    }
+
+    private static ByteBuffer le(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static File write(byte[] bytes) throws IOException {
+        final File file = File.createTempFile("wav-reader", ".wav");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+
+}
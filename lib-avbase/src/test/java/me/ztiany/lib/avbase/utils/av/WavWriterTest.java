@@ -0,0 +1,167 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WavWriterTest {
+
+    @Test
+    public void writesStandardHeaderAndRoundTrips() throws IOException {
+        final File file = File.createTempFile("wav-writer", ".wav");
+        try {
+            final short[] samples = {1, -1, 1000, -1000, Short.MAX_VALUE, Short.MIN_VALUE};
+            try (WavWriter writer = new WavWriter(file, 44100, 2, 16)) {
+                assertEquals(0, header(file).getInt(40));
+                writer.write(samples, 0, 4);
+                writer.updateHeader();
+                // 定期回填后文件已经可以读取。
+                assertEquals(8, header(file).getInt(40));
+                writer.write(bytes(samples, 4, 2));
+                assertEquals(3, writer.getFrameCount());
+            }
+
+            final ByteBuffer header = header(file);
+            assertEquals(44 + 12, file.length());
+            assertEquals("RIFF", fourCC(header, 0));
+            assertEquals(36 + 12, header.getInt(4));
+            assertEquals("WAVE", fourCC(header, 8));
+            assertEquals("fmt ", fourCC(header, 12));
+            assertEquals(16, header.getInt(16));
+            assertEquals(WavWriter.FORMAT_PCM, header.getShort(20));
+            assertEquals(2, header.getShort(22));
+            assertEquals(44100, header.getInt(24));
+            assertEquals(44100 * 4, header.getInt(28));
+            assertEquals(4, header.getShort(32));
+            assertEquals(16, header.getShort(34));
+            assertEquals("data", fourCC(header, 36));
+            assertEquals(12, header.getInt(40));
+
+            try (WavReader reader = new WavReader(file)) {
+                assertEquals(3, reader.getFrameCount());
+                final short[] read = new short[samples.length];
+                reader.asShortBuffer().get(read);
+                assertArrayEquals(samples, read);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void padsOddDataSize() throws IOException {
+        final File file = File.createTempFile("wav-writer", ".wav");
+        try {
+            try (WavWriter writer = new WavWriter(file, 8000, 1, 8)) {
+                writer.write(new byte[]{1, 2, 3}, 0, 3);
+            }
+            final ByteBuffer header = header(file);
+            // 填充字节计入 RIFF，不计入 data。
+            assertEquals(44 + 4, file.length());
+            assertEquals(36 + 4, header.getInt(4));
+            assertEquals(3, header.getInt(40));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void switchesToRf64PastSizeLimit() throws IOException {
+        final File file = File.createTempFile("wav-writer", ".wav");
+        try {
+            // 文件头为 12 + 36 + 24 + 8 = 80 字节，把 32 位大小的上限调到 100，RIFF 大小超过 100 时切换。
+            try (WavWriter writer = new WavWriter(file, WavWriter.FORMAT_IEEE_FLOAT, 48000, 1, 32, true, 100)) {
+                writer.write(new byte[16], 0, 16);
+                writer.updateHeader();
+                ByteBuffer header = header(file);
+                assertEquals("RIFF", fourCC(header, 0));
+                assertEquals(72 + 16, header.getInt(4));
+                assertEquals("JUNK", fourCC(header, 12));
+                assertEquals(28, header.getInt(16));
+                assertEquals("fmt ", fourCC(header, 48));
+                assertEquals("data", fourCC(header, 72));
+                assertEquals(16, header.getInt(76));
+
+                writer.write(floats(0.5f, -0.25f, 1f, -1f, 0.125f, 0f, 0.75f, -0.5f, 0.25f), 0, 36);
+            }
+
+            final ByteBuffer header = header(file);
+            assertEquals(80 + 52, file.length());
+            assertEquals("RF64", fourCC(header, 0));
+            assertEquals(-1, header.getInt(4));
+            assertEquals("ds64", fourCC(header, 12));
+            assertEquals(28, header.getInt(16));
+            assertEquals(72 + 52, header.getLong(20));
+            assertEquals(52, header.getLong(28));
+            assertEquals(13, header.getLong(36));
+            assertEquals(0, header.getInt(44));
+            assertEquals(WavWriter.FORMAT_IEEE_FLOAT, header.getShort(56));
+            assertEquals(-1, header.getInt(76));
+
+            try (WavReader reader = new WavReader(file)) {
+                assertEquals(WavReader.FORMAT_IEEE_FLOAT, reader.getFormat());
+                assertEquals(80, reader.getDataOffset());
+                assertEquals(52, reader.getDataSize());
+                assertEquals(13, reader.getFactSampleLength());
+                final float[] read = new float[13];
+                reader.asFloatBuffer().get(read);
+                assertEquals(0.5f, read[4], 0);
+                assertEquals(-0.5f, read[11], 0);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void saturatesSizesWithoutRf64Reserve() throws IOException {
+        final File file = File.createTempFile("wav-writer", ".wav");
+        try {
+            try (WavWriter writer = new WavWriter(file, WavWriter.FORMAT_PCM, 8000, 1, 16, false, 40)) {
+                writer.write(new byte[48], 0, 48);
+            }
+            final ByteBuffer header = header(file);
+            assertEquals("RIFF", fourCC(header, 0));
+            assertEquals(-1, header.getInt(4));
+            assertEquals(-1, header.getInt(40));
+            try (WavReader reader = new WavReader(file)) {
+                // 大小字段饱和时以实际的文件长度为准。
+                assertEquals(48, reader.getDataSize());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ByteBuffer header(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String fourCC(ByteBuffer buffer, int index) {
+        final char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) buffer.get(index + i);
+        }
+        return new String(chars);
+    }
+
+    private static ByteBuffer bytes(short[] samples, int offset, int length) {
+        final ByteBuffer buffer = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples, offset, length);
+        return buffer;
+    }
+
+    private static byte[] floats(float... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+}
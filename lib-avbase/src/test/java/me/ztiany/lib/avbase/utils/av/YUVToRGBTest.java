@@ -0,0 +1,157 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 与按标准公式的浮点转换比较：每行的 Y 取遍 0~255，每两行换一组 U/V，覆盖查找表的全部取值。
+ */
+public class YUVToRGBTest {
+
+    private static final int WIDTH = 256;
+    /** U/V 的取值：端点、中点以及中间的若干值。 */
+    private static final int[] CHROMA = {0, 1, 16, 40, 90, 127, 128, 129, 170, 210, 240, 254, 255};
+    private static final int HEIGHT = 2 * CHROMA.length * CHROMA.length;
+
+    @Test
+    public void matchesFloatReference() {
+        for (int standard : new int[]{YUVToRGB.BT601, YUVToRGB.BT709}) {
+            for (boolean fullRange : new boolean[]{true, false}) {
+                final YUVToRGB converter = new YUVToRGB(standard, fullRange);
+                final int[] argb = new int[WIDTH * HEIGHT];
+                converter.i420ToARGB(i420(), WIDTH, HEIGHT, argb);
+                int maxError = 0;
+                for (int row = 0; row < HEIGHT; row++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        final int[] expected = reference(standard, fullRange, x, uAt(row), vAt(row));
+                        final int actual = argb[row * WIDTH + x];
+                        assertEquals(0xFF, actual >>> 24);
+                        maxError = Math.max(maxError, Math.abs(expected[0] - (actual >> 16 & 0xFF)));
+                        maxError = Math.max(maxError, Math.abs(expected[1] - (actual >> 8 & 0xFF)));
+                        maxError = Math.max(maxError, Math.abs(expected[2] - (actual & 0xFF)));
+                    }
+                }
+                assertTrue("standard " + standard + ", fullRange " + fullRange + ": max error " + maxError, maxError <= 1);
+            }
+        }
+    }
+
+    /** pixelStride 为 1（I420）与 2（NV12、NV21、带 rowStride 的 Camera2 平面）的输入结果完全相同。 */
+    @Test
+    public void pixelStridesAgree() {
+        final YUVToRGB converter = new YUVToRGB(YUVToRGB.BT601, false);
+        final int[] expected = new int[WIDTH * HEIGHT];
+        converter.i420ToARGB(i420(), WIDTH, HEIGHT, expected);
+
+        final int[] actual = new int[WIDTH * HEIGHT];
+        converter.nv12ToARGB(semiPlanar(false), WIDTH, HEIGHT, actual);
+        assertArrayEquals(expected, actual);
+        converter.nv21ToARGB(semiPlanar(true), WIDTH, HEIGHT, actual);
+        assertArrayEquals(expected, actual);
+
+        // Camera2 的交错平面：rowStride 大于宽度，U、V 是同一块内存错开 1 个字节的两个视图。
+        final int rowStride = WIDTH + 32;
+        final byte[] y = new byte[rowStride * HEIGHT];
+        final byte[] uv = new byte[rowStride * HEIGHT / 2];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                y[row * rowStride + x] = (byte) x;
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                uv[row * rowStride + 2 * x] = (byte) uAt(2 * row);
+                uv[row * rowStride + 2 * x + 1] = (byte) vAt(2 * row);
+            }
+        }
+        converter.toARGB(y, 0, rowStride, uv, 0, uv, 1, rowStride, 2, WIDTH, HEIGHT, actual, 0, WIDTH);
+        assertArrayEquals(expected, actual);
+
+        // IntBuffer 按 Bitmap 的内存排列：R、G、B、A。
+        final ByteBuffer bytes = ByteBuffer.allocate(WIDTH * HEIGHT * 4).order(ByteOrder.LITTLE_ENDIAN);
+        final IntBuffer buffer = bytes.asIntBuffer();
+        converter.nv12ToARGB(semiPlanar(false), WIDTH, HEIGHT, buffer);
+        for (int i = 0; i < expected.length; i += 97) {
+            assertEquals(expected[i] >> 16 & 0xFF, bytes.get(4 * i) & 0xFF);
+            assertEquals(expected[i] >> 8 & 0xFF, bytes.get(4 * i + 1) & 0xFF);
+            assertEquals(expected[i] & 0xFF, bytes.get(4 * i + 2) & 0xFF);
+            assertEquals(0xFF, bytes.get(4 * i + 3) & 0xFF);
+        }
+
+        // RGB565 为 ARGB 截去低位。
+        final short[] rgb565 = new short[WIDTH * HEIGHT];
+        converter.nv21ToRGB565(semiPlanar(true), WIDTH, HEIGHT, rgb565);
+        for (int i = 0; i < expected.length; i++) {
+            final int c = expected[i];
+            assertEquals((c >> 19 & 0x1F) << 11 | (c >> 10 & 0x3F) << 5 | (c >> 3 & 0x1F), rgb565[i] & 0xFFFF);
+        }
+    }
+
+    private static int uAt(int row) {
+        return CHROMA[(row / 2) % CHROMA.length];
+    }
+
+    private static int vAt(int row) {
+        return CHROMA[(row / 2) / CHROMA.length];
+    }
+
+    private static byte[] i420() {
+        final int frameSize = WIDTH * HEIGHT;
+        final byte[] i420 = new byte[frameSize * 3 / 2];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                i420[row * WIDTH + x] = (byte) x;
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                i420[frameSize + row * WIDTH / 2 + x] = (byte) uAt(2 * row);
+                i420[frameSize + frameSize / 4 + row * WIDTH / 2 + x] = (byte) vAt(2 * row);
+            }
+        }
+        return i420;
+    }
+
+    private static byte[] semiPlanar(boolean vFirst) {
+        final int frameSize = WIDTH * HEIGHT;
+        final byte[] data = new byte[frameSize * 3 / 2];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[row * WIDTH + x] = (byte) x;
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                final int index = frameSize + row * WIDTH + 2 * x;
+                data[index] = (byte) (vFirst ? vAt(2 * row) : uAt(2 * row));
+                data[index + 1] = (byte) (vFirst ? uAt(2 * row) : vAt(2 * row));
+            }
+        }
+        return data;
+    }
+
+    /** 先归一化为 E'Y、E'Pb、E'Pr，再按 R = Y + 2(1-Kr)Pr、B = Y + 2(1-Kb)Pb、G = (Y - Kr*R - Kb*B)/Kg 计算。 */
+    private static int[] reference(int standard, boolean fullRange, int y, int u, int v) {
+        final double kr = standard == YUVToRGB.BT601 ? 0.299 : 0.2126;
+        final double kb = standard == YUVToRGB.BT601 ? 0.114 : 0.0722;
+        final double luma = fullRange ? y / 255.0 : (y - 16) / 219.0;
+        final double pb = fullRange ? (u - 128) / 255.0 : (u - 128) / 224.0;
+        final double pr = fullRange ? (v - 128) / 255.0 : (v - 128) / 224.0;
+        final double r = luma + 2 * (1 - kr) * pr;
+        final double b = luma + 2 * (1 - kb) * pb;
+        final double g = (luma - kr * r - kb * b) / (1 - kr - kb);
+        return new int[]{to8Bit(r), to8Bit(g), to8Bit(b)};
+    }
+
+    private static int to8Bit(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value * 255)));
+    }
+
+}
@@ -0,0 +1,570 @@
+package me.ztiany.lib.avbase.utils.av;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 用合成的 Y/U/V 平面（每个样本的值由坐标决定，行尾的填充字节为固定标记）验证各种 rowStride/pixelStride 组合下的裁剪与旋转。
+ */
+public class YUVUtilsTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 8;
+    private static final int STRIDE = 16;
+    private static final byte PADDING = (byte) 0xEE;
+
+    /** 色度平面（75x73）也大于 {@link PlaneRotator#TILE} 且不是它的整数倍，覆盖分块旋转的边缘。 */
+    private static final int LARGE_WIDTH = 150;
+    private static final int LARGE_HEIGHT = 146;
+    private static final int LARGE_STRIDE = 160;
+    /** ByteBuffer 版本从 position 开始读取，position 之前放一些无关的字节。 */
+    private static final int BUFFER_POSITION = 7;
+
+    private static byte lumaAt(int x, int y) {
+        return (byte) (x * 7 + y * 13);
+    }
+
+    private static byte uAt(int x, int y) {
+        return (byte) (x * 3 + y * 5 + 17);
+    }
+
+    private static byte vAt(int x, int y) {
+        return (byte) (x * 11 + y * 2 + 91);
+    }
+
+    /**
+     * 模拟 Camera2 回传的平面：Y 的最后一行没有填充，U/V 与设备上一样“少了”末尾的字节。
+     */
+    private static final class Planes {
+
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+
+        /**
+         * @param pixelStride 1 为 planar；2 为交错存储。
+         * @param vFirst      交错存储时，内存中是否 V 在前（NV21 排列），否则 U 在前（NV12 排列）。
+         */
+        Planes(int pixelStride, boolean vFirst) {
+            this(WIDTH, HEIGHT, STRIDE, pixelStride, vFirst);
+        }
+
+        Planes(int width, int height, int stride, int pixelStride, boolean vFirst) {
+            y = new byte[stride * (height - 1) + width];
+            Arrays.fill(y, PADDING);
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    y[row * stride + col] = lumaAt(col, row);
+                }
+            }
+
+            final int uvWidth = width / 2;
+            final int uvHeight = height / 2;
+            if (pixelStride == 1) {
+                final int uvStride = stride / 2;
+                u = new byte[uvStride * (uvHeight - 1) + uvWidth];
+                v = new byte[u.length];
+                Arrays.fill(u, PADDING);
+                Arrays.fill(v, PADDING);
+                for (int row = 0; row < uvHeight; row++) {
+                    for (int col = 0; col < uvWidth; col++) {
+                        u[row * uvStride + col] = uAt(col, row);
+                        v[row * uvStride + col] = vAt(col, row);
+                    }
+                }
+            } else {
+                // 一块交错内存，U、V 平面是它错开一个字节的两个视图。
+                final byte[] memory = new byte[stride * (uvHeight - 1) + width];
+                Arrays.fill(memory, PADDING);
+                for (int row = 0; row < uvHeight; row++) {
+                    for (int col = 0; col < uvWidth; col++) {
+                        final int index = row * stride + col * 2;
+                        memory[index] = vFirst ? vAt(col, row) : uAt(col, row);
+                        memory[index + 1] = vFirst ? uAt(col, row) : vAt(col, row);
+                    }
+                }
+                final byte[] first = Arrays.copyOfRange(memory, 0, memory.length - 1);
+                final byte[] second = Arrays.copyOfRange(memory, 1, memory.length);
+                u = vFirst ? second : first;
+                v = vFirst ? first : second;
+            }
+        }
+    }
+
+    private static byte[] expectedI420() {
+        return expectedI420(WIDTH, HEIGHT);
+    }
+
+    private static byte[] expectedI420(int width, int height) {
+        final byte[] i420 = new byte[width * height * 3 / 2];
+        final int uvWidth = width / 2;
+        final int uvHeight = height / 2;
+        final int uStart = width * height;
+        final int vStart = uStart + uvWidth * uvHeight;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                i420[row * width + col] = lumaAt(col, row);
+            }
+        }
+        for (int row = 0; row < uvHeight; row++) {
+            for (int col = 0; col < uvWidth; col++) {
+                i420[uStart + row * uvWidth + col] = uAt(col, row);
+                i420[vStart + row * uvWidth + col] = vAt(col, row);
+            }
+        }
+        return i420;
+    }
+
+    private static byte[] expectedSemiPlanar(boolean nv21) {
+        return expectedSemiPlanar(WIDTH, HEIGHT, nv21);
+    }
+
+    private static byte[] expectedSemiPlanar(int width, int height, boolean nv21) {
+        final byte[] i420 = expectedI420(width, height);
+        final byte[] out = new byte[i420.length];
+        final int frameSize = width * height;
+        final int quarter = frameSize / 4;
+        System.arraycopy(i420, 0, out, 0, frameSize);
+        for (int i = 0; i < quarter; i++) {
+            final byte u = i420[frameSize + i];
+            final byte v = i420[frameSize + quarter + i];
+            out[frameSize + 2 * i] = nv21 ? v : u;
+            out[frameSize + 2 * i + 1] = nv21 ? u : v;
+        }
+        return out;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // CutToWidth
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void cutToWidth_planar() {
+        final Planes planes = new Planes(1, false);
+        final byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        YUVUtils.i420FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedI420(), out);
+
+        YUVUtils.nv21FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedSemiPlanar(true), out);
+
+        YUVUtils.nv12FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedSemiPlanar(false), out);
+    }
+
+    @Test
+    public void cutToWidth_interleavedVU() {
+        assertInterleaved(new Planes(2, true));
+    }
+
+    @Test
+    public void cutToWidth_interleavedUV() {
+        assertInterleaved(new Planes(2, false));
+    }
+
+    private static void assertInterleaved(Planes planes) {
+        final byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        YUVUtils.i420FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedI420(), out);
+
+        YUVUtils.nv21FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedSemiPlanar(true), out);
+
+        YUVUtils.nv12FromYUVCutToWidth(planes.y, planes.u, planes.v, out, STRIDE, WIDTH, HEIGHT);
+        assertArrayEquals(expectedSemiPlanar(false), out);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Rotation
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void i420Rotate_matchesPerPixelMapping() {
+        final byte[] i420 = expectedI420();
+        final byte[] out = new byte[i420.length];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                YUVUtils.i420Rotate(i420, out, WIDTH, HEIGHT, rotation, mirror);
+                assertArrayEquals("rotation = " + rotation + ", mirror = " + mirror, rotateI420(i420, rotation, mirror), out);
+            }
+        }
+    }
+
+    @Test
+    public void nv21Rotate_keepsUVPairs() {
+        final byte[] nv21 = expectedSemiPlanar(true);
+        final byte[] out = new byte[nv21.length];
+        YUVUtils.nv21Rotate(nv21, out, WIDTH, HEIGHT, 90, false);
+
+        // 旋转 90° 后宽为 HEIGHT，源 (x, y) 落在 (HEIGHT - 1 - y, x)。
+        assertEquals(lumaAt(0, HEIGHT - 1), out[0]);
+        final int frameSize = WIDTH * HEIGHT;
+        assertEquals(vAt(0, HEIGHT / 2 - 1), out[frameSize]);
+        assertEquals(uAt(0, HEIGHT / 2 - 1), out[frameSize + 1]);
+    }
+
+    @Test
+    public void largeFrameRotate_matchesPerPixelMapping() {
+        final int frameSize = LARGE_WIDTH * LARGE_HEIGHT;
+        final int uvWidth = LARGE_WIDTH / 2;
+        final int uvHeight = LARGE_HEIGHT / 2;
+        final byte[] frame = randomFrame(frameSize * 3 / 2);
+        final byte[] out = new byte[frame.length];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                final String message = "rotation = " + rotation + ", mirror = " + mirror;
+                // NV21/NV12：UV 成对移动，顺序不变。
+                final byte[] semiPlanar = new byte[frame.length];
+                rotatePlane(frame, 0, semiPlanar, 0, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                rotatePairs(frame, frameSize, semiPlanar, frameSize, uvWidth, uvHeight, rotation, mirror);
+                YUVUtils.nv21Rotate(frame, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                assertArrayEquals(message, semiPlanar, out);
+                YUVUtils.nv12Rotate(frame, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                assertArrayEquals(message, semiPlanar, out);
+
+                final byte[] i420 = new byte[frame.length];
+                rotatePlane(frame, 0, i420, 0, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                rotatePlane(frame, frameSize, i420, frameSize, uvWidth, uvHeight, rotation, mirror);
+                rotatePlane(frame, frameSize * 5 / 4, i420, frameSize * 5 / 4, uvWidth, uvHeight, rotation, mirror);
+                YUVUtils.i420Rotate(frame, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                assertArrayEquals(message, i420, out);
+            }
+        }
+    }
+
+    @Test
+    public void legacyRotateEntryPoints_keepTheirOutput() {
+        final byte[] frame = randomFrame(LARGE_WIDTH * LARGE_HEIGHT * 3 / 2);
+        final byte[] expected = new byte[frame.length];
+        final byte[] out = new byte[frame.length];
+        for (int rotation = 90; rotation < 360; rotation += 90) {
+            legacyNv21RotateCW(frame, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation);
+            YUVUtils.nv21RotateCW(frame, out, LARGE_WIDTH, LARGE_HEIGHT, rotation);
+            assertArrayEquals("rotation = " + rotation, expected, out);
+        }
+        // rotation 为 0 时不写入 output。
+        Arrays.fill(out, PADDING);
+        YUVUtils.nv21RotateCW(frame, out, LARGE_WIDTH, LARGE_HEIGHT, 0);
+        for (byte b : out) {
+            assertEquals(PADDING, b);
+        }
+
+        legacyNv12Rotate90CW(frame, expected, LARGE_WIDTH, LARGE_HEIGHT);
+        YUVUtils.nv12Rotate90CW(frame, out, LARGE_WIDTH, LARGE_HEIGHT);
+        assertArrayEquals(expected, out);
+
+        legacyI420Rotate90CW(frame, expected, LARGE_WIDTH, LARGE_HEIGHT);
+        YUVUtils.i420Rotate90CW(frame, out, LARGE_WIDTH, LARGE_HEIGHT);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void fusedConversion_equalsCutThenRotate() {
+        final Planes planes = new Planes(2, true);
+        final byte[] expected = new byte[WIDTH * HEIGHT * 3 / 2];
+        YUVUtils.i420Rotate(expectedI420(), expected, WIDTH, HEIGHT, 270, true);
+
+        final byte[] out = new byte[expected.length];
+        YUVUtils.i420FromYUV420888(planes.y, planes.u, planes.v, STRIDE, STRIDE, 2, out, WIDTH, HEIGHT, 270, true);
+        assertArrayEquals(expected, out);
+
+        Arrays.fill(out, (byte) 0);
+        YUVUtils.i420FromYUV420888(
+                ByteBuffer.wrap(planes.y), ByteBuffer.wrap(planes.u), ByteBuffer.wrap(planes.v),
+                STRIDE, STRIDE, 2, out, WIDTH, HEIGHT, 270, true
+        );
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void largeFrameFusedConversion_equalsCutThenRotate() {
+        final int length = LARGE_WIDTH * LARGE_HEIGHT * 3 / 2;
+        final byte[] i420 = expectedI420(LARGE_WIDTH, LARGE_HEIGHT);
+        final byte[] nv12 = expectedSemiPlanar(LARGE_WIDTH, LARGE_HEIGHT, false);
+        final byte[] nv21 = expectedSemiPlanar(LARGE_WIDTH, LARGE_HEIGHT, true);
+        final byte[] expected = new byte[length];
+        final byte[] out = new byte[length];
+        // planar、交错 VU（NV21 排列）、交错 UV（NV12 排列）。
+        final Planes[] layouts = {
+                new Planes(LARGE_WIDTH, LARGE_HEIGHT, LARGE_STRIDE, 1, false),
+                new Planes(LARGE_WIDTH, LARGE_HEIGHT, LARGE_STRIDE, 2, true),
+                new Planes(LARGE_WIDTH, LARGE_HEIGHT, LARGE_STRIDE, 2, false),
+        };
+        final int[] pixelStrides = {1, 2, 2};
+        for (int layout = 0; layout < layouts.length; layout++) {
+            final Planes planes = layouts[layout];
+            final int pixelStride = pixelStrides[layout];
+            final int uvRowStride = pixelStride == 1 ? LARGE_STRIDE / 2 : LARGE_STRIDE;
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                for (boolean mirror : new boolean[]{false, true}) {
+                    final String message = "pixelStride = " + pixelStride + ", rotation = " + rotation + ", mirror = " + mirror;
+
+                    YUVUtils.nv12Rotate(nv12, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    YUVUtils.nv12FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+                    Arrays.fill(out, (byte) 0);
+                    YUVUtils.nv12FromYUV420888(planes.y, planes.u, planes.v, out, LARGE_STRIDE, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+                    Arrays.fill(out, (byte) 0);
+                    YUVUtils.nv12FromNV21(nv21, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+
+                    YUVUtils.nv21Rotate(nv21, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    YUVUtils.nv21FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+
+                    YUVUtils.i420Rotate(i420, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    YUVUtils.i420FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+                    Arrays.fill(out, (byte) 0);
+                    YUVUtils.i420FromYUV420888(planes.y, planes.u, planes.v, out, LARGE_STRIDE, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                    assertArrayEquals(message, expected, out);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void byteBufferConversion_equalsArrayConversion() {
+        final int parallelism = RowBands.getParallelism();
+        final int threshold = RowBands.getThreshold();
+        try {
+            assertByteBuffersMatchArrays();
+            // 按行切成条带并行，条带边界不在块的边界上。
+            RowBands.setThreshold(0);
+            RowBands.setParallelism(3);
+            assertByteBuffersMatchArrays();
+        } finally {
+            RowBands.setParallelism(parallelism);
+            RowBands.setThreshold(threshold);
+        }
+    }
+
+    private static void assertByteBuffersMatchArrays() {
+        final int length = LARGE_WIDTH * LARGE_HEIGHT * 3 / 2;
+        final byte[] expected = new byte[length];
+        final byte[] out = new byte[length];
+        for (int pixelStride : new int[]{1, 2}) {
+            final Planes planes = new Planes(LARGE_WIDTH, LARGE_HEIGHT, LARGE_STRIDE, pixelStride, true);
+            final int uvRowStride = pixelStride == 1 ? LARGE_STRIDE / 2 : LARGE_STRIDE;
+            for (String kind : new String[]{"heap", "direct", "read-only"}) {
+                final ByteBuffer y = planeBuffer(planes.y, kind);
+                final ByteBuffer u = planeBuffer(planes.u, kind);
+                final ByteBuffer v = planeBuffer(planes.v, kind);
+                for (int rotation = 0; rotation < 360; rotation += 90) {
+                    for (boolean mirror : new boolean[]{false, true}) {
+                        final String message = kind + ", pixelStride = " + pixelStride + ", rotation = " + rotation + ", mirror = " + mirror;
+
+                        YUVUtils.nv12FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        Arrays.fill(out, (byte) 0);
+                        YUVUtils.nv12FromYUV420888(y, u, v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        assertArrayEquals(message, expected, out);
+
+                        YUVUtils.nv21FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        Arrays.fill(out, (byte) 0);
+                        YUVUtils.nv21FromYUV420888(y, u, v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        assertArrayEquals(message, expected, out);
+
+                        YUVUtils.i420FromYUV420888(planes.y, planes.u, planes.v, LARGE_STRIDE, uvRowStride, pixelStride, expected, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        Arrays.fill(out, (byte) 0);
+                        YUVUtils.i420FromYUV420888(y, u, v, LARGE_STRIDE, uvRowStride, pixelStride, out, LARGE_WIDTH, LARGE_HEIGHT, rotation, mirror);
+                        assertArrayEquals(message, expected, out);
+
+                        assertEquals(message, BUFFER_POSITION, y.position());
+                        assertEquals(message, BUFFER_POSITION, u.position());
+                        assertEquals(message, BUFFER_POSITION, v.position());
+                    }
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Scale
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void i420Scale_halfIsBoxAverage() {
+        final byte[] i420 = expectedI420();
+        final byte[] out = new byte[i420.length / 4];
+        YUVUtils.i420Scale(i420, WIDTH, HEIGHT, out, WIDTH / 2, HEIGHT / 2, 0, false);
+
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                final int sum = (lumaAt(2 * x, 2 * y) & 0xFF) + (lumaAt(2 * x + 1, 2 * y) & 0xFF)
+                        + (lumaAt(2 * x, 2 * y + 1) & 0xFF) + (lumaAt(2 * x + 1, 2 * y + 1) & 0xFF);
+                assertEquals((byte) ((sum + 2) >> 2), out[y * (WIDTH / 2) + x]);
+            }
+        }
+    }
+
+    @Test
+    public void scaledFromYUV420888_equalsScaleThenRotate() {
+        final Planes planes = new Planes(2, true);
+        // 12x8 → 8x6 不是 2 的幂，走双线性插值。
+        final int dstWidth = 8;
+        final int dstHeight = 6;
+        final byte[] scaled = new byte[dstWidth * dstHeight * 3 / 2];
+        YUVUtils.i420Scale(expectedI420(), WIDTH, HEIGHT, scaled, dstWidth, dstHeight, 0, false);
+
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            final byte[] expected = new byte[scaled.length];
+            YUVUtils.i420Rotate(scaled, expected, dstWidth, dstHeight, rotation, true);
+            final byte[] out = new byte[scaled.length];
+            YUVUtils.i420ScaledFromYUV420888(
+                    planes.y, planes.u, planes.v, STRIDE, STRIDE, 2, WIDTH, HEIGHT,
+                    out, dstWidth, dstHeight, rotation, true
+            );
+            assertArrayEquals("rotation = " + rotation, expected, out);
+        }
+    }
+
+    /** 平面数据从 {@link #BUFFER_POSITION} 开始，buffer 的 position 指向它。 */
+    private static ByteBuffer planeBuffer(byte[] plane, String kind) {
+        final ByteBuffer buffer = "direct".equals(kind)
+                ? ByteBuffer.allocateDirect(BUFFER_POSITION + plane.length)
+                : ByteBuffer.allocate(BUFFER_POSITION + plane.length);
+        while (buffer.position() < BUFFER_POSITION) {
+            buffer.put(PADDING);
+        }
+        buffer.put(plane);
+        buffer.position(BUFFER_POSITION);
+        return "read-only".equals(kind) ? buffer.asReadOnlyBuffer() : buffer;
+    }
+
+    private static byte[] randomFrame(int length) {
+        final byte[] frame = new byte[length];
+        new Random(length).nextBytes(frame);
+        return frame;
+    }
+
+    /** 交错的 UV 平面：每组 UV 当作一个 2 字节的像素旋转。 */
+    private static void rotatePairs(byte[] src, int srcOffset, byte[] dst, int dstOffset, int width, int height, int rotation, boolean mirror) {
+        final byte[] first = new byte[width * height];
+        final byte[] second = new byte[width * height];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = src[srcOffset + 2 * i];
+            second[i] = src[srcOffset + 2 * i + 1];
+        }
+        final byte[] rotatedFirst = new byte[first.length];
+        final byte[] rotatedSecond = new byte[second.length];
+        rotatePlane(first, 0, rotatedFirst, 0, width, height, rotation, mirror);
+        rotatePlane(second, 0, rotatedSecond, 0, width, height, rotation, mirror);
+        for (int i = 0; i < first.length; i++) {
+            dst[dstOffset + 2 * i] = rotatedFirst[i];
+            dst[dstOffset + 2 * i + 1] = rotatedSecond[i];
+        }
+    }
+
+    /** 分块旋转之前的 nv21RotateCW：逐像素计算位置，每组 UV 被写 4 次。 */
+    private static void legacyNv21RotateCW(byte[] yuv, byte[] output, int width, int height, int rotation) {
+        final int frameSize = width * height;
+        final boolean swap = rotation % 180 != 0;
+        final boolean xflip = rotation % 270 != 0;
+        final boolean yflip = rotation >= 180;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                final int yIn = j * width + i;
+                final int uIn = frameSize + (j >> 1) * width + (i & ~1);
+                final int wOut = swap ? height : width;
+                final int hOut = swap ? width : height;
+                final int iSwapped = swap ? j : i;
+                final int jSwapped = swap ? i : j;
+                final int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
+                final int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
+                final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+                output[jOut * wOut + iOut] = yuv[yIn];
+                output[uOut] = yuv[uIn];
+                output[uOut + 1] = yuv[uIn + 1];
+            }
+        }
+    }
+
+    /** 分块旋转之前的 nv12Rotate90CW。 */
+    private static void legacyNv12Rotate90CW(byte[] data, byte[] output, int width, int height) {
+        final int yLength = width * height;
+        int k = 0;
+        for (int j = 0; j < width; j++) {
+            for (int i = height - 1; i >= 0; i--) {
+                output[k++] = data[width * i + j];
+            }
+        }
+        for (int j = 0; j < width; j += 2) {
+            for (int i = (height >> 1) - 1; i >= 0; i--) {
+                output[k++] = data[yLength + width * i + j];
+                output[k++] = data[yLength + width * i + j + 1];
+            }
+        }
+    }
+
+    /** 分块旋转之前的 i420Rotate90CW。 */
+    private static void legacyI420Rotate90CW(byte[] data, byte[] output, int width, int height) {
+        final int yLength = width * height;
+        final int uLength = yLength >> 2;
+        final int uvWidth = width >> 1;
+        final int uvHeight = height >> 1;
+        int k = 0;
+        for (int j = 0; j < width; j++) {
+            for (int i = height - 1; i >= 0; i--) {
+                output[k++] = data[width * i + j];
+            }
+        }
+        for (int plane = 0; plane < 2; plane++) {
+            final int offset = yLength + plane * uLength;
+            for (int j = 0; j < uvWidth; j++) {
+                for (int i = uvHeight - 1; i >= 0; i--) {
+                    output[k++] = data[offset + uvWidth * i + j];
+                }
+            }
+        }
+    }
+
+    private static byte[] rotateI420(byte[] i420, int rotation, boolean mirror) {
+        final byte[] out = new byte[i420.length];
+        final int uvWidth = WIDTH / 2;
+        final int uvHeight = HEIGHT / 2;
+        rotatePlane(i420, 0, out, 0, WIDTH, HEIGHT, rotation, mirror);
+        rotatePlane(i420, WIDTH * HEIGHT, out, WIDTH * HEIGHT, uvWidth, uvHeight, rotation, mirror);
+        final int vStart = WIDTH * HEIGHT + uvWidth * uvHeight;
+        rotatePlane(i420, vStart, out, vStart, uvWidth, uvHeight, rotation, mirror);
+        return out;
+    }
+
+    private static void rotatePlane(byte[] src, int srcOffset, byte[] dst, int dstOffset, int width, int height, int rotation, boolean mirror) {
+        final int outWidth = rotation % 180 == 0 ? width : height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int mx = mirror ? width - 1 - x : x;
+                final int dx;
+                final int dy;
+                switch (rotation) {
+                    case 90:
+                        dx = height - 1 - y;
+                        dy = mx;
+                        break;
+                    case 180:
+                        dx = width - 1 - mx;
+                        dy = height - 1 - y;
+                        break;
+                    case 270:
+                        dx = y;
+                        dy = width - 1 - mx;
+                        break;
+                    default:
+                        dx = mx;
+                        dy = y;
+                }
+                dst[dstOffset + dy * outWidth + dx] = src[srcOffset + y * width + x];
+            }
+        }
+    }
+
+}